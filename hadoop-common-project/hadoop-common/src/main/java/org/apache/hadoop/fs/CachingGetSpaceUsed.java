@@ -81,7 +81,11 @@ public CachingGetSpaceUsed(CachingGetSpaceUsed.Builder builder)
     this.used.set(initialUsed);
   }
 
-  void init() {
+  /**
+   * Compute the initial value, if needed, and start the refresh thread.
+   * This is called by the builder once the object is constructed.
+   */
+  protected void init() {
     if (used.get() < 0) {
       used.set(0);
       refresh();
@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * A range of a file covering one or more {@link FileRange}s which are close
+ * enough to be read together.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class CombinedFileRange extends FileRangeImpl {
+  private final List<FileRange> underlying = new ArrayList<>();
+
+  public CombinedFileRange(long offset, long end, FileRange original) {
+    super(offset, (int) (end - offset));
+    underlying.add(original);
+  }
+
+  /**
+   * @return the ranges covered by this range, in the order of their offsets.
+   */
+  public List<FileRange> getUnderlying() {
+    return underlying;
+  }
+
+  /**
+   * Try to extend this range to cover another one, which starts at or after
+   * the start of the last range covered.
+   *
+   * @param otherOffset the offset of the other range
+   * @param otherEnd the end of the other range
+   * @param other the other range
+   * @param minSeek ranges which are closer than this are merged
+   * @param maxSize the maximum size of a merged range
+   * @return whether the other range is now covered by this one
+   */
+  boolean merge(long otherOffset, long otherEnd, FileRange other,
+      int minSeek, int maxSize) {
+    long end = getOffset() + getLength();
+    long newEnd = Math.max(end, otherEnd);
+    if (otherOffset - end >= minSeek || newEnd - getOffset() > maxSize) {
+      return false;
+    }
+    underlying.add(other);
+    setLength((int) (newEnd - getOffset()));
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + " covering " + underlying.size() + " ranges";
+  }
+}
@@ -34,9 +34,10 @@ public interface GetSpaceUsed {
   long getUsed() throws IOException;
 
   /**
-   * The builder class
+   * The builder class.  It may be extended to hand additional state to
+   * implementations which do not compute the space used from a path.
    */
-  final class Builder {
+  class Builder {
     static final Logger LOG = LoggerFactory.getLogger(Builder.class);
 
     static final String CLASSNAME_KEY = "fs.getspaceused.classname";
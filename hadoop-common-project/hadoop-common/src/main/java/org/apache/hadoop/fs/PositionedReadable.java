@@ -18,6 +18,9 @@
 package org.apache.hadoop.fs;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.IntFunction;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -85,4 +88,42 @@ void readFully(long position, byte[] buffer, int offset, int length)
    * the read operation completed
    */
   void readFully(long position, byte[] buffer) throws IOException;
+
+  /**
+   * Ranges closer to each other than this may be read together by
+   * {@link #readVectored}, reading the bytes between them too.
+   * @return the minimum distance between ranges read separately
+   */
+  default int minSeekForVectorReads() {
+    return 4 * 1024;
+  }
+
+  /**
+   * @return the maximum size of the ranges merged by {@link #readVectored}.
+   */
+  default int maxReadSizeForVectorReads() {
+    return 1024 * 1024;
+  }
+
+  /**
+   * Read a number of ranges of the file, possibly in parallel.  The ranges
+   * must not overlap.  The data of each range is delivered by the future
+   * set on it, in a buffer obtained from the allocator, or in a view of such
+   * a buffer covering several ranges.  Reading a range beyond the end of the
+   * file fails the future of the range with an {@link EOFException}.
+   *
+   * This does not change the current offset of a file.  The default
+   * implementation reads the ranges one after the other with
+   * {@link #readFully(long, byte[], int, int)}.
+   *
+   * @param ranges the ranges to read
+   * @param allocate the allocator of the buffers, given the size needed
+   * @throws IOException if the read cannot be issued
+   * @throws IllegalArgumentException if a range is invalid or overlaps
+   *         another
+   */
+  default void readVectored(List<? extends FileRange> ranges,
+      IntFunction<ByteBuffer> allocate) throws IOException {
+    VectoredReadUtils.readVectored(this, ranges, allocate);
+  }
 }
@@ -33,6 +33,7 @@
 import java.io.FileDescriptor;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -40,7 +41,10 @@
 import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -204,6 +208,41 @@ public long skip(long n) throws IOException {
     public FileDescriptor getFileDescriptor() throws IOException {
       return fis.getFD();
     }
+
+    /**
+     * Read the ranges, merged where they are close to each other, with
+     * positional reads on the channel of the stream.
+     */
+    @Override
+    public void readVectored(List<? extends FileRange> ranges,
+        IntFunction<ByteBuffer> allocate) throws IOException {
+      List<CombinedFileRange> combinedRanges =
+          VectoredReadUtils.mergeSortedRanges(
+              VectoredReadUtils.sortAndValidateRanges(ranges),
+              minSeekForVectorReads(), maxReadSizeForVectorReads());
+      for (FileRange range : ranges) {
+        range.setData(new CompletableFuture<>());
+      }
+      FileChannel channel = fis.getChannel();
+      for (CombinedFileRange range : combinedRanges) {
+        try {
+          ByteBuffer buffer = allocate.apply(range.getLength());
+          while (buffer.hasRemaining()) {
+            int value = channel.read(buffer,
+                range.getOffset() + buffer.position());
+            if (value < 0) {
+              throw new EOFException("End of file reached before reading "
+                  + range);
+            }
+            statistics.incrementBytesRead(value);
+          }
+          buffer.flip();
+          VectoredReadUtils.completeUnderlying(range, buffer);
+        } catch (IOException | RuntimeException e) {
+          VectoredReadUtils.failUnderlying(range, e);
+        }
+      }
+    }
   }
   
   @Override
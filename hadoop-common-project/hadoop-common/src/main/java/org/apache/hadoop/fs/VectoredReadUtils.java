@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Utilities for implementing {@link PositionedReadable#readVectored}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public final class VectoredReadUtils {
+  /** Size of the buffer used to read into direct buffers. */
+  private static final int TMP_BUFFER_SIZE = 64 * 1024;
+
+  private VectoredReadUtils() {
+  }
+
+  /**
+   * Check that the ranges have non negative offsets and lengths and that
+   * they do not overlap, and sort them by offset.
+   *
+   * @param ranges the ranges to read
+   * @return the ranges, sorted by offset
+   * @throws IllegalArgumentException if a range is invalid or overlaps
+   *         another
+   */
+  public static List<FileRange> sortAndValidateRanges(
+      List<? extends FileRange> ranges) {
+    List<FileRange> sorted = new ArrayList<>(ranges);
+    sorted.sort(Comparator.comparingLong(FileRange::getOffset));
+    FileRange prev = null;
+    for (FileRange range : sorted) {
+      if (range.getOffset() < 0 || range.getLength() < 0) {
+        throw new IllegalArgumentException("Invalid " + range);
+      }
+      if (prev != null &&
+          prev.getOffset() + prev.getLength() > range.getOffset()) {
+        throw new IllegalArgumentException(
+            "Overlapping ranges " + prev + " and " + range);
+      }
+      prev = range;
+    }
+    return sorted;
+  }
+
+  /**
+   * Merge sorted ranges which are less than minSeek bytes apart, as long as
+   * the merged range is no larger than maxSize.
+   *
+   * @param sortedRanges ranges sorted by offset
+   * @param minSeek ranges which are closer than this are merged
+   * @param maxSize the maximum size of a merged range
+   * @return the merged ranges
+   */
+  public static List<CombinedFileRange> mergeSortedRanges(
+      List<? extends FileRange> sortedRanges, int minSeek, int maxSize) {
+    List<CombinedFileRange> result = new ArrayList<>(sortedRanges.size());
+    CombinedFileRange current = null;
+    for (FileRange range : sortedRanges) {
+      long end = range.getOffset() + range.getLength();
+      if (current == null ||
+          !current.merge(range.getOffset(), end, range, minSeek, maxSize)) {
+        current = new CombinedFileRange(range.getOffset(), end, range);
+        result.add(current);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get the data of a range from the data read for a range covering it.
+   *
+   * @param readData the data read, from position 0 of the buffer
+   * @param readOffset the offset in the file of the data read
+   * @param request the range to get
+   * @return a view of the data of the range
+   */
+  public static ByteBuffer sliceTo(ByteBuffer readData, long readOffset,
+      FileRange request) {
+    int start = (int) (request.getOffset() - readOffset);
+    ByteBuffer slice = readData.duplicate();
+    slice.limit(start + request.getLength());
+    slice.position(start);
+    return slice.slice();
+  }
+
+  /**
+   * Complete the ranges covered by a merged range with the data read for it.
+   *
+   * @param combined the merged range
+   * @param data the data read for the merged range, from position 0
+   */
+  public static void completeUnderlying(CombinedFileRange combined,
+      ByteBuffer data) {
+    for (FileRange range : combined.getUnderlying()) {
+      range.getData().complete(sliceTo(data, combined.getOffset(), range));
+    }
+  }
+
+  /**
+   * Fail the ranges covered by a merged range.
+   *
+   * @param combined the merged range
+   * @param t the cause of the failure
+   */
+  public static void failUnderlying(CombinedFileRange combined, Throwable t) {
+    for (FileRange range : combined.getUnderlying()) {
+      range.getData().completeExceptionally(t);
+    }
+  }
+
+  /**
+   * Read the remaining bytes of a buffer from a position of a stream.
+   *
+   * @param stream the stream to read from
+   * @param position the position to read from
+   * @param buffer the buffer to read into
+   * @throws IOException if the read fails, or reaches the end of the stream
+   */
+  public static void readFully(PositionedReadable stream, long position,
+      ByteBuffer buffer) throws IOException {
+    if (buffer.hasArray()) {
+      stream.readFully(position, buffer.array(),
+          buffer.arrayOffset() + buffer.position(), buffer.remaining());
+      buffer.position(buffer.limit());
+      return;
+    }
+    byte[] tmp = new byte[Math.min(buffer.remaining(), TMP_BUFFER_SIZE)];
+    while (buffer.hasRemaining()) {
+      int len = Math.min(tmp.length, buffer.remaining());
+      stream.readFully(position, tmp, 0, len);
+      buffer.put(tmp, 0, len);
+      position += len;
+    }
+  }
+
+  /**
+   * Read the ranges one after the other, with
+   * {@link PositionedReadable#readFully(long, byte[], int, int)}.  This is
+   * the default implementation of {@link PositionedReadable#readVectored}.
+   *
+   * @param stream the stream to read from
+   * @param ranges the ranges to read
+   * @param allocate the allocator of the buffers of the ranges
+   * @throws IllegalArgumentException if a range is invalid or overlaps
+   *         another
+   */
+  public static void readVectored(PositionedReadable stream,
+      List<? extends FileRange> ranges, IntFunction<ByteBuffer> allocate) {
+    sortAndValidateRanges(ranges);
+    for (FileRange range : ranges) {
+      CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+      range.setData(result);
+      try {
+        ByteBuffer buffer = allocate.apply(range.getLength());
+        readFully(stream, range.getOffset(), buffer);
+        buffer.flip();
+        result.complete(buffer);
+      } catch (IOException | RuntimeException e) {
+        result.completeExceptionally(e);
+      }
+    }
+  }
+}
@@ -32,12 +32,14 @@
 
 import java.io.*;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 import static org.apache.hadoop.test.PlatformAssumptions.assumeNotWindows;
 import static org.apache.hadoop.test.PlatformAssumptions.assumeWindows;
@@ -774,4 +776,39 @@ public void testFSOutputStreamBuilderOptions() throws Exception {
         "unsupported key found", builder::build
     );
   }
+
+  @Test
+  public void testReadVectored() throws Exception {
+    final int length = 256 * 1024;
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) i;
+    }
+    FileSystem rawFs = fileSys.getRawFileSystem();
+    try (FSDataOutputStream out = rawFs.create(TEST_PATH)) {
+      out.write(data);
+    }
+    List<FileRange> ranges = Arrays.asList(
+        FileRange.createFileRange(200 * 1024, 10 * 1024),
+        FileRange.createFileRange(0, 100),
+        FileRange.createFileRange(1000, 100),
+        FileRange.createFileRange(100 * 1024, 0),
+        FileRange.createFileRange(length - 10, 100));
+    try (FSDataInputStream in = rawFs.open(TEST_PATH)) {
+      in.seek(42);
+      in.readVectored(ranges, ByteBuffer::allocateDirect);
+      for (FileRange range : ranges.subList(0, 4)) {
+        TestVectoredReadUtils.assertRangeData(range);
+      }
+      LambdaTestUtils.intercept(EOFException.class,
+          () -> {
+            try {
+              return ranges.get(4).getData().get();
+            } catch (ExecutionException e) {
+              throw (Exception) e.getCause();
+            }
+          });
+      assertEquals("Vectored reads do not move the stream", 42, in.getPos());
+    }
+  }
 }
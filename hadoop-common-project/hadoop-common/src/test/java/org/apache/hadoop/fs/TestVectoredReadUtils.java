@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link VectoredReadUtils}.
+ */
+public class TestVectoredReadUtils {
+
+  /** A stream of the bytes 0, 1, 2, ... of the given length. */
+  private static class CountingStream implements PositionedReadable {
+    private final int length;
+    private int numReads = 0;
+
+    CountingStream(int length) {
+      this.length = length;
+    }
+
+    @Override
+    public int read(long position, byte[] buffer, int offset, int len) {
+      numReads++;
+      int n = (int) Math.min(len, length - position);
+      if (n <= 0) {
+        return -1;
+      }
+      for (int i = 0; i < n; i++) {
+        buffer[offset + i] = (byte) (position + i);
+      }
+      return n;
+    }
+
+    @Override
+    public void readFully(long position, byte[] buffer, int offset, int len)
+        throws IOException {
+      if (position + len > length) {
+        throw new EOFException("Reading past " + length);
+      }
+      read(position, buffer, offset, len);
+    }
+
+    @Override
+    public void readFully(long position, byte[] buffer) throws IOException {
+      readFully(position, buffer, 0, buffer.length);
+    }
+  }
+
+  static void assertRangeData(FileRange range)
+      throws InterruptedException, ExecutionException {
+    ByteBuffer data = range.getData().get();
+    assertEquals(range.getLength(), data.remaining());
+    for (int i = 0; i < range.getLength(); i++) {
+      assertEquals((byte) (range.getOffset() + i), data.get());
+    }
+  }
+
+  @Test
+  public void testSortAndValidateRanges() {
+    FileRange a = FileRange.createFileRange(100, 10);
+    FileRange b = FileRange.createFileRange(0, 100);
+    FileRange c = FileRange.createFileRange(200, 0);
+    List<FileRange> sorted =
+        VectoredReadUtils.sortAndValidateRanges(Arrays.asList(a, c, b));
+    assertEquals(Arrays.asList(b, a, c), sorted);
+
+    try {
+      VectoredReadUtils.sortAndValidateRanges(
+          Arrays.asList(a, FileRange.createFileRange(105, 10)));
+      fail("Overlapping ranges should be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      VectoredReadUtils.sortAndValidateRanges(
+          Arrays.asList(FileRange.createFileRange(-1, 10)));
+      fail("Negative offsets should be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testMergeSortedRanges() {
+    List<FileRange> ranges = Arrays.asList(
+        FileRange.createFileRange(0, 10),
+        FileRange.createFileRange(15, 10),
+        FileRange.createFileRange(100, 10),
+        FileRange.createFileRange(110, 50),
+        FileRange.createFileRange(160, 50));
+    List<CombinedFileRange> merged =
+        VectoredReadUtils.mergeSortedRanges(ranges, 10, 100);
+    assertEquals(3, merged.size());
+    // Gaps smaller than the minimum seek are read through.
+    assertEquals(0, merged.get(0).getOffset());
+    assertEquals(25, merged.get(0).getLength());
+    assertEquals(2, merged.get(0).getUnderlying().size());
+    // Merged ranges do not grow beyond the maximum size.
+    assertEquals(100, merged.get(1).getOffset());
+    assertEquals(60, merged.get(1).getLength());
+    assertEquals(160, merged.get(2).getOffset());
+    assertEquals(50, merged.get(2).getLength());
+  }
+
+  @Test
+  public void testSliceTo() {
+    ByteBuffer data = ByteBuffer.allocate(100);
+    for (int i = 0; i < 100; i++) {
+      data.put((byte) (1000 + i));
+    }
+    data.flip();
+    ByteBuffer slice = VectoredReadUtils.sliceTo(data, 1000,
+        FileRange.createFileRange(1010, 20));
+    assertEquals(20, slice.remaining());
+    assertEquals((byte) 1010, slice.get(0));
+    assertEquals((byte) 1029, slice.get(19));
+    assertEquals(0, data.position());
+  }
+
+  @Test
+  public void testDefaultReadVectored() throws Exception {
+    CountingStream stream = new CountingStream(1000);
+    List<FileRange> ranges = Arrays.asList(
+        FileRange.createFileRange(500, 100),
+        FileRange.createFileRange(0, 10),
+        FileRange.createFileRange(990, 20));
+    stream.readVectored(ranges, ByteBuffer::allocateDirect);
+    assertRangeData(ranges.get(0));
+    assertRangeData(ranges.get(1));
+    try {
+      ranges.get(2).getData().get();
+      fail("Reading past the end of the stream should fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof EOFException);
+    }
+  }
+}
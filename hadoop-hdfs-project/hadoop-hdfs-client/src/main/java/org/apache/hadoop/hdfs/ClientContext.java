@@ -74,15 +74,24 @@ public class ClientContext {
   private final String confString;
 
   /**
-   * Caches short-circuit file descriptors, mmap regions.
+   * Caches short-circuit file descriptors, mmap regions. Replicas are spread
+   * over the caches by block ID, so that readers of different blocks do not
+   * all contend on a single cache lock. Each cache has its own
+   * DfsClientShmManager, so the number of shared memory segments allocated
+   * per DataNode is multiplied by the number of caches.
    */
-  private final ShortCircuitCache shortCircuitCache;
+  private final ShortCircuitCache[] shortCircuitCaches;
 
   /**
    * Caches TCP and UNIX domain sockets for reuse.
    */
   private final PeerCache peerCache;
 
+  /**
+   * The multiplexed connections to DataNodes.
+   */
+  private final MultiplexedConnectionPool multiplexedConnectionPool;
+
   /**
    * Stores information about socket paths.
    */
@@ -124,9 +133,16 @@ private ClientContext(String name, DfsClientConf conf,
 
     this.name = name;
     this.confString = scConf.confAsString();
-    this.shortCircuitCache = ShortCircuitCache.fromConf(scConf);
+    this.shortCircuitCaches =
+        new ShortCircuitCache[scConf.getShortCircuitCacheStripes()];
+    for (int i = 0; i < shortCircuitCaches.length; i++) {
+      shortCircuitCaches[i] = ShortCircuitCache.fromConf(scConf);
+    }
     this.peerCache = new PeerCache(scConf.getSocketCacheCapacity(),
         scConf.getSocketCacheExpiry());
+    this.multiplexedConnectionPool = new MultiplexedConnectionPool(
+        conf.getMultiplexedConnectionsMaxStreams(),
+        conf.getMultiplexedConnectionsUnsupportedExpiryMs());
     this.keyProviderCache = new KeyProviderCache(
         scConf.getKeyProviderCacheExpiryMs());
     this.useLegacyBlockReaderLocal = scConf.isUseLegacyBlockReaderLocal();
@@ -207,14 +223,39 @@ public String getConfString() {
     return confString;
   }
 
+  /**
+   * @return the first short-circuit cache, which is the only one unless
+   *         the cache is striped.
+   * @deprecated a striped cache only holds some of the replicas in each
+   *             stripe; use {@link #getShortCircuitCache(long)}.
+   */
+  @Deprecated
   public ShortCircuitCache getShortCircuitCache() {
-    return shortCircuitCache;
+    return shortCircuitCaches[0];
+  }
+
+  /**
+   * @param blockId   The ID of the block to be read.
+   * @return          The short-circuit cache responsible for the block.
+   */
+  public ShortCircuitCache getShortCircuitCache(long blockId) {
+    return shortCircuitCaches[
+        (int) Math.floorMod(blockId, (long) shortCircuitCaches.length)];
+  }
+
+  @VisibleForTesting
+  public ShortCircuitCache[] getShortCircuitCaches() {
+    return shortCircuitCaches;
   }
 
   public PeerCache getPeerCache() {
     return peerCache;
   }
 
+  public MultiplexedConnectionPool getMultiplexedConnectionPool() {
+    return multiplexedConnectionPool;
+  }
+
   public KeyProviderCache getKeyProviderCache() {
     return keyProviderCache;
   }
@@ -0,0 +1,302 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.GlobalStorageStatistics;
+import org.apache.hadoop.hdfs.DFSOpsCountStatistics.OpType;
+import org.apache.hadoop.hdfs.inotify.Event;
+import org.apache.hadoop.hdfs.inotify.EventBatch;
+import org.apache.hadoop.hdfs.inotify.MissingEventsException;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.protocolPB.PBHelperClient;
+import org.apache.hadoop.util.Daemon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of the file statuses and of the block locations of the files read
+ * by a {@link DFSClient}, for clients which look up the same files over and
+ * over, like query engines.
+ *
+ * Entries expire after a fixed time, which bounds how stale they can be.
+ * The paths changed through the client are invalidated right away, and,
+ * if enabled, so are the paths changed by other clients, as reported by the
+ * inotify event stream of the NameNode; reading it requires superuser
+ * privileges, without which only the expiry applies.
+ *
+ * Only the block locations of closed files which were fetched in full are
+ * cached, so that any range of them can be served.  As the streams reading
+ * a file update its {@link LocatedBlocks}, the cache hands out copies of it.
+ * File statuses are copied too, since the file systems set their paths.
+ */
+@InterfaceAudience.Private
+class ClientMetadataCache implements Closeable {
+  static final Logger LOG = LoggerFactory.getLogger(ClientMetadataCache.class);
+
+  private final Cache<String, HdfsFileStatus> statuses;
+  private final Cache<String, LocatedBlocks> blocks;
+  private final DFSOpsCountStatistics statistics;
+  private final Daemon inotifyTailer;
+  private volatile boolean running = true;
+
+  ClientMetadataCache(DFSClient dfsClient, long ttlMs, long maxEntries,
+      boolean tailInotify) {
+    this.statuses = CacheBuilder.newBuilder()
+        .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+        .maximumSize(maxEntries)
+        .build();
+    this.blocks = CacheBuilder.newBuilder()
+        .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+        .maximumSize(maxEntries)
+        .build();
+    // The same statistics as the ones of DistributedFileSystem.
+    this.statistics = (DFSOpsCountStatistics) GlobalStorageStatistics.INSTANCE
+        .put(DFSOpsCountStatistics.NAME, DFSOpsCountStatistics::new);
+    if (tailInotify) {
+      inotifyTailer = new Daemon(new InotifyTailer(dfsClient));
+      inotifyTailer.setName("MetadataCacheInotifyTailer-"
+          + dfsClient.getClientName());
+      inotifyTailer.start();
+    } else {
+      inotifyTailer = null;
+    }
+  }
+
+  private void countLookup(boolean hit) {
+    statistics.incrementOpCounter(
+        hit ? OpType.METADATA_CACHE_HIT : OpType.METADATA_CACHE_MISS);
+  }
+
+  /**
+   * @return the cached status of the path, or null if it is not cached
+   */
+  HdfsFileStatus getFileInfo(String src) {
+    HdfsFileStatus status = statuses.getIfPresent(src);
+    countLookup(status != null);
+    return status == null ? null : copy(status);
+  }
+
+  void putFileInfo(String src, HdfsFileStatus status) {
+    if (status != null) {
+      statuses.put(src, copy(status));
+    }
+  }
+
+  /**
+   * Copy a file status the same way it is received from the NameNode.
+   */
+  private static HdfsFileStatus copy(HdfsFileStatus status) {
+    return PBHelperClient.convert(PBHelperClient.convert(status));
+  }
+
+  /**
+   * @return the cached block locations of the path which overlap the given
+   *         range, or null if they are not cached
+   */
+  LocatedBlocks getLocatedBlocks(String src, long start, long length) {
+    LocatedBlocks cached = blocks.getIfPresent(src);
+    countLookup(cached != null);
+    if (cached == null) {
+      return null;
+    }
+    List<LocatedBlock> overlapping = new ArrayList<>();
+    long end = start + length;
+    for (LocatedBlock blk : cached.getLocatedBlocks()) {
+      if (blk.getStartOffset() < end
+          && blk.getStartOffset() + blk.getBlockSize() > start) {
+        overlapping.add(blk);
+      }
+    }
+    return new LocatedBlocks(cached.getFileLength(),
+        cached.isUnderConstruction(), overlapping,
+        cached.getLastLocatedBlock(), cached.isLastBlockComplete(),
+        cached.getFileEncryptionInfo(), cached.getErasureCodingPolicy());
+  }
+
+  /**
+   * Cache the block locations of a file if they are complete.
+   */
+  void putLocatedBlocks(String src, LocatedBlocks locatedBlocks) {
+    if (isComplete(locatedBlocks)) {
+      blocks.put(src, new LocatedBlocks(locatedBlocks.getFileLength(),
+          false, new ArrayList<>(locatedBlocks.getLocatedBlocks()),
+          locatedBlocks.getLastLocatedBlock(), true,
+          locatedBlocks.getFileEncryptionInfo(),
+          locatedBlocks.getErasureCodingPolicy()));
+    }
+  }
+
+  @VisibleForTesting
+  static boolean isComplete(LocatedBlocks locatedBlocks) {
+    if (locatedBlocks == null || locatedBlocks.isUnderConstruction()
+        || !locatedBlocks.isLastBlockComplete()) {
+      return false;
+    }
+    long covered = 0;
+    for (LocatedBlock blk : locatedBlocks.getLocatedBlocks()) {
+      if (blk.getStartOffset() != covered) {
+        return false;
+      }
+      covered += blk.getBlockSize();
+    }
+    return covered == locatedBlocks.getFileLength();
+  }
+
+  /**
+   * Invalidate a path, and the status of its parent, whose modification time
+   * changes with its children.
+   */
+  void invalidate(String src) {
+    statuses.invalidate(src);
+    blocks.invalidate(src);
+    int slash = src.lastIndexOf('/');
+    if (slash > 0) {
+      statuses.invalidate(src.substring(0, slash));
+    } else if (slash == 0 && src.length() > 1) {
+      statuses.invalidate("/");
+    }
+  }
+
+  /**
+   * Invalidate a path and, if it is a directory, all the paths under it.
+   */
+  void invalidateTree(String src) {
+    invalidate(src);
+    String prefix = src.endsWith("/") ? src : src + "/";
+    invalidatePrefix(statuses, prefix);
+    invalidatePrefix(blocks, prefix);
+  }
+
+  private static void invalidatePrefix(Cache<String, ?> cache,
+      String prefix) {
+    List<String> keys = new ArrayList<>();
+    for (String key : cache.asMap().keySet()) {
+      if (key.startsWith(prefix)) {
+        keys.add(key);
+      }
+    }
+    cache.invalidateAll(keys);
+  }
+
+  void invalidateAll() {
+    statuses.invalidateAll();
+    blocks.invalidateAll();
+  }
+
+  @VisibleForTesting
+  boolean isTailingInotify() {
+    return inotifyTailer != null && inotifyTailer.isAlive();
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    if (inotifyTailer != null) {
+      inotifyTailer.interrupt();
+    }
+    invalidateAll();
+  }
+
+  /**
+   * Invalidates the paths changed by all the clients of the NameNode.
+   */
+  private class InotifyTailer implements Runnable {
+    private final DFSClient dfsClient;
+
+    InotifyTailer(DFSClient dfsClient) {
+      this.dfsClient = dfsClient;
+    }
+
+    @Override
+    public void run() {
+      DFSInotifyEventInputStream stream;
+      try {
+        stream = dfsClient.getInotifyEventStream();
+      } catch (IOException e) {
+        LOG.warn("Failed to tail the inotify events of the NameNode, the "
+            + "metadata cache relies on expiry only", e);
+        return;
+      }
+      while (running) {
+        try {
+          EventBatch batch = stream.poll(1, TimeUnit.SECONDS);
+          if (batch != null) {
+            for (Event event : batch.getEvents()) {
+              onEvent(event);
+            }
+          }
+        } catch (MissingEventsException e) {
+          LOG.info("Missed inotify events, invalidating the metadata cache: "
+              + "{}", e.getMessage());
+          invalidateAll();
+        } catch (InterruptedException e) {
+          return;
+        } catch (IOException e) {
+          if (!running) {
+            return;
+          }
+          LOG.warn("Failed to tail the inotify events of the NameNode, the "
+              + "metadata cache relies on expiry only", e);
+          return;
+        }
+      }
+    }
+
+    private void onEvent(Event event) {
+      switch (event.getEventType()) {
+      case CREATE:
+        invalidate(((Event.CreateEvent) event).getPath());
+        break;
+      case CLOSE:
+        invalidate(((Event.CloseEvent) event).getPath());
+        break;
+      case APPEND:
+        invalidate(((Event.AppendEvent) event).getPath());
+        break;
+      case METADATA:
+        invalidate(((Event.MetadataUpdateEvent) event).getPath());
+        break;
+      case TRUNCATE:
+        invalidate(((Event.TruncateEvent) event).getPath());
+        break;
+      case UNLINK:
+        invalidateTree(((Event.UnlinkEvent) event).getPath());
+        break;
+      case RENAME:
+        Event.RenameEvent rename = (Event.RenameEvent) event;
+        invalidateTree(rename.getSrcPath());
+        invalidateTree(rename.getDstPath());
+        break;
+      default:
+        break;
+      }
+    }
+  }
+}
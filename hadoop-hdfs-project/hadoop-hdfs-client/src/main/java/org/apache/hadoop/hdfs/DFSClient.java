@@ -28,6 +28,7 @@
 import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_TEST_DROP_NAMENODE_RESPONSE_NUM_DEFAULT;
 import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_TEST_DROP_NAMENODE_RESPONSE_NUM_KEY;
 
+import java.io.BufferedInputStream;
 import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -99,6 +100,7 @@
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
 import org.apache.hadoop.hdfs.client.impl.DfsClientConf;
 import org.apache.hadoop.hdfs.client.impl.LeaseRenewer;
+import org.apache.hadoop.hdfs.net.MultiplexedConnection;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.protocol.AclException;
 import org.apache.hadoop.hdfs.protocol.AddErasureCodingPolicyResponse;
@@ -153,6 +155,7 @@
 import org.apache.hadoop.hdfs.protocol.datatransfer.sasl.DataTransferSaslUtil;
 import org.apache.hadoop.hdfs.protocol.datatransfer.sasl.SaslDataTransferClient;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.BlockOpResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
 import org.apache.hadoop.hdfs.protocolPB.PBHelperClient;
 import org.apache.hadoop.hdfs.security.token.block.BlockTokenIdentifier;
 import org.apache.hadoop.hdfs.security.token.block.DataEncryptionKey;
@@ -238,6 +241,10 @@ public class DFSClient implements java.io.Closeable, RemotePeerFactory,
       new DFSHedgedReadMetrics();
   private static ThreadPoolExecutor HEDGED_READ_THREAD_POOL;
   private static volatile ThreadPoolExecutor STRIPED_READ_THREAD_POOL;
+  private static volatile ThreadPoolExecutor VECTORED_READ_THREAD_POOL;
+  private final DataNodeReadLatencyTracker readLatencyTracker;
+  private final HedgedReadBudget hedgedReadBudget;
+  private final ClientMetadataCache metadataCache;
   private final int smallBufferSize;
   private final long serverDefaultsValidityPeriod;
 
@@ -389,9 +396,37 @@ public DFSClient(URI nameNodeUri, ClientProtocol rpcNamenode,
       this.initThreadsNumForHedgedReads(dfsClientConf.
           getHedgedReadThreadpoolSize());
     }
+    if (dfsClientConf.getHedgedReadAdaptivePercentile() > 0) {
+      this.readLatencyTracker = new DataNodeReadLatencyTracker(
+          dfsClientConf.getHedgedReadAdaptivePercentile(),
+          dfsClientConf.getHedgedReadAdaptiveMinThresholdMillis(),
+          dfsClientConf.getHedgedReadAdaptiveSlowNodeFactor(),
+          dfsClientConf.getHedgedReadAdaptiveWindowMillis());
+    } else {
+      this.readLatencyTracker = null;
+    }
+    if (dfsClientConf.getHedgedReadBudgetRatio() > 0) {
+      this.hedgedReadBudget = new HedgedReadBudget(
+          dfsClientConf.getHedgedReadBudgetRatio(),
+          dfsClientConf.getHedgedReadBudgetBurst());
+    } else {
+      this.hedgedReadBudget = null;
+    }
+    if (dfsClientConf.isMetadataCacheEnabled()) {
+      this.metadataCache = new ClientMetadataCache(this,
+          dfsClientConf.getMetadataCacheTtlMs(),
+          dfsClientConf.getMetadataCacheMaxEntries(),
+          dfsClientConf.isMetadataCacheInotifyEnabled());
+    } else {
+      this.metadataCache = null;
+    }
 
     this.initThreadsNumForStripedReads(dfsClientConf.
         getStripedReadThreadpoolSize());
+    if (dfsClientConf.getVectoredReadThreadpoolSize() > 0) {
+      this.initThreadsNumForVectoredReads(dfsClientConf.
+          getVectoredReadThreadpoolSize());
+    }
     this.saslClient = new SaslDataTransferClient(
         conf, DataTransferSaslUtil.getSaslPropertiesResolver(conf),
         TrustedChannelResolver.getInstance(conf), nnFallbackToSimpleAuth);
@@ -629,6 +664,9 @@ public synchronized void close() throws IOException {
       // lease renewal stops when all files are closed
       closeAllFilesBeingWritten(false);
       clientRunning = false;
+      if (metadataCache != null) {
+        metadataCache.close();
+      }
       // close connections to the namenode
       closeConnectionToNamenode();
     }
@@ -852,6 +890,50 @@ public LocatedBlocks getLocatedBlocks(String src, long start, long length)
     }
   }
 
+  /**
+   * Like {@link #getLocatedBlocks(String, long, long)}, but served from the
+   * metadata cache when it is enabled.  Only the lookups of files which are
+   * about to be opened or queried go through the cache: the streams reading
+   * a file fetch its blocks from the NameNode when they need to, e.g. after
+   * failing to read from the cached locations.
+   */
+  private LocatedBlocks getCachedLocatedBlocks(String src, long start,
+      long length) throws IOException {
+    if (metadataCache == null) {
+      return getLocatedBlocks(src, start, length);
+    }
+    LocatedBlocks blocks = metadataCache.getLocatedBlocks(src, start, length);
+    if (blocks == null) {
+      blocks = getLocatedBlocks(src, start, length);
+      metadataCache.putLocatedBlocks(src, blocks);
+    }
+    return blocks;
+  }
+
+  /**
+   * Invalidate a path changed by this client in the metadata cache.
+   */
+  void invalidateMetadataCache(String src) {
+    if (metadataCache != null) {
+      metadataCache.invalidate(src);
+    }
+  }
+
+  /**
+   * Invalidate a path changed by this client, and all the paths under it,
+   * in the metadata cache.
+   */
+  private void invalidateMetadataCacheTree(String src) {
+    if (metadataCache != null) {
+      metadataCache.invalidateTree(src);
+    }
+  }
+
+  @VisibleForTesting
+  ClientMetadataCache getMetadataCache() {
+    return metadataCache;
+  }
+
   /**
    * @see ClientProtocol#getBlockLocations(String, long, long)
    */
@@ -882,6 +964,8 @@ boolean recoverLease(String src) throws IOException {
       throw re.unwrapRemoteException(FileNotFoundException.class,
           AccessControlException.class,
           UnresolvedPathException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -905,7 +989,7 @@ public BlockLocation[] getBlockLocations(String src, long start,
       long length) throws IOException {
     checkOpen();
     try (TraceScope ignored = newPathTraceScope("getBlockLocations", src)) {
-      LocatedBlocks blocks = getLocatedBlocks(src, start, length);
+      LocatedBlocks blocks = getCachedLocatedBlocks(src, start, length);
       BlockLocation[] locations = DFSUtilClient.locatedBlocks2Locations(blocks);
       HdfsBlockLocation[] hdfsLocations =
           new HdfsBlockLocation[locations.length];
@@ -1001,7 +1085,8 @@ public DFSInputStream open(String src, int buffersize, boolean verifyChecksum)
     checkOpen();
     //    Get block info from namenode
     try (TraceScope ignored = newPathTraceScope("newDFSInputStream", src)) {
-      LocatedBlocks locatedBlocks = getLocatedBlocks(src, 0);
+      LocatedBlocks locatedBlocks = getCachedLocatedBlocks(src, 0,
+          dfsClientConf.getPrefetchSize());
       return openInternal(locatedBlocks, src, verifyChecksum);
     }
   }
@@ -1212,6 +1297,7 @@ public DFSOutputStream create(String src, FsPermission permission,
         src, masked, flag, createParent, replication, blockSize, progress,
         dfsClientConf.createChecksum(checksumOpt),
         getFavoredNodesStr(favoredNodes), ecPolicyName);
+    invalidateMetadataCache(src);
     beginFileLease(result.getFileId(), result);
     return result;
   }
@@ -1266,6 +1352,7 @@ public DFSOutputStream primitiveCreate(String src, FsPermission absPermission,
       result = DFSOutputStream.newStreamForCreate(this, src, absPermission,
           flag, createParent, replication, blockSize, progress, checksum,
           null, null);
+      invalidateMetadataCache(src);
     }
     beginFileLease(result.getFileId(), result);
     return result;
@@ -1292,6 +1379,8 @@ public void createSymlink(String target, String link, boolean createParent)
           QuotaByStorageTypeExceededException.class,
           UnresolvedPathException.class,
           SnapshotAccessControlException.class);
+    } finally {
+      invalidateMetadataCache(link);
     }
   }
 
@@ -1361,6 +1450,8 @@ private DFSOutputStream callAppend(String src, EnumSet<CreateFlag> flag,
           UnsupportedOperationException.class,
           UnresolvedPathException.class,
           SnapshotAccessControlException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -1436,6 +1527,8 @@ public boolean setReplication(String src, short replication)
           QuotaByStorageTypeExceededException.class,
           UnresolvedPathException.class,
           SnapshotAccessControlException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -1456,6 +1549,8 @@ public void setStoragePolicy(String src, String policyName)
           NSQuotaExceededException.class,
           UnresolvedPathException.class,
           SnapshotAccessControlException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -1474,6 +1569,8 @@ public void unsetStoragePolicy(String src) throws IOException {
           NSQuotaExceededException.class,
           UnresolvedPathException.class,
           SnapshotAccessControlException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -1520,6 +1617,9 @@ public boolean rename(String src, String dst) throws IOException {
           QuotaByStorageTypeExceededException.class,
           UnresolvedPathException.class,
           SnapshotAccessControlException.class);
+    } finally {
+      invalidateMetadataCacheTree(src);
+      invalidateMetadataCacheTree(dst);
     }
   }
 
@@ -1535,6 +1635,11 @@ public void concat(String trg, String [] srcs) throws IOException {
       throw re.unwrapRemoteException(AccessControlException.class,
           UnresolvedPathException.class,
           SnapshotAccessControlException.class);
+    } finally {
+      invalidateMetadataCache(trg);
+      for (String src : srcs) {
+        invalidateMetadataCache(src);
+      }
     }
   }
   /**
@@ -1557,6 +1662,9 @@ public void rename(String src, String dst, Options.Rename... options)
           NSQuotaExceededException.class,
           UnresolvedPathException.class,
           SnapshotAccessControlException.class);
+    } finally {
+      invalidateMetadataCacheTree(src);
+      invalidateMetadataCacheTree(dst);
     }
   }
 
@@ -1575,6 +1683,8 @@ public boolean truncate(String src, long newLength) throws IOException {
     } catch (RemoteException re) {
       throw re.unwrapRemoteException(AccessControlException.class,
           UnresolvedPathException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -1606,6 +1716,8 @@ public boolean delete(String src, boolean recursive) throws IOException {
           UnresolvedPathException.class,
           SnapshotAccessControlException.class,
           PathIsNotEmptyDirectoryException.class);
+    } finally {
+      invalidateMetadataCacheTree(src);
     }
   }
 
@@ -1656,8 +1768,18 @@ public DirectoryListing listPaths(String src,  byte[] startAfter,
    */
   public HdfsFileStatus getFileInfo(String src) throws IOException {
     checkOpen();
+    if (metadataCache != null) {
+      HdfsFileStatus status = metadataCache.getFileInfo(src);
+      if (status != null) {
+        return status;
+      }
+    }
     try (TraceScope ignored = newPathTraceScope("getFileInfo", src)) {
-      return namenode.getFileInfo(src);
+      HdfsFileStatus status = namenode.getFileInfo(src);
+      if (metadataCache != null) {
+        metadataCache.putFileInfo(src, status);
+      }
+      return status;
     } catch (RemoteException re) {
       throw re.unwrapRemoteException(AccessControlException.class,
           FileNotFoundException.class,
@@ -1896,6 +2018,8 @@ public void setPermission(String src, FsPermission permission)
           SafeModeException.class,
           UnresolvedPathException.class,
           SnapshotAccessControlException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -1918,6 +2042,8 @@ public void setOwner(String src, String username, String groupname)
           SafeModeException.class,
           UnresolvedPathException.class,
           SnapshotAccessControlException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -2429,6 +2555,8 @@ public boolean primitiveMkdir(String src, FsPermission absPermission,
           QuotaByStorageTypeExceededException.class,
           UnresolvedPathException.class,
           SnapshotAccessControlException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -2550,6 +2678,8 @@ public void setTimes(String src, long mtime, long atime) throws IOException {
           FileNotFoundException.class,
           UnresolvedPathException.class,
           SnapshotAccessControlException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -2611,6 +2741,8 @@ public void modifyAclEntries(String src, List<AclEntry> aclSpec)
           SafeModeException.class,
           SnapshotAccessControlException.class,
           UnresolvedPathException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -2627,6 +2759,8 @@ public void removeAclEntries(String src, List<AclEntry> aclSpec)
           SafeModeException.class,
           SnapshotAccessControlException.class,
           UnresolvedPathException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -2642,6 +2776,8 @@ public void removeDefaultAcl(String src) throws IOException {
           SafeModeException.class,
           SnapshotAccessControlException.class,
           UnresolvedPathException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -2657,6 +2793,8 @@ public void removeAcl(String src) throws IOException {
           SafeModeException.class,
           SnapshotAccessControlException.class,
           UnresolvedPathException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -2672,6 +2810,8 @@ public void setAcl(String src, List<AclEntry> aclSpec) throws IOException {
           SafeModeException.class,
           SnapshotAccessControlException.class,
           UnresolvedPathException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -2696,6 +2836,8 @@ public void createEncryptionZone(String src, String keyName)
       throw re.unwrapRemoteException(AccessControlException.class,
           SafeModeException.class,
           UnresolvedPathException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -2744,6 +2886,8 @@ public void setErasureCodingPolicy(String src, String ecPolicyName)
           SafeModeException.class,
           UnresolvedPathException.class,
           FileNotFoundException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -2757,6 +2901,8 @@ public void unsetErasureCodingPolicy(String src) throws IOException {
           SafeModeException.class,
           UnresolvedPathException.class,
           FileNotFoundException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -2772,6 +2918,8 @@ public void setXAttr(String src, String name, byte[] value,
           SafeModeException.class,
           SnapshotAccessControlException.class,
           UnresolvedPathException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -2836,6 +2984,8 @@ public void removeXAttr(String src, String name) throws IOException {
           SafeModeException.class,
           SnapshotAccessControlException.class,
           UnresolvedPathException.class);
+    } finally {
+      invalidateMetadataCache(src);
     }
   }
 
@@ -2922,7 +3072,21 @@ public DFSInotifyEventInputStream getInotifyEventStream(long lastReadTxid)
   }
 
   @Override // RemotePeerFactory
-  public Peer newConnectedPeer(InetSocketAddress addr,
+  public Peer newConnectedPeer(final InetSocketAddress addr,
+      final Token<BlockTokenIdentifier> blockToken,
+      final DatanodeID datanodeId) throws IOException {
+    if (dfsClientConf.isMultiplexedConnectionsEnabled()) {
+      Peer stream = clientContext.getMultiplexedConnectionPool().openStream(
+          datanodeId, () -> newMultiplexedConnection(addr, blockToken,
+              datanodeId));
+      if (stream != null) {
+        return stream;
+      }
+    }
+    return newConnectedSocketPeer(addr, blockToken, datanodeId);
+  }
+
+  private Peer newConnectedSocketPeer(InetSocketAddress addr,
       Token<BlockTokenIdentifier> blockToken, DatanodeID datanodeId)
       throws IOException {
     Peer peer = null;
@@ -2945,6 +3109,64 @@ public Peer newConnectedPeer(InetSocketAddress addr,
     }
   }
 
+  /**
+   * Set up a multiplexed connection to a DataNode.
+   *
+   * @return the connection, or null if the DataNode does not support
+   *         multiplexed connections or failed to set one up.
+   */
+  private MultiplexedConnection newMultiplexedConnection(
+      InetSocketAddress addr, Token<BlockTokenIdentifier> blockToken,
+      DatanodeID datanodeId) throws IOException {
+    final int streamWindow =
+        dfsClientConf.getMultiplexedConnectionsStreamWindow();
+    Peer peer = newConnectedSocketPeer(addr, blockToken, datanodeId);
+    boolean success = false;
+    try {
+      final BlockOpResponseProto reply;
+      try {
+        new Sender(new DataOutputStream(peer.getOutputStream()))
+            .multiplex(clientName, streamWindow);
+        reply = BlockOpResponseProto.parseFrom(
+            PBHelperClient.vintPrefixed(peer.getInputStream()));
+      } catch (IOException e) {
+        // DataNodes which do not know the operation close the connection,
+        // but so may a DataNode which is restarting.  Ask again next time.
+        LOG.debug("Failed to set up a multiplexed connection to {}, using a "
+            + "connection of its own for the reader", datanodeId, e);
+        return null;
+      }
+      if (reply.getStatus() == Status.ERROR_UNSUPPORTED) {
+        clientContext.getMultiplexedConnectionPool().setUnsupported(
+            datanodeId);
+        return null;
+      }
+      DataTransferProtoUtil.checkBlockOpStatus(reply,
+          "setting up a multiplexed connection to " + datanodeId);
+      // The DataNode may accept a smaller window than the one asked for.
+      int window = streamWindow;
+      if (reply.hasStreamWindow()) {
+        window = reply.getStreamWindow();
+        if (window <= 0 || window > streamWindow) {
+          throw new IOException("Invalid stream window " + window
+              + " accepted by " + datanodeId);
+        }
+      }
+      // The streams have timeouts of their own.
+      peer.setReadTimeout(0);
+      MultiplexedConnection connection = new MultiplexedConnection(peer,
+          new BufferedInputStream(peer.getInputStream(), smallBufferSize),
+          peer.getOutputStream(), window, peer.hasSecureChannel(), null);
+      connection.startReceiving();
+      success = true;
+      return connection;
+    } finally {
+      if (!success) {
+        IOUtilsClient.cleanup(LOG, peer);
+      }
+    }
+  }
+
   void updateFileSystemReadStats(int distance, int nRead) {
     if (stats != null) {
       stats.incrementBytesRead(nRead);
@@ -3007,6 +3229,25 @@ private void initThreadsNumForStripedReads(int numThreads) {
     }
   }
 
+  /**
+   * Create thread pool for reading the ranges of vectored reads in parallel,
+   * VECTORED_READ_THREAD_POOL, if it does not already exist.
+   * @param numThreads Number of threads for vectored reads thread pool.
+   */
+  private void initThreadsNumForVectoredReads(int numThreads) {
+    if (VECTORED_READ_THREAD_POOL != null) {
+      return;
+    }
+    synchronized (DFSClient.class) {
+      if (VECTORED_READ_THREAD_POOL == null) {
+        ThreadPoolExecutor threadPool = DFSUtilClient.getThreadPoolExecutor(1,
+            numThreads, 60, "VectoredRead-", true);
+        threadPool.allowCoreThreadTimeOut(true);
+        VECTORED_READ_THREAD_POOL = threadPool;
+      }
+    }
+  }
+
   ThreadPoolExecutor getHedgedReadsThreadPool() {
     return HEDGED_READ_THREAD_POOL;
   }
@@ -3015,6 +3256,10 @@ ThreadPoolExecutor getStripedReadsThreadPool() {
     return STRIPED_READ_THREAD_POOL;
   }
 
+  ThreadPoolExecutor getVectoredReadsThreadPool() {
+    return VECTORED_READ_THREAD_POOL;
+  }
+
   boolean isHedgedReadsEnabled() {
     return (HEDGED_READ_THREAD_POOL != null) &&
         HEDGED_READ_THREAD_POOL.getMaximumPoolSize() > 0;
@@ -3024,6 +3269,21 @@ DFSHedgedReadMetrics getHedgedReadMetrics() {
     return HEDGED_READ_METRIC;
   }
 
+  /**
+   * @return the tracker of the read latency of the DataNodes, or null if
+   *         hedged reads are not adaptive
+   */
+  DataNodeReadLatencyTracker getReadLatencyTracker() {
+    return readLatencyTracker;
+  }
+
+  /**
+   * @return the budget of hedged reads, or null if they are not limited
+   */
+  HedgedReadBudget getHedgedReadBudget() {
+    return hedgedReadBudget;
+  }
+
   @Override
   public URI getKeyProviderUri() throws IOException {
     return HdfsKMSUtil.getKeyProviderUri(ugi, namenodeUri,
@@ -17,11 +17,13 @@
  */
 package org.apache.hadoop.hdfs;
 
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.annotations.VisibleForTesting;
 
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 
 /**
  * Used for injecting faults in DFSClient and DFSOutputStream tests.
@@ -58,6 +60,8 @@ public void fetchFromDatanodeException() {}
 
   public void readFromDatanodeDelay() {}
 
+  public void readStripedChunk(DatanodeInfo datanode) throws IOException {}
+
   public boolean skipRollingRestartWait() {
     return false;
   }
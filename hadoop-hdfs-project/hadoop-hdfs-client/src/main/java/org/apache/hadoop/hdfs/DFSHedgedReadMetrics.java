@@ -31,6 +31,8 @@ public class DFSHedgedReadMetrics {
   public final AtomicLong hedgedReadOps = new AtomicLong();
   public final AtomicLong hedgedReadOpsWin = new AtomicLong();
   public final AtomicLong hedgedReadOpsInCurThread = new AtomicLong();
+  public final AtomicLong hedgedReadOpsWaste = new AtomicLong();
+  public final AtomicLong hedgedReadOpsThrottled = new AtomicLong();
 
   public void incHedgedReadOps() {
     hedgedReadOps.incrementAndGet();
@@ -44,6 +46,20 @@ public void incHedgedReadWins() {
     hedgedReadOpsWin.incrementAndGet();
   }
 
+  /**
+   * A hedged read was started, but the read it hedged completed first.
+   */
+  public void incHedgedReadWaste() {
+    hedgedReadOpsWaste.incrementAndGet();
+  }
+
+  /**
+   * A hedged read was not started because the hedged read budget is spent.
+   */
+  public void incHedgedReadThrottled() {
+    hedgedReadOpsThrottled.incrementAndGet();
+  }
+
   public long getHedgedReadOps() {
     return hedgedReadOps.longValue();
   }
@@ -55,4 +71,12 @@ public long getHedgedReadOpsInCurThread() {
   public long getHedgedReadWins() {
     return hedgedReadOpsWin.longValue();
   }
+
+  public long getHedgedReadWaste() {
+    return hedgedReadOpsWaste.longValue();
+  }
+
+  public long getHedgedReadThrottled() {
+    return hedgedReadOpsThrottled.longValue();
+  }
 }
@@ -34,6 +34,7 @@
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
@@ -41,8 +42,11 @@
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -52,12 +56,15 @@
 import org.apache.hadoop.fs.CanSetReadahead;
 import org.apache.hadoop.fs.CanUnbuffer;
 import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.CombinedFileRange;
 import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.FileEncryptionInfo;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.HasEnhancedByteBufferAccess;
 import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.fs.StreamCapabilities;
+import org.apache.hadoop.fs.VectoredReadUtils;
 import org.apache.hadoop.hdfs.DFSUtilClient.CorruptedBlocks;
 import org.apache.hadoop.hdfs.client.impl.BlockReaderFactory;
 import org.apache.hadoop.hdfs.client.impl.DfsClientConf;
@@ -83,6 +90,7 @@
 import org.apache.hadoop.util.IdentityHashStore;
 import org.apache.hadoop.util.StopWatch;
 import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Time;
 import org.apache.htrace.core.SpanId;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -920,17 +928,34 @@ protected DNAddrPair getBestNodeDNAddrPair(LocatedBlock block,
     StorageType[] storageTypes = block.getStorageTypes();
     DatanodeInfo chosenNode = null;
     StorageType storageType = null;
+    final DataNodeReadLatencyTracker latencyTracker =
+        dfsClient.getReadLatencyTracker();
     if (nodes != null) {
+      DatanodeInfo[] candidates = new DatanodeInfo[nodes.length];
+      int[] indexes = new int[nodes.length];
+      int numCandidates = 0;
       for (int i = 0; i < nodes.length; i++) {
         if (!deadNodes.containsKey(nodes[i])
             && (ignoredNodes == null || !ignoredNodes.contains(nodes[i]))) {
-          chosenNode = nodes[i];
-          // Storage types are ordered to correspond with nodes, so use the same
-          // index to get storage type.
-          if (storageTypes != null && i < storageTypes.length) {
-            storageType = storageTypes[i];
+          candidates[numCandidates] = nodes[i];
+          indexes[numCandidates++] = i;
+          if (latencyTracker == null) {
+            break;
           }
-          break;
+        }
+      }
+      if (numCandidates > 0) {
+        int chosen = 0;
+        if (latencyTracker != null) {
+          // Read last from the nodes which are consistently slow.
+          chosen = latencyTracker.chooseNode(candidates, numCandidates);
+        }
+        chosenNode = candidates[chosen];
+        int i = indexes[chosen];
+        // Storage types are ordered to correspond with nodes, so use the same
+        // index to get storage type.
+        if (storageTypes != null && i < storageTypes.length) {
+          storageType = storageTypes[i];
         }
       }
     }
@@ -1035,6 +1060,7 @@ void actualGetFromOneDataNode(final DNAddrPair datanode, final long startInBlk,
     LocatedBlock block = datanode.block;
     while (true) {
       BlockReader reader = null;
+      final long startNanos = Time.monotonicNowNanos();
       try {
         DFSClientFaultInjector.get().fetchFromDatanodeException();
         reader = getBlockReader(block, startInBlk, len, datanode.addr,
@@ -1063,6 +1089,10 @@ void actualGetFromOneDataNode(final DNAddrPair datanode, final long startInBlk,
               "excpected " + len + ", got " + nread);
         }
         DFSClientFaultInjector.get().readFromDatanodeDelay();
+        if (dfsClient.getReadLatencyTracker() != null) {
+          dfsClient.getReadLatencyTracker().addSample(datanode.info,
+              Time.monotonicNowNanos() - startNanos);
+        }
         return;
       } catch (ChecksumException e) {
         String msg = "fetchBlockByteRange(). Got a checksum exception for "
@@ -1122,6 +1152,10 @@ protected LocatedBlock refreshLocatedBlock(LocatedBlock block)
    * Like {@link #fetchBlockByteRange}except we start up a second, parallel,
    * 'hedged' read if the first read is taking longer than configured amount of
    * time. We then wait on which ever read returns first.
+   *
+   * When hedged reads are adaptive, the time to wait is a percentile of the
+   * latency of the DataNode being read from, and when they are limited by a
+   * budget, the first read is waited for once the budget is spent.
    */
   private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
       long end, ByteBuffer buf, CorruptedBlocks corruptedBlocks)
@@ -1134,6 +1168,10 @@ private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
     ByteBuffer bb;
     int len = (int) (end - start + 1);
     int hedgedReadId = 0;
+    ByteBuffer firstBuffer = null;
+    final DataNodeReadLatencyTracker latencyTracker =
+        dfsClient.getReadLatencyTracker();
+    final HedgedReadBudget budget = dfsClient.getHedgedReadBudget();
     while (true) {
       // see HDFS-6591, this metric is used to verify/catch unnecessary loops
       hedgedReadOpsLoopNumForTesting++;
@@ -1146,24 +1184,43 @@ private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
         // Latest block, if refreshed internally
         block = chosenNode.block;
         bb = ByteBuffer.allocate(len);
+        firstBuffer = bb;
         Callable<ByteBuffer> getFromDataNodeCallable = getFromOneDataNode(
             chosenNode, block, start, end, bb,
             corruptedBlocks, hedgedReadId++);
         Future<ByteBuffer> firstRequest = hedgedService
             .submit(getFromDataNodeCallable);
         futures.add(firstRequest);
+        if (budget != null) {
+          budget.onRead();
+        }
+        long thresholdMillis = conf.getHedgedReadThresholdMillis();
+        if (latencyTracker != null) {
+          thresholdMillis = latencyTracker.getHedgeThresholdMillis(
+              chosenNode.info, thresholdMillis);
+        }
         Future<ByteBuffer> future = null;
         try {
-          future = hedgedService.poll(
-              conf.getHedgedReadThresholdMillis(), TimeUnit.MILLISECONDS);
+          future = hedgedService.poll(thresholdMillis, TimeUnit.MILLISECONDS);
           if (future != null) {
             ByteBuffer result = future.get();
             result.flip();
             buf.put(result);
             return;
           }
+          if (budget != null && !budget.tryAcquire()) {
+            DFSClient.LOG.debug("Waited {}ms to read from {}; not spawning "
+                + "hedged read, the budget is spent", thresholdMillis,
+                chosenNode.info);
+            dfsClient.getHedgedReadMetrics().incHedgedReadThrottled();
+            future = hedgedService.take();
+            ByteBuffer result = future.get();
+            result.flip();
+            buf.put(result);
+            return;
+          }
           DFSClient.LOG.debug("Waited {}ms to read from {}; spawning hedged "
-              + "read", conf.getHedgedReadThresholdMillis(), chosenNode.info);
+              + "read", thresholdMillis, chosenNode.info);
           dfsClient.getHedgedReadMetrics().incHedgedReadOps();
           // continue; no need to refresh block locations
         } catch (ExecutionException e) {
@@ -1206,7 +1263,11 @@ private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
           ByteBuffer result = getFirstToComplete(hedgedService, futures);
           // cancel the rest.
           cancelAll(futures);
-          dfsClient.getHedgedReadMetrics().incHedgedReadWins();
+          if (result == firstBuffer) {
+            dfsClient.getHedgedReadMetrics().incHedgedReadWaste();
+          } else {
+            dfsClient.getHedgedReadMetrics().incHedgedReadWins();
+          }
           result.flip();
           buf.put(result);
           return;
@@ -1363,6 +1424,102 @@ private int pread(long position, ByteBuffer buffer)
     return realLen;
   }
 
+  @Override
+  public int minSeekForVectorReads() {
+    return dfsClient.getConf().getVectoredReadMinSeek();
+  }
+
+  @Override
+  public int maxReadSizeForVectorReads() {
+    return dfsClient.getConf().getVectoredReadMaxMergedSize();
+  }
+
+  /**
+   * Read the ranges in parallel.  Ranges closer to each other than
+   * {@link #minSeekForVectorReads()} are merged, and the merged ranges are
+   * split at block boundaries, so that each part is a positional read from a
+   * single block, done by the vectored reads thread pool of the client.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges,
+      IntFunction<ByteBuffer> allocate) throws IOException {
+    dfsClient.checkOpen();
+    if (closed.get()) {
+      throw new IOException("Stream closed");
+    }
+    List<FileRange> sortedRanges =
+        VectoredReadUtils.sortAndValidateRanges(ranges);
+    long fileLength = getFileLength();
+    List<FileRange> rangesToRead = new ArrayList<>(sortedRanges.size());
+    for (FileRange range : sortedRanges) {
+      CompletableFuture<ByteBuffer> data = new CompletableFuture<>();
+      range.setData(data);
+      if (range.getOffset() + range.getLength() > fileLength) {
+        data.completeExceptionally(new EOFException(range + " of " + src
+            + " exceeds file length " + fileLength));
+      } else if (range.getLength() == 0) {
+        data.complete(allocate.apply(0));
+      } else {
+        rangesToRead.add(range);
+      }
+    }
+    for (CombinedFileRange range : VectoredReadUtils.mergeSortedRanges(
+        rangesToRead, minSeekForVectorReads(), maxReadSizeForVectorReads())) {
+      readCombinedRange(range, allocate);
+    }
+  }
+
+  private void readCombinedRange(final CombinedFileRange range,
+      IntFunction<ByteBuffer> allocate) {
+    final ByteBuffer buffer;
+    final List<LocatedBlock> blocks;
+    try {
+      buffer = allocate.apply(range.getLength());
+      blocks = getBlockRange(range.getOffset(), range.getLength());
+    } catch (IOException | RuntimeException e) {
+      VectoredReadUtils.failUnderlying(range, e);
+      return;
+    }
+    final int base = buffer.position();
+    final long end = range.getOffset() + range.getLength();
+    final AtomicInteger remainingParts = new AtomicInteger(blocks.size());
+    final ThreadPoolExecutor pool = dfsClient.getVectoredReadsThreadPool();
+    long partOffset = range.getOffset();
+    for (int i = 0; i < blocks.size(); i++) {
+      final LocatedBlock blk = blocks.get(i);
+      final long partEnd = i == blocks.size() - 1 ? end :
+          Math.min(end, blk.getStartOffset() + blk.getBlockSize());
+      final long position = partOffset;
+      final ByteBuffer part = buffer.duplicate();
+      part.limit(base + (int) (partEnd - range.getOffset()));
+      part.position(base + (int) (position - range.getOffset()));
+      Runnable task = () -> {
+        try {
+          int expected = part.remaining();
+          int bytesRead = pread(position, part);
+          if (bytesRead < expected) {
+            throw new EOFException("Read " + bytesRead + " of " + expected
+                + " bytes at offset " + position + " of " + src);
+          }
+          if (remainingParts.decrementAndGet() == 0) {
+            ByteBuffer data = buffer.duplicate();
+            data.limit(base + range.getLength());
+            data.position(base);
+            VectoredReadUtils.completeUnderlying(range, data.slice());
+          }
+        } catch (IOException | RuntimeException e) {
+          VectoredReadUtils.failUnderlying(range, e);
+        }
+      };
+      if (pool != null) {
+        pool.execute(task);
+      } else {
+        task.run();
+      }
+      partOffset = partEnd;
+    }
+  }
+
   /**
    * DFSInputStream reports checksum failure.
    * For replicated blocks, we have the following logic:
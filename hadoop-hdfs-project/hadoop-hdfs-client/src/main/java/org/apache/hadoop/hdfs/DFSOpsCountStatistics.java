@@ -68,6 +68,8 @@ public enum OpType {
     GET_XATTR("op_get_xattr"),
     LIST_LOCATED_STATUS(CommonStatisticNames.OP_LIST_LOCATED_STATUS),
     LIST_STATUS(CommonStatisticNames.OP_LIST_STATUS),
+    METADATA_CACHE_HIT("op_metadata_cache_hit"),
+    METADATA_CACHE_MISS("op_metadata_cache_miss"),
     MKDIRS(CommonStatisticNames.OP_MKDIRS),
     MODIFY_ACL_ENTRIES(CommonStatisticNames.OP_MODIFY_ACL_ENTRIES),
     OPEN(CommonStatisticNames.OP_OPEN),
@@ -130,6 +132,16 @@ public void incrementOpCounter(OpType op) {
     opsCount.get(op).addAndGet(1);
   }
 
+  /**
+   * @return the ratio of the lookups of the client metadata cache which hit
+   *         it, or 0 if there were none
+   */
+  public double getMetadataCacheHitRatio() {
+    long hits = opsCount.get(OpType.METADATA_CACHE_HIT).get();
+    long lookups = hits + opsCount.get(OpType.METADATA_CACHE_MISS).get();
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
   private class LongIterator implements Iterator<LongStatistic> {
     private Iterator<Entry<OpType, AtomicLong>> iterator =
         opsCount.entrySet().iterator();
@@ -971,6 +971,7 @@ protected void completeFile(ExtendedBlock last) throws IOException {
         }
       }
     }
+    dfsClient.invalidateMetadataCache(src);
   }
 
   @VisibleForTesting
@@ -22,6 +22,7 @@
 import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.hdfs.protocol.BlockType;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.protocol.LocatedStripedBlock;
@@ -44,11 +45,14 @@
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
@@ -68,9 +72,15 @@ public class DFSStripedInputStream extends DFSInputStream {
   private final int groupSize;
   /** the buffer for a complete stripe. */
   private ByteBuffer curStripeBuf;
-  private ByteBuffer parityBuf;
   private final ErasureCodingPolicy ecPolicy;
   private RawErasureDecoder decoder;
+  private final int readaheadStripes;
+  private final long slowReadThresholdMs;
+
+  /** The stripe whose buffer is {@link #curStripeBuf}. */
+  private StripeRead curStripe;
+  /** The stripes being read ahead of the current one, in order. */
+  private final Deque<StripeRead> readahead = new ArrayDeque<>();
 
   /**
    * Indicate the start/end offset of the current buffered stripe in the
@@ -107,6 +117,8 @@ public class DFSStripedInputStream extends DFSInputStream {
         dataBlkNum, parityBlkNum);
     decoder = CodecUtil.createRawDecoder(dfsClient.getConfiguration(),
         ecPolicy.getCodecName(), coderOptions);
+    readaheadStripes = dfsClient.getConf().getStripedReadReadaheadStripes();
+    slowReadThresholdMs = dfsClient.getConf().getStripedReadSlowThresholdMs();
     if (DFSClient.LOG.isDebugEnabled()) {
       DFSClient.LOG.debug("Creating an striped input stream for file " + src);
     }
@@ -116,28 +128,21 @@ private boolean useDirectBuffer() {
     return decoder.preferDirectBuffer();
   }
 
-  private void resetCurStripeBuffer(boolean shouldAllocateBuf) {
-    if (shouldAllocateBuf && curStripeBuf == null) {
-      curStripeBuf = BUFFER_POOL.getBuffer(useDirectBuffer(),
-          cellSize * dataBlkNum);
-    }
-    if (curStripeBuf != null) {
-      curStripeBuf.clear();
+  /**
+   * Return the buffers of the current stripe to the pool, so that they can be
+   * reused for the next stripes.
+   */
+  private void releaseCurStripe() {
+    if (curStripe != null) {
+      curStripe.release();
+      curStripe = null;
     }
+    curStripeBuf = null;
     curStripeRange = new StripeRange(0, 0);
   }
 
-  protected ByteBuffer getParityBuffer() {
-    if (parityBuf == null) {
-      parityBuf = BUFFER_POOL.getBuffer(useDirectBuffer(),
-          cellSize * parityBlkNum);
-    }
-    parityBuf.clear();
-    return parityBuf;
-  }
-
-  protected ByteBuffer getCurStripeBuf() {
-    return curStripeBuf;
+  long getStripedSlowReadThresholdMs() {
+    return slowReadThresholdMs;
   }
 
   protected String getSrc() {
@@ -186,14 +191,8 @@ public synchronized void close() throws IOException {
     try {
       super.close();
     } finally {
-      if (curStripeBuf != null) {
-        BUFFER_POOL.putBuffer(curStripeBuf);
-        curStripeBuf = null;
-      }
-      if (parityBuf != null) {
-        BUFFER_POOL.putBuffer(parityBuf);
-        parityBuf = null;
-      }
+      discardReadahead();
+      releaseCurStripe();
       if (decoder != null) {
         decoder.release();
         decoder = null;
@@ -208,10 +207,11 @@ public synchronized void close() throws IOException {
    */
   @Override
   protected void closeCurrentBlockReaders() {
-    resetCurStripeBuffer(false);
     if (blockReaders ==  null || blockReaders.length == 0) {
       return;
     }
+    discardReadahead();
+    releaseCurStripe();
     for (int i = 0; i < groupSize; i++) {
       closeReader(blockReaders[i]);
       blockReaders[i] = null;
@@ -221,6 +221,8 @@ protected void closeCurrentBlockReaders() {
 
   protected void closeReader(BlockReaderInfo readerInfo) {
     if (readerInfo != null) {
+      readerInfo.skip();
+      readerInfo.awaitIdle();
       if (readerInfo.reader != null) {
         try {
           readerInfo.reader.close();
@@ -294,38 +296,195 @@ boolean createBlockReader(LocatedBlock block, long offsetInBlock,
 
   /**
    * Read a new stripe covering the current position, and store the data in the
-   * {@link #curStripeBuf}.
+   * {@link #curStripeBuf}. The following stripes of the block group are read
+   * ahead while the stripe is decoded and consumed.
    */
   private void readOneStripe(CorruptedBlocks corruptedBlocks)
       throws IOException {
-    resetCurStripeBuffer(true);
-
-    // compute stripe range based on pos
     final long offsetInBlockGroup = getOffsetInBlockGroup();
-    final long stripeLen = cellSize * dataBlkNum;
-    final int stripeIndex = (int) (offsetInBlockGroup / stripeLen);
-    final int stripeBufOffset = (int) (offsetInBlockGroup % stripeLen);
-    final int stripeLimit = (int) Math.min(currentLocatedBlock.getBlockSize()
-        - (stripeIndex * stripeLen), stripeLen);
-    StripeRange stripeRange =
-        new StripeRange(offsetInBlockGroup, stripeLimit - stripeBufOffset);
-
-    LocatedStripedBlock blockGroup = (LocatedStripedBlock) currentLocatedBlock;
-    AlignedStripe[] stripes = StripedBlockUtil.divideOneStripe(ecPolicy,
-        cellSize, blockGroup, offsetInBlockGroup,
-        offsetInBlockGroup + stripeRange.getLength() - 1, curStripeBuf);
-    final LocatedBlock[] blks = StripedBlockUtil.parseStripedBlockGroup(
-        blockGroup, cellSize, dataBlkNum, parityBlkNum);
-    // read the whole stripe
-    for (AlignedStripe stripe : stripes) {
-      // Parse group to get chosen DN location
-      StripeReader sreader = new StatefulStripeReader(stripe, ecPolicy, blks,
-          blockReaders, corruptedBlocks, decoder, this);
-      sreader.readStripe();
-    }
-    curStripeBuf.position(stripeBufOffset);
-    curStripeBuf.limit(stripeLimit);
-    curStripeRange = stripeRange;
+    final boolean readAhead = !readahead.isEmpty()
+        && readahead.peekFirst().range.include(offsetInBlockGroup);
+    if (!readAhead) {
+      discardReadahead();
+    }
+    releaseCurStripe();
+    final StripeRead stripe = readAhead ? readahead.removeFirst()
+        : new StripeRead(offsetInBlockGroup);
+
+    boolean success = false;
+    try {
+      if (!readAhead) {
+        stripe.startReads();
+      }
+      stripe.awaitReads();
+      readAhead(stripe);
+      stripe.decode();
+      success = true;
+    } finally {
+      stripe.addCorruptedBlocksTo(corruptedBlocks);
+      if (!success) {
+        stripe.release();
+      }
+    }
+    curStripe = stripe;
+    curStripeBuf = stripe.buf;
+    curStripeBuf.position(stripe.bufOffset);
+    curStripeBuf.limit(stripe.bufLimit);
+    curStripeRange = stripe.range;
+  }
+
+  /**
+   * Start reading the stripes after the given one, up to the configured
+   * number of stripes ahead and to the end of the block group.
+   */
+  private void readAhead(StripeRead stripe) {
+    long next = readahead.isEmpty() ? stripe.getEnd()
+        : readahead.peekLast().getEnd();
+    while (readahead.size() < readaheadStripes
+        && next < currentLocatedBlock.getBlockSize()) {
+      final StripeRead ahead = new StripeRead(next);
+      readahead.addLast(ahead);
+      try {
+        ahead.startReads();
+      } catch (IOException e) {
+        // The stripe will be read again, and the error reported, once it is
+        // needed.
+        DFSClient.LOG.debug("Failed to read ahead {} of {}", ahead.range, src,
+            e);
+        readahead.removeLast();
+        ahead.release();
+        return;
+      }
+      next = ahead.getEnd();
+    }
+  }
+
+  /**
+   * Stop the reads of the stripes read ahead, and close the block readers,
+   * which have moved past the current position.
+   */
+  private void discardReadahead() {
+    if (readahead.isEmpty()) {
+      return;
+    }
+    for (StripeRead stripe : readahead) {
+      stripe.release();
+    }
+    readahead.clear();
+    for (int i = 0; i < groupSize; i++) {
+      closeReader(blockReaders[i]);
+      blockReaders[i] = null;
+    }
+  }
+
+  /**
+   * A stripe of the current block group, read into its own buffers. A stripe
+   * which does not start at the current position is read from its beginning.
+   */
+  private class StripeRead {
+    private final StripeRange range;
+    private final long end;
+    /** The offsets of the range in the buffer. */
+    private final int bufOffset;
+    private final int bufLimit;
+    private final CorruptedBlocks corruptedBlocks = new CorruptedBlocks();
+    private final StripeReader[] readers;
+    private ByteBuffer buf;
+    private ByteBuffer parityBuf;
+
+    StripeRead(long offsetInBlockGroup) {
+      final long stripeLen = cellSize * dataBlkNum;
+      final int stripeIndex = (int) (offsetInBlockGroup / stripeLen);
+      bufOffset = (int) (offsetInBlockGroup % stripeLen);
+      bufLimit = (int) Math.min(currentLocatedBlock.getBlockSize()
+          - (stripeIndex * stripeLen), stripeLen);
+      range = new StripeRange(offsetInBlockGroup, bufLimit - bufOffset);
+      end = offsetInBlockGroup + range.getLength();
+      buf = BUFFER_POOL.getBuffer(useDirectBuffer(), cellSize * dataBlkNum);
+      buf.clear();
+
+      LocatedStripedBlock blockGroup =
+          (LocatedStripedBlock) currentLocatedBlock;
+      AlignedStripe[] stripes = StripedBlockUtil.divideOneStripe(ecPolicy,
+          cellSize, blockGroup, offsetInBlockGroup, end - 1, buf);
+      final LocatedBlock[] blks = StripedBlockUtil.parseStripedBlockGroup(
+          blockGroup, cellSize, dataBlkNum, parityBlkNum);
+      readers = new StripeReader[stripes.length];
+      for (int i = 0; i < stripes.length; i++) {
+        readers[i] = new StatefulStripeReader(stripes[i], ecPolicy, blks,
+            blockReaders, corruptedBlocks, decoder,
+            DFSStripedInputStream.this, buf, this::getParityBuffer);
+      }
+    }
+
+    long getEnd() {
+      return end;
+    }
+
+    private ByteBuffer getParityBuffer() {
+      if (parityBuf == null) {
+        parityBuf = BUFFER_POOL.getBuffer(useDirectBuffer(),
+            cellSize * parityBlkNum);
+        parityBuf.clear();
+      }
+      return parityBuf;
+    }
+
+    /**
+     * Start the reads of the first aligned stripe. The aligned stripes share
+     * the parity buffer, so the others are only read one after the other.
+     */
+    void startReads() throws IOException {
+      readers[0].startReads();
+    }
+
+    /**
+     * Wait for the reads of the stripe, decoding all the aligned stripes but
+     * the last one.
+     */
+    void awaitReads() throws IOException {
+      for (int i = 0; i < readers.length; i++) {
+        if (i > 0) {
+          readers[i - 1].decodeIfNeeded();
+          readers[i].startReads();
+        }
+        readers[i].awaitReads();
+      }
+    }
+
+    void decode() throws IOException {
+      readers[readers.length - 1].decodeIfNeeded();
+    }
+
+    void addCorruptedBlocksTo(CorruptedBlocks to) {
+      Map<ExtendedBlock, Set<DatanodeInfo>> corruptionMap =
+          corruptedBlocks.getCorruptionMap();
+      if (corruptionMap != null) {
+        for (Map.Entry<ExtendedBlock, Set<DatanodeInfo>> entry
+            : corruptionMap.entrySet()) {
+          for (DatanodeInfo dn : entry.getValue()) {
+            to.addCorruptedBlock(entry.getKey(), dn);
+          }
+        }
+      }
+    }
+
+    /**
+     * Abandon the reads still pending, and return the buffers to the pool.
+     */
+    void release() {
+      for (StripeReader reader : readers) {
+        reader.clearFutures();
+      }
+      if (buf != null) {
+        BUFFER_POOL.putBuffer(buf);
+        buf = null;
+      }
+      if (parityBuf != null) {
+        BUFFER_POOL.putBuffer(parityBuf);
+        parityBuf = null;
+      }
+    }
   }
 
   /**
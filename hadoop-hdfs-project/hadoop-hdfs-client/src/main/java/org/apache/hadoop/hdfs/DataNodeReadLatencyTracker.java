@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.util.Time;
+
+/**
+ * Tracks the latency of the reads of a client from each DataNode, so that
+ * hedged reads are started at a percentile of the latency of the DataNode
+ * being read from rather than after a fixed time, and so that DataNodes which
+ * are consistently slower than the others are read from last.
+ *
+ * The latencies of each DataNode are kept in a histogram with logarithmic
+ * buckets, as in HdrHistogram, covering the current and the previous window,
+ * so that a DataNode which is no longer read from is forgotten after two
+ * windows.
+ */
+@InterfaceAudience.Private
+public class DataNodeReadLatencyTracker {
+  /** The number of samples needed before the latency of a node is used. */
+  @VisibleForTesting
+  static final int MIN_SAMPLES = 16;
+
+  private final ConcurrentHashMap<String, LatencyHistogram> histograms =
+      new ConcurrentHashMap<>();
+  private final double percentile;
+  private final long minThresholdMillis;
+  private final double slowNodeFactor;
+  private final long windowMillis;
+
+  /**
+   * @param percentile the percentile of the latency of a DataNode after which
+   *                   a hedged read is started
+   * @param minThresholdMillis the minimum time to wait before a hedged read
+   * @param slowNodeFactor how many times its median latency must exceed the
+   *                       one of the fastest DataNode for a DataNode to be
+   *                       read from last; 0 disables it
+   * @param windowMillis the length of a window of samples
+   */
+  DataNodeReadLatencyTracker(double percentile, long minThresholdMillis,
+      double slowNodeFactor, long windowMillis) {
+    this.percentile = percentile;
+    this.minThresholdMillis = minThresholdMillis;
+    this.slowNodeFactor = slowNodeFactor;
+    this.windowMillis = windowMillis;
+  }
+
+  /**
+   * Record the latency of a read from a DataNode.
+   */
+  void addSample(DatanodeInfo dn, long latencyNanos) {
+    LatencyHistogram histogram = histograms.get(dn.getDatanodeUuid());
+    if (histogram == null) {
+      histogram = new LatencyHistogram(windowMillis);
+      LatencyHistogram prev =
+          histograms.putIfAbsent(dn.getDatanodeUuid(), histogram);
+      if (prev != null) {
+        histogram = prev;
+      }
+    }
+    histogram.add(latencyNanos / 1000, Time.monotonicNow());
+  }
+
+  /**
+   * @return the latency of the given percentile of a DataNode in
+   *         microseconds, or -1 if there are too few samples of it
+   */
+  @VisibleForTesting
+  long getLatencyMicros(DatanodeInfo dn, double pct) {
+    LatencyHistogram histogram = histograms.get(dn.getDatanodeUuid());
+    return histogram == null ? -1 :
+        histogram.getPercentile(pct, MIN_SAMPLES, Time.monotonicNow());
+  }
+
+  /**
+   * @return how long to wait for a read from a DataNode before starting a
+   *         hedged read, or the given default if the latency of the DataNode
+   *         is not known yet
+   */
+  long getHedgeThresholdMillis(DatanodeInfo dn, long defaultMillis) {
+    long micros = getLatencyMicros(dn, percentile);
+    if (micros < 0) {
+      return defaultMillis;
+    }
+    return Math.max(minThresholdMillis, (micros + 999) / 1000);
+  }
+
+  /**
+   * Choose the DataNode to read from among the candidates, which are in the
+   * order of preference of the NameNode.  The first candidate is chosen
+   * unless its median latency is more than slowNodeFactor times the one of
+   * the fastest candidate, in which case the first candidate which is not
+   * that slow is chosen.
+   *
+   * @return the index of the chosen candidate
+   */
+  int chooseNode(DatanodeInfo[] candidates, int numCandidates) {
+    if (slowNodeFactor <= 0 || numCandidates < 2) {
+      return 0;
+    }
+    long[] medians = new long[numCandidates];
+    long fastest = Long.MAX_VALUE;
+    for (int i = 0; i < numCandidates; i++) {
+      medians[i] = getLatencyMicros(candidates[i], 50);
+      if (medians[i] >= 0) {
+        fastest = Math.min(fastest, medians[i]);
+      }
+    }
+    if (fastest == Long.MAX_VALUE) {
+      return 0;
+    }
+    // Latencies below a millisecond are all considered fast.
+    long slowMicros = (long) (Math.max(fastest, 1000) * slowNodeFactor);
+    for (int i = 0; i < numCandidates; i++) {
+      if (medians[i] <= slowMicros) {
+        return i;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * A histogram of latencies in microseconds, with 8 buckets for each power
+   * of 2, so that percentiles are within 12.5% of the actual latency.  It
+   * keeps the samples of the current and of the previous window.
+   */
+  @VisibleForTesting
+  static class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+    private static final int NUM_BUCKETS =
+        LINEAR_BUCKETS + (64 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final long windowMillis;
+    private long[] current = new long[NUM_BUCKETS];
+    private long[] previous = new long[NUM_BUCKETS];
+    private long currentCount;
+    private long previousCount;
+    private long windowStart;
+
+    LatencyHistogram(long windowMillis) {
+      this.windowMillis = windowMillis;
+      this.windowStart = Time.monotonicNow();
+    }
+
+    static int bucketOf(long value) {
+      if (value < LINEAR_BUCKETS) {
+        return (int) Math.max(value, 0);
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS))
+          & (SUB_BUCKETS - 1);
+      return LINEAR_BUCKETS
+          + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** @return the largest value which falls in the bucket. */
+    static long highestValueOf(int bucket) {
+      if (bucket < LINEAR_BUCKETS) {
+        return bucket;
+      }
+      int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS
+          + SUB_BUCKET_BITS + 1;
+      long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+      long lowest = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+      return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private void roll(long now) {
+      long elapsed = now - windowStart;
+      if (elapsed < windowMillis) {
+        return;
+      }
+      if (elapsed < 2 * windowMillis) {
+        long[] tmp = previous;
+        previous = current;
+        previousCount = currentCount;
+        current = tmp;
+      } else {
+        Arrays.fill(previous, 0);
+        previousCount = 0;
+      }
+      Arrays.fill(current, 0);
+      currentCount = 0;
+      windowStart = now - elapsed % windowMillis;
+    }
+
+    synchronized void add(long micros, long now) {
+      roll(now);
+      current[bucketOf(micros)]++;
+      currentCount++;
+    }
+
+    synchronized long getPercentile(double pct, int minSamples, long now) {
+      roll(now);
+      long total = currentCount + previousCount;
+      if (total == 0 || total < minSamples) {
+        return -1;
+      }
+      long rank = Math.max(1, (long) Math.ceil(total * pct / 100));
+      long seen = 0;
+      for (int i = 0; i < NUM_BUCKETS; i++) {
+        seen += current[i] + previous[i];
+        if (seen >= rank) {
+          return highestValueOf(i);
+        }
+      }
+      return highestValueOf(NUM_BUCKETS - 1);
+    }
+  }
+}
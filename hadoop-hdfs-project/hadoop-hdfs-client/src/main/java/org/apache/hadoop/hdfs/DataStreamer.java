@@ -303,6 +303,74 @@ synchronized void check(boolean resetToNull) throws IOException {
     }
   }
 
+  /**
+   * The number of packets which may be in the dataQueue and ackQueue.
+   *
+   * Like TCP Vegas, the window compares the round trip time of each packet
+   * with the shortest one seen for the pipeline, to estimate how many of the
+   * packets in flight are queued up in the pipeline rather than in transit.
+   * While the writer is held back by the window and fewer than
+   * {@link #ALPHA} packets are queued up, the pipeline could take more, so
+   * the window grows, up to its limit.  When more than {@link #BETA} are
+   * queued up, it shrinks, down to its initial size.
+   */
+  static class PacketWindow {
+    /** Grow while fewer packets than this are queued in the pipeline. */
+    static final int ALPHA = 2;
+    /** Shrink while more packets than this are queued in the pipeline. */
+    static final int BETA = 4;
+
+    private final int minSize;
+    private final int maxSize;
+    private int size;
+    private long minRttNanos = Long.MAX_VALUE;
+    private boolean writerBlocked = false;
+
+    PacketWindow(int minSize, int maxSize) {
+      this.minSize = minSize;
+      this.maxSize = Math.max(minSize, maxSize);
+      this.size = minSize;
+    }
+
+    int getSize() {
+      return size;
+    }
+
+    /**
+     * @return whether the given number of outstanding packets exceeds the
+     *         window, in which case the writer has to wait.
+     */
+    boolean isFull(int numOutstanding) {
+      if (numOutstanding > size) {
+        writerBlocked = true;
+        return true;
+      }
+      return false;
+    }
+
+    /** Adjust the window to the round trip time of an acked packet. */
+    void onAck(long rttNanos) {
+      if (maxSize == minSize || rttNanos <= 0) {
+        return;
+      }
+      minRttNanos = Math.min(minRttNanos, rttNanos);
+      double queued = size * (1 - (double) minRttNanos / rttNanos);
+      if (queued < ALPHA) {
+        if (writerBlocked && size < maxSize) {
+          size++;
+        }
+      } else if (queued > BETA && size > minSize) {
+        size--;
+      }
+      writerBlocked = false;
+    }
+
+    /** Forget the round trip times, when the pipeline changes. */
+    void resetRtt() {
+      minRttNanos = Long.MAX_VALUE;
+    }
+  }
+
   enum ErrorType {
     NONE, INTERNAL, EXTERNAL
   }
@@ -514,6 +582,8 @@ boolean doWaitForRestart() {
   protected final LinkedList<DFSPacket> dataQueue = new LinkedList<>();
   private final Map<Long, Long> packetSendTime = new HashMap<>();
   private final LinkedList<DFSPacket> ackQueue = new LinkedList<>();
+  // protected by dataQueue lock
+  private final PacketWindow packetWindow;
   private final AtomicReference<CachingStrategy> cachingStrategy;
   private final ByteArrayManager byteArrayManager;
   //persist blocks on namenode
@@ -553,6 +623,8 @@ private DataStreamer(HdfsFileStatus stat, ExtendedBlock block,
     this.favoredNodes = favoredNodes;
     final DfsClientConf conf = dfsClient.getConf();
     this.dfsclientSlowLogThresholdMs = conf.getSlowIoWarningThresholdMs();
+    this.packetWindow = new PacketWindow(conf.getWriteMaxPackets(),
+        conf.getWriteMaxPacketsLimit());
     this.excludedNodes = initExcludedNodes(conf.getExcludedNodesCacheExpiry());
     this.errorState = new ErrorState(conf.getDatanodeRestartTimeout());
     this.addBlockFlags = flags;
@@ -629,6 +701,9 @@ private void initDataStreaming() {
           Arrays.toString(storageTypes),
           Arrays.toString(storageIDs));
     }
+    synchronized (dataQueue) {
+      packetWindow.resetRtt();
+    }
     response = new ResponseProcessor(nodes);
     response.start();
     stage = BlockConstructionStage.DATA_STREAMING;
@@ -761,7 +836,7 @@ public void run() {
             scope = null;
             dataQueue.removeFirst();
             ackQueue.addLast(one);
-            packetSendTime.put(one.getSeqno(), Time.monotonicNow());
+            packetSendTime.put(one.getSeqno(), Time.monotonicNowNanos());
             dataQueue.notifyAll();
           }
         }
@@ -915,8 +990,8 @@ void waitAndQueuePacket(DFSPacket packet) throws IOException {
         // If queue is full, then wait till we have enough space
         boolean firstWait = true;
         try {
-          while (!streamerClosed && dataQueue.size() + ackQueue.size() >
-              dfsClient.getConf().getWriteMaxPackets()) {
+          while (!streamerClosed &&
+              packetWindow.isFull(dataQueue.size() + ackQueue.size())) {
             if (firstWait) {
               Span span = Tracer.getCurrentSpan();
               if (span != null) {
@@ -1087,7 +1162,8 @@ public void run() {
           if (ack.getSeqno() != DFSPacket.HEART_BEAT_SEQNO) {
             Long begin = packetSendTime.get(ack.getSeqno());
             if (begin != null) {
-              long duration = Time.monotonicNow() - begin;
+              long duration = TimeUnit.NANOSECONDS.toMillis(
+                  Time.monotonicNowNanos() - begin);
               if (duration > dfsclientSlowLogThresholdMs) {
                 LOG.info("Slow ReadProcessor read fields for block " + block
                     + " took " + duration + "ms (threshold="
@@ -1179,7 +1255,15 @@ public void run() {
             lastAckedSeqno = seqno;
             pipelineRecoveryCount = 0;
             ackQueue.removeFirst();
-            packetSendTime.remove(seqno);
+            Long sendTime = packetSendTime.remove(seqno);
+            if (sendTime != null) {
+              int prevWindow = packetWindow.getSize();
+              packetWindow.onAck(Time.monotonicNowNanos() - sendTime);
+              if (packetWindow.getSize() != prevWindow) {
+                LOG.debug("{}: {} packets allowed in flight", DataStreamer.this,
+                    packetWindow.getSize());
+              }
+            }
             dataQueue.notifyAll();
 
             one.releaseBuffer(byteArrayManager);
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A token bucket which caps the number of hedged reads of a client to a
+ * ratio of its reads.  Each read adds ratio tokens to the bucket, up to
+ * burst tokens, and each hedged read takes one token, so that hedged reads
+ * can not multiply the load of a client on the DataNodes when all of them
+ * are slow.
+ */
+@InterfaceAudience.Private
+class HedgedReadBudget {
+  /** Tokens are counted in thousandths. */
+  private static final long SCALE = 1000;
+
+  private final long depositPerRead;
+  private final long capacity;
+  private final AtomicLong tokens;
+
+  HedgedReadBudget(float ratio, int burst) {
+    this.depositPerRead = Math.max(1, (long) (ratio * SCALE));
+    this.capacity = Math.max(1, burst) * SCALE;
+    this.tokens = new AtomicLong(capacity);
+  }
+
+  void onRead() {
+    while (true) {
+      long current = tokens.get();
+      long next = Math.min(capacity, current + depositPerRead);
+      if (next == current || tokens.compareAndSet(current, next)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return true if a hedged read may be started
+   */
+  boolean tryAcquire() {
+    while (true) {
+      long current = tokens.get();
+      if (current < SCALE) {
+        return false;
+      }
+      if (tokens.compareAndSet(current, current - SCALE)) {
+        return true;
+      }
+    }
+  }
+}
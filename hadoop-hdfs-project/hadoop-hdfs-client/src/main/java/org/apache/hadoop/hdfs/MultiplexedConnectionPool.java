@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.net.MultiplexedConnection;
+import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.hdfs.protocol.DatanodeID;
+import org.apache.hadoop.util.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * The multiplexed connections of a client context to DataNodes.
+ *
+ * Streams to a DataNode are opened on its existing connections, until each
+ * of them carries the maximum number of streams.  Connections close once
+ * their last stream is closed, and DataNodes without connections are
+ * forgotten.
+ */
+@InterfaceAudience.Private
+public class MultiplexedConnectionPool {
+  static final Logger LOG =
+      LoggerFactory.getLogger(MultiplexedConnectionPool.class);
+
+  /** The least number of DataNodes kept before looking for unused ones. */
+  private static final int MIN_PURGE_THRESHOLD = 16;
+
+  /**
+   * Sets up a new multiplexed connection to a DataNode.
+   */
+  public interface Connector {
+    /**
+     * @return the new connection, or null if the reader should use a
+     *         connection of its own instead.
+     */
+    MultiplexedConnection connect() throws IOException;
+  }
+
+  /**
+   * The connections to a DataNode.
+   */
+  private static class Connections {
+    private final List<MultiplexedConnection> connections = new ArrayList<>();
+    /** Until when the DataNode is known not to support multiplexing. */
+    private long unsupportedUntil = 0;
+
+    private boolean isUnsupported(long now) {
+      return unsupportedUntil > now;
+    }
+
+    /** @return true if there is no connection and nothing to remember. */
+    private boolean isUnused(long now) {
+      for (Iterator<MultiplexedConnection> it = connections.iterator();
+           it.hasNext();) {
+        if (it.next().isClosed()) {
+          it.remove();
+        }
+      }
+      return connections.isEmpty() && !isUnsupported(now);
+    }
+  }
+
+  private final int maxStreams;
+  private final long unsupportedExpiryMs;
+  private final Map<DatanodeID, Connections> datanodes = new HashMap<>();
+  /** The number of DataNodes above which the unused ones are removed. */
+  private int purgeThreshold = MIN_PURGE_THRESHOLD;
+
+  public MultiplexedConnectionPool(int maxStreams, long unsupportedExpiryMs) {
+    this.maxStreams = maxStreams;
+    this.unsupportedExpiryMs = unsupportedExpiryMs;
+  }
+
+  /**
+   * Open a stream to a DataNode.
+   *
+   * @param datanodeId the DataNode to open a stream to.
+   * @param connector sets up a new connection to the DataNode if needed.
+   * @return the new stream, or null if the reader should use a connection of
+   *         its own.
+   */
+  public Peer openStream(DatanodeID datanodeId, Connector connector)
+      throws IOException {
+    synchronized (this) {
+      final Connections dn = datanodes.get(datanodeId);
+      if (dn != null) {
+        if (dn.isUnsupported(Time.monotonicNow())) {
+          return null;
+        }
+        for (Iterator<MultiplexedConnection> it = dn.connections.iterator();
+             it.hasNext();) {
+          final MultiplexedConnection connection = it.next();
+          if (connection.isClosed()) {
+            it.remove();
+          } else if (connection.getNumStreams() < maxStreams) {
+            try {
+              return connection.openStream();
+            } catch (IOException e) {
+              LOG.debug("Failed to open a stream on {}", connection, e);
+              it.remove();
+            }
+          }
+        }
+      }
+    }
+    // Connect without holding the lock, so that the other readers can still
+    // open streams on the existing connections meanwhile.  Concurrent
+    // readers may set up a connection each.
+    final MultiplexedConnection connection = connector.connect();
+    if (connection == null) {
+      return null;
+    }
+    final Peer stream;
+    try {
+      stream = connection.openStream();
+    } catch (IOException e) {
+      connection.close();
+      throw e;
+    }
+    synchronized (this) {
+      Connections dn = datanodes.get(datanodeId);
+      if (dn == null) {
+        purgeUnused();
+        dn = new Connections();
+        datanodes.put(datanodeId, dn);
+      }
+      dn.connections.add(connection);
+    }
+    return stream;
+  }
+
+  /**
+   * Remember that a DataNode replied that it does not support multiplexed
+   * connections, so that its readers use connections of their own for a
+   * while, without asking again.
+   *
+   * @param datanodeId the DataNode which does not support multiplexing.
+   */
+  public synchronized void setUnsupported(DatanodeID datanodeId) {
+    LOG.info("{} does not support multiplexed connections, falling back to "
+        + "a connection per reader for {} ms", datanodeId,
+        unsupportedExpiryMs);
+    Connections dn = datanodes.get(datanodeId);
+    if (dn == null) {
+      purgeUnused();
+      dn = new Connections();
+      datanodes.put(datanodeId, dn);
+    }
+    dn.unsupportedUntil = Time.monotonicNow() + unsupportedExpiryMs;
+  }
+
+  /**
+   * Remove the DataNodes which have no connections, once there are twice as
+   * many DataNodes as after the last time, so that it takes constant time
+   * per DataNode added.
+   */
+  private void purgeUnused() {
+    assert Thread.holdsLock(this);
+    if (datanodes.size() < purgeThreshold) {
+      return;
+    }
+    final long now = Time.monotonicNow();
+    for (Iterator<Connections> it = datanodes.values().iterator();
+         it.hasNext();) {
+      if (it.next().isUnused(now)) {
+        it.remove();
+      }
+    }
+    purgeThreshold = Math.max(MIN_PURGE_THRESHOLD, 2 * datanodes.size());
+  }
+
+  /** @return the number of open connections to all the DataNodes. */
+  @VisibleForTesting
+  public synchronized int getNumConnections() {
+    int n = 0;
+    for (Connections dn : datanodes.values()) {
+      for (MultiplexedConnection connection : dn.connections) {
+        if (!connection.isClosed()) {
+          n++;
+        }
+      }
+    }
+    return n;
+  }
+
+  /** @return the number of DataNodes the pool keeps track of. */
+  @VisibleForTesting
+  public synchronized int getNumDatanodes() {
+    return datanodes.size();
+  }
+}
@@ -30,6 +30,7 @@ public class ReadStatistics {
 
   private BlockType blockType = BlockType.CONTIGUOUS;
   private long totalEcDecodingTimeMillis;
+  private long totalEcSlowReads;
 
   public ReadStatistics() {
     clear();
@@ -95,6 +96,14 @@ public synchronized long getTotalEcDecodingTimeMillis() {
     return totalEcDecodingTimeMillis;
   }
 
+  /**
+   * Return the number of erasure coded chunk reads which were slower than the
+   * slow read threshold, and for which parity chunks were read instead.
+   */
+  public synchronized long getTotalEcSlowReads() {
+    return totalEcSlowReads;
+  }
+
   public synchronized void addRemoteBytes(long amt) {
     this.totalBytesRead += amt;
   }
@@ -121,6 +130,10 @@ public synchronized void addErasureCodingDecodingTime(long millis) {
     this.totalEcDecodingTimeMillis += millis;
   }
 
+  public synchronized void addErasureCodingSlowReads(long reads) {
+    this.totalEcSlowReads += reads;
+  }
+
   synchronized void setBlockType(BlockType blockType) {
     this.blockType = blockType;
   }
@@ -131,5 +144,6 @@ public synchronized void clear() {
     this.totalShortCircuitBytesRead = 0;
     this.totalZeroCopyBytesRead = 0;
     this.totalEcDecodingTimeMillis = 0;
+    this.totalEcSlowReads = 0;
   }
 }
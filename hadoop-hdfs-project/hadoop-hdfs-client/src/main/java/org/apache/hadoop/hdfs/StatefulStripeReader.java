@@ -29,6 +29,7 @@
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.function.Supplier;
 
 /**
  * The reader for reading a complete {@link StripedBlockUtil.AlignedStripe}
@@ -36,21 +37,27 @@
  * Reading cross multiple strips is not supported in this reader.
  */
 class StatefulStripeReader extends StripeReader {
+  private final ByteBuffer stripeBuf;
+  private final Supplier<ByteBuffer> parityBuf;
 
+  /**
+   * @param stripeBuf the buffer of the whole stripe
+   * @param parityBuf supplies the buffer for the parity cells of the stripe
+   */
   StatefulStripeReader(AlignedStripe alignedStripe,
       ErasureCodingPolicy ecPolicy, LocatedBlock[] targetBlocks,
       BlockReaderInfo[] readerInfos, CorruptedBlocks corruptedBlocks,
-      RawErasureDecoder decoder, DFSStripedInputStream dfsStripedInputStream) {
+      RawErasureDecoder decoder, DFSStripedInputStream dfsStripedInputStream,
+      ByteBuffer stripeBuf, Supplier<ByteBuffer> parityBuf) {
     super(alignedStripe, ecPolicy, targetBlocks, readerInfos,
         corruptedBlocks, decoder, dfsStripedInputStream);
+    this.stripeBuf = stripeBuf;
+    this.parityBuf = parityBuf;
   }
 
   @Override
   void prepareDecodeInputs() {
-    final ByteBuffer cur;
-    synchronized (dfsStripedInputStream) {
-      cur = dfsStripedInputStream.getCurStripeBuf().duplicate();
-    }
+    final ByteBuffer cur = stripeBuf.duplicate();
 
     this.decodeInputs = new ECChunk[dataBlkNum + parityBlkNum];
     int bufLen = (int) alignedStripe.getSpanInBlock();
@@ -78,7 +85,7 @@ boolean prepareParityChunk(int index) {
       return false;
     }
     final int parityIndex = index - dataBlkNum;
-    ByteBuffer buf = dfsStripedInputStream.getParityBuffer().duplicate();
+    ByteBuffer buf = parityBuf.get().duplicate();
     buf.position(cellSize * parityIndex);
     buf.limit(cellSize * parityIndex + (int) alignedStripe.range.spanInBlock);
     decodeInputs[index] =
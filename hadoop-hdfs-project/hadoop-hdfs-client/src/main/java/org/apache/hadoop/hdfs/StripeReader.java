@@ -39,7 +39,9 @@
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 
@@ -82,13 +84,21 @@ static class BlockReaderInfo {
      * track offsets for all the block readers so that we can skip data if
      * necessary.
      */
-    long blockReaderOffset;
+    volatile long blockReaderOffset;
     /**
      * We use this field to indicate whether we should use this reader. In case
      * we hit any issue with this reader, we set this field to true and avoid
      * using it for the next stripe.
      */
-    boolean shouldSkip = false;
+    volatile boolean shouldSkip = false;
+    /**
+     * The last read submitted for this reader. The next read waits for it, so
+     * that the reads of the following stripes can be submitted before the
+     * reader is done with the current one.
+     */
+    Future<Void> lastRead;
+    /** The chunk read which is using the reader, if any. */
+    private ChunkRead reading;
 
     BlockReaderInfo(BlockReader reader, DatanodeInfo dn, long offset) {
       this.reader = reader;
@@ -100,12 +110,71 @@ void setOffset(long offset) {
       this.blockReaderOffset = offset;
     }
 
-    void skip() {
+    synchronized void skip() {
       this.shouldSkip = true;
     }
+
+    synchronized boolean startRead(ChunkRead read) {
+      if (shouldSkip || read.abandoned) {
+        return false;
+      }
+      reading = read;
+      return true;
+    }
+
+    synchronized void finishRead(boolean failed) {
+      if (failed) {
+        // The reader is in an unknown position, so it cannot be used for the
+        // reads waiting for this one.
+        shouldSkip = true;
+      }
+      reading = null;
+      notifyAll();
+    }
+
+    /**
+     * Make sure that the given read does not use the reader any more. Once
+     * this returns, the read no longer writes to its buffers.
+     */
+    synchronized void abandon(ChunkRead read) {
+      read.abandoned = true;
+      awaitIdle(read);
+    }
+
+    /** Wait until no read is using the reader. */
+    synchronized void awaitIdle() {
+      awaitIdle(null);
+    }
+
+    private void awaitIdle(ChunkRead read) {
+      boolean interrupted = false;
+      while (reading != null && (read == null || reading == read)) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    boolean isRemote() {
+      return reader != null && !reader.isShortCircuit();
+    }
+  }
+
+  /**
+   * A read of the cells of one internal block in the aligned stripe.
+   */
+  static class ChunkRead {
+    /** Guarded by the monitor of the {@link BlockReaderInfo}. */
+    private boolean abandoned = false;
   }
 
   protected final Map<Future<Void>, Integer> futures = new HashMap<>();
+  private final ChunkRead[] chunkReads;
   protected final AlignedStripe alignedStripe;
   protected final CompletionService<Void> service;
   protected final LocatedBlock[] targetBlocks;
@@ -135,6 +204,7 @@ void skip() {
     this.corruptedBlocks = corruptedBlocks;
     this.decoder = decoder;
     this.dfsStripedInputStream = dfsStripedInputStream;
+    this.chunkReads = new ChunkRead[dataBlkNum + parityBlkNum];
 
     service = new ExecutorCompletionService<>(
             dfsStripedInputStream.getStripedReadsThreadPool());
@@ -162,13 +232,6 @@ void skip() {
   void close() {
   }
 
-  void updateState4SuccessRead(StripingChunkReadResult result) {
-    Preconditions.checkArgument(
-        result.state == StripingChunkReadResult.SUCCESSFUL);
-    readerInfos[result.index].setOffset(alignedStripe.getOffsetInBlock()
-        + alignedStripe.getSpanInBlock());
-  }
-
   private void checkMissingBlocks() throws IOException {
     if (alignedStripe.missingChunksNum > parityBlkNum) {
       clearFutures();
@@ -257,26 +320,51 @@ private int readToBuffer(BlockReader blockReader,
     }
   }
 
-  private Callable<Void> readCells(final BlockReader reader,
-      final DatanodeInfo datanode, final long currentReaderOffset,
+  private Callable<Void> readCells(final BlockReaderInfo readerInfo,
+      final ChunkRead read, final Future<Void> previousRead,
       final long targetReaderOffset, final ByteBufferStrategy[] strategies,
       final ExtendedBlock currentBlock) {
     return () -> {
       // reader can be null if getBlockReaderWithRetry failed or
       // the reader hit exception before
+      final BlockReader reader = readerInfo.reader;
       if (reader == null) {
         throw new IOException("The BlockReader is null. " +
             "The BlockReader creation failed or the reader hit exception.");
       }
-      Preconditions.checkState(currentReaderOffset <= targetReaderOffset);
-      if (currentReaderOffset < targetReaderOffset) {
-        long skipped = reader.skip(targetReaderOffset - currentReaderOffset);
-        Preconditions.checkState(
-            skipped == targetReaderOffset - currentReaderOffset);
+      if (previousRead != null) {
+        try {
+          previousRead.get();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException("Interrupted while waiting for "
+              + "the previous read from " + readerInfo.datanode);
+        } catch (ExecutionException | CancellationException e) {
+          // The previous read has marked the reader to be skipped.
+        }
+      }
+      if (!readerInfo.startRead(read)) {
+        throw new IOException("The BlockReader for " + currentBlock
+            + " hit exception before, or the read was abandoned.");
       }
+      boolean success = false;
+      try {
+        final long currentReaderOffset = readerInfo.blockReaderOffset;
+        Preconditions.checkState(currentReaderOffset <= targetReaderOffset);
+        if (currentReaderOffset < targetReaderOffset) {
+          long skipped = reader.skip(targetReaderOffset - currentReaderOffset);
+          Preconditions.checkState(
+              skipped == targetReaderOffset - currentReaderOffset);
+        }
 
-      for (ByteBufferStrategy strategy : strategies) {
-        readToBuffer(reader, datanode, strategy, currentBlock);
+        DFSClientFaultInjector.get().readStripedChunk(readerInfo.datanode);
+        for (ByteBufferStrategy strategy : strategies) {
+          readToBuffer(reader, readerInfo.datanode, strategy, currentBlock);
+        }
+        readerInfo.setOffset(alignedStripe.getOffsetInBlock()
+            + alignedStripe.getSpanInBlock());
+        success = true;
+      } finally {
+        readerInfo.finishRead(!success);
       }
       return null;
     };
@@ -303,13 +391,15 @@ boolean readChunk(final LocatedBlock block, int chunkIndex)
     }
 
     chunk.state = StripingChunk.PENDING;
-    Callable<Void> readCallable = readCells(readerInfos[chunkIndex].reader,
-        readerInfos[chunkIndex].datanode,
-        readerInfos[chunkIndex].blockReaderOffset,
-        alignedStripe.getOffsetInBlock(), getReadStrategies(chunk),
-        block.getBlock());
+    final BlockReaderInfo readerInfo = readerInfos[chunkIndex];
+    final ChunkRead read = new ChunkRead();
+    Callable<Void> readCallable = readCells(readerInfo, read,
+        readerInfo.lastRead, alignedStripe.getOffsetInBlock(),
+        getReadStrategies(chunk), block.getBlock());
 
     Future<Void> request = service.submit(readCallable);
+    readerInfo.lastRead = request;
+    chunkReads[chunkIndex] = read;
     futures.put(request, chunkIndex);
     return true;
   }
@@ -318,6 +408,15 @@ boolean readChunk(final LocatedBlock block, int chunkIndex)
    * read the whole stripe. do decoding if necessary
    */
   void readStripe() throws IOException {
+    startReads();
+    awaitReads();
+    decodeIfNeeded();
+  }
+
+  /**
+   * Submit the reads of the stripe, without waiting for them.
+   */
+  void startReads() throws IOException {
     for (int i = 0; i < dataBlkNum; i++) {
       if (alignedStripe.chunks[i] != null &&
           alignedStripe.chunks[i].state != StripingChunk.ALLZERO) {
@@ -335,27 +434,43 @@ void readStripe() throws IOException {
       readParityChunks(alignedStripe.missingChunksNum);
     }
     // TODO: for a full stripe we can start reading (dataBlkNum + 1) chunks
+  }
 
+  /**
+   * Wait for the reads of the stripe. When the reads from some DataNodes take
+   * longer than the slow read threshold, parity chunks are read in their
+   * place, and the first to arrive are used.
+   */
+  void awaitReads() throws IOException {
+    final long slowReadThreshold =
+        dfsStripedInputStream.getStripedSlowReadThresholdMs();
+    boolean readForSlowChunks = false;
     // Input buffers for potential decode operation, which remains null until
     // first read failure
     while (!futures.isEmpty()) {
       try {
         StripingChunkReadResult r = StripedBlockUtil
-            .getNextCompletedStripedRead(service, futures, 0);
+            .getNextCompletedStripedRead(service, futures,
+                readForSlowChunks ? 0 : slowReadThreshold);
         if (DFSClient.LOG.isDebugEnabled()) {
           DFSClient.LOG.debug("Read task returned: " + r + ", for stripe "
               + alignedStripe);
         }
+        if (r.state == StripingChunkReadResult.TIMEOUT) {
+          readForSlowChunks = true;
+          readParityForSlowChunks();
+          continue;
+        }
         StripingChunk returnedChunk = alignedStripe.chunks[r.index];
         Preconditions.checkNotNull(returnedChunk);
         Preconditions.checkState(returnedChunk.state == StripingChunk.PENDING);
+        chunkReads[r.index] = null;
 
         if (r.state == StripingChunkReadResult.SUCCESSFUL) {
           returnedChunk.state = StripingChunk.FETCHED;
           alignedStripe.fetchedChunksNum++;
-          updateState4SuccessRead(r);
           if (alignedStripe.fetchedChunksNum == dataBlkNum) {
-            clearFutures();
+            abandonPendingReads();
             break;
           }
         } else {
@@ -378,12 +493,64 @@ void readStripe() throws IOException {
         throw new InterruptedIOException(err);
       }
     }
+  }
 
+  void decodeIfNeeded() throws IOException {
     if (alignedStripe.missingChunksNum > 0) {
       decode();
     }
   }
 
+  /**
+   * Some remote reads have not returned within the slow read threshold. Read
+   * as many parity chunks as there are such reads, so that the stripe can be
+   * decoded without them.
+   */
+  private void readParityForSlowChunks() throws IOException {
+    int slowReads = 0;
+    for (Integer index : futures.values()) {
+      if (readerInfos[index] != null && readerInfos[index].isRemote()) {
+        slowReads++;
+      }
+    }
+    if (slowReads == 0) {
+      return;
+    }
+    DFSClient.LOG.debug("{} reads of stripe {} are slow, reading parity "
+        + "chunks", slowReads, alignedStripe);
+    dfsStripedInputStream.readStatistics.addErasureCodingSlowReads(slowReads);
+    readDataForDecoding();
+    readParityChunks(slowReads);
+  }
+
+  /**
+   * Enough chunks have been fetched to decode the stripe. Any read still
+   * pending is either slow or no longer needed, so treat its chunk as missing
+   * and close its block reader, making sure it no longer writes to the
+   * buffers of the stripe.
+   */
+  private void abandonPendingReads() {
+    for (Map.Entry<Future<Void>, Integer> entry : futures.entrySet()) {
+      final int index = entry.getValue();
+      alignedStripe.chunks[index].state = StripingChunk.MISSING;
+      alignedStripe.missingChunksNum++;
+      abandonRead(entry.getKey(), index);
+      dfsStripedInputStream.closeReader(readerInfos[index]);
+    }
+    futures.clear();
+  }
+
+  private void abandonRead(Future<Void> future, int index) {
+    final BlockReaderInfo readerInfo = readerInfos[index];
+    final ChunkRead read = chunkReads[index];
+    chunkReads[index] = null;
+    readerInfo.skip();
+    // Interrupting a short-circuit read would close the file channels shared
+    // with other readers, so these are left to complete.
+    future.cancel(readerInfo.isRemote());
+    readerInfo.abandon(read);
+  }
+
   /**
    * Some fetched {@link StripingChunk} might be stored in original application
    * buffer instead of prepared decode input buffers. Some others are beyond
@@ -459,9 +626,13 @@ int[] prepareErasedIndices() {
     return erasedIndices;
   }
 
+  /**
+   * Abandon all the pending reads. Their block readers are not used for the
+   * following stripes.
+   */
   void clearFutures() {
-    for (Future<Void> future : futures.keySet()) {
-      future.cancel(false);
+    for (Map.Entry<Future<Void>, Integer> entry : futures.entrySet()) {
+      abandonRead(entry.getKey(), entry.getValue());
     }
     futures.clear();
   }
@@ -288,6 +288,9 @@ interface Write {
 
     String  MAX_PACKETS_IN_FLIGHT_KEY = PREFIX + "max-packets-in-flight";
     int     MAX_PACKETS_IN_FLIGHT_DEFAULT = 80;
+    String  MAX_PACKETS_IN_FLIGHT_ADAPTIVE_LIMIT_KEY =
+        PREFIX + "max-packets-in-flight.adaptive.limit";
+    int     MAX_PACKETS_IN_FLIGHT_ADAPTIVE_LIMIT_DEFAULT = 0;
     String  EXCLUDE_NODES_CACHE_EXPIRY_INTERVAL_KEY =
         PREFIX + "exclude.nodes.cache.expiry.interval.millis";
     long    EXCLUDE_NODES_CACHE_EXPIRY_INTERVAL_DEFAULT = 10*MINUTE;
@@ -354,6 +357,8 @@ interface ShortCircuit {
       int     STREAMS_CACHE_SIZE_DEFAULT = 256;
       String  STREAMS_CACHE_EXPIRY_MS_KEY = PREFIX + "streams.cache.expiry.ms";
       long    STREAMS_CACHE_EXPIRY_MS_DEFAULT = 5*MINUTE;
+      String  CACHE_STRIPES_KEY = PREFIX + "cache.stripes";
+      int     CACHE_STRIPES_DEFAULT = 1;
 
       String  METRICS_SAMPLING_PERCENTAGE_KEY =
           PREFIX + "metrics.sampling.percentage";
@@ -392,6 +397,20 @@ interface HedgedRead {
     long    THRESHOLD_MILLIS_DEFAULT = 500;
     String  THREADPOOL_SIZE_KEY = PREFIX + "threadpool.size";
     int     THREADPOOL_SIZE_DEFAULT = 0;
+    String  ADAPTIVE_PERCENTILE_KEY = PREFIX + "adaptive.percentile";
+    float   ADAPTIVE_PERCENTILE_DEFAULT = 0;
+    String  ADAPTIVE_MIN_THRESHOLD_MILLIS_KEY =
+        PREFIX + "adaptive.min-threshold.millis";
+    long    ADAPTIVE_MIN_THRESHOLD_MILLIS_DEFAULT = 10;
+    String  ADAPTIVE_SLOW_NODE_FACTOR_KEY =
+        PREFIX + "adaptive.slow-node.factor";
+    float   ADAPTIVE_SLOW_NODE_FACTOR_DEFAULT = 3;
+    String  ADAPTIVE_WINDOW_MILLIS_KEY = PREFIX + "adaptive.window.millis";
+    long    ADAPTIVE_WINDOW_MILLIS_DEFAULT = MINUTE;
+    String  BUDGET_RATIO_KEY = PREFIX + "budget.ratio";
+    float   BUDGET_RATIO_DEFAULT = 0;
+    String  BUDGET_BURST_KEY = PREFIX + "budget.burst";
+    int     BUDGET_BURST_DEFAULT = 10;
   }
 
   /** dfs.client.read.striped configuration properties */
@@ -404,6 +423,54 @@ interface StripedRead {
      * span 6 DNs, so this default value accommodates 3 read streams
      */
     int     THREADPOOL_SIZE_DEFAULT = 18;
+    /**
+     * The number of stripes read ahead of the current one by stateful reads.
+     * Each is read into its own buffer, of the size of a stripe.
+     */
+    String  READAHEAD_STRIPES_KEY = PREFIX + "readahead.stripes";
+    int     READAHEAD_STRIPES_DEFAULT = 0;
+    String  SLOW_READ_THRESHOLD_MS_KEY = PREFIX + "slow-read.threshold.ms";
+    long    SLOW_READ_THRESHOLD_MS_DEFAULT = 0;
+  }
+
+  /** dfs.client.read.vectored configuration properties */
+  interface VectoredRead {
+    String PREFIX = Read.PREFIX + "vectored.";
+
+    String  THREADPOOL_SIZE_KEY = PREFIX + "threadpool.size";
+    int     THREADPOOL_SIZE_DEFAULT = 16;
+    String  MIN_SEEK_KEY = PREFIX + "min-seek";
+    int     MIN_SEEK_DEFAULT = 64 * 1024;
+    String  MAX_MERGED_SIZE_KEY = PREFIX + "max-merged-size";
+    int     MAX_MERGED_SIZE_DEFAULT = 4 * 1024 * 1024;
+  }
+
+  /** dfs.client.metadata.cache configuration properties */
+  interface MetadataCache {
+    String PREFIX = HdfsClientConfigKeys.PREFIX + "metadata.cache.";
+
+    String  ENABLED_KEY = PREFIX + "enabled";
+    boolean ENABLED_DEFAULT = false;
+    String  TTL_MS_KEY = PREFIX + "ttl.ms";
+    long    TTL_MS_DEFAULT = 5 * SECOND;
+    String  MAX_ENTRIES_KEY = PREFIX + "max-entries";
+    long    MAX_ENTRIES_DEFAULT = 10000;
+    String  INOTIFY_ENABLED_KEY = PREFIX + "inotify.enabled";
+    boolean INOTIFY_ENABLED_DEFAULT = false;
+  }
+
+  /** dfs.client.multiplexed-connections configuration properties */
+  interface MultiplexedConnections {
+    String PREFIX = HdfsClientConfigKeys.PREFIX + "multiplexed-connections.";
+
+    String  ENABLED_KEY = PREFIX + "enabled";
+    boolean ENABLED_DEFAULT = false;
+    String  MAX_STREAMS_KEY = PREFIX + "max-streams";
+    int     MAX_STREAMS_DEFAULT = 64;
+    String  STREAM_WINDOW_KEY = PREFIX + "stream-window";
+    int     STREAM_WINDOW_DEFAULT = 128 * 1024;
+    String  UNSUPPORTED_EXPIRY_MS_KEY = PREFIX + "unsupported.expiry.ms";
+    long    UNSUPPORTED_EXPIRY_MS_DEFAULT = 10 * MINUTE;
   }
 
   /** dfs.http.client configuration properties */
@@ -112,6 +112,7 @@ public class DfsClientConf {
   private final ChecksumCombineMode checksumCombineMode;
   private final int writePacketSize;
   private final int writeMaxPackets;
+  private final int writeMaxPacketsLimit;
   private final ByteArrayManager.Conf writeByteArrayManagerConf;
   private final int socketTimeout;
   private final int socketSendBufferSize;
@@ -137,10 +138,29 @@ public class DfsClientConf {
 
   private final long hedgedReadThresholdMillis;
   private final int hedgedReadThreadpoolSize;
+  private final float hedgedReadAdaptivePercentile;
+  private final long hedgedReadAdaptiveMinThresholdMillis;
+  private final float hedgedReadAdaptiveSlowNodeFactor;
+  private final long hedgedReadAdaptiveWindowMillis;
+  private final float hedgedReadBudgetRatio;
+  private final int hedgedReadBudgetBurst;
   private final List<Class<? extends ReplicaAccessorBuilder>>
       replicaAccessorBuilderClasses;
 
   private final int stripedReadThreadpoolSize;
+  private final int stripedReadReadaheadStripes;
+  private final long stripedReadSlowThresholdMs;
+  private final int vectoredReadThreadpoolSize;
+  private final int vectoredReadMinSeek;
+  private final int vectoredReadMaxMergedSize;
+  private final boolean metadataCacheEnabled;
+  private final long metadataCacheTtlMs;
+  private final long metadataCacheMaxEntries;
+  private final boolean metadataCacheInotifyEnabled;
+  private final boolean multiplexedConnectionsEnabled;
+  private final int multiplexedConnectionsMaxStreams;
+  private final int multiplexedConnectionsStreamWindow;
+  private final long multiplexedConnectionsUnsupportedExpiryMs;
 
   private final boolean dataTransferTcpNoDelay;
 
@@ -196,6 +216,9 @@ public DfsClientConf(Configuration conf) {
     writeMaxPackets = conf.getInt(
         Write.MAX_PACKETS_IN_FLIGHT_KEY,
         Write.MAX_PACKETS_IN_FLIGHT_DEFAULT);
+    writeMaxPacketsLimit = conf.getInt(
+        Write.MAX_PACKETS_IN_FLIGHT_ADAPTIVE_LIMIT_KEY,
+        Write.MAX_PACKETS_IN_FLIGHT_ADAPTIVE_LIMIT_DEFAULT);
 
     final boolean byteArrayManagerEnabled = conf.getBoolean(
         Write.ByteArrayManager.ENABLED_KEY,
@@ -257,6 +280,28 @@ public DfsClientConf(Configuration conf) {
     hedgedReadThreadpoolSize = conf.getInt(
         HdfsClientConfigKeys.HedgedRead.THREADPOOL_SIZE_KEY,
         HdfsClientConfigKeys.HedgedRead.THREADPOOL_SIZE_DEFAULT);
+    hedgedReadAdaptivePercentile = conf.getFloat(
+        HedgedRead.ADAPTIVE_PERCENTILE_KEY,
+        HedgedRead.ADAPTIVE_PERCENTILE_DEFAULT);
+    Preconditions.checkArgument(hedgedReadAdaptivePercentile >= 0
+        && hedgedReadAdaptivePercentile <= 100,
+        "Invalid value configured for " + HedgedRead.ADAPTIVE_PERCENTILE_KEY
+        + ": " + hedgedReadAdaptivePercentile);
+    hedgedReadAdaptiveMinThresholdMillis = conf.getLong(
+        HedgedRead.ADAPTIVE_MIN_THRESHOLD_MILLIS_KEY,
+        HedgedRead.ADAPTIVE_MIN_THRESHOLD_MILLIS_DEFAULT);
+    hedgedReadAdaptiveSlowNodeFactor = conf.getFloat(
+        HedgedRead.ADAPTIVE_SLOW_NODE_FACTOR_KEY,
+        HedgedRead.ADAPTIVE_SLOW_NODE_FACTOR_DEFAULT);
+    hedgedReadAdaptiveWindowMillis = conf.getLong(
+        HedgedRead.ADAPTIVE_WINDOW_MILLIS_KEY,
+        HedgedRead.ADAPTIVE_WINDOW_MILLIS_DEFAULT);
+    hedgedReadBudgetRatio = conf.getFloat(
+        HedgedRead.BUDGET_RATIO_KEY,
+        HedgedRead.BUDGET_RATIO_DEFAULT);
+    hedgedReadBudgetBurst = conf.getInt(
+        HedgedRead.BUDGET_BURST_KEY,
+        HedgedRead.BUDGET_BURST_DEFAULT);
 
     stripedReadThreadpoolSize = conf.getInt(
         HdfsClientConfigKeys.StripedRead.THREADPOOL_SIZE_KEY,
@@ -264,6 +309,57 @@ public DfsClientConf(Configuration conf) {
     Preconditions.checkArgument(stripedReadThreadpoolSize > 0, "The value of " +
         HdfsClientConfigKeys.StripedRead.THREADPOOL_SIZE_KEY +
         " must be greater than 0.");
+    stripedReadReadaheadStripes = conf.getInt(
+        HdfsClientConfigKeys.StripedRead.READAHEAD_STRIPES_KEY,
+        HdfsClientConfigKeys.StripedRead.READAHEAD_STRIPES_DEFAULT);
+    Preconditions.checkArgument(stripedReadReadaheadStripes >= 0,
+        "The value of " + HdfsClientConfigKeys.StripedRead.READAHEAD_STRIPES_KEY
+        + " must not be negative.");
+    stripedReadSlowThresholdMs = conf.getLong(
+        HdfsClientConfigKeys.StripedRead.SLOW_READ_THRESHOLD_MS_KEY,
+        HdfsClientConfigKeys.StripedRead.SLOW_READ_THRESHOLD_MS_DEFAULT);
+    vectoredReadThreadpoolSize = conf.getInt(
+        HdfsClientConfigKeys.VectoredRead.THREADPOOL_SIZE_KEY,
+        HdfsClientConfigKeys.VectoredRead.THREADPOOL_SIZE_DEFAULT);
+    vectoredReadMinSeek = conf.getInt(
+        HdfsClientConfigKeys.VectoredRead.MIN_SEEK_KEY,
+        HdfsClientConfigKeys.VectoredRead.MIN_SEEK_DEFAULT);
+    vectoredReadMaxMergedSize = conf.getInt(
+        HdfsClientConfigKeys.VectoredRead.MAX_MERGED_SIZE_KEY,
+        HdfsClientConfigKeys.VectoredRead.MAX_MERGED_SIZE_DEFAULT);
+    metadataCacheEnabled = conf.getBoolean(
+        HdfsClientConfigKeys.MetadataCache.ENABLED_KEY,
+        HdfsClientConfigKeys.MetadataCache.ENABLED_DEFAULT);
+    metadataCacheTtlMs = conf.getLong(
+        HdfsClientConfigKeys.MetadataCache.TTL_MS_KEY,
+        HdfsClientConfigKeys.MetadataCache.TTL_MS_DEFAULT);
+    metadataCacheMaxEntries = conf.getLong(
+        HdfsClientConfigKeys.MetadataCache.MAX_ENTRIES_KEY,
+        HdfsClientConfigKeys.MetadataCache.MAX_ENTRIES_DEFAULT);
+    metadataCacheInotifyEnabled = conf.getBoolean(
+        HdfsClientConfigKeys.MetadataCache.INOTIFY_ENABLED_KEY,
+        HdfsClientConfigKeys.MetadataCache.INOTIFY_ENABLED_DEFAULT);
+    multiplexedConnectionsEnabled = conf.getBoolean(
+        HdfsClientConfigKeys.MultiplexedConnections.ENABLED_KEY,
+        HdfsClientConfigKeys.MultiplexedConnections.ENABLED_DEFAULT);
+    multiplexedConnectionsMaxStreams = conf.getInt(
+        HdfsClientConfigKeys.MultiplexedConnections.MAX_STREAMS_KEY,
+        HdfsClientConfigKeys.MultiplexedConnections.MAX_STREAMS_DEFAULT);
+    Preconditions.checkArgument(multiplexedConnectionsMaxStreams > 0,
+        "The value of " +
+        HdfsClientConfigKeys.MultiplexedConnections.MAX_STREAMS_KEY +
+        " must be greater than 0.");
+    multiplexedConnectionsStreamWindow = conf.getInt(
+        HdfsClientConfigKeys.MultiplexedConnections.STREAM_WINDOW_KEY,
+        HdfsClientConfigKeys.MultiplexedConnections.STREAM_WINDOW_DEFAULT);
+    Preconditions.checkArgument(multiplexedConnectionsStreamWindow > 0,
+        "The value of " +
+        HdfsClientConfigKeys.MultiplexedConnections.STREAM_WINDOW_KEY +
+        " must be greater than 0.");
+    multiplexedConnectionsUnsupportedExpiryMs = conf.getLong(
+        HdfsClientConfigKeys.MultiplexedConnections.UNSUPPORTED_EXPIRY_MS_KEY,
+        HdfsClientConfigKeys.MultiplexedConnections
+            .UNSUPPORTED_EXPIRY_MS_DEFAULT);
     replicaAccessorBuilderClasses = loadReplicaAccessorBuilderClasses(conf);
   }
 
@@ -433,6 +529,13 @@ public int getWriteMaxPackets() {
     return writeMaxPackets;
   }
 
+  /**
+   * @return the writeMaxPacketsLimit
+   */
+  public int getWriteMaxPacketsLimit() {
+    return writeMaxPacketsLimit;
+  }
+
   /**
    * @return the writeByteArrayManagerConf
    */
@@ -580,6 +683,49 @@ public int getHedgedReadThreadpoolSize() {
     return hedgedReadThreadpoolSize;
   }
 
+  /**
+   * @return the percentile of the read latency of a DataNode after which a
+   *         hedged read is started, or 0 to use the fixed threshold
+   */
+  public float getHedgedReadAdaptivePercentile() {
+    return hedgedReadAdaptivePercentile;
+  }
+
+  /**
+   * @return the hedgedReadAdaptiveMinThresholdMillis
+   */
+  public long getHedgedReadAdaptiveMinThresholdMillis() {
+    return hedgedReadAdaptiveMinThresholdMillis;
+  }
+
+  /**
+   * @return the hedgedReadAdaptiveSlowNodeFactor
+   */
+  public float getHedgedReadAdaptiveSlowNodeFactor() {
+    return hedgedReadAdaptiveSlowNodeFactor;
+  }
+
+  /**
+   * @return the hedgedReadAdaptiveWindowMillis
+   */
+  public long getHedgedReadAdaptiveWindowMillis() {
+    return hedgedReadAdaptiveWindowMillis;
+  }
+
+  /**
+   * @return the ratio of hedged reads to reads, or 0 for no limit
+   */
+  public float getHedgedReadBudgetRatio() {
+    return hedgedReadBudgetRatio;
+  }
+
+  /**
+   * @return the hedgedReadBudgetBurst
+   */
+  public int getHedgedReadBudgetBurst() {
+    return hedgedReadBudgetBurst;
+  }
+
   /**
    * @return the stripedReadThreadpoolSize
    */
@@ -587,6 +733,97 @@ public int getStripedReadThreadpoolSize() {
     return stripedReadThreadpoolSize;
   }
 
+  /**
+   * @return the stripedReadReadaheadStripes
+   */
+  public int getStripedReadReadaheadStripes() {
+    return stripedReadReadaheadStripes;
+  }
+
+  /**
+   * @return the stripedReadSlowThresholdMs
+   */
+  public long getStripedReadSlowThresholdMs() {
+    return stripedReadSlowThresholdMs;
+  }
+
+  /**
+   * @return the vectoredReadThreadpoolSize
+   */
+  public int getVectoredReadThreadpoolSize() {
+    return vectoredReadThreadpoolSize;
+  }
+
+  /**
+   * @return the vectoredReadMinSeek
+   */
+  public int getVectoredReadMinSeek() {
+    return vectoredReadMinSeek;
+  }
+
+  /**
+   * @return the vectoredReadMaxMergedSize
+   */
+  public int getVectoredReadMaxMergedSize() {
+    return vectoredReadMaxMergedSize;
+  }
+
+  /**
+   * @return the metadataCacheEnabled
+   */
+  public boolean isMetadataCacheEnabled() {
+    return metadataCacheEnabled;
+  }
+
+  /**
+   * @return the metadataCacheTtlMs
+   */
+  public long getMetadataCacheTtlMs() {
+    return metadataCacheTtlMs;
+  }
+
+  /**
+   * @return the metadataCacheMaxEntries
+   */
+  public long getMetadataCacheMaxEntries() {
+    return metadataCacheMaxEntries;
+  }
+
+  /**
+   * @return the metadataCacheInotifyEnabled
+   */
+  public boolean isMetadataCacheInotifyEnabled() {
+    return metadataCacheInotifyEnabled;
+  }
+
+  /**
+   * @return the multiplexedConnectionsEnabled
+   */
+  public boolean isMultiplexedConnectionsEnabled() {
+    return multiplexedConnectionsEnabled;
+  }
+
+  /**
+   * @return the multiplexedConnectionsMaxStreams
+   */
+  public int getMultiplexedConnectionsMaxStreams() {
+    return multiplexedConnectionsMaxStreams;
+  }
+
+  /**
+   * @return the multiplexedConnectionsStreamWindow
+   */
+  public int getMultiplexedConnectionsStreamWindow() {
+    return multiplexedConnectionsStreamWindow;
+  }
+
+  /**
+   * @return the multiplexedConnectionsUnsupportedExpiryMs
+   */
+  public long getMultiplexedConnectionsUnsupportedExpiryMs() {
+    return multiplexedConnectionsUnsupportedExpiryMs;
+  }
+
   /**
    * @return the replicaAccessorBuilderClasses
    */
@@ -620,6 +857,7 @@ public static class ShortCircuitConf {
     private final boolean domainSocketDataTraffic;
     private final int shortCircuitStreamsCacheSize;
     private final long shortCircuitStreamsCacheExpiryMs;
+    private final int shortCircuitCacheStripes;
     private final int shortCircuitSharedMemoryWatcherInterruptCheckMs;
 
     // Short Circuit Read Metrics
@@ -691,6 +929,11 @@ public ShortCircuitConf(Configuration conf) {
       shortCircuitStreamsCacheExpiryMs = conf.getLong(
           Read.ShortCircuit.STREAMS_CACHE_EXPIRY_MS_KEY,
           Read.ShortCircuit.STREAMS_CACHE_EXPIRY_MS_DEFAULT);
+      shortCircuitCacheStripes = conf.getInt(
+          Read.ShortCircuit.CACHE_STRIPES_KEY,
+          Read.ShortCircuit.CACHE_STRIPES_DEFAULT);
+      Preconditions.checkArgument(shortCircuitCacheStripes >= 1,
+          Read.ShortCircuit.CACHE_STRIPES_KEY + " must be at least 1.");
       shortCircuitMmapEnabled = conf.getBoolean(
           Mmap.ENABLED_KEY,
           Mmap.ENABLED_DEFAULT);
@@ -786,6 +1029,14 @@ public long getShortCircuitStreamsCacheExpiryMs() {
       return shortCircuitStreamsCacheExpiryMs;
     }
 
+    /**
+     * @return the number of independent ShortCircuitCaches that replicas are
+     *         spread over by block ID
+     */
+    public int getShortCircuitCacheStripes() {
+      return shortCircuitCacheStripes;
+    }
+
     /**
      * @return the shortCircuitSharedMemoryWatcherInterruptCheckMs
      */
@@ -848,6 +1099,8 @@ public String confAsString() {
           + shortCircuitStreamsCacheSize
           + ", shortCircuitStreamsCacheExpiryMs = "
           + shortCircuitStreamsCacheExpiryMs
+          + ", shortCircuitCacheStripes = "
+          + shortCircuitCacheStripes
           + ", shortCircuitMmapCacheSize = "
           + shortCircuitMmapCacheSize
           + ", shortCircuitMmapCacheExpiryMs = "
@@ -0,0 +1,783 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.net;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.net.unix.DomainSocket;
+import org.apache.hadoop.util.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * A connection which carries many independent streams, each of which is used
+ * as a {@link Peer} of its own.
+ *
+ * Everything sent over the connection is framed.  A frame is made of a type
+ * byte, the id of the stream it belongs to, a length and, for data frames,
+ * that many bytes of data.  Only the side which set up the connection opens
+ * streams; either side may close them.
+ *
+ * Each stream is flow controlled on its own: a side may only send as many
+ * bytes on a stream as the other side has room to buffer.  Once the reader
+ * has consumed half of its window, it gives the credit back.  A slow reader
+ * therefore only holds back its own stream, and the connection is never
+ * blocked by data which nobody reads.
+ *
+ * All frames are written by a single thread, so that interrupting a thread
+ * using a stream never closes the underlying socket channel.
+ */
+@InterfaceAudience.Private
+public class MultiplexedConnection implements Closeable {
+  static final Logger LOG =
+      LoggerFactory.getLogger(MultiplexedConnection.class);
+
+  /** The type of the frame opening a stream. */
+  private static final int OPEN = 0;
+  /** The type of the frames carrying data. */
+  private static final int DATA = 1;
+  /** The type of the frames giving credit back to the sender. */
+  private static final int WINDOW = 2;
+  /** The type of the frame closing a stream. */
+  private static final int CLOSE = 3;
+
+  /**
+   * The largest data frame, so that concurrent streams take turns.  Larger
+   * frames are rejected, which bounds the memory allocated for a frame.
+   */
+  @VisibleForTesting
+  static final int MAX_DATA_FRAME = 64 * 1024;
+
+  /**
+   * Handles the streams opened by the other side.
+   */
+  public interface StreamHandler {
+    /**
+     * Start serving a new stream.  This is called on the thread receiving
+     * frames, and must not block.
+     */
+    void accept(Stream stream) throws IOException;
+  }
+
+  private final Peer peer;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  private final int streamWindow;
+  private final boolean secureChannel;
+  private final StreamHandler handler;
+
+  /** The streams which are open, by id. */
+  private final Map<Integer, Stream> streams = new HashMap<>();
+  private int nextStreamId = 1;
+
+  /** The frames waiting to be written. */
+  private final ArrayDeque<Frame> sendQueue = new ArrayDeque<>();
+  /** The thread receiving frames, if started by {@link #startReceiving}. */
+  private volatile Thread receiver;
+
+  private volatile boolean closed = false;
+  private volatile IOException failure;
+
+  /**
+   * Create a multiplexed connection over a peer, after the MULTIPLEX
+   * operation has been negotiated on it.
+   *
+   * @param peer the peer carrying the connection.
+   * @param in the stream to read frames from.
+   * @param out the stream to write frames to.
+   * @param streamWindow the number of bytes either side may send on a stream
+   *                     before the other side acknowledges them.
+   * @param secureChannel whether the connection is secure, either because
+   *                      the peer is or because SASL has been negotiated on
+   *                      it.  The streams do not negotiate SASL themselves.
+   * @param handler handles the streams opened by the other side, or null if
+   *                this side opens the streams.  The side opening the
+   *                streams closes the connection once it has no more streams.
+   */
+  public MultiplexedConnection(Peer peer, InputStream in, OutputStream out,
+      int streamWindow, boolean secureChannel, StreamHandler handler) {
+    this.peer = peer;
+    this.in = new DataInputStream(in);
+    this.out = new DataOutputStream(
+        new BufferedOutputStream(out, MAX_DATA_FRAME));
+    this.streamWindow = streamWindow;
+    this.secureChannel = secureChannel;
+    this.handler = handler;
+    Thread sender = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sendFrames();
+      }
+    }, "MultiplexedConnection sender for " + peer);
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  /**
+   * Open a new stream.
+   *
+   * @throws IOException if the connection is closed.
+   */
+  public Stream openStream() throws IOException {
+    Preconditions.checkState(handler == null,
+        "Streams are opened by the other side");
+    final Stream stream;
+    synchronized (this) {
+      checkOpen();
+      stream = new Stream(nextStreamId);
+      nextStreamId += 2;
+      streams.put(stream.id, stream);
+    }
+    send(new Frame(OPEN, stream.id, 0, null));
+    return stream;
+  }
+
+  /** @return the number of streams which are open. */
+  public synchronized int getNumStreams() {
+    return streams.size();
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Receive frames until the connection is closed.  The side which accepts
+   * streams stops when the connection has been idle for the read timeout of
+   * the peer.
+   */
+  public void receive() throws IOException {
+    try {
+      while (!closed) {
+        final int type;
+        try {
+          type = in.read();
+        } catch (SocketTimeoutException e) {
+          if (getNumStreams() == 0) {
+            LOG.debug("Closing idle {}", this);
+            return;
+          }
+          continue;
+        }
+        if (type < 0) {
+          LOG.debug("{} closed by the other side", this);
+          return;
+        }
+        final int streamId = in.readInt();
+        final int length = in.readInt();
+        switch (type) {
+        case OPEN:
+          accept(streamId);
+          break;
+        case DATA:
+          if (length < 0 || length > Math.min(streamWindow, MAX_DATA_FRAME)) {
+            throw new IOException("Invalid length " + length
+                + " of a data frame on " + this);
+          }
+          final byte[] data = new byte[length];
+          in.readFully(data);
+          final Stream stream = getStream(streamId);
+          if (stream != null) {
+            stream.received(data);
+          }
+          break;
+        case WINDOW:
+          final Stream credited = getStream(streamId);
+          if (credited != null) {
+            credited.credited(length);
+          }
+          break;
+        case CLOSE:
+          final Stream remoteClosed = removeStream(streamId);
+          if (remoteClosed != null) {
+            remoteClosed.closedByPeer();
+          }
+          break;
+        default:
+          throw new IOException("Unknown frame type " + type + " on " + this);
+        }
+      }
+    } catch (IOException e) {
+      if (!closed) {
+        failure = e;
+        throw e;
+      }
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Start a thread receiving the frames of this connection, for the side
+   * which opens the streams.
+   */
+  public void startReceiving() {
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          receive();
+        } catch (IOException e) {
+          LOG.warn("Failed to receive from {}", MultiplexedConnection.this,
+              e);
+        }
+      }
+    }, "MultiplexedConnection receiver for " + peer);
+    t.setDaemon(true);
+    receiver = t;
+    t.start();
+  }
+
+  @Override
+  public void close() {
+    final List<Stream> open;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      open = new ArrayList<>(streams.values());
+      streams.clear();
+    }
+    synchronized (sendQueue) {
+      sendQueue.clear();
+      sendQueue.notifyAll();
+    }
+    for (Stream stream : open) {
+      stream.connectionClosed();
+    }
+    try {
+      peer.close();
+    } catch (IOException e) {
+      LOG.debug("Failed to close {}", peer, e);
+    }
+    // Closing the socket does not wake up a thread waiting without a timeout
+    // to read from it.
+    final Thread r = receiver;
+    if (r != null && r != Thread.currentThread()) {
+      r.interrupt();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MultiplexedConnection(" + peer + ")";
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException(this + " is closed", failure);
+    }
+  }
+
+  private void accept(int streamId) throws IOException {
+    if (handler == null) {
+      throw new IOException("Unexpected stream " + streamId + " opened on "
+          + this);
+    }
+    final Stream stream = new Stream(streamId);
+    synchronized (this) {
+      streams.put(streamId, stream);
+    }
+    try {
+      handler.accept(stream);
+    } catch (IOException e) {
+      LOG.warn("Rejected stream {} on {}", streamId, this, e);
+      stream.close();
+    }
+  }
+
+  private synchronized Stream getStream(int streamId) {
+    return streams.get(streamId);
+  }
+
+  private synchronized Stream removeStream(int streamId) {
+    final Stream stream = streams.remove(streamId);
+    if (stream != null && streams.isEmpty() && handler == null) {
+      // Close under the lock, so that no new stream is opened meanwhile.
+      LOG.debug("Closing {}, which has no more streams", this);
+      close();
+    }
+    return stream;
+  }
+
+  private void send(Frame frame) throws IOException {
+    if (!trySend(frame)) {
+      checkOpen();
+    }
+  }
+
+  /** @return false if the frame was dropped because the connection closed. */
+  private boolean trySend(Frame frame) {
+    synchronized (sendQueue) {
+      if (closed) {
+        return false;
+      }
+      sendQueue.add(frame);
+      sendQueue.notifyAll();
+      return true;
+    }
+  }
+
+  private Frame nextFrame(boolean wait) throws InterruptedException {
+    synchronized (sendQueue) {
+      while (wait && sendQueue.isEmpty() && !closed) {
+        sendQueue.wait();
+      }
+      return closed ? null : sendQueue.poll();
+    }
+  }
+
+  private void sendFrames() {
+    try {
+      while (true) {
+        Frame frame = nextFrame(false);
+        if (frame == null) {
+          out.flush();
+          frame = nextFrame(true);
+          if (frame == null) {
+            return;
+          }
+        }
+        out.writeByte(frame.type);
+        out.writeInt(frame.streamId);
+        out.writeInt(frame.length);
+        if (frame.data != null) {
+          out.write(frame.data, 0, frame.length);
+        }
+      }
+    } catch (IOException e) {
+      if (!closed) {
+        LOG.warn("Failed to send to {}", this, e);
+        failure = e;
+      }
+    } catch (InterruptedException e) {
+      LOG.debug("Interrupted while sending to {}", this);
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * A frame waiting to be sent.
+   */
+  private static class Frame {
+    private final int type;
+    private final int streamId;
+    /** The length of the data, or the credit given back by a WINDOW frame. */
+    private final int length;
+    private final byte[] data;
+
+    Frame(int type, int streamId, int length, byte[] data) {
+      this.type = type;
+      this.streamId = streamId;
+      this.length = length;
+      this.data = data;
+    }
+  }
+
+  /**
+   * A stream of a multiplexed connection.
+   *
+   * The stream does not negotiate SASL on its own: the connection carrying it
+   * has been through the handshake already, if one was needed.
+   */
+  public class Stream implements Peer {
+    private final int id;
+    private final StreamInputStream inputStream = new StreamInputStream();
+    private final StreamOutputStream outputStream = new StreamOutputStream();
+
+    /** The data received and not read yet. */
+    private final ArrayDeque<ByteBuffer> received = new ArrayDeque<>();
+    private int bytesReceived = 0;
+    /** The bytes read since the last credit was given back. */
+    private int bytesRead = 0;
+    /** The bytes which may be sent before the other side gives credit. */
+    private int credit = streamWindow;
+    private boolean closedLocally = false;
+    private boolean closedRemotely = false;
+    private int readTimeoutMs = 0;
+    private int writeTimeoutMs = 0;
+    /** Run once there is something to read, see {@link #whenReadable}. */
+    private Runnable readable;
+
+    Stream(int id) {
+      this.id = id;
+    }
+
+    private void received(byte[] data) throws IOException {
+      synchronized (this) {
+        if (closedLocally) {
+          return;
+        }
+        bytesReceived += data.length;
+        if (bytesReceived > streamWindow) {
+          throw new IOException("Stream " + id + " of "
+              + MultiplexedConnection.this + " received more than its window");
+        }
+        received.add(ByteBuffer.wrap(data));
+        notifyAll();
+      }
+      runReadable();
+    }
+
+    private synchronized void credited(int bytes) throws IOException {
+      if (bytes < 0 || bytes > streamWindow - credit) {
+        throw new IOException("Stream " + id + " of "
+            + MultiplexedConnection.this + " was given more than its window");
+      }
+      credit += bytes;
+      notifyAll();
+    }
+
+    private void closedByPeer() {
+      synchronized (this) {
+        closedRemotely = true;
+        notifyAll();
+      }
+      runReadable();
+    }
+
+    private void connectionClosed() {
+      synchronized (this) {
+        notifyAll();
+      }
+      runReadable();
+    }
+
+    private synchronized boolean isReadable() {
+      return !received.isEmpty() || closedLocally || closedRemotely || closed;
+    }
+
+    /**
+     * Run a task once a read from the stream would not block, because data
+     * has been received or the stream is closed, so that the side accepting
+     * the streams does not need a thread waiting on each of them.  The task
+     * runs right away if the stream is readable already, otherwise on the
+     * thread receiving frames, so it must not block.
+     */
+    public void whenReadable(Runnable task) {
+      synchronized (this) {
+        Preconditions.checkState(readable == null,
+            "A task is waiting for %s already", this);
+        readable = task;
+      }
+      if (isReadable()) {
+        runReadable();
+      }
+    }
+
+    /**
+     * Cancel a task given to {@link #whenReadable} which has not run yet.
+     *
+     * @return whether the task was cancelled.
+     */
+    public synchronized boolean cancelWhenReadable(Runnable task) {
+      if (readable != task) {
+        return false;
+      }
+      readable = null;
+      return true;
+    }
+
+    private void runReadable() {
+      final Runnable task;
+      synchronized (this) {
+        task = readable;
+        readable = null;
+      }
+      if (task != null) {
+        task.run();
+      }
+    }
+
+    /**
+     * Wait for data, credit or the end of the stream, until the deadline if
+     * there is one.
+     */
+    private void await(long deadline, String what)
+        throws InterruptedIOException {
+      final long now = Time.monotonicNow();
+      if (deadline > 0 && now >= deadline) {
+        throw new SocketTimeoutException("Timed out waiting to " + what
+            + " " + this);
+      }
+      try {
+        wait(deadline > 0 ? deadline - now : 0);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting to "
+            + what + " " + this);
+      }
+    }
+
+    /**
+     * The error for using a closed stream.  Streams closed by the other side
+     * fail like closed sockets do, since the DataNode expects that of the
+     * clients which give up on a read.
+     */
+    private IOException streamClosed() {
+      if (closedLocally) {
+        return new IOException(this + " is closed");
+      } else if (closedRemotely || failure == null) {
+        return new IOException("Broken pipe: " + this
+            + " was closed by the other side");
+      }
+      return new IOException("Connection reset: "
+          + MultiplexedConnection.this + " failed", failure);
+    }
+
+    /**
+     * Read the data received so far, waiting for some if there is none.
+     *
+     * @return the number of bytes read, or -1 at the end of the stream.
+     */
+    private synchronized int read(ByteBuffer buf) throws IOException {
+      final long deadline =
+          readTimeoutMs > 0 ? Time.monotonicNow() + readTimeoutMs : 0;
+      while (received.isEmpty()) {
+        if (closedLocally) {
+          throw streamClosed();
+        } else if (closedRemotely || (closed && failure == null)) {
+          // The stream, or the whole connection, was closed by the other
+          // side, or once this side had no more use for it.
+          return -1;
+        } else if (closed) {
+          throw streamClosed();
+        }
+        await(deadline, "read from");
+      }
+      int n = 0;
+      while (buf.hasRemaining() && !received.isEmpty()) {
+        final ByteBuffer head = received.peek();
+        final int len = Math.min(buf.remaining(), head.remaining());
+        final int limit = head.limit();
+        head.limit(head.position() + len);
+        buf.put(head);
+        head.limit(limit);
+        if (!head.hasRemaining()) {
+          received.poll();
+        }
+        n += len;
+      }
+      bytesReceived -= n;
+      bytesRead += n;
+      if (bytesRead >= streamWindow / 2 && !closedRemotely) {
+        trySend(new Frame(WINDOW, id, bytesRead, null));
+        bytesRead = 0;
+      }
+      return n;
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        final byte[] data;
+        synchronized (this) {
+          final long deadline =
+              writeTimeoutMs > 0 ? Time.monotonicNow() + writeTimeoutMs : 0;
+          while (credit == 0 && !closedLocally && !closedRemotely
+              && !closed) {
+            await(deadline, "write to");
+          }
+          if (closedLocally || closedRemotely || closed) {
+            throw streamClosed();
+          }
+          final int n = Math.min(Math.min(len, credit), MAX_DATA_FRAME);
+          data = new byte[n];
+          System.arraycopy(b, off, data, 0, n);
+          credit -= n;
+        }
+        send(new Frame(DATA, id, data.length, data));
+        off += data.length;
+        len -= data.length;
+      }
+    }
+
+    private synchronized int available() {
+      return bytesReceived;
+    }
+
+    @Override
+    public ReadableByteChannel getInputStreamChannel() {
+      return inputStream;
+    }
+
+    @Override
+    public synchronized void setReadTimeout(int timeoutMs) {
+      readTimeoutMs = timeoutMs;
+    }
+
+    @Override
+    public int getReceiveBufferSize() {
+      return streamWindow;
+    }
+
+    @Override
+    public boolean getTcpNoDelay() throws IOException {
+      return peer.getTcpNoDelay();
+    }
+
+    @Override
+    public synchronized void setWriteTimeout(int timeoutMs) {
+      writeTimeoutMs = timeoutMs;
+    }
+
+    @Override
+    public synchronized boolean isClosed() {
+      return closedLocally || closedRemotely || closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+      synchronized (this) {
+        if (closedLocally) {
+          return;
+        }
+        closedLocally = true;
+        received.clear();
+        notifyAll();
+      }
+      runReadable();
+      if (removeStream(id) != null) {
+        trySend(new Frame(CLOSE, id, 0, null));
+      }
+    }
+
+    @Override
+    public String getRemoteAddressString() {
+      return peer.getRemoteAddressString();
+    }
+
+    @Override
+    public String getLocalAddressString() {
+      return peer.getLocalAddressString();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return outputStream;
+    }
+
+    @Override
+    public boolean isLocal() {
+      return peer.isLocal();
+    }
+
+    @Override
+    public DomainSocket getDomainSocket() {
+      return null;
+    }
+
+    @Override
+    public boolean hasSecureChannel() {
+      return secureChannel;
+    }
+
+    @Override
+    public String toString() {
+      return "Stream(" + id + ", " + peer + ")";
+    }
+
+    /**
+     * The input stream of a multiplexed stream.
+     */
+    private class StreamInputStream extends InputStream
+        implements ReadableByteChannel {
+      @Override
+      public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        return Stream.this.read(ByteBuffer.wrap(b, off, len));
+      }
+
+      @Override
+      public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+          return 0;
+        }
+        return Stream.this.read(dst);
+      }
+
+      @Override
+      public int available() {
+        return Stream.this.available();
+      }
+
+      @Override
+      public boolean isOpen() {
+        return !isClosed();
+      }
+
+      @Override
+      public void close() throws IOException {
+        Stream.this.close();
+      }
+    }
+
+    /**
+     * The output stream of a multiplexed stream.
+     */
+    private class StreamOutputStream extends OutputStream {
+      @Override
+      public void write(int b) throws IOException {
+        Stream.this.write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        Stream.this.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        Stream.this.close();
+      }
+    }
+  }
+}
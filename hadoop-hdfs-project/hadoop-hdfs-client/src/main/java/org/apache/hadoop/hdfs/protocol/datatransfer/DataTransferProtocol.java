@@ -238,4 +238,14 @@ void blockGroupChecksum(StripedBlockInfo stripedBlockInfo,
           Token<BlockTokenIdentifier> blockToken,
           long requestedNumBytes,
           BlockChecksumOptions blockChecksumOptions) throws IOException;
+
+  /**
+   * Turn this connection into a multiplexed connection, which carries many
+   * independent streams of data transfer operations.
+   *
+   * @param clientName the name of the client.
+   * @param streamWindow the number of bytes either side may send on a stream
+   *                     before the other side acknowledges them.
+   */
+  void multiplex(String clientName, int streamWindow) throws IOException;
 }
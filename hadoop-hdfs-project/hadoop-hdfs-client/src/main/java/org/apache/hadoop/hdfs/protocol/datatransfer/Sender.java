@@ -38,6 +38,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpBlockChecksumProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpBlockGroupChecksumProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpCopyBlockProto;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpMultiplexProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpReadBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpReplaceBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpRequestShortCircuitAccessProto;
@@ -300,4 +301,19 @@ public void blockGroupChecksum(StripedBlockInfo stripedBlockInfo,
 
     send(out, Op.BLOCK_GROUP_CHECKSUM, proto);
   }
+
+  @Override
+  public void multiplex(String clientName, int streamWindow)
+      throws IOException {
+    OpMultiplexProto.Builder builder = OpMultiplexProto.newBuilder()
+        .setClientName(clientName)
+        .setStreamWindow(streamWindow);
+    SpanId spanId = Tracer.getCurrentSpanId();
+    if (spanId.isValid()) {
+      builder.setTraceInfo(DataTransferTraceInfoProto.newBuilder().
+          setTraceId(spanId.getHigh()).
+          setParentId(spanId.getLow()));
+    }
+    send(out, Op.MULTIPLEX, builder.build());
+  }
 }
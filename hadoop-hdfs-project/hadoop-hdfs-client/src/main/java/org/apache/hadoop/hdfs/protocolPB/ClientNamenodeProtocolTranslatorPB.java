@@ -115,6 +115,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetBlockLocationsRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetBlockLocationsResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetContentSummaryRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetContentSummaryResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetCurrentEditLogTxidRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetDataEncryptionKeyRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetDataEncryptionKeyResponseProto;
@@ -127,6 +128,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetFileLinkInfoResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetFsECBlockGroupStatsRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetFsReplicatedBlockStatsRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetFsStatsResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetFsStatusRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetLinkTargetRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetLinkTargetResponseProto;
@@ -136,6 +138,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetLocatedFileInfoResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetPreferredBlockSizeRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetQuotaUsageRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetQuotaUsageResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetServerDefaultsRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetSnapshotDiffReportRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetSnapshotDiffReportResponseProto;
@@ -664,6 +667,31 @@ public DirectoryListing getListing(String src, byte[] startAfter,
         .setStartAfter(ByteString.copyFrom(startAfter))
         .setNeedLocation(needLocation).build();
     try {
+      if (Client.isAsynchronousMode()) {
+        rpcProxy.getListing(null, req);
+        final AsyncGet<Message, Exception> asyncReturnMessage
+            = ProtobufRpcEngine.getAsyncReturnMessage();
+        final AsyncGet<DirectoryListing, Exception> asyncGet
+            = new AsyncGet<DirectoryListing, Exception>() {
+          @Override
+          public DirectoryListing get(long timeout, TimeUnit unit)
+              throws Exception {
+            GetListingResponseProto result = (GetListingResponseProto)
+                asyncReturnMessage.get(timeout, unit);
+            if (!result.hasDirList()) {
+              return null;
+            }
+            return PBHelperClient.convert(result.getDirList());
+          }
+
+          @Override
+          public boolean isDone() {
+            return asyncReturnMessage.isDone();
+          }
+        };
+        AsyncCallHandler.setLowerLayerAsyncReturn(asyncGet);
+        return null;
+      }
       GetListingResponseProto result = rpcProxy.getListing(null, req);
 
       if (result.hasDirList()) {
@@ -680,7 +708,12 @@ public void renewLease(String clientName) throws IOException {
     RenewLeaseRequestProto req = RenewLeaseRequestProto.newBuilder()
         .setClientName(clientName).build();
     try {
-      rpcProxy.renewLease(null, req);
+      if (Client.isAsynchronousMode()) {
+        rpcProxy.renewLease(null, req);
+        setAsyncReturnValue();
+      } else {
+        rpcProxy.renewLease(null, req);
+      }
     } catch (ServiceException e) {
       throw ProtobufHelper.getRemoteException(e);
     }
@@ -702,6 +735,26 @@ public boolean recoverLease(String src, String clientName)
   @Override
   public long[] getStats() throws IOException {
     try {
+      if (Client.isAsynchronousMode()) {
+        rpcProxy.getFsStats(null, VOID_GET_FSSTATUS_REQUEST);
+        final AsyncGet<Message, Exception> asyncReturnMessage
+            = ProtobufRpcEngine.getAsyncReturnMessage();
+        final AsyncGet<long[], Exception> asyncGet
+            = new AsyncGet<long[], Exception>() {
+          @Override
+          public long[] get(long timeout, TimeUnit unit) throws Exception {
+            return PBHelperClient.convert((GetFsStatsResponseProto)
+                asyncReturnMessage.get(timeout, unit));
+          }
+
+          @Override
+          public boolean isDone() {
+            return asyncReturnMessage.isDone();
+          }
+        };
+        AsyncCallHandler.setLowerLayerAsyncReturn(asyncGet);
+        return null;
+      }
       return PBHelperClient.convert(rpcProxy.getFsStats(null,
           VOID_GET_FSSTATUS_REQUEST));
     } catch (ServiceException e) {
@@ -944,6 +997,27 @@ public ContentSummary getContentSummary(String path) throws IOException {
         .setPath(path)
         .build();
     try {
+      if (Client.isAsynchronousMode()) {
+        rpcProxy.getContentSummary(null, req);
+        final AsyncGet<Message, Exception> asyncReturnMessage
+            = ProtobufRpcEngine.getAsyncReturnMessage();
+        final AsyncGet<ContentSummary, Exception> asyncGet
+            = new AsyncGet<ContentSummary, Exception>() {
+          @Override
+          public ContentSummary get(long timeout, TimeUnit unit)
+              throws Exception {
+            return PBHelperClient.convert(((GetContentSummaryResponseProto)
+                asyncReturnMessage.get(timeout, unit)).getSummary());
+          }
+
+          @Override
+          public boolean isDone() {
+            return asyncReturnMessage.isDone();
+          }
+        };
+        AsyncCallHandler.setLowerLayerAsyncReturn(asyncGet);
+        return null;
+      }
       return PBHelperClient.convert(rpcProxy.getContentSummary(null, req)
           .getSummary());
     } catch (ServiceException e) {
@@ -964,7 +1038,12 @@ public void setQuota(String path, long namespaceQuota, long storagespaceQuota,
     }
     final SetQuotaRequestProto req = builder.build();
     try {
-      rpcProxy.setQuota(null, req);
+      if (Client.isAsynchronousMode()) {
+        rpcProxy.setQuota(null, req);
+        setAsyncReturnValue();
+      } else {
+        rpcProxy.setQuota(null, req);
+      }
     } catch (ServiceException e) {
       throw ProtobufHelper.getRemoteException(e);
     }
@@ -1905,6 +1984,27 @@ public QuotaUsage getQuotaUsage(String path) throws IOException {
     GetQuotaUsageRequestProto req =
         GetQuotaUsageRequestProto.newBuilder().setPath(path).build();
     try {
+      if (Client.isAsynchronousMode()) {
+        rpcProxy.getQuotaUsage(null, req);
+        final AsyncGet<Message, Exception> asyncReturnMessage
+            = ProtobufRpcEngine.getAsyncReturnMessage();
+        final AsyncGet<QuotaUsage, Exception> asyncGet
+            = new AsyncGet<QuotaUsage, Exception>() {
+          @Override
+          public QuotaUsage get(long timeout, TimeUnit unit)
+              throws Exception {
+            return PBHelperClient.convert(((GetQuotaUsageResponseProto)
+                asyncReturnMessage.get(timeout, unit)).getUsage());
+          }
+
+          @Override
+          public boolean isDone() {
+            return asyncReturnMessage.isDone();
+          }
+        };
+        AsyncCallHandler.setLowerLayerAsyncReturn(asyncGet);
+        return null;
+      }
       return PBHelperClient.convert(rpcProxy.getQuotaUsage(null, req)
           .getUsage());
     } catch (ServiceException e) {
@@ -329,11 +329,16 @@ public interface ShortCircuitReplicaCreator {
    */
   private final DfsClientShmManager shmManager;
 
+  /**
+   * Create a cache from the configuration. When the cache is striped, the
+   * configured sizes are split evenly between the stripes.
+   */
   public static ShortCircuitCache fromConf(ShortCircuitConf conf) {
+    final int stripes = conf.getShortCircuitCacheStripes();
     return new ShortCircuitCache(
-        conf.getShortCircuitStreamsCacheSize(),
+        divideRoundingUp(conf.getShortCircuitStreamsCacheSize(), stripes),
         conf.getShortCircuitStreamsCacheExpiryMs(),
-        conf.getShortCircuitMmapCacheSize(),
+        divideRoundingUp(conf.getShortCircuitMmapCacheSize(), stripes),
         conf.getShortCircuitMmapCacheExpiryMs(),
         conf.getShortCircuitMmapCacheRetryTimeout(),
         conf.getShortCircuitCacheStaleThresholdMs(),
@@ -365,6 +370,10 @@ public ShortCircuitCache(int maxTotalSize, long maxNonMmappedEvictableLifespanMs
     this.shmManager = shmManager;
   }
 
+  private static int divideRoundingUp(int size, int stripes) {
+    return (size + stripes - 1) / stripes;
+  }
+
   public long getStaleThresholdMs() {
     return staleThresholdMs;
   }
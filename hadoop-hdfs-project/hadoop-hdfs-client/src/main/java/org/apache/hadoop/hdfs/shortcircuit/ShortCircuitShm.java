@@ -20,10 +20,11 @@
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.util.BitSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -197,26 +198,36 @@ public String toString() {
     }
   }
 
+  /**
+   * Iterates over the registered slots. Slots which are registered or
+   * unregistered concurrently may or may not be returned.
+   */
   public class SlotIterator implements Iterator<Slot> {
     int slotIdx = -1;
+    private Slot nextSlot;
 
     @Override
     public boolean hasNext() {
-      synchronized (ShortCircuitShm.this) {
-        return allocatedSlots.nextSetBit(slotIdx + 1) != -1;
+      while (nextSlot == null) {
+        int nextSlotIdx = nextAllocatedSlot(slotIdx + 1);
+        if (nextSlotIdx == -1) {
+          return false;
+        }
+        slotIdx = nextSlotIdx;
+        // The slot may be half-way through (un)registration.
+        nextSlot = slots.get(nextSlotIdx);
       }
+      return true;
     }
 
     @Override
     public Slot next() {
-      synchronized (ShortCircuitShm.this) {
-        int nextSlotIdx = allocatedSlots.nextSetBit(slotIdx + 1);
-        if (nextSlotIdx == -1) {
-          throw new NoSuchElementException();
-        }
-        slotIdx = nextSlotIdx;
-        return slots[nextSlotIdx];
+      if (!hasNext()) {
+        throw new NoSuchElementException();
       }
+      Slot slot = nextSlot;
+      nextSlot = null;
+      return slot;
     }
 
     @Override
@@ -442,13 +453,18 @@ public String toString() {
    * The slots associated with this shared memory segment.
    * slot[i] contains the slot at offset i * BYTES_PER_SLOT,
    * or null if that slot is not allocated.
+   *
+   * A slot is only published here after its bit in allocatedSlots has been
+   * claimed, and cleared before the bit is released.
    */
-  private final Slot slots[];
+  private final AtomicReferenceArray<Slot> slots;
 
   /**
-   * A bitset where each bit represents a slot which is in use.
+   * A bitmap where each bit represents a slot which is in use. Bits are
+   * claimed and released with compare-and-swap, so that threads allocating
+   * and freeing slots do not contend on a lock.
    */
-  private final BitSet allocatedSlots;
+  private final AtomicLongArray allocatedSlots;
 
   /**
    * Create the ShortCircuitShm.
@@ -482,11 +498,12 @@ public ShortCircuitShm(ShmId shmId, FileInputStream stream)
     this.mmappedLength = getUsableLength(stream);
     this.baseAddress = POSIX.mmap(stream.getFD(),
         POSIX.MMAP_PROT_READ | POSIX.MMAP_PROT_WRITE, true, mmappedLength);
-    this.slots = new Slot[mmappedLength / BYTES_PER_SLOT];
-    this.allocatedSlots = new BitSet(slots.length);
+    this.slots = new AtomicReferenceArray<>(mmappedLength / BYTES_PER_SLOT);
+    this.allocatedSlots =
+        new AtomicLongArray((slots.length() + Long.SIZE - 1) / Long.SIZE);
     LOG.trace("creating {}(shmId={}, mmappedLength={}, baseAddress={}, "
         + "slots.length={})", this.getClass().getSimpleName(), shmId,
-        mmappedLength, String.format("%x", baseAddress), slots.length);
+        mmappedLength, String.format("%x", baseAddress), slots.length());
   }
 
   public final ShmId getShmId() {
@@ -498,8 +515,8 @@ public final ShmId getShmId() {
    *
    * @return    True if the shared memory object is empty.
    */
-  synchronized final public boolean isEmpty() {
-    return allocatedSlots.nextSetBit(0) == -1;
+  final public boolean isEmpty() {
+    return nextAllocatedSlot(0) == -1;
   }
 
   /**
@@ -507,8 +524,112 @@ synchronized final public boolean isEmpty() {
    *
    * @return    True if the shared memory object is full.
    */
-  synchronized final public boolean isFull() {
-    return allocatedSlots.nextClearBit(0) >= slots.length;
+  final public boolean isFull() {
+    for (int i = 0; i < allocatedSlots.length(); i++) {
+      if (allocatedSlots.get(i) != wordMask(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param wordIdx   Index of a word of the allocatedSlots bitmap.
+   * @return          The bits of the word which correspond to slots.
+   */
+  private long wordMask(int wordIdx) {
+    int bits = Math.min(Long.SIZE, slots.length() - wordIdx * Long.SIZE);
+    return bits == Long.SIZE ? -1L : (1L << bits) - 1;
+  }
+
+  /**
+   * Find the first allocated slot at or after the given index.
+   *
+   * @param fromIdx   The index to start searching from.
+   * @return          The index of the slot, or -1 if there is none.
+   */
+  private int nextAllocatedSlot(int fromIdx) {
+    if (fromIdx >= slots.length()) {
+      return -1;
+    }
+    int wordIdx = fromIdx / Long.SIZE;
+    long word = allocatedSlots.get(wordIdx) & (-1L << (fromIdx % Long.SIZE));
+    while (true) {
+      if (word != 0) {
+        return wordIdx * Long.SIZE + Long.numberOfTrailingZeros(word);
+      }
+      if (++wordIdx >= allocatedSlots.length()) {
+        return -1;
+      }
+      word = allocatedSlots.get(wordIdx);
+    }
+  }
+
+  private boolean isAllocated(int slotIdx) {
+    long bit = 1L << (slotIdx % Long.SIZE);
+    return (allocatedSlots.get(slotIdx / Long.SIZE) & bit) != 0;
+  }
+
+  /**
+   * Claim the first free slot.
+   *
+   * @return    The index of the claimed slot, or -1 if all slots are in use.
+   */
+  private int claimFreeSlot() {
+    for (int wordIdx = 0; wordIdx < allocatedSlots.length(); wordIdx++) {
+      long mask = wordMask(wordIdx);
+      while (true) {
+        long word = allocatedSlots.get(wordIdx);
+        long free = ~word & mask;
+        if (free == 0) {
+          break;
+        }
+        long bit = Long.lowestOneBit(free);
+        if (allocatedSlots.compareAndSet(wordIdx, word, word | bit)) {
+          return wordIdx * Long.SIZE + Long.numberOfTrailingZeros(bit);
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Claim a specific slot.
+   *
+   * @return    True if the slot was claimed; false if it is already in use.
+   */
+  private boolean claimSlot(int slotIdx) {
+    int wordIdx = slotIdx / Long.SIZE;
+    long bit = 1L << (slotIdx % Long.SIZE);
+    while (true) {
+      long word = allocatedSlots.get(wordIdx);
+      if ((word & bit) != 0) {
+        return false;
+      }
+      if (allocatedSlots.compareAndSet(wordIdx, word, word | bit)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Release a slot claimed by {@link #claimFreeSlot()} or
+   * {@link #claimSlot(int)}.
+   *
+   * @return    True if the slot was released; false if it was not in use.
+   */
+  private boolean releaseSlot(int slotIdx) {
+    int wordIdx = slotIdx / Long.SIZE;
+    long bit = 1L << (slotIdx % Long.SIZE);
+    while (true) {
+      long word = allocatedSlots.get(wordIdx);
+      if ((word & bit) == 0) {
+        return false;
+      }
+      if (allocatedSlots.compareAndSet(wordIdx, word, word & ~bit)) {
+        return true;
+      }
+    }
   }
 
   /**
@@ -531,31 +652,31 @@ private long calculateSlotAddress(int slotIdx) {
    *
    * @return    The new slot.
    */
-  synchronized public final Slot allocAndRegisterSlot(
-      ExtendedBlockId blockId) {
-    int idx = allocatedSlots.nextClearBit(0);
-    if (idx >= slots.length) {
+  public final Slot allocAndRegisterSlot(ExtendedBlockId blockId) {
+    int idx = claimFreeSlot();
+    if (idx < 0) {
       throw new RuntimeException(this + ": no more slots are available.");
     }
-    allocatedSlots.set(idx, true);
     Slot slot = new Slot(calculateSlotAddress(idx), blockId);
     slot.clear();
     slot.makeValid();
-    slots[idx] = slot;
+    slots.set(idx, slot);
     if (LOG.isTraceEnabled()) {
-      LOG.trace(this + ": allocAndRegisterSlot " + idx + ": allocatedSlots=" + allocatedSlots +
-                  StringUtils.getStackTrace(Thread.currentThread()));
+      LOG.trace(this + ": allocAndRegisterSlot " + idx + ": allocatedSlots=" +
+          allocatedSlots + StringUtils.getStackTrace(Thread.currentThread()));
     }
     return slot;
   }
 
-  synchronized public final Slot getSlot(int slotIdx)
+  public final Slot getSlot(int slotIdx)
       throws InvalidRequestException {
-    if (!allocatedSlots.get(slotIdx)) {
+    Slot slot = (slotIdx < 0 || slotIdx >= slots.length()) ?
+        null : slots.get(slotIdx);
+    if (slot == null) {
       throw new InvalidRequestException(this + ": slot " + slotIdx +
           " does not exist.");
     }
-    return slots[slotIdx];
+    return slot;
   }
 
   /**
@@ -571,30 +692,29 @@ synchronized public final Slot getSlot(int slotIdx)
    *            If the slot index we're trying to allocate has not been
    *            initialized, or is already in use.
    */
-  synchronized public final Slot registerSlot(int slotIdx,
+  public final Slot registerSlot(int slotIdx,
       ExtendedBlockId blockId) throws InvalidRequestException {
     if (slotIdx < 0) {
       throw new InvalidRequestException(this + ": invalid negative slot " +
           "index " + slotIdx);
     }
-    if (slotIdx >= slots.length) {
+    if (slotIdx >= slots.length()) {
       throw new InvalidRequestException(this + ": invalid slot " +
           "index " + slotIdx);
     }
-    if (allocatedSlots.get(slotIdx)) {
-      throw new InvalidRequestException(this + ": slot " + slotIdx +
-          " is already in use.");
-    }
     Slot slot = new Slot(calculateSlotAddress(slotIdx), blockId);
     if (!slot.isValid()) {
       throw new InvalidRequestException(this + ": slot " + slotIdx +
           " is not marked as valid.");
     }
-    slots[slotIdx] = slot;
-    allocatedSlots.set(slotIdx, true);
+    if (!claimSlot(slotIdx)) {
+      throw new InvalidRequestException(this + ": slot " + slotIdx +
+          " is already in use.");
+    }
+    slots.set(slotIdx, slot);
     if (LOG.isTraceEnabled()) {
-      LOG.trace(this + ": registerSlot " + slotIdx + ": allocatedSlots=" + allocatedSlots +
-                  StringUtils.getStackTrace(Thread.currentThread()));
+      LOG.trace(this + ": registerSlot " + slotIdx + ": allocatedSlots=" +
+          allocatedSlots + StringUtils.getStackTrace(Thread.currentThread()));
     }
     return slot;
   }
@@ -606,18 +726,22 @@ synchronized public final Slot registerSlot(int slotIdx,
    *
    * @param slotIdx  Index of the slot to unregister.
    */
-  synchronized public final void unregisterSlot(int slotIdx) {
-    Preconditions.checkState(allocatedSlots.get(slotIdx),
+  public final void unregisterSlot(int slotIdx) {
+    Preconditions.checkState(isAllocated(slotIdx),
+        "tried to unregister slot " + slotIdx + ", which was not registered.");
+    // Clear the slot before releasing its bit, so that a thread which
+    // claims the bit next cannot have its slot overwritten.
+    slots.set(slotIdx, null);
+    Preconditions.checkState(releaseSlot(slotIdx),
         "tried to unregister slot " + slotIdx + ", which was not registered.");
-    allocatedSlots.set(slotIdx, false);
-    slots[slotIdx] = null;
     LOG.trace("{}: unregisterSlot {}", this, slotIdx);
   }
 
   /**
    * Iterate over all allocated slots.
    *
-   * Note that this method isn't safe if
+   * Note that this method isn't safe if slots are concurrently registered
+   * or unregistered: such slots may or may not be returned.
    *
    * @return        The slot iterator.
    */
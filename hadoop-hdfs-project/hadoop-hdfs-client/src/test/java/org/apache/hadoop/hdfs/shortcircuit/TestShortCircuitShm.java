@@ -33,7 +33,14 @@
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class TestShortCircuitShm {
   public static final Logger LOG = LoggerFactory.getLogger(
@@ -106,4 +113,63 @@ public void testAllocateSlots() throws Exception {
     stream.close();
     FileUtil.fullyDelete(path);
   }
+
+  @Test(timeout=60000)
+  public void testConcurrentAllocateAndUnregisterSlots() throws Exception {
+    File path = new File(TEST_BASE, "testConcurrentAllocateSlots");
+    path.mkdirs();
+    SharedFileDescriptorFactory factory =
+        SharedFileDescriptorFactory.create("shm_",
+            new String[] { path.getAbsolutePath() });
+    FileInputStream stream =
+        factory.createDescriptor("testConcurrentAllocateSlots", 4096);
+    final ShortCircuitShm shm =
+        new ShortCircuitShm(ShmId.createRandom(), stream);
+    final int numThreads = 8;
+    // Each thread holds at most this many slots, so the segment never fills.
+    final int slotsPerThread = 8;
+    final int rounds = 1000;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<Void>> futures = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      final long blockId = t;
+      futures.add(executor.submit(() -> {
+        start.await();
+        for (int r = 0; r < rounds; r++) {
+          List<Slot> held = new ArrayList<>();
+          for (int i = 0; i < slotsPerThread; i++) {
+            Slot slot = shm.allocAndRegisterSlot(
+                new ExtendedBlockId(blockId, "test_bp1"));
+            Assert.assertSame(slot, shm.getSlot(slot.getSlotIdx()));
+            Assert.assertEquals(blockId, slot.getBlockId().getBlockId());
+            held.add(slot);
+          }
+          for (Slot slot : held) {
+            shm.unregisterSlot(slot.getSlotIdx());
+          }
+        }
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<Void> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    Assert.assertTrue(shm.isEmpty());
+    Assert.assertFalse(shm.slotIterator().hasNext());
+
+    // After the concurrent churn every slot must still be allocatable
+    // exactly once.
+    Set<Integer> indices = new HashSet<>();
+    while (!shm.isFull()) {
+      Slot slot = shm.allocAndRegisterSlot(new ExtendedBlockId(1L, "test_bp1"));
+      Assert.assertTrue(indices.add(slot.getSlotIdx()));
+    }
+    Assert.assertEquals(64, indices.size());
+    shm.free();
+    stream.close();
+    FileUtil.fullyDelete(path);
+  }
 }
@@ -54,6 +54,24 @@ public interface FederationRPCMBean {
 
   long getRouterFailureSafemodeOps();
 
+  /**
+   * Get the number of operations served from the metadata cache.
+   * @return Number of operations served from the metadata cache.
+   */
+  long getMetadataCacheHits();
+
+  /**
+   * Get the number of cacheable operations not in the metadata cache.
+   * @return Number of cacheable operations not in the metadata cache.
+   */
+  long getMetadataCacheMisses();
+
+  /**
+   * Get the ratio of the cacheable operations served from the metadata cache.
+   * @return Hit ratio of the metadata cache, between 0 and 1.
+   */
+  double getMetadataCacheHitRatio();
+
   int getRpcServerCallQueue();
 
   /**
@@ -91,4 +109,11 @@ public interface FederationRPCMBean {
    * @return JSON string representation.
    */
   String getRpcClientConnections();
+
+  /**
+   * JSON representation of the number of calls from the Router waiting for a
+   * response from each nameservice.
+   * @return JSON string representation.
+   */
+  String getRpcClientOutstandingCalls();
 }
@@ -61,6 +61,11 @@ public class FederationRPCMetrics implements FederationRPCMBean {
   @Metric("Number of operation retries")
   private MutableCounterLong proxyOpRetries;
 
+  @Metric("Number of operations served from the metadata cache")
+  private MutableCounterLong metadataCacheHit;
+  @Metric("Number of cacheable operations not in the metadata cache")
+  private MutableCounterLong metadataCacheMiss;
+
   @Metric("Failed requests due to State Store unavailable")
   private MutableCounterLong routerFailureStateStore;
   @Metric("Failed requests due to read only mount point")
@@ -147,6 +152,32 @@ public long getProxyOpRetries() {
     return proxyOpRetries.value();
   }
 
+  public void incrMetadataCacheHit() {
+    metadataCacheHit.incr();
+  }
+
+  @Override
+  public long getMetadataCacheHits() {
+    return metadataCacheHit.value();
+  }
+
+  public void incrMetadataCacheMiss() {
+    metadataCacheMiss.incr();
+  }
+
+  @Override
+  public long getMetadataCacheMisses() {
+    return metadataCacheMiss.value();
+  }
+
+  @Override
+  @Metric("Ratio of the cacheable operations served from the metadata cache")
+  public double getMetadataCacheHitRatio() {
+    long hits = metadataCacheHit.value();
+    long total = hits + metadataCacheMiss.value();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
   public void incrRouterFailureStateStore() {
     routerFailureStateStore.incr();
   }
@@ -218,6 +249,11 @@ public String getRpcClientConnections() {
     return rpcServer.getRPCClient().getJSON();
   }
 
+  @Override
+  public String getRpcClientOutstandingCalls() {
+    return rpcServer.getRPCClient().getOutstandingCallsJSON();
+  }
+
   /**
    * Add the time to proxy an operation from the moment the Router sends it to
    * the Namenode until it replied.
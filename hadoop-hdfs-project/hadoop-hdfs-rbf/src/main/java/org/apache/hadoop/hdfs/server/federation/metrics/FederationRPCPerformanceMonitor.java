@@ -168,6 +168,16 @@ public void proxyOpRetries() {
     metrics.incrProxyOpRetries();
   }
 
+  @Override
+  public void metadataCacheHit() {
+    metrics.incrMetadataCacheHit();
+  }
+
+  @Override
+  public void metadataCacheMiss() {
+    metrics.incrMetadataCacheMiss();
+  }
+
   @Override
   public void routerFailureStateStore() {
     metrics.incrRouterFailureStateStore();
@@ -25,22 +25,15 @@
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutionException;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.conf.Configuration;
@@ -62,13 +55,17 @@
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 
 /**
  * Mount table to map between global paths and remote locations. This allows the
  * {@link org.apache.hadoop.hdfs.server.federation.router.Router Router} to map
  * the global HDFS view to the remote namespaces. This is similar to
  * {@link org.apache.hadoop.fs.viewfs.ViewFs ViewFs}.
- * This is implemented as a tree.
+ * This is implemented as a trie of path components. Lookups do not take any
+ * lock; updates are serialized and only invalidate the cached locations
+ * beneath the mount points they change.
  */
 public class MountTableResolver
     implements FileSubclusterResolver, StateStoreCache {
@@ -84,19 +81,24 @@
   private MountTableStore mountTableStore;
 
   /** If the tree has been initialized. */
-  private boolean init = false;
-  /** Path -> Remote HDFS location. */
-  private final TreeMap<String, MountTable> tree = new TreeMap<>();
+  private volatile boolean init = false;
+  /** Path -> Remote HDFS location. Replaced when refreshed. */
+  private volatile MountTableTrie tree = new MountTableTrie();
   /** Path -> Remote location. */
   private final Cache<String, PathLocation> locationCache;
+  /** Paths in the location cache, sorted to invalidate them by subtree. */
+  private final NavigableSet<String> cachedPaths =
+      new ConcurrentSkipListSet<>();
+  /** Incremented on every change of the tree. */
+  private volatile long treeVersion = 0;
 
   /** Default nameservice when no mount matches the math. */
   private String defaultNameService = "";
 
-  /** Synchronization for both the tree and the cache. */
-  private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-  private final Lock readLock = readWriteLock.readLock();
-  private final Lock writeLock = readWriteLock.writeLock();
+  /** Serializes the updates of the tree. */
+  private final Lock writeLock = new ReentrantLock();
+  /** Keeps the location cache and its sorted paths consistent. */
+  private final Object cacheLock = new Object();
 
 
   @VisibleForTesting
@@ -128,6 +130,15 @@ public MountTableResolver(Configuration conf, Router routerService,
         FEDERATION_MOUNT_TABLE_MAX_CACHE_SIZE_DEFAULT);
     this.locationCache = CacheBuilder.newBuilder()
         .maximumSize(maxCacheSize)
+        .removalListener(new RemovalListener<String, PathLocation>() {
+          @Override
+          public void onRemoval(
+              RemovalNotification<String, PathLocation> notification) {
+            if (notification.wasEvicted()) {
+              removeCachedPath(notification.getKey());
+            }
+          }
+        })
         .build();
 
     registerCacheExternal();
@@ -197,7 +208,8 @@ public void addEntry(final MountTable entry) {
     writeLock.lock();
     try {
       String srcPath = entry.getSourcePath();
-      this.tree.put(srcPath, entry);
+      this.tree.put(entry);
+      this.treeVersion++;
       invalidateLocationCache(srcPath);
     } finally {
       writeLock.unlock();
@@ -214,6 +226,7 @@ public void removeEntry(final String srcPath) {
     writeLock.lock();
     try {
       this.tree.remove(srcPath);
+      this.treeVersion++;
       invalidateLocationCache(srcPath);
     } finally {
       writeLock.unlock();
@@ -221,93 +234,115 @@ public void removeEntry(final String srcPath) {
   }
 
   /**
-   * Invalidates all cache entries below this path. It requires the write lock.
+   * Invalidates all cache entries below this path. A mount point only changes
+   * the locations of the paths beneath it, so the rest of the cache is kept.
+   * The tree version has to be incremented before.
    *
    * @param path Source path.
    */
   private void invalidateLocationCache(final String path) {
     LOG.debug("Invalidating {} from {}", path, locationCache);
-    if (locationCache.size() == 0) {
-      return;
-    }
-
-    // Go through the entries and remove the ones from the path to invalidate
-    ConcurrentMap<String, PathLocation> map = locationCache.asMap();
-    Set<Entry<String, PathLocation>> entries = map.entrySet();
-    Iterator<Entry<String, PathLocation>> it = entries.iterator();
-    while (it.hasNext()) {
-      Entry<String, PathLocation> entry = it.next();
-      PathLocation loc = entry.getValue();
-      String src = loc.getSourcePath();
-      if (src != null) {
-        if (isParentEntry(src, path)) {
-          LOG.debug("Removing {}", src);
-          it.remove();
-        }
-      } else {
-        String dest = loc.getDefaultLocation().getDest();
-        if (dest.startsWith(path)) {
-          LOG.debug("Removing default cache {}", dest);
+    synchronized (cacheLock) {
+      NavigableSet<String> subTree =
+          cachedPaths.subSet(path, true, path + Character.MAX_VALUE, false);
+      Iterator<String> it = subTree.iterator();
+      while (it.hasNext()) {
+        String cachedPath = it.next();
+        if (isParentEntry(cachedPath, path)) {
+          LOG.debug("Removing {}", cachedPath);
           it.remove();
+          locationCache.invalidate(cachedPath);
         }
       }
     }
-
     LOG.debug("Location cache after invalidation: {}", locationCache);
   }
 
+  /**
+   * Cache the location of a path unless the tree changed since the lookup.
+   *
+   * @param path Path that was resolved.
+   * @param location Location of the path.
+   * @param version Version of the tree used to resolve the path.
+   */
+  private void cacheLocation(
+      final String path, final PathLocation location, final long version) {
+    synchronized (cacheLock) {
+      // The invalidation for a newer tree may have already run
+      if (version == this.treeVersion) {
+        cachedPaths.add(path);
+        locationCache.put(path, location);
+      }
+    }
+  }
+
+  /**
+   * Stop tracking a path evicted from the location cache.
+   *
+   * @param path Path evicted from the location cache.
+   */
+  private void removeCachedPath(final String path) {
+    synchronized (cacheLock) {
+      // It may have been cached again in the meantime
+      if (locationCache.getIfPresent(path) == null) {
+        cachedPaths.remove(path);
+      }
+    }
+  }
+
   /**
    * Updates the mount path tree with a new set of mount table entries. It also
-   * updates the needed caches.
+   * updates the needed caches. If any entry changed, a new tree is built and
+   * replaces the current one, so the lookups see the whole update at once.
    *
    * @param entries Full set of mount table entries to update.
    */
   @VisibleForTesting
   public void refreshEntries(final Collection<MountTable> entries) {
-    // The tree read/write must be atomic
     writeLock.lock();
     try {
       // New entries
-      Map<String, MountTable> newEntries = new ConcurrentHashMap<>();
+      Map<String, MountTable> newEntries = new HashMap<>();
       for (MountTable entry : entries) {
         String srcPath = entry.getSourcePath();
         newEntries.put(srcPath, entry);
       }
 
-      // Old entries (reversed to sort from the leaves to the root)
-      Set<String> oldEntries = new TreeSet<>(Collections.reverseOrder());
-      for (MountTable entry : getTreeValues("/")) {
-        String srcPath = entry.getSourcePath();
-        oldEntries.add(srcPath);
-      }
-
       // Entries that need to be removed
-      for (String srcPath : oldEntries) {
+      MountTableTrie oldTree = this.tree;
+      List<String> changed = new LinkedList<>();
+      for (MountTable entry : oldTree.getEntries(Path.SEPARATOR)) {
+        String srcPath = entry.getSourcePath();
         if (!newEntries.containsKey(srcPath)) {
-          this.tree.remove(srcPath);
-          invalidateLocationCache(srcPath);
+          changed.add(srcPath);
           LOG.info("Removed stale mount point {} from resolver", srcPath);
         }
       }
 
-      // Entries that need to be added
-      for (MountTable entry : entries) {
+      // Entries that need to be added or updated
+      for (MountTable entry : newEntries.values()) {
         String srcPath = entry.getSourcePath();
-        if (!oldEntries.contains(srcPath)) {
-          // Add node, it does not exist
-          this.tree.put(srcPath, entry);
-          invalidateLocationCache(srcPath);
+        MountTable existingEntry = oldTree.get(srcPath);
+        if (existingEntry == null) {
+          changed.add(srcPath);
           LOG.info("Added new mount point {} to resolver", srcPath);
-        } else {
-          // Node exists, check for updates
-          MountTable existingEntry = this.tree.get(srcPath);
-          if (existingEntry != null && !existingEntry.equals(entry)) {
-            LOG.info("Entry has changed from \"{}\" to \"{}\"",
-                existingEntry, entry);
-            this.tree.put(srcPath, entry);
-            invalidateLocationCache(srcPath);
-            LOG.info("Updated mount point {} in resolver", srcPath);
-          }
+        } else if (!existingEntry.equals(entry)) {
+          LOG.info("Entry has changed from \"{}\" to \"{}\"",
+              existingEntry, entry);
+          changed.add(srcPath);
+          LOG.info("Updated mount point {} in resolver", srcPath);
+        }
+      }
+
+      if (!changed.isEmpty()) {
+        MountTableTrie newTree = new MountTableTrie();
+        for (MountTable entry : newEntries.values()) {
+          newTree.put(entry);
+        }
+        this.tree = newTree;
+        this.treeVersion++;
+        for (String srcPath : changed) {
+          invalidateLocationCache(srcPath);
         }
       }
     } finally {
@@ -347,8 +382,12 @@ public void clear() {
     LOG.info("Clearing all mount location caches");
     writeLock.lock();
     try {
-      this.locationCache.invalidateAll();
-      this.tree.clear();
+      this.tree = new MountTableTrie();
+      this.treeVersion++;
+      synchronized (cacheLock) {
+        this.locationCache.invalidateAll();
+        this.cachedPaths.clear();
+      }
     } finally {
       writeLock.unlock();
     }
@@ -358,25 +397,20 @@ public void clear() {
   public PathLocation getDestinationForPath(final String path)
       throws IOException {
     verifyMountTable();
-    readLock.lock();
-    try {
-      Callable<? extends PathLocation> meh = new Callable<PathLocation>() {
-        @Override
-        public PathLocation call() throws Exception {
-          return lookupLocation(path);
-        }
-      };
-      return this.locationCache.get(path, meh);
-    } catch (ExecutionException e) {
-      throw new IOException(e);
-    } finally {
-      readLock.unlock();
+    PathLocation ret = this.locationCache.getIfPresent(path);
+    if (ret == null) {
+      long version = this.treeVersion;
+      ret = lookupLocation(path);
+      if (ret == null) {
+        throw new IOException("Cannot find location for " + path);
+      }
+      cacheLocation(path, ret, version);
     }
+    return ret;
   }
 
   /**
-   * Build the path location to insert into the cache atomically. It must hold
-   * the read lock.
+   * Build the path location to insert into the cache.
    * @param path Path to check/insert.
    * @return New remote location.
    */
@@ -412,49 +446,11 @@ public MountTable getMountPoint(final String path) throws IOException {
   public List<String> getMountPoints(final String path) throws IOException {
     verifyMountTable();
 
-    Set<String> children = new TreeSet<>();
-    readLock.lock();
-    try {
-      String from = path;
-      String to = path + Character.MAX_VALUE;
-      SortedMap<String, MountTable> subMap = this.tree.subMap(from, to);
-
-      boolean exists = false;
-      for (String subPath : subMap.keySet()) {
-        String child = subPath;
-
-        // Special case for /
-        if (!path.equals(Path.SEPARATOR)) {
-          // Get the children
-          int ini = path.length();
-          child = subPath.substring(ini);
-        }
-
-        if (child.isEmpty()) {
-          // This is a mount point but without children
-          exists = true;
-        } else if (child.startsWith(Path.SEPARATOR)) {
-          // This is a mount point with children
-          exists = true;
-          child = child.substring(1);
-
-          // We only return immediate children
-          int fin = child.indexOf(Path.SEPARATOR);
-          if (fin > -1) {
-            child = child.substring(0, fin);
-          }
-          if (!child.isEmpty()) {
-            children.add(child);
-          }
-        }
-      }
-      if (!exists) {
-        return null;
-      }
-      return new LinkedList<>(children);
-    } finally {
-      readLock.unlock();
+    List<String> children = this.tree.getChildren(path);
+    if (children == null) {
+      return null;
     }
+    return new LinkedList<>(children);
   }
 
   /**
@@ -467,7 +463,7 @@ public List<String> getMountPoints(final String path) throws IOException {
   public List<MountTable> getMounts(final String path) throws IOException {
     verifyMountTable();
 
-    return getTreeValues(path, false);
+    return new LinkedList<>(this.tree.getEntries(path));
   }
 
   /**
@@ -482,12 +478,7 @@ private void verifyMountTable() throws StateStoreUnavailableException {
 
   @Override
   public String toString() {
-    readLock.lock();
-    try {
-      return this.tree.toString();
-    } finally {
-      readLock.unlock();
-    }
+    return this.tree.toString();
   }
 
   /**
@@ -537,54 +528,7 @@ public String getDefaultNamespace() {
    * @return Mount table entry.
    */
   private MountTable findDeepest(final String path) {
-    readLock.lock();
-    try {
-      Entry<String, MountTable> entry = this.tree.floorEntry(path);
-      while (entry != null && !isParentEntry(path, entry.getKey())) {
-        entry = this.tree.lowerEntry(entry.getKey());
-      }
-      if (entry == null) {
-        return null;
-      }
-      return entry.getValue();
-    } finally {
-      readLock.unlock();
-    }
-  }
-
-  /**
-   * Get the mount table entries under a path.
-   * @param path Path to search from.
-   * @return Mount Table entries.
-   */
-  private List<MountTable> getTreeValues(final String path) {
-    return getTreeValues(path, false);
-  }
-
-  /**
-   * Get the mount table entries under a path.
-   * @param path Path to search from.
-   * @param reverse If the order should be reversed.
-   * @return Mount Table entries.
-   */
-  private List<MountTable> getTreeValues(final String path, boolean reverse) {
-    LinkedList<MountTable> ret = new LinkedList<>();
-    readLock.lock();
-    try {
-      String from = path;
-      String to = path + Character.MAX_VALUE;
-      SortedMap<String, MountTable> subMap = this.tree.subMap(from, to);
-      for (MountTable entry : subMap.values()) {
-        if (!reverse) {
-          ret.add(entry);
-        } else {
-          ret.addFirst(entry);
-        }
-      }
-    } finally {
-      readLock.unlock();
-    }
-    return ret;
+    return this.tree.findDeepest(path);
   }
 
   /**
@@ -0,0 +1,286 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.federation.resolver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.server.federation.store.records.MountTable;
+
+/**
+ * Mount table entries indexed by the components of their source path. The
+ * deepest mount point of a path is found by walking its components, so the
+ * cost of a lookup depends on the depth of the path and not on the number of
+ * mount points.
+ * <p>
+ * Lookups do not take any lock and can run concurrently with one writer. The
+ * writers have to be serialized by the caller. Every change is a single write
+ * to a concurrent map or a volatile field, so a lookup sees either the state
+ * before or after each change.
+ */
+class MountTableTrie {
+
+  /** Orders the entries like their source paths. */
+  private static final Comparator<MountTable> SOURCE_PATH_ORDER =
+      new Comparator<MountTable>() {
+        @Override
+        public int compare(MountTable o1, MountTable o2) {
+          return o1.getSourcePath().compareTo(o2.getSourcePath());
+        }
+      };
+
+  /** A path component in the trie. */
+  private static final class Node {
+    /** Mount table entry at this path, null for intermediate nodes. */
+    private volatile MountTable entry;
+    /** Child component -> node, null until the first child is added. */
+    private volatile ConcurrentMap<String, Node> children;
+
+    private Node getChild(String name) {
+      Map<String, Node> current = this.children;
+      return current == null ? null : current.get(name);
+    }
+
+    private boolean isEmpty() {
+      Map<String, Node> current = this.children;
+      return this.entry == null && (current == null || current.isEmpty());
+    }
+  }
+
+  /** Root of the trie for "/". */
+  private final Node root = new Node();
+  /** Number of mount table entries. */
+  private volatile int size = 0;
+
+  /**
+   * Split a path into its components, ignoring empty ones.
+   *
+   * @param path Path to split.
+   * @return Components of the path.
+   */
+  private static List<String> getComponents(final String path) {
+    List<String> components = new ArrayList<>();
+    int start = 0;
+    int length = path.length();
+    while (start < length) {
+      int end = path.indexOf(Path.SEPARATOR_CHAR, start);
+      if (end < 0) {
+        end = length;
+      }
+      if (end > start) {
+        components.add(path.substring(start, end));
+      }
+      start = end + 1;
+    }
+    return components;
+  }
+
+  /**
+   * Get the node for a path.
+   *
+   * @param path Path to look for.
+   * @return Node for the path or null if it does not exist.
+   */
+  private Node getNode(final String path) {
+    Node node = this.root;
+    for (String component : getComponents(path)) {
+      node = node.getChild(component);
+      if (node == null) {
+        return null;
+      }
+    }
+    return node;
+  }
+
+  /**
+   * Get the mount table entry for a source path.
+   *
+   * @param path Source path of the entry.
+   * @return Mount table entry or null if there is none.
+   */
+  MountTable get(final String path) {
+    Node node = getNode(path);
+    return node == null ? null : node.entry;
+  }
+
+  /**
+   * Find the deepest mount point for a path.
+   *
+   * @param path Path to look for.
+   * @return Mount table entry or null if no mount point contains the path.
+   */
+  MountTable findDeepest(final String path) {
+    Node node = this.root;
+    MountTable deepest = node.entry;
+    for (String component : getComponents(path)) {
+      node = node.getChild(component);
+      if (node == null) {
+        break;
+      }
+      MountTable entry = node.entry;
+      if (entry != null) {
+        deepest = entry;
+      }
+    }
+    return deepest;
+  }
+
+  /**
+   * Add or replace a mount table entry. Only one writer at a time.
+   *
+   * @param entry Mount table entry to add.
+   * @return Previous entry for the source path or null if there was none.
+   */
+  MountTable put(final MountTable entry) {
+    Node node = this.root;
+    for (String component : getComponents(entry.getSourcePath())) {
+      ConcurrentMap<String, Node> nodeChildren = node.children;
+      if (nodeChildren == null) {
+        nodeChildren = new ConcurrentHashMap<>(4);
+        node.children = nodeChildren;
+      }
+      Node child = nodeChildren.get(component);
+      if (child == null) {
+        child = new Node();
+        nodeChildren.put(component, child);
+      }
+      node = child;
+    }
+    MountTable previous = node.entry;
+    node.entry = entry;
+    if (previous == null) {
+      this.size++;
+    }
+    return previous;
+  }
+
+  /**
+   * Remove a mount table entry and the intermediate nodes left without
+   * entries beneath them. Only one writer at a time.
+   *
+   * @param path Source path of the entry to remove.
+   * @return Removed entry or null if there was none.
+   */
+  MountTable remove(final String path) {
+    List<String> components = getComponents(path);
+    Deque<Node> parents = new ArrayDeque<>(components.size());
+    Node node = this.root;
+    for (String component : components) {
+      parents.push(node);
+      node = node.getChild(component);
+      if (node == null) {
+        return null;
+      }
+    }
+    MountTable previous = node.entry;
+    if (previous == null) {
+      return null;
+    }
+    node.entry = null;
+    this.size--;
+
+    // Prune from the leaf up to the first node still in use
+    for (int i = components.size() - 1; i >= 0 && node.isEmpty(); i--) {
+      Node parent = parents.pop();
+      parent.children.remove(components.get(i));
+      node = parent;
+    }
+    return previous;
+  }
+
+  /**
+   * Get the immediate children of a path that lead to mount points.
+   *
+   * @param path Path to get the children from.
+   * @return Sorted children or null if there is no mount point at or beneath
+   *         the path.
+   */
+  List<String> getChildren(final String path) {
+    Node node = getNode(path);
+    if (node == null || node.isEmpty()) {
+      return null;
+    }
+    Map<String, Node> nodeChildren = node.children;
+    if (nodeChildren == null) {
+      return new ArrayList<>();
+    }
+    List<String> ret = new ArrayList<>(nodeChildren.keySet());
+    Collections.sort(ret);
+    return ret;
+  }
+
+  /**
+   * Get the mount table entries at or beneath a path.
+   *
+   * @param path Path to search from.
+   * @return Mount table entries sorted by source path.
+   */
+  List<MountTable> getEntries(final String path) {
+    List<MountTable> ret = new ArrayList<>();
+    Node node = getNode(path);
+    if (node == null) {
+      return ret;
+    }
+    Deque<Node> pending = new ArrayDeque<>();
+    pending.push(node);
+    while (!pending.isEmpty()) {
+      Node current = pending.pop();
+      MountTable entry = current.entry;
+      if (entry != null) {
+        ret.add(entry);
+      }
+      Map<String, Node> currentChildren = current.children;
+      if (currentChildren != null) {
+        for (Node child : currentChildren.values()) {
+          pending.push(child);
+        }
+      }
+    }
+    Collections.sort(ret, SOURCE_PATH_ORDER);
+    return ret;
+  }
+
+  /**
+   * Get the number of mount table entries.
+   *
+   * @return Number of entries.
+   */
+  int size() {
+    return this.size;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    for (MountTable entry : getEntries(Path.SEPARATOR)) {
+      if (sb.length() > 1) {
+        sb.append(", ");
+      }
+      sb.append(entry.getSourcePath()).append("=").append(entry);
+    }
+    return sb.append("}").toString();
+  }
+}
@@ -57,6 +57,15 @@ public synchronized boolean isActive() {
     return this.numThreads > 0;
   }
 
+  /**
+   * Get the number of calls using this connection.
+   *
+   * @return Number of calls in flight.
+   */
+  public synchronized int getNumCalls() {
+    return this.numThreads;
+  }
+
   /**
    * Check if the connection is closed.
    *
@@ -18,19 +18,20 @@
 package org.apache.hadoop.hdfs.server.federation.router;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.apache.hadoop.conf.Configuration;
@@ -43,6 +44,11 @@
 /**
  * Implements a pool of connections for the {@link Router} to be able to open
  * many connections to many Namenodes.
+ * <p>
+ * Pools grow with the calls in flight: a connection is added to a pool once
+ * all its connections carry a configured number of calls. Pools not used
+ * for a while are removed using a timer wheel, so each cleanup only checks
+ * the pools which may have expired since the previous one.
  */
 public class ConnectionManager {
 
@@ -68,13 +74,24 @@ public class ConnectionManager {
   private final long poolCleanupPeriodMs;
   /** How often we close a connection in a pool. */
   private final long connectionCleanupPeriodMs;
+  /** Calls in flight per connection before adding connections to a pool. */
+  private final int callsPerConnection;
 
   /** Map of connection pools, one pool per user + NN. */
-  private final Map<ConnectionPoolId, ConnectionPool> pools;
-  /** Lock for accessing pools. */
-  private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-  private final Lock readLock = readWriteLock.readLock();
-  private final Lock writeLock = readWriteLock.writeLock();
+  private final ConcurrentMap<ConnectionPoolId, ConnectionPool> pools;
+  /** Pools with more than their minimum number of connections. */
+  private final Set<ConnectionPool> grownPools =
+      Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+  /** How often the cleanup task runs. */
+  private final long cleanupPeriodMs;
+  /**
+   * Timer wheel with the pools to check for staleness. Each slot holds the
+   * pools which may become stale during one cleanup period.
+   */
+  private final List<Set<ConnectionPool>> wheel;
+  /** Last cleanup period whose slot was checked. */
+  private long lastCleanupTick = -1;
 
   /** Queue for creating new connections. */
   private final BlockingQueue<ConnectionPool> creatorQueue =
@@ -102,8 +119,12 @@ public ConnectionManager(Configuration config) {
         RBFConfigKeys.DFS_ROUTER_NAMENODE_CONNECTION_POOL_SIZE,
         RBFConfigKeys.DFS_ROUTER_NAMENODE_CONNECTION_POOL_SIZE_DEFAULT);
 
+    this.callsPerConnection = Math.max(1, this.conf.getInt(
+        RBFConfigKeys.DFS_ROUTER_NAMENODE_CONNECTION_CALLS,
+        RBFConfigKeys.DFS_ROUTER_NAMENODE_CONNECTION_CALLS_DEFAULT));
+
     // Map with the connections indexed by UGI and Namenode
-    this.pools = new HashMap<>();
+    this.pools = new ConcurrentHashMap<>();
 
     // Create connections in a thread asynchronously
     this.creator = new ConnectionCreator(creatorQueue);
@@ -120,6 +141,16 @@ public ConnectionManager(Configuration config) {
         RBFConfigKeys.DFS_ROUTER_NAMENODE_CONNECTION_CLEAN_MS_DEFAULT);
     LOG.info("Cleaning connections every {} seconds",
         TimeUnit.MILLISECONDS.toSeconds(this.connectionCleanupPeriodMs));
+
+    // A pool is due at most one pool cleanup period ahead
+    this.cleanupPeriodMs = Math.max(1,
+        Math.min(poolCleanupPeriodMs, connectionCleanupPeriodMs));
+    int numSlots = (int) (poolCleanupPeriodMs / cleanupPeriodMs) + 3;
+    this.wheel = new ArrayList<>(numSlots);
+    for (int i = 0; i < numSlots; i++) {
+      this.wheel.add(
+          Collections.newSetFromMap(new ConcurrentHashMap<>()));
+    }
   }
 
   /**
@@ -130,12 +161,10 @@ public void start() {
     this.creator.start();
 
     // Schedule a task to remove stale connection pools and sockets
-    long recyleTimeMs = Math.min(
-        poolCleanupPeriodMs, connectionCleanupPeriodMs);
     LOG.info("Cleaning every {} seconds",
-        TimeUnit.MILLISECONDS.toSeconds(recyleTimeMs));
+        TimeUnit.MILLISECONDS.toSeconds(cleanupPeriodMs));
     this.cleaner.scheduleAtFixedRate(
-        new CleanupTask(), 0, recyleTimeMs, TimeUnit.MILLISECONDS);
+        new CleanupTask(), 0, cleanupPeriodMs, TimeUnit.MILLISECONDS);
 
     // Mark the manager as running
     this.running = true;
@@ -149,14 +178,13 @@ public void close() {
     this.cleaner.shutdown();
     this.running = false;
 
-    writeLock.lock();
-    try {
-      for (ConnectionPool pool : this.pools.values()) {
-        pool.close();
-      }
-      this.pools.clear();
-    } finally {
-      writeLock.unlock();
+    for (ConnectionPool pool : this.pools.values()) {
+      pool.close();
+    }
+    this.pools.clear();
+    this.grownPools.clear();
+    for (Set<ConnectionPool> slot : this.wheel) {
+      slot.clear();
     }
   }
 
@@ -184,34 +212,28 @@ public ConnectionContext getConnection(UserGroupInformation ugi,
     // Try to get the pool if created
     ConnectionPoolId connectionId =
         new ConnectionPoolId(ugi, nnAddress, protocol);
-    ConnectionPool pool = null;
-    readLock.lock();
-    try {
-      pool = this.pools.get(connectionId);
-    } finally {
-      readLock.unlock();
-    }
+    ConnectionPool pool = this.pools.get(connectionId);
 
-    // Create the pool if not created before
+    // Create the pool if not created before, without blocking other users
     if (pool == null) {
-      writeLock.lock();
-      try {
-        pool = this.pools.get(connectionId);
-        if (pool == null) {
-          pool = new ConnectionPool(
-              this.conf, nnAddress, ugi, this.minSize, this.maxSize, protocol);
-          this.pools.put(connectionId, pool);
-        }
-      } finally {
-        writeLock.unlock();
+      ConnectionPool newPool = new ConnectionPool(
+          this.conf, nnAddress, ugi, this.minSize, this.maxSize, protocol);
+      pool = this.pools.putIfAbsent(connectionId, newPool);
+      if (pool == null) {
+        pool = newPool;
+        schedulePoolCheck(pool, Time.now());
+      } else {
+        newPool.close();
       }
     }
 
     ConnectionContext conn = pool.getConnection();
 
-    // Add a new connection to the pool if it wasn't usable
-    if (conn == null || !conn.isUsable()) {
-      if (!this.creatorQueue.offer(pool)) {
+    // Add a new connection to the pool if all of them are busy
+    if (conn == null || conn.getNumCalls() >= this.callsPerConnection) {
+      if (pool.getNumConnections() < pool.getMaxSize() &&
+          pool.requestConnection() && !this.creatorQueue.offer(pool)) {
+        pool.connectionRequestDone();
         LOG.error("Cannot add more than {} connections at the same time",
             MAX_NEW_CONNECTIONS);
       }
@@ -231,12 +253,7 @@ public ConnectionContext getConnection(UserGroupInformation ugi,
    * @return Number of connection pools.
    */
   public int getNumConnectionPools() {
-    readLock.lock();
-    try {
-      return pools.size();
-    } finally {
-      readLock.unlock();
-    }
+    return pools.size();
   }
 
   /**
@@ -246,13 +263,8 @@ public int getNumConnectionPools() {
    */
   public int getNumConnections() {
     int total = 0;
-    readLock.lock();
-    try {
-      for (ConnectionPool pool : this.pools.values()) {
-        total += pool.getNumConnections();
-      }
-    } finally {
-      readLock.unlock();
+    for (ConnectionPool pool : this.pools.values()) {
+      total += pool.getNumConnections();
     }
     return total;
   }
@@ -264,13 +276,8 @@ public int getNumConnections() {
    */
   public int getNumActiveConnections() {
     int total = 0;
-    readLock.lock();
-    try {
-      for (ConnectionPool pool : this.pools.values()) {
-        total += pool.getNumActiveConnections();
-      }
-    } finally {
-      readLock.unlock();
+    for (ConnectionPool pool : this.pools.values()) {
+      total += pool.getNumActiveConnections();
     }
     return total;
   }
@@ -291,16 +298,11 @@ public int getNumCreatingConnections() {
    */
   public String getJSON() {
     final Map<String, String> info = new TreeMap<>();
-    readLock.lock();
-    try {
-      for (Entry<ConnectionPoolId, ConnectionPool> entry :
-          this.pools.entrySet()) {
-        ConnectionPoolId connectionPoolId = entry.getKey();
-        ConnectionPool pool = entry.getValue();
-        info.put(connectionPoolId.toString(), pool.getJSON());
-      }
-    } finally {
-      readLock.unlock();
+    for (Entry<ConnectionPoolId, ConnectionPool> entry :
+        this.pools.entrySet()) {
+      ConnectionPoolId connectionPoolId = entry.getKey();
+      ConnectionPool pool = entry.getValue();
+      info.put(connectionPoolId.toString(), pool.getJSON());
     }
     return JSON.toString(info);
   }
@@ -310,6 +312,54 @@ Map<ConnectionPoolId, ConnectionPool> getPools() {
     return this.pools;
   }
 
+  /**
+   * Schedule checking if a pool is stale in the timer wheel.
+   *
+   * @param pool Connection pool to check.
+   * @param lastActiveTime Last time the pool was used.
+   */
+  private void schedulePoolCheck(ConnectionPool pool, long lastActiveTime) {
+    long tick = (lastActiveTime + poolCleanupPeriodMs) / cleanupPeriodMs + 1;
+    wheel.get((int) (tick % wheel.size())).add(pool);
+  }
+
+  /**
+   * Remove the pools which have not been used for a pool cleanup period.
+   * Only the slots of the timer wheel due since the last time are checked;
+   * the pools used in the meantime are scheduled again.
+   *
+   * @param now Current time.
+   */
+  @VisibleForTesting
+  synchronized void removeStalePools(long now) {
+    long tick = now / cleanupPeriodMs;
+    long firstTick = lastCleanupTick < 0 ?
+        tick : Math.max(lastCleanupTick + 1, tick - wheel.size() + 1);
+    lastCleanupTick = Math.max(lastCleanupTick, tick);
+    List<ConnectionPool> active = new ArrayList<>();
+    for (long t = firstTick; t <= tick; t++) {
+      Iterator<ConnectionPool> it =
+          wheel.get((int) (t % wheel.size())).iterator();
+      while (it.hasNext()) {
+        ConnectionPool pool = it.next();
+        it.remove();
+        long lastTimeActive = pool.getLastActiveTime();
+        if (now > lastTimeActive + poolCleanupPeriodMs) {
+          // Remove this pool
+          LOG.debug("Closing and removing stale pool {}", pool);
+          pools.remove(pool.getConnectionPoolId(), pool);
+          grownPools.remove(pool);
+          pool.close();
+        } else {
+          active.add(pool);
+        }
+      }
+    }
+    for (ConnectionPool pool : active) {
+      schedulePoolCheck(pool, pool.getLastActiveTime());
+    }
+  }
+
   /**
    * Clean the unused connections for this pool.
    *
@@ -338,49 +388,23 @@ void cleanup(ConnectionPool pool) {
   }
 
   /**
-   * Removes stale connections not accessed recently from the pool. This is
+   * Removes stale pools and connections not accessed recently. This is
    * invoked periodically.
    */
   private class CleanupTask implements Runnable {
 
     @Override
     public void run() {
-      long currentTime = Time.now();
-      List<ConnectionPoolId> toRemove = new LinkedList<>();
-
-      // Look for stale pools
-      readLock.lock();
-      try {
-        for (Entry<ConnectionPoolId, ConnectionPool> entry : pools.entrySet()) {
-          ConnectionPool pool = entry.getValue();
-          long lastTimeActive = pool.getLastActiveTime();
-          boolean isStale =
-              currentTime > (lastTimeActive + poolCleanupPeriodMs);
-          if (lastTimeActive > 0 && isStale) {
-            // Remove this pool
-            LOG.debug("Closing and removing stale pool {}", pool);
-            pool.close();
-            ConnectionPoolId poolId = entry.getKey();
-            toRemove.add(poolId);
-          } else {
-            // Keep this pool but clean connections inside
-            LOG.debug("Cleaning up {}", pool);
-            cleanup(pool);
-          }
-        }
-      } finally {
-        readLock.unlock();
-      }
-
-      // Remove stale pools
-      if (!toRemove.isEmpty()) {
-        writeLock.lock();
-        try {
-          for (ConnectionPoolId poolId : toRemove) {
-            pools.remove(poolId);
-          }
-        } finally {
-          writeLock.unlock();
+      removeStalePools(Time.now());
+
+      // Only the pools which grew have connections to clean
+      Iterator<ConnectionPool> it = grownPools.iterator();
+      while (it.hasNext()) {
+        ConnectionPool pool = it.next();
+        LOG.debug("Cleaning up {}", pool);
+        cleanup(pool);
+        if (pool.getNumConnections() <= pool.getMinSize()) {
+          it.remove();
         }
       }
     }
@@ -389,7 +413,7 @@ public void run() {
   /**
    * Thread that creates connections asynchronously.
    */
-  private static class ConnectionCreator extends Thread {
+  private class ConnectionCreator extends Thread {
     /** If the creator is running. */
     private boolean running = true;
     /** Queue to push work to. */
@@ -412,12 +436,15 @@ public void run() {
                 active >= MIN_ACTIVE_RATIO * total) {
               ConnectionContext conn = pool.newConnection();
               pool.addConnection(conn);
+              grownPools.add(pool);
             } else {
               LOG.debug("Cannot add more than {} connections to {}",
                   pool.getMaxSize(), pool);
             }
           } catch (IOException e) {
             LOG.error("Cannot create a new connection", e);
+          } finally {
+            pool.connectionRequestDone();
           }
         } catch (InterruptedException e) {
           LOG.error("The connection creator was interrupted");
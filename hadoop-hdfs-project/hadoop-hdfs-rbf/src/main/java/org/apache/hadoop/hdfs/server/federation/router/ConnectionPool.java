@@ -25,6 +25,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.SocketFactory;
@@ -86,6 +87,8 @@ public class ConnectionPool {
   private volatile List<ConnectionContext> connections = new ArrayList<>();
   /** Connection index for round-robin. */
   private final AtomicInteger clientIndex = new AtomicInteger(0);
+  /** If a new connection has been requested and not created yet. */
+  private final AtomicBoolean connectionRequested = new AtomicBoolean(false);
 
   /** Min number of connections per user. */
   private final int minSize;
@@ -158,25 +161,33 @@ public AtomicInteger getClientIndex() {
   }
 
   /**
-   * Return the next connection round-robin.
+   * Return the least loaded connection, starting round-robin.
    *
-   * @return Connection context.
+   * @return Connection context, null if all the connections are closed.
    */
   protected ConnectionContext getConnection() {
 
     this.lastActiveTime = Time.now();
 
-    // Get a connection from the pool following round-robin
+    // Get an unused connection from the pool following round-robin
     ConnectionContext conn = null;
+    int connCalls = Integer.MAX_VALUE;
     List<ConnectionContext> tmpConnections = this.connections;
     int size = tmpConnections.size();
     // Inc and mask off sign bit, lookup index should be non-negative int
     int threadIndex = this.clientIndex.getAndIncrement() & 0x7FFFFFFF;
     for (int i=0; i<size; i++) {
       int index = (threadIndex + i) % size;
-      conn = tmpConnections.get(index);
-      if (conn != null && conn.isUsable()) {
-        return conn;
+      ConnectionContext tmpConn = tmpConnections.get(index);
+      if (tmpConn != null && !tmpConn.isClosed()) {
+        int calls = tmpConn.getNumCalls();
+        if (calls == 0) {
+          return tmpConn;
+        }
+        if (calls < connCalls) {
+          conn = tmpConn;
+          connCalls = calls;
+        }
       }
     }
 
@@ -184,6 +195,22 @@ protected ConnectionContext getConnection() {
     return conn;
   }
 
+  /**
+   * Request a new connection for this pool, unless one is already requested.
+   *
+   * @return If the connection should be created.
+   */
+  protected boolean requestConnection() {
+    return this.connectionRequested.compareAndSet(false, true);
+  }
+
+  /**
+   * Mark the requested connection as handled.
+   */
+  protected void connectionRequestDone() {
+    this.connectionRequested.set(false);
+  }
+
   /**
    * Add a connection to the current pool. It uses a Copy-On-Write approach.
    *
@@ -105,6 +105,9 @@ public class RBFConfigKeys extends CommonConfigurationKeysPublic {
       FEDERATION_ROUTER_PREFIX + "connection.clean.ms";
   public static final long DFS_ROUTER_NAMENODE_CONNECTION_CLEAN_MS_DEFAULT =
       TimeUnit.SECONDS.toMillis(10);
+  public static final String DFS_ROUTER_NAMENODE_CONNECTION_CALLS =
+      FEDERATION_ROUTER_PREFIX + "connection.calls-per-connection";
+  public static final int DFS_ROUTER_NAMENODE_CONNECTION_CALLS_DEFAULT = 4;
 
   // HDFS Router RPC client
   public static final String DFS_ROUTER_CLIENT_THREADS_SIZE =
@@ -116,6 +119,21 @@ public class RBFConfigKeys extends CommonConfigurationKeysPublic {
   public static final String DFS_ROUTER_CLIENT_REJECT_OVERLOAD =
       FEDERATION_ROUTER_PREFIX + "client.reject.overload";
   public static final boolean DFS_ROUTER_CLIENT_REJECT_OVERLOAD_DEFAULT = false;
+  public static final String DFS_ROUTER_CLIENT_ASYNC_ENABLE =
+      FEDERATION_ROUTER_PREFIX + "client.async.enable";
+  public static final boolean DFS_ROUTER_CLIENT_ASYNC_ENABLE_DEFAULT = false;
+
+  // HDFS Router metadata cache
+  public static final String DFS_ROUTER_METADATA_CACHE_ENABLE =
+      FEDERATION_ROUTER_PREFIX + "metadata-cache.enable";
+  public static final boolean DFS_ROUTER_METADATA_CACHE_ENABLE_DEFAULT = false;
+  public static final String DFS_ROUTER_METADATA_CACHE_TTL =
+      FEDERATION_ROUTER_PREFIX + "metadata-cache.ttl";
+  public static final long DFS_ROUTER_METADATA_CACHE_TTL_DEFAULT =
+      TimeUnit.SECONDS.toMillis(10);
+  public static final String DFS_ROUTER_METADATA_CACHE_MAX_SIZE =
+      FEDERATION_ROUTER_PREFIX + "metadata-cache.max-size";
+  public static final int DFS_ROUTER_METADATA_CACHE_MAX_SIZE_DEFAULT = 10000;
 
   // HDFS Router State Store connection
   public static final String FEDERATION_FILE_RESOLVER_CLIENT_CLASS =
@@ -0,0 +1,351 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.federation.router;
+
+import static org.apache.hadoop.hdfs.server.federation.router.FederationUtil.isParentEntry;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Cache for the namespace metadata the Router reads from the Namenodes: file
+ * status, directory listings and block locations. The results are cached per
+ * user and remote location for a limited time. The writes that go through this
+ * Router invalidate the results for the paths they modify, the paths beneath
+ * them and their parents. Changes done through other Routers or directly in
+ * the Namenodes are only seen once the cached results expire.
+ */
+public class RouterMetadataCache {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(RouterMetadataCache.class);
+
+  /** ClientProtocol methods whose results are cached. */
+  private static final Set<String> CACHED_METHODS = ImmutableSet.of(
+      "getBlockLocations", "getFileInfo", "getListing");
+
+  /**
+   * ClientProtocol methods which modify the paths in their parameters. The
+   * ones without a path, like updatePipeline, modify the blocks of a file
+   * which is not known to the Router.
+   */
+  private static final Set<String> WRITE_METHODS = ImmutableSet.of(
+      "abandonBlock", "addBlock", "append", "complete", "concat", "create",
+      "createEncryptionZone", "createSnapshot", "createSymlink", "delete",
+      "deleteSnapshot", "fsync", "mkdirs", "modifyAclEntries", "recoverLease",
+      "removeAcl", "removeAclEntries", "removeDefaultAcl", "removeXAttr",
+      "rename", "rename2", "renameSnapshot", "setAcl",
+      "setErasureCodingPolicy", "setOwner", "setPermission", "setQuota",
+      "setReplication", "setStoragePolicy", "setTimes", "setXAttr",
+      "truncate", "unsetErasureCodingPolicy", "unsetStoragePolicy",
+      "updatePipeline");
+
+
+  /**
+   * Key of a cached result: the remote location, the method and the user.
+   * Keys are sorted by remote location to find the ones beneath a path.
+   */
+  static final class Key implements Comparable<Key> {
+    private final String nsId;
+    private final String path;
+    private final String method;
+    private final String user;
+    private final String args;
+
+    Key(String nsId, String path, String method, String user, String args) {
+      this.nsId = nsId;
+      this.path = path;
+      this.method = method;
+      this.user = user;
+      this.args = args;
+    }
+
+    @Override
+    public int compareTo(Key o) {
+      int cmp = this.nsId.compareTo(o.nsId);
+      if (cmp == 0) {
+        cmp = this.path.compareTo(o.path);
+      }
+      if (cmp == 0) {
+        cmp = this.method.compareTo(o.method);
+      }
+      if (cmp == 0) {
+        cmp = this.user.compareTo(o.user);
+      }
+      if (cmp == 0) {
+        cmp = this.args.compareTo(o.args);
+      }
+      return cmp;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Key && compareTo((Key) obj) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(
+          new Object[] {this.nsId, this.path, this.method, this.user,
+              this.args});
+    }
+
+    @Override
+    public String toString() {
+      return this.method + "(" + this.nsId + "->" + this.path + this.args +
+          ") for " + this.user;
+    }
+  }
+
+
+  /** Cached results. */
+  private final Cache<Key, Object> cache;
+  /** Keys in the cache, sorted to invalidate them by path. */
+  private final NavigableSet<Key> keys = new ConcurrentSkipListSet<>();
+  /** Incremented on every invalidation. */
+  private volatile long version = 0;
+
+
+  public RouterMetadataCache(Configuration conf) {
+    long ttlMs = conf.getTimeDuration(
+        RBFConfigKeys.DFS_ROUTER_METADATA_CACHE_TTL,
+        RBFConfigKeys.DFS_ROUTER_METADATA_CACHE_TTL_DEFAULT,
+        TimeUnit.MILLISECONDS);
+    int maxSize = conf.getInt(
+        RBFConfigKeys.DFS_ROUTER_METADATA_CACHE_MAX_SIZE,
+        RBFConfigKeys.DFS_ROUTER_METADATA_CACHE_MAX_SIZE_DEFAULT);
+    this.cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+        .maximumSize(maxSize)
+        .removalListener(new RemovalListener<Key, Object>() {
+          @Override
+          public void onRemoval(RemovalNotification<Key, Object> notification) {
+            if (notification.wasEvicted()) {
+              removeKey(notification.getKey());
+            }
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Check if the results of a method are cached.
+   *
+   * @param method Remote method.
+   * @return If the results of the method are cached.
+   */
+  public static boolean isCached(Method method) {
+    return CACHED_METHODS.contains(method.getName());
+  }
+
+  /**
+   * Check if a method modifies the paths in its parameters.
+   *
+   * @param method Remote method.
+   * @return If the method modifies the paths in its parameters.
+   */
+  public static boolean isWrite(Method method) {
+    return WRITE_METHODS.contains(method.getName());
+  }
+
+  /**
+   * Get the key for the result of a cached method.
+   *
+   * @param ugi User invoking the method.
+   * @param nsId Nameservice the method is invoked in.
+   * @param method Remote method.
+   * @param params Parameters of the method, the first one is the path.
+   * @return Key for the result.
+   */
+  Key getKey(UserGroupInformation ugi, String nsId, Method method,
+      Object[] params) {
+    StringBuilder args = new StringBuilder();
+    for (int i = 1; i < params.length; i++) {
+      args.append(',');
+      if (params[i] instanceof byte[]) {
+        args.append(Arrays.toString((byte[]) params[i]));
+      } else {
+        args.append(params[i]);
+      }
+    }
+    return new Key(nsId, (String) params[0], method.getName(),
+        ugi.getUserName(), args.toString());
+  }
+
+  /**
+   * Get a cached result.
+   *
+   * @param key Key for the result.
+   * @return Cached result or null if it is not cached.
+   */
+  Object get(Key key) {
+    return this.cache.getIfPresent(key);
+  }
+
+  /**
+   * Get the current version of the cache. A result can only be cached if there
+   * was no invalidation since it was fetched.
+   *
+   * @return Version of the cache.
+   */
+  long getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Cache a result unless there was an invalidation since it was fetched.
+   *
+   * @param key Key for the result.
+   * @param result Result to cache.
+   * @param fetchVersion Version of the cache when the result was fetched.
+   */
+  synchronized void put(Key key, Object result, long fetchVersion) {
+    if (result != null && fetchVersion == this.version) {
+      this.keys.add(key);
+      this.cache.put(key, result);
+    }
+  }
+
+  /**
+   * Invalidate the results for the paths in the parameters of a write. If
+   * the write has no path, all the results of the nameservice are invalidated.
+   *
+   * @param nsId Nameservice the write was invoked in.
+   * @param params Parameters of the write.
+   */
+  void invalidate(String nsId, Object[] params) {
+    boolean hasPath = false;
+    for (Object param : params) {
+      if (param instanceof String) {
+        hasPath |= invalidate(nsId, (String) param);
+      } else if (param instanceof String[]) {
+        for (String path : (String[]) param) {
+          hasPath |= invalidate(nsId, path);
+        }
+      }
+    }
+    if (!hasPath) {
+      invalidateAll(nsId);
+    }
+  }
+
+  /**
+   * Invalidate all the results of a nameservice.
+   *
+   * @param nsId Nameservice modified.
+   */
+  private synchronized void invalidateAll(String nsId) {
+    this.version++;
+    Iterator<Key> it = this.keys.subSet(
+        new Key(nsId, "", "", "", ""), true,
+        new Key(nsId + Character.MIN_VALUE, "", "", "", ""), false)
+        .iterator();
+    while (it.hasNext()) {
+      Key key = it.next();
+      LOG.debug("Invalidating {}", key);
+      it.remove();
+      this.cache.invalidate(key);
+    }
+  }
+
+  /**
+   * Invalidate the results for a path, the paths beneath it and its parent.
+   *
+   * @param nsId Nameservice of the path.
+   * @param path Path modified in the nameservice.
+   * @return If the parameter was a path.
+   */
+  @VisibleForTesting
+  synchronized boolean invalidate(String nsId, String path) {
+    if (!path.startsWith(Path.SEPARATOR)) {
+      // Not a path, e.g. the name of an owner
+      return false;
+    }
+    this.version++;
+
+    Iterator<Key> it = this.keys.subSet(
+        new Key(nsId, path, "", "", ""), true,
+        new Key(nsId, path + Character.MAX_VALUE, "", "", ""), false)
+        .iterator();
+    while (it.hasNext()) {
+      Key key = it.next();
+      if (isParentEntry(key.path, path)) {
+        LOG.debug("Invalidating {}", key);
+        it.remove();
+        this.cache.invalidate(key);
+      }
+    }
+
+    // The modification time and the listing of the parent change too
+    int index = path.lastIndexOf(Path.SEPARATOR_CHAR);
+    if (path.length() > 1) {
+      String parent = index == 0 ? Path.SEPARATOR : path.substring(0, index);
+      it = this.keys.subSet(
+          new Key(nsId, parent, "", "", ""), true,
+          new Key(nsId, parent + Character.MIN_VALUE, "", "", ""), false)
+          .iterator();
+      while (it.hasNext()) {
+        Key key = it.next();
+        LOG.debug("Invalidating {}", key);
+        it.remove();
+        this.cache.invalidate(key);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stop tracking a key evicted from the cache.
+   *
+   * @param key Key evicted from the cache.
+   */
+  private synchronized void removeKey(Key key) {
+    // It may have been cached again in the meantime
+    if (this.cache.getIfPresent(key) == null) {
+      this.keys.remove(key);
+    }
+  }
+
+  /**
+   * Get the number of cached results.
+   *
+   * @return Number of cached results.
+   */
+  @VisibleForTesting
+  long size() {
+    return this.cache.size();
+  }
+}
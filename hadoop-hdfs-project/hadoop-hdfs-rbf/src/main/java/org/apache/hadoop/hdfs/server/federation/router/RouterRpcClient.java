@@ -20,14 +20,15 @@
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -39,34 +40,45 @@
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.NameNodeProxiesClient.ProxyAndInfo;
 import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.federation.resolver.ActiveNamenodeResolver;
 import org.apache.hadoop.hdfs.server.federation.resolver.FederationNamenodeContext;
 import org.apache.hadoop.hdfs.server.federation.resolver.FederationNamenodeServiceState;
 import org.apache.hadoop.hdfs.server.federation.resolver.RemoteLocation;
+import org.apache.hadoop.io.retry.AsyncCallHandler;
 import org.apache.hadoop.io.retry.RetryPolicies;
 import org.apache.hadoop.io.retry.RetryPolicy;
 import org.apache.hadoop.io.retry.RetryPolicy.RetryAction.RetryDecision;
+import org.apache.hadoop.ipc.Client;
 import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RetriableException;
 import org.apache.hadoop.ipc.StandbyException;
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.concurrent.AsyncGet;
+import org.eclipse.jetty.util.ajax.JSON;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
@@ -81,6 +93,9 @@
  * <li>invokeConcurrent Make concurrent requests to multiple namespaces and
  * return all of the results.
  * </ul>
+ * Concurrent requests are sent asynchronously by the calling thread when the
+ * method supports it, and by a pool of client threads otherwise.
+ * <p>
  * Also maintains a cached pool of connections to NNs. Connections are managed
  * by the ConnectionManager and are unique to each user + NN. The size of the
  * connection pool can be configured. Larger pools allow for more simultaneous
@@ -106,6 +121,18 @@ public class RouterRpcClient {
   private final RetryPolicy retryPolicy;
   /** Optional perf monitor. */
   private final RouterRpcMonitor rpcMonitor;
+  /** If concurrent calls are sent asynchronously when possible. */
+  private final boolean asyncEnabled;
+  /** Calls waiting for a response from each nameservice. */
+  private final ConcurrentMap<String, AtomicInteger> outstandingCalls =
+      new ConcurrentHashMap<>();
+  /** Cache for the namespace metadata, null if disabled. */
+  private final RouterMetadataCache metadataCache;
+
+  /** ClientProtocol methods which can be invoked asynchronously. */
+  private static final Set<String> ASYNC_METHODS = ImmutableSet.of(
+      "getContentSummary", "getListing", "getQuotaUsage", "getStats",
+      "renewLease", "setOwner", "setPermission", "setQuota");
 
   /** Pattern to parse a stack trace line. */
   private static final Pattern STACK_TRACE_PATTERN =
@@ -147,6 +174,16 @@ public RouterRpcClient(Configuration conf, Router router,
         0L, TimeUnit.MILLISECONDS, workQueue, threadFactory);
 
     this.rpcMonitor = monitor;
+    this.asyncEnabled = conf.getBoolean(
+        RBFConfigKeys.DFS_ROUTER_CLIENT_ASYNC_ENABLE,
+        RBFConfigKeys.DFS_ROUTER_CLIENT_ASYNC_ENABLE_DEFAULT);
+    if (conf.getBoolean(
+        RBFConfigKeys.DFS_ROUTER_METADATA_CACHE_ENABLE,
+        RBFConfigKeys.DFS_ROUTER_METADATA_CACHE_ENABLE_DEFAULT)) {
+      this.metadataCache = new RouterMetadataCache(conf);
+    } else {
+      this.metadataCache = null;
+    }
 
     int maxFailoverAttempts = conf.getInt(
         HdfsClientConfigKeys.Failover.MAX_ATTEMPTS_KEY,
@@ -231,6 +268,48 @@ public String getJSON() {
     return this.connectionManager.getJSON();
   }
 
+  /**
+   * JSON representation of the calls waiting for a response from each
+   * nameservice.
+   *
+   * @return String representation of the JSON.
+   */
+  public String getOutstandingCallsJSON() {
+    final Map<String, Integer> info = new TreeMap<>();
+    for (Entry<String, AtomicInteger> entry : outstandingCalls.entrySet()) {
+      info.put(entry.getKey(), entry.getValue().get());
+    }
+    return JSON.toString(info);
+  }
+
+  /**
+   * Number of calls waiting for a response from a nameservice.
+   *
+   * @param nsId Nameservice identifier.
+   * @return Number of outstanding calls.
+   */
+  @VisibleForTesting
+  int getOutstandingCalls(String nsId) {
+    AtomicInteger calls = outstandingCalls.get(nsId);
+    return calls == null ? 0 : calls.get();
+  }
+
+  private void incrOutstandingCalls(String nsId) {
+    AtomicInteger calls = outstandingCalls.get(nsId);
+    if (calls == null) {
+      calls = new AtomicInteger();
+      AtomicInteger existing = outstandingCalls.putIfAbsent(nsId, calls);
+      if (existing != null) {
+        calls = existing;
+      }
+    }
+    calls.incrementAndGet();
+  }
+
+  private void decrOutstandingCalls(String nsId) {
+    outstandingCalls.get(nsId).decrementAndGet();
+  }
+
   /**
    * Get ClientProtocol proxy client for a NameNode. Each combination of user +
    * NN must use a unique proxy client. Previously created clients are cached
@@ -320,6 +399,57 @@ private RetryDecision shouldRetry(final IOException ioe, final int retryCount,
     }
   }
 
+  /**
+   * Invokes a method in a remote location. The results of the cached methods
+   * are taken from the metadata cache if possible, and the writes invalidate
+   * the results for the paths they modify.
+   *
+   * @param ugi User group information.
+   * @param nsId Nameservice of the remote location.
+   * @param namenodes A prioritized list of namenodes within the nameservice.
+   * @param method Remote ClientProtcol method to invoke.
+   * @param params Variable list of parameters matching the method.
+   * @return The result of invoking the method.
+   * @throws IOException If the invocation fails.
+   */
+  private Object invokeLocation(
+      final UserGroupInformation ugi, final String nsId,
+      final List<? extends FederationNamenodeContext> namenodes,
+      final Class<?> protocol, final Method method, final Object... params)
+          throws IOException {
+
+    if (metadataCache == null) {
+      return invokeMethod(ugi, namenodes, protocol, method, params);
+    }
+
+    if (RouterMetadataCache.isCached(method)) {
+      RouterMetadataCache.Key key =
+          metadataCache.getKey(ugi, nsId, method, params);
+      Object ret = metadataCache.get(key);
+      if (ret != null) {
+        if (rpcMonitor != null) {
+          rpcMonitor.metadataCacheHit();
+        }
+        return ret;
+      }
+      if (rpcMonitor != null) {
+        rpcMonitor.metadataCacheMiss();
+      }
+      long version = metadataCache.getVersion();
+      ret = invokeMethod(ugi, namenodes, protocol, method, params);
+      metadataCache.put(key, ret, version);
+      return ret;
+    }
+
+    try {
+      return invokeMethod(ugi, namenodes, protocol, method, params);
+    } finally {
+      if (RouterMetadataCache.isWrite(method)) {
+        metadataCache.invalidate(nsId, params);
+      }
+    }
+  }
+
   /**
    * Invokes a method against the ClientProtocol proxy server. If a standby
    * exception is generated by the call to the client, retries using the
@@ -363,7 +493,12 @@ private Object invokeMethod(
         ProxyAndInfo<?> client = connection.getClient();
         final Object proxy = client.getProxy();
 
-        ret = invoke(nsId, 0, method, proxy, params);
+        incrOutstandingCalls(nsId);
+        try {
+          ret = invoke(nsId, 0, method, proxy, params);
+        } finally {
+          decrOutstandingCalls(nsId);
+        }
         if (failover) {
           // Success on alternate server, update
           InetSocketAddress address = client.getAddress();
@@ -630,7 +765,14 @@ public Object invokeSingle(final String nsId, RemoteMethod method)
     Class<?> proto = method.getProtocol();
     Method m = method.getMethod();
     Object[] params = method.getParams(loc);
-    return invokeMethod(ugi, nns, proto, m, params);
+    try {
+      return invokeMethod(ugi, nns, proto, m, params);
+    } finally {
+      // Block writes like abandonBlock and updatePipeline are sent here
+      if (metadataCache != null && RouterMetadataCache.isWrite(m)) {
+        metadataCache.invalidate(nsId, params);
+      }
+    }
   }
 
   /**
@@ -729,7 +871,8 @@ public <T> T invokeSequential(
       try {
         Class<?> proto = remoteMethod.getProtocol();
         Object[] params = remoteMethod.getParams(loc);
-        Object result = invokeMethod(ugi, namenodes, proto, m, params);
+        Object result =
+            invokeLocation(ugi, ns, namenodes, proto, m, params);
         // Check if the result is what we expected
         if (isExpectedClass(expectedResultClass, result) &&
             isExpectedValue(expectedResultValue, result)) {
@@ -1018,12 +1161,14 @@ public <T extends RemoteLocationContext, R> Map<T, R> invokeConcurrent(
           getNamenodesForNameservice(ns);
       Class<?> proto = method.getProtocol();
       Object[] paramList = method.getParams(location);
-      Object result = invokeMethod(ugi, namenodes, proto, m, paramList);
+      Object result =
+          invokeLocation(ugi, ns, namenodes, proto, m, paramList);
       return Collections.singletonMap(location, clazz.cast(result));
     }
 
+    final boolean async = isAsync(method, timeOutMs);
     List<T> orderedLocations = new LinkedList<>();
-    Set<Callable<Object>> callables = new HashSet<>();
+    List<Callable<Object>> callables = new ArrayList<>();
     for (final T location : locations) {
       String nsId = location.getNameserviceId();
       final List<? extends FederationNamenodeContext> namenodes =
@@ -1041,20 +1186,14 @@ public <T extends RemoteLocationContext, R> Map<T, R> invokeConcurrent(
             nnLocation = (T)new RemoteLocation(nsId, nnId, location.getDest());
           }
           orderedLocations.add(nnLocation);
-          callables.add(new Callable<Object>() {
-            public Object call() throws Exception {
-              return invokeMethod(ugi, nnList, proto, m, paramList);
-            }
-          });
+          callables.add(
+              createCall(ugi, nnList, proto, m, paramList, async));
         }
       } else {
         // Call the objectGetter in order of nameservices in the NS list
         orderedLocations.add(location);
-        callables.add(new Callable<Object>() {
-          public Object call() throws Exception {
-            return invokeMethod(ugi, namenodes, proto, m, paramList);
-          }
-        });
+        callables.add(
+            createCall(ugi, namenodes, proto, m, paramList, async));
       }
     }
 
@@ -1064,7 +1203,9 @@ public Object call() throws Exception {
 
     try {
       List<Future<Object>> futures = null;
-      if (timeOutMs > 0) {
+      if (async) {
+        futures = invokeAllAsync(callables);
+      } else if (timeOutMs > 0) {
         futures = executorService.invokeAll(
             callables, timeOutMs, TimeUnit.MILLISECONDS);
       } else {
@@ -1133,6 +1274,208 @@ public Object call() throws Exception {
       LOG.error("Unexpected error while invoking API: {}", ex.getMessage());
       throw new IOException(
           "Unexpected error while invoking API " + ex.getMessage(), ex);
+    } finally {
+      if (metadataCache != null && RouterMetadataCache.isWrite(m)) {
+        for (T location : locations) {
+          metadataCache.invalidate(
+              location.getNameserviceId(), method.getParams(location));
+        }
+      }
+    }
+  }
+
+  /**
+   * Check if the calls of a concurrent invocation can be sent asynchronously.
+   *
+   * @param method The remote method to invoke.
+   * @param timeOutMs Timeout for each individual call.
+   * @return If the calls can be sent asynchronously.
+   */
+  private boolean isAsync(RemoteMethod method, long timeOutMs) {
+    // Calls that time out would stay outstanding in the RPC client
+    return asyncEnabled && timeOutMs <= 0 &&
+        method.getProtocol() == ClientProtocol.class &&
+        ASYNC_METHODS.contains(method.getMethodName());
+  }
+
+  /**
+   * Create a call for a concurrent invocation.
+   *
+   * @param ugi User group information.
+   * @param namenodes A prioritized list of namenodes within the same
+   *                  nameservice.
+   * @param proto Protocol of the method.
+   * @param m Remote method to invoke.
+   * @param params Parameters of the method.
+   * @param async If the call is sent asynchronously.
+   * @return Call to the nameservice.
+   */
+  private Callable<Object> createCall(final UserGroupInformation ugi,
+      final List<? extends FederationNamenodeContext> namenodes,
+      final Class<?> proto, final Method m, final Object[] params,
+      boolean async) {
+    if (async) {
+      return new AsyncCall(ugi, namenodes, proto, m, params);
+    }
+    return new Callable<Object>() {
+      public Object call() throws Exception {
+        return invokeMethod(ugi, namenodes, proto, m, params);
+      }
+    };
+  }
+
+  /**
+   * Send all the calls asynchronously and then wait for their responses, in
+   * the calling thread. The asynchronous calls outstanding are limited for
+   * the whole Router, so the calls which cannot be sent are invoked by the
+   * RPC client threads instead, as if the invocation was not asynchronous.
+   *
+   * @param calls Asynchronous calls to the nameservices.
+   * @return Completed futures with the results of the calls, in order.
+   * @throws InterruptedException If interrupted waiting for the RPC client
+   *                              threads.
+   */
+  private List<Future<Object>> invokeAllAsync(List<Callable<Object>> calls)
+      throws InterruptedException {
+    List<Callable<Object>> unsent = new ArrayList<>();
+    for (Callable<Object> call : calls) {
+      AsyncCall asyncCall = (AsyncCall) call;
+      asyncCall.send();
+      if (!asyncCall.isSent()) {
+        unsent.add(call);
+      }
+    }
+    List<Future<Object>> unsentFutures = Collections.emptyList();
+    List<Future<Object>> futures = new ArrayList<>(calls.size());
+    try {
+      if (!unsent.isEmpty()) {
+        unsentFutures = executorService.invokeAll(unsent);
+      }
+    } finally {
+      // Wait for the calls sent even if the others failed, to release their
+      // connections
+      int unsentIndex = 0;
+      for (Callable<Object> call : calls) {
+        if (((AsyncCall) call).isSent()) {
+          FutureTask<Object> future = new FutureTask<>(call);
+          future.run();
+          futures.add(future);
+        } else if (unsentIndex < unsentFutures.size()) {
+          futures.add(unsentFutures.get(unsentIndex++));
+        }
+      }
+    }
+    return futures;
+  }
+
+  /**
+   * Call to a nameservice sent asynchronously to its first namenode. The
+   * response is waited for by the thread that sent it, which then releases
+   * the connection. Calls that cannot be sent, or that the namenode cannot
+   * serve (standby or communication errors), are invoked synchronously
+   * with the usual failover and retries.
+   */
+  private final class AsyncCall implements Callable<Object> {
+    private final UserGroupInformation ugi;
+    private final List<? extends FederationNamenodeContext> namenodes;
+    private final Class<?> protocol;
+    private final Method method;
+    private final Object[] params;
+
+    /** Connection used by the call, until it completes. */
+    private ConnectionContext connection;
+    /** Response of the call, null if it was not sent asynchronously. */
+    private AsyncGet<Object, Exception> response;
+
+    AsyncCall(UserGroupInformation ugi,
+        List<? extends FederationNamenodeContext> namenodes,
+        Class<?> protocol, Method method, Object[] params) {
+      this.ugi = ugi;
+      this.namenodes = namenodes;
+      this.protocol = protocol;
+      this.method = method;
+      this.params = params;
+    }
+
+    private String getNameserviceId() {
+      return namenodes.get(0).getNameserviceId();
+    }
+
+    /**
+     * Send the call without waiting for the response.
+     */
+    void send() {
+      FederationNamenodeContext namenode = namenodes.get(0);
+      String nsId = namenode.getNameserviceId();
+      try {
+        connection = getConnection(
+            ugi, nsId, namenode.getRpcAddress(), protocol);
+        Object proxy = connection.getClient().getProxy();
+        Client.setAsynchronousMode(true);
+        try {
+          method.invoke(proxy, params);
+          response = AsyncCallHandler.getAsyncReturn();
+        } finally {
+          Client.setAsynchronousMode(false);
+        }
+        incrOutstandingCalls(nsId);
+      } catch (Exception e) {
+        // For example, too many asynchronous calls are outstanding
+        LOG.debug("Cannot send {} to {} asynchronously: {}",
+            method.getName(), nsId, e.getMessage());
+        response = null;
+        if (connection != null) {
+          connection.release();
+          connection = null;
+        }
+      }
+    }
+
+    /**
+     * @return If the call was sent asynchronously.
+     */
+    boolean isSent() {
+      return response != null;
+    }
+
+    @Override
+    public Object call() throws IOException {
+      if (response == null) {
+        return invokeMethod(ugi, namenodes, protocol, method, params);
+      }
+      String nsId = getNameserviceId();
+      try {
+        Object ret = response.get(-1, TimeUnit.MILLISECONDS);
+        if (rpcMonitor != null) {
+          rpcMonitor.proxyOpComplete(true);
+        }
+        return ret;
+      } catch (RemoteException re) {
+        IOException ioe = re.unwrapRemoteException();
+        if (!(ioe instanceof StandbyException) &&
+            !(ioe instanceof RetriableException)) {
+          // RemoteException returned by NN
+          if (rpcMonitor != null) {
+            rpcMonitor.proxyOpComplete(true);
+          }
+          throw getCleanException(ioe);
+        }
+        LOG.debug("Cannot invoke {} in {}, trying again: {}",
+            method.getName(), nsId, ioe.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "Interrupted waiting for " + method.getName() + " in " + nsId);
+      } catch (Exception e) {
+        LOG.debug("Cannot invoke {} in {}, trying again: {}",
+            method.getName(), nsId, e.getMessage());
+      } finally {
+        decrOutstandingCalls(nsId);
+        connection.release();
+        connection = null;
+        response = null;
+      }
+      return invokeMethod(ugi, namenodes, protocol, method, params);
     }
   }
 
@@ -92,6 +92,16 @@ void init(
    */
   void proxyOpRetries();
 
+  /**
+   * The result of an operation was in the metadata cache.
+   */
+  void metadataCacheHit();
+
+  /**
+   * The result of an operation was not in the metadata cache.
+   */
+  void metadataCacheMiss();
+
   /**
    * If the Router cannot contact the State Store in an operation.
    */
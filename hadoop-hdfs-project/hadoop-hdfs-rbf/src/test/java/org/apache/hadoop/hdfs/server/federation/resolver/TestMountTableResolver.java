@@ -525,4 +525,113 @@ public void testLocationCache() throws Exception {
     mountTable.removeEntry("/testlocationcache");
     mountTable.removeEntry("/anothertestlocationcache");
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testLocationCacheInvalidatesSubtree() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setStrings(DFS_ROUTER_DEFAULT_NAMESERVICE, "0");
+    MountTableResolver resolver = new MountTableResolver(conf);
+    resolver.addEntry(
+        MountTable.newInstance("/", getMountTableEntry("1", "/")));
+    resolver.addEntry(
+        MountTable.newInstance("/user", getMountTableEntry("2", "/user")));
+
+    assertEquals("1->/tmp/file",
+        resolver.getDestinationForPath("/tmp/file").toString());
+    assertEquals("2->/user/b/file",
+        resolver.getDestinationForPath("/user/b/file").toString());
+    assertEquals("1->/username/file",
+        resolver.getDestinationForPath("/username/file").toString());
+    assertEquals(3, resolver.getCacheSize());
+
+    // Only the paths beneath the new mount point are invalidated
+    resolver.addEntry(
+        MountTable.newInstance("/user/b", getMountTableEntry("3", "/b")));
+    assertEquals(2, resolver.getCacheSize());
+    assertEquals("3->/b/file",
+        resolver.getDestinationForPath("/user/b/file").toString());
+
+    // Mount points are matched by path component
+    assertEquals(2, resolver.getMounts("/user").size());
+    assertEquals(1, resolver.getMounts("/user/b").size());
+    assertEquals(0, resolver.getMounts("/use").size());
+
+    // A refresh without changes keeps the cache
+    List<MountTable> entries = resolver.getMounts("/");
+    resolver.refreshEntries(entries);
+    assertEquals(3, resolver.getCacheSize());
+
+    // A new mount point under / does not depend on the root entry
+    resolver.addEntry(
+        MountTable.newInstance("/tmp", getMountTableEntry("4", "/tmp")));
+    assertEquals(2, resolver.getCacheSize());
+    assertEquals("4->/tmp/file",
+        resolver.getDestinationForPath("/tmp/file").toString());
+  }
+
+  /**
+   * Microbenchmark for the resolution of paths with 100,000 mount points.
+   */
+  @Test
+  public void testMountTableLookupPerformance() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setStrings(DFS_ROUTER_DEFAULT_NAMESERVICE, "0");
+    MountTableResolver resolver = new MountTableResolver(conf);
+
+    // 100 users with 1000 mount points each and a root mount point
+    final int numUsers = 100;
+    final int numMountsPerUser = 1000;
+    List<MountTable> entries = new ArrayList<>();
+    entries.add(MountTable.newInstance("/", getMountTableEntry("0", "/")));
+    for (int i = 0; i < numUsers; i++) {
+      for (int j = 0; j < numMountsPerUser - 1; j++) {
+        String src = "/user/u" + i + "/dir" + j;
+        entries.add(MountTable.newInstance(
+            src, getMountTableEntry(Integer.toString(j % 4), src)));
+      }
+      entries.add(MountTable.newInstance("/user/u" + i,
+          getMountTableEntry("4", "/user/u" + i)));
+    }
+    long start = System.nanoTime();
+    resolver.refreshEntries(entries);
+    LOG.info("Loaded {} mount points in {} ms", entries.size(),
+        (System.nanoTime() - start) / 1000000);
+    assertEquals(numUsers * numMountsPerUser + 1,
+        resolver.getMounts("/").size());
+
+    // Resolve paths at different depths without the location cache
+    Random rand = new Random(0);
+    final int numLookups = 500000;
+    start = System.nanoTime();
+    for (int i = 0; i < numLookups; i++) {
+      int user = rand.nextInt(numUsers);
+      int dir = rand.nextInt(numMountsPerUser + 100);
+      String path = "/user/u" + user + "/dir" + dir + "/sub/file" + i;
+      PathLocation location = resolver.lookupLocation(path);
+      if (dir < numMountsPerUser - 1) {
+        assertEquals("/user/u" + user + "/dir" + dir,
+            location.getSourcePath());
+      } else {
+        assertEquals("/user/u" + user, location.getSourcePath());
+      }
+    }
+    long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1000000);
+    LOG.info("Resolved {} paths in {} ms: {} lookups/s", numLookups,
+        elapsedMs, numLookups * 1000L / elapsedMs);
+
+    // Fill the location cache and update one mount point
+    for (int i = 0; i < numUsers; i++) {
+      resolver.getDestinationForPath("/user/u" + i + "/dir0/file");
+    }
+    long cacheSize = resolver.getCacheSize();
+    entries.set(1, MountTable.newInstance("/user/u0/dir0",
+        getMountTableEntry("5", "/user/u0/dir0")));
+    start = System.nanoTime();
+    resolver.refreshEntries(entries);
+    LOG.info("Refreshed {} mount points with one change in {} ms",
+        entries.size(), (System.nanoTime() - start) / 1000000);
+    assertEquals(cacheSize - 1, resolver.getCacheSize());
+    assertEquals("5->/user/u0/dir0/file",
+        resolver.getDestinationForPath("/user/u0/dir0/file").toString());
+  }
+}
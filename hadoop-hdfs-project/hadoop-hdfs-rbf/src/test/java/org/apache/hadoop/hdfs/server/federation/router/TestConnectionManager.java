@@ -22,14 +22,21 @@
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocol;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.Assert.assertNotNull;
@@ -192,6 +199,82 @@ public void getGetConnectionNamenodeProtocol() throws Exception {
     assertTrue(cc.isActive());
   }
 
+  @Test
+  public void testPoolGrowsWithCallsInFlight() throws Exception {
+    connManager.close();
+    conf.setInt(RBFConfigKeys.DFS_ROUTER_NAMENODE_CONNECTION_CALLS, 2);
+    connManager = new ConnectionManager(conf);
+    connManager.start();
+
+    // Calls share the connection until it carries 2 of them
+    ConnectionContext conn1 = connManager.getConnection(
+        TEST_USER1, TEST_NN_ADDRESS, ClientProtocol.class);
+    conn1.getClient();
+    ConnectionContext conn2 = connManager.getConnection(
+        TEST_USER1, TEST_NN_ADDRESS, ClientProtocol.class);
+    assertSame(conn1, conn2);
+    conn2.getClient();
+    checkPoolConnections(TEST_USER1, 1, 1);
+
+    // A busy connection makes the pool grow
+    assertSame(conn1, connManager.getConnection(
+        TEST_USER1, TEST_NN_ADDRESS, ClientProtocol.class));
+    final ConnectionPool pool = connManager.getPools().get(
+        new ConnectionPoolId(TEST_USER1, TEST_NN_ADDRESS,
+            ClientProtocol.class));
+    GenericTestUtils.waitFor(() -> pool.getNumConnections() == 2, 10, 10000);
+
+    // The new connection is the least loaded one
+    ConnectionContext conn3 = connManager.getConnection(
+        TEST_USER1, TEST_NN_ADDRESS, ClientProtocol.class);
+    assertTrue(conn3 != conn1);
+    assertTrue(conn3.isUsable());
+    conn1.release();
+    conn1.release();
+  }
+
+  @Test(timeout = 120000)
+  public void testManyUsers() throws Exception {
+    connManager.close();
+    conf.setLong(
+        RBFConfigKeys.DFS_ROUTER_NAMENODE_CONNECTION_POOL_CLEAN, 1000);
+    conf.setLong(RBFConfigKeys.DFS_ROUTER_NAMENODE_CONNECTION_CLEAN_MS, 100);
+    connManager = new ConnectionManager(conf);
+    connManager.start();
+
+    // 10k distinct users getting a connection at once
+    final int numUsers = 10000;
+    ExecutorService exec = Executors.newFixedThreadPool(16);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < numUsers; i++) {
+      final UserGroupInformation ugi = UserGroupInformation
+          .createUserForTesting("manyusers" + i, TEST_GROUP);
+      futures.add(exec.submit(() -> {
+        ConnectionContext conn = connManager.getConnection(
+            ugi, TEST_NN_ADDRESS, ClientProtocol.class);
+        conn.getClient();
+        conn.release();
+        return null;
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    exec.shutdown();
+    assertTrue(connManager.getNumConnectionPools() >= numUsers);
+
+    // The idle pools are removed, the ones in use stay
+    long deadline = System.currentTimeMillis() + 60000;
+    while (connManager.getNumConnectionPools() > 1 &&
+        System.currentTimeMillis() < deadline) {
+      connManager.getConnection(TEST_USER1, TEST_NN_ADDRESS,
+          ClientProtocol.class);
+      Thread.sleep(100);
+    }
+    assertEquals(1, connManager.getNumConnectionPools());
+    checkPoolConnections(TEST_USER1, 1, 0);
+  }
+
   private void addConnectionsToPool(ConnectionPool pool, int numTotalConn,
       int numActiveConn) throws IOException {
     for (int i = 0; i < numTotalConn; i++) {
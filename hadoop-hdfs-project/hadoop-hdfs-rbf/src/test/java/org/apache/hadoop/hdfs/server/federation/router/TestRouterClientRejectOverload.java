@@ -33,6 +33,7 @@
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
 import org.apache.hadoop.hdfs.DFSClient;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
@@ -71,6 +72,16 @@ public void cleanup() {
   }
 
   private void setupCluster(boolean overloadControl) throws Exception {
+    setupCluster(overloadControl, false);
+  }
+
+  private void setupCluster(boolean overloadControl, boolean async)
+      throws Exception {
+    setupCluster(overloadControl, async, 0);
+  }
+
+  private void setupCluster(boolean overloadControl, boolean async,
+      int asyncCallsMax) throws Exception {
     // Build and start a federated cluster
     cluster = new StateStoreDFSCluster(false, 2);
     Configuration routerConf = new RouterConfigBuilder()
@@ -85,6 +96,13 @@ private void setupCluster(boolean overloadControl) throws Exception {
     // Overload control
     routerConf.setBoolean(
         RBFConfigKeys.DFS_ROUTER_CLIENT_REJECT_OVERLOAD, overloadControl);
+    // Asynchronous calls do not use the RPC client threads
+    routerConf.setBoolean(RBFConfigKeys.DFS_ROUTER_CLIENT_ASYNC_ENABLE, async);
+    if (asyncCallsMax > 0) {
+      routerConf.setInt(
+          CommonConfigurationKeys.IPC_CLIENT_ASYNC_CALLS_MAX_KEY,
+          asyncCallsMax);
+    }
 
     // No need for datanodes as we use renewLease() for testing
     cluster.setNumDatanodesPerNameservice(0);
@@ -158,6 +176,50 @@ public void testOverloadControl() throws Exception {
     assertTrue(proxyOps1 + " operations: not distributed", proxyOps1 >= 8);
   }
 
+  @Test
+  public void testAsyncCallsWithOverloadControl() throws Exception {
+    setupCluster(true, true);
+
+    // Set subcluster 0 as slow
+    MiniDFSCluster dfsCluster = cluster.getCluster();
+    NameNode nn0 = dfsCluster.getNameNode(0);
+    simulateSlowNamenode(nn0, 1);
+
+    // The requests do not take RPC client threads and nobody is rejected
+    testOverloaded(0);
+
+    for (RouterContext router : cluster.getRouters()) {
+      RouterRpcClient rpcClient =
+          router.getRouter().getRpcServer().getRPCClient();
+      FederationRPCMetrics rpcMetrics =
+          router.getRouter().getRpcServer().getRPCMetrics();
+      assertEquals(0, rpcMetrics.getProxyOpFailureClientOverloaded());
+      for (String nsId : cluster.getNameservices()) {
+        assertEquals(0, rpcClient.getOutstandingCalls(nsId));
+      }
+    }
+  }
+
+  @Test
+  public void testAsyncCallsOverLimit() throws Exception {
+    // Only one of the calls of every request can be sent asynchronously
+    setupCluster(false, true, 1);
+
+    // The calls which cannot be sent go to the RPC client threads
+    testOverloaded(0);
+
+    for (RouterContext router : cluster.getRouters()) {
+      RouterRpcClient rpcClient =
+          router.getRouter().getRpcServer().getRPCClient();
+      FederationRPCMetrics rpcMetrics =
+          router.getRouter().getRpcServer().getRPCMetrics();
+      assertEquals(0, rpcMetrics.getProxyOpFailureClientOverloaded());
+      for (String nsId : cluster.getNameservices()) {
+        assertEquals(0, rpcClient.getOutstandingCalls(nsId));
+      }
+    }
+  }
+
   private void testOverloaded(int expOverload) throws Exception {
     testOverloaded(expOverload, expOverload);
   }
@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.federation.router;
+
+import static org.apache.hadoop.hdfs.server.federation.FederationTestUtils.createFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.protocol.DatanodeID;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.server.federation.MiniRouterDFSCluster;
+import org.apache.hadoop.hdfs.server.federation.MiniRouterDFSCluster.RouterContext;
+import org.apache.hadoop.hdfs.server.federation.RouterConfigBuilder;
+import org.apache.hadoop.hdfs.server.federation.metrics.FederationRPCMetrics;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test the metadata cache of the Router enabled with
+ * {@link RBFConfigKeys#DFS_ROUTER_METADATA_CACHE_ENABLE}.
+ */
+public class TestRouterMetadataCache {
+
+  private static MiniRouterDFSCluster cluster;
+
+  private FileSystem routerFS;
+  private FileSystem nnFS;
+  private FederationRPCMetrics metrics;
+  private String routerDir;
+  private String nnDir;
+
+  @BeforeClass
+  public static void globalSetUp() throws Exception {
+    cluster = new MiniRouterDFSCluster(false, 1);
+    cluster.setNumDatanodesPerNameservice(1);
+    cluster.startCluster();
+
+    Configuration routerConf = new RouterConfigBuilder()
+        .metrics()
+        .rpc()
+        .build();
+    routerConf.setBoolean(
+        RBFConfigKeys.DFS_ROUTER_METADATA_CACHE_ENABLE, true);
+    routerConf.setTimeDuration(
+        RBFConfigKeys.DFS_ROUTER_METADATA_CACHE_TTL, 1, TimeUnit.HOURS);
+    cluster.addRouterOverrides(routerConf);
+    cluster.startRouters();
+
+    cluster.registerNamenodes();
+    cluster.waitNamenodeRegistration();
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    cluster.shutdown();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    cluster.installMockLocations();
+    cluster.deleteAllFiles();
+
+    String ns = cluster.getNameservices().get(0);
+    RouterContext router = cluster.getRandomRouter();
+    routerFS = router.getFileSystem();
+    nnFS = cluster.getNamenode(ns, null).getFileSystem();
+    metrics = router.getRouter().getRpcServer().getRPCMetrics();
+    routerDir = cluster.getFederatedPathForNS(ns) + "/cachetest";
+    nnDir = cluster.getNamenodePathForNS(ns) + "/cachetest";
+    routerFS.mkdirs(new Path(routerDir));
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    routerFS.delete(new Path(routerDir), true);
+  }
+
+  @Test
+  public void testFileInfoCached() throws Exception {
+    Path routerFile = new Path(routerDir, "file");
+    createFile(routerFS, routerFile.toString(), 32);
+
+    long hits = metrics.getMetadataCacheHits();
+    FsPermission permission = routerFS.getFileStatus(routerFile)
+        .getPermission();
+    assertEquals(permission,
+        routerFS.getFileStatus(routerFile).getPermission());
+    assertTrue(metrics.getMetadataCacheHits() > hits);
+    assertTrue(metrics.getMetadataCacheHitRatio() > 0);
+
+    // Changes done directly in the Namenode are not seen until they expire
+    FsPermission newPermission = new FsPermission((short) 0600);
+    nnFS.setPermission(new Path(nnDir, "file"), newPermission);
+    assertEquals(permission,
+        routerFS.getFileStatus(routerFile).getPermission());
+
+    // Changes done through the Router invalidate the cache
+    routerFS.setPermission(routerFile, newPermission);
+    assertEquals(newPermission,
+        routerFS.getFileStatus(routerFile).getPermission());
+  }
+
+  @Test
+  public void testListingInvalidatedByWrites() throws Exception {
+    Path dir = new Path(routerDir);
+    createFile(routerFS, new Path(dir, "file1").toString(), 32);
+    assertEquals(1, routerFS.listStatus(dir).length);
+    long hits = metrics.getMetadataCacheHits();
+    assertEquals(1, routerFS.listStatus(dir).length);
+    assertTrue(metrics.getMetadataCacheHits() > hits);
+
+    // A new file changes the listing of its parent
+    createFile(routerFS, new Path(dir, "file2").toString(), 32);
+    assertEquals(2, routerFS.listStatus(dir).length);
+
+    // Deleting the directory invalidates everything beneath it
+    Path subFile = new Path(dir, "sub/file");
+    createFile(routerFS, subFile.toString(), 32);
+    assertTrue(routerFS.exists(subFile));
+    routerFS.delete(new Path(dir, "sub"), true);
+    assertTrue(!routerFS.exists(subFile));
+
+    // Renames invalidate the source and the destination
+    Path renamed = new Path(dir, "renamed");
+    assertTrue(!routerFS.exists(renamed));
+    routerFS.rename(new Path(dir, "file1"), renamed);
+    assertTrue(routerFS.exists(renamed));
+    assertTrue(!routerFS.exists(new Path(dir, "file1")));
+  }
+
+  @Test
+  public void testBlockLocationsCached() throws Exception {
+    Path routerFile = new Path(routerDir, "blocks");
+    createFile(routerFS, routerFile.toString(), 32);
+
+    long hits = metrics.getMetadataCacheHits();
+    assertEquals(1, routerFS.getFileBlockLocations(routerFile, 0, 32).length);
+    assertEquals(1, routerFS.getFileBlockLocations(routerFile, 0, 32).length);
+    assertTrue(metrics.getMetadataCacheHits() > hits);
+  }
+
+  @Test
+  public void testBlockWritesInvalidate() throws Exception {
+    RouterMetadataCache cache = new RouterMetadataCache(new Configuration());
+    UserGroupInformation ugi = UserGroupInformation.getCurrentUser();
+    Method getBlockLocations = ClientProtocol.class.getMethod(
+        "getBlockLocations", String.class, long.class, long.class);
+    RouterMetadataCache.Key file = cache.getKey(ugi, "ns0",
+        getBlockLocations, new Object[] {"/dir/file", 0L, 32L});
+    RouterMetadataCache.Key other = cache.getKey(ugi, "ns1",
+        getBlockLocations, new Object[] {"/dir/file", 0L, 32L});
+    cache.put(file, new LocatedBlocks(), cache.getVersion());
+    cache.put(other, new LocatedBlocks(), cache.getVersion());
+    assertEquals(2, cache.size());
+
+    // abandonBlock has the path of the file
+    cache.invalidate("ns0", new Object[] {
+        new ExtendedBlock(), 0L, "/dir/file", "client"});
+    assertNull(cache.get(file));
+    assertNotNull(cache.get(other));
+
+    // updatePipeline only has the block, the whole nameservice is invalidated
+    cache.put(file, new LocatedBlocks(), cache.getVersion());
+    cache.invalidate("ns0", new Object[] {"client", new ExtendedBlock(),
+        new ExtendedBlock(), new DatanodeID[0], new String[0]});
+    assertNull(cache.get(file));
+    assertNotNull(cache.get(other));
+  }
+}
@@ -25,6 +25,8 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockPlacementPolicyDefault;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockPlacementPolicyRackFaultTolerant;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.AvailableSpaceVolumeChoosingPolicy;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeChoosingPolicy;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.RamDiskReplicaLruTracker;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.ReservedSpaceCalculator;
 import org.apache.hadoop.hdfs.web.URLConnectionFactory;
@@ -334,6 +336,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_EDITS_ASYNC_LOGGING =
       "dfs.namenode.edits.asynclogging";
   public static final boolean DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT = true;
+  public static final String  DFS_NAMENODE_EDITS_ASYNC_LOGGING_MAX_UNSYNCED_EDITS =
+      "dfs.namenode.edits.asynclogging.max-unsynced-edits";
+  public static final int     DFS_NAMENODE_EDITS_ASYNC_LOGGING_MAX_UNSYNCED_EDITS_DEFAULT =
+      16384;
 
   public static final String DFS_NAMENODE_PROVIDED_ENABLED = "dfs.namenode.provided.enabled";
   public static final boolean DFS_NAMENODE_PROVIDED_ENABLED_DEFAULT = false;
@@ -342,6 +348,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_PROVIDER_STORAGEUUID_DEFAULT =  "DS-PROVIDED";
   public static final String DFS_PROVIDED_ALIASMAP_CLASS = "dfs.provided.aliasmap.class";
   public static final String DFS_PROVIDED_ALIASMAP_LOAD_RETRIES = "dfs.provided.aliasmap.load.retries";
+  public static final String DFS_PROVIDED_ALIASMAP_CACHE_SIZE = "dfs.provided.aliasmap.cache.size";
+  public static final int DFS_PROVIDED_ALIASMAP_CACHE_SIZE_DEFAULT = 0;
+  public static final String DFS_PROVIDED_ALIASMAP_CACHE_PREFETCH = "dfs.provided.aliasmap.cache.prefetch";
+  public static final int DFS_PROVIDED_ALIASMAP_CACHE_PREFETCH_DEFAULT = 16;
 
   public static final String DFS_PROVIDED_ALIASMAP_TEXT_DELIMITER = "dfs.provided.aliasmap.text.delimiter";
   public static final String DFS_PROVIDED_ALIASMAP_TEXT_DELIMITER_DEFAULT = ",";
@@ -350,6 +360,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_PROVIDED_ALIASMAP_TEXT_READ_FILE_DEFAULT = "file:///tmp/blocks.csv";
 
   public static final String DFS_PROVIDED_ALIASMAP_TEXT_CODEC = "dfs.provided.aliasmap.text.codec";
+  public static final String DFS_PROVIDED_ALIASMAP_TEXT_COMPACT = "dfs.provided.aliasmap.text.compact";
+  public static final boolean DFS_PROVIDED_ALIASMAP_TEXT_COMPACT_DEFAULT = false;
   public static final String DFS_PROVIDED_ALIASMAP_TEXT_WRITE_DIR = "dfs.provided.aliasmap.text.write.dir";
   public static final String DFS_PROVIDED_ALIASMAP_TEXT_WRITE_DIR_DEFAULT = "file:///tmp/";
 
@@ -365,6 +377,27 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_DATANODE_FAILED_VOLUMES_TOLERATED_DEFAULT = 0;
   public static final String  DFS_DATANODE_SYNCONCLOSE_KEY = "dfs.datanode.synconclose";
   public static final boolean DFS_DATANODE_SYNCONCLOSE_DEFAULT = false;
+  public static final String  DFS_DATANODE_GROUP_COMMIT_SYNC_ENABLED_KEY =
+      "dfs.datanode.group-commit.sync.enabled";
+  public static final boolean DFS_DATANODE_GROUP_COMMIT_SYNC_ENABLED_DEFAULT =
+      false;
+  public static final String  DFS_DATANODE_GROUP_COMMIT_SYNC_TIMEOUT_KEY =
+      "dfs.datanode.group-commit.sync.timeout";
+  public static final long    DFS_DATANODE_GROUP_COMMIT_SYNC_TIMEOUT_DEFAULT =
+      60000;
+  public static final String
+      DFS_DATANODE_GROUP_COMMIT_SYNC_THREADS_PER_VOLUME_KEY =
+      "dfs.datanode.group-commit.sync.threads.per.volume";
+  public static final int
+      DFS_DATANODE_GROUP_COMMIT_SYNC_THREADS_PER_VOLUME_DEFAULT = 4;
+  public static final String  DFS_DATANODE_MULTIPLEXED_CONNECTIONS_ENABLED_KEY =
+      "dfs.datanode.multiplexed-connections.enabled";
+  public static final boolean DFS_DATANODE_MULTIPLEXED_CONNECTIONS_ENABLED_DEFAULT =
+      false;
+  public static final String  DFS_DATANODE_MULTIPLEXED_CONNECTIONS_MAX_STREAM_WINDOW_KEY =
+      "dfs.datanode.multiplexed-connections.max-stream-window";
+  public static final int     DFS_DATANODE_MULTIPLEXED_CONNECTIONS_MAX_STREAM_WINDOW_DEFAULT =
+      1024 * 1024;
   public static final String  DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY = "dfs.datanode.socket.reuse.keepalive";
   public static final int     DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_DEFAULT = 4000;
   public static final String  DFS_DATANODE_OOB_TIMEOUT_KEY = "dfs.datanode.oob.timeout-ms";
@@ -376,6 +409,27 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_DATANODE_CACHE_REVOCATION_POLLING_MS = "dfs.datanode.cache.revocation.polling.ms";
   public static final long DFS_DATANODE_CACHE_REVOCATION_POLLING_MS_DEFAULT = 500L;
 
+  public static final String DFS_DATANODE_READ_CACHE_ENABLED_KEY =
+      "dfs.datanode.read-cache.enabled";
+  public static final boolean DFS_DATANODE_READ_CACHE_ENABLED_DEFAULT = false;
+  public static final String DFS_DATANODE_READ_CACHE_MEMORY_CAPACITY_KEY =
+      "dfs.datanode.read-cache.memory.capacity";
+  public static final long DFS_DATANODE_READ_CACHE_MEMORY_CAPACITY_DEFAULT =
+      256L * 1024 * 1024;
+  public static final String DFS_DATANODE_READ_CACHE_SSD_DIR_KEY =
+      "dfs.datanode.read-cache.ssd.dir";
+  public static final String DFS_DATANODE_READ_CACHE_SSD_CAPACITY_KEY =
+      "dfs.datanode.read-cache.ssd.capacity";
+  public static final long DFS_DATANODE_READ_CACHE_SSD_CAPACITY_DEFAULT = 0;
+  public static final String DFS_DATANODE_READ_CACHE_ADMISSION_MIN_FREQUENCY_KEY =
+      "dfs.datanode.read-cache.admission.min-frequency";
+  public static final int DFS_DATANODE_READ_CACHE_ADMISSION_MIN_FREQUENCY_DEFAULT =
+      2;
+  public static final String DFS_DATANODE_READ_CACHE_ADMISSION_WINDOW_KEY =
+      "dfs.datanode.read-cache.admission.window";
+  public static final int DFS_DATANODE_READ_CACHE_ADMISSION_WINDOW_DEFAULT =
+      100000;
+
   public static final String DFS_NAMENODE_DATANODE_REGISTRATION_IP_HOSTNAME_CHECK_KEY = "dfs.namenode.datanode.registration.ip-hostname-check";
   public static final boolean DFS_NAMENODE_DATANODE_REGISTRATION_IP_HOSTNAME_CHECK_DEFAULT = true;
 
@@ -648,6 +702,14 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
       "dfs.datanode.ec.reconstruction.xmits.weight";
   public static final float   DFS_DN_EC_RECONSTRUCTION_XMITS_WEIGHT_DEFAULT =
       0.5f;
+  public static final String  DFS_DN_EC_RECONSTRUCTION_PIPELINE_ENABLED_KEY =
+      "dfs.datanode.ec.reconstruction.pipeline.enabled";
+  public static final boolean DFS_DN_EC_RECONSTRUCTION_PIPELINE_ENABLED_DEFAULT =
+      true;
+  public static final String  DFS_DN_EC_RECONSTRUCTION_VOLUME_MAX_TASKS_KEY =
+      "dfs.datanode.ec.reconstruction.volume.max.tasks";
+  public static final int     DFS_DN_EC_RECONSTRUCTION_VOLUME_MAX_TASKS_DEFAULT =
+      0;
 
   public static final String
       DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY =
@@ -668,6 +730,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_DU_RESERVED_PERCENTAGE_KEY =
       "dfs.datanode.du.reserved.pct";
   public static final int     DFS_DATANODE_DU_RESERVED_PERCENTAGE_DEFAULT = 0;
+  public static final String  DFS_DATANODE_SPACE_USED_CLASSNAME_KEY =
+      "dfs.datanode.space.used.classname";
   public static final String  DFS_DATANODE_HANDLER_COUNT_KEY = "dfs.datanode.handler.count";
   public static final int     DFS_DATANODE_HANDLER_COUNT_DEFAULT = 10;
   public static final String  DFS_DATANODE_HTTP_ADDRESS_KEY = "dfs.datanode.http.address";
@@ -682,6 +746,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT = 21 * 24;  // 3 weeks.
   public static final String  DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND = "dfs.block.scanner.volume.bytes.per.second";
   public static final long    DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND_DEFAULT = 1048576L;
+  public static final String  DFS_BLOCK_SCANNER_DATANODE_BYTES_PER_SECOND = "dfs.block.scanner.datanode.bytes.per.second";
+  public static final long    DFS_BLOCK_SCANNER_DATANODE_BYTES_PER_SECOND_DEFAULT = 0L;
+  public static final String  DFS_BLOCK_SCANNER_VOLUME_BACKOFF_LATENCY_MS = "dfs.block.scanner.volume.backoff.latency.ms";
+  public static final long    DFS_BLOCK_SCANNER_VOLUME_BACKOFF_LATENCY_MS_DEFAULT = 0L;
+  public static final String  DFS_BLOCK_SCANNER_RECENT_BLOCKS_MAX = "dfs.block.scanner.recent.blocks.max";
+  public static final int     DFS_BLOCK_SCANNER_RECENT_BLOCKS_MAX_DEFAULT = 0;
   public static final String  DFS_DATANODE_TRANSFERTO_ALLOWED_KEY = "dfs.datanode.transferTo.allowed";
   public static final boolean DFS_DATANODE_TRANSFERTO_ALLOWED_DEFAULT = true;
   public static final String  DFS_HEARTBEAT_INTERVAL_KEY = "dfs.heartbeat.interval";
@@ -748,6 +818,14 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
       = "dfs.blockreport.incremental.intervalMsec";
   public static final long    DFS_BLOCKREPORT_INCREMENTAL_INTERVAL_MSEC_DEFAULT
       = 0;
+  public static final String  DFS_BLOCKREPORT_INCREMENTAL_MAX_BLOCKS_KEY
+      = "dfs.blockreport.incremental.max.blocks";
+  public static final int     DFS_BLOCKREPORT_INCREMENTAL_MAX_BLOCKS_DEFAULT
+      = 0;
+  public static final String  DFS_BLOCKREPORT_INCREMENTAL_PIGGYBACK_ON_HEARTBEAT_KEY
+      = "dfs.blockreport.incremental.piggyback.on.heartbeat";
+  public static final boolean DFS_BLOCKREPORT_INCREMENTAL_PIGGYBACK_ON_HEARTBEAT_DEFAULT
+      = false;
   public static final String  DFS_BLOCKREPORT_INTERVAL_MSEC_KEY = "dfs.blockreport.intervalMsec";
   public static final long    DFS_BLOCKREPORT_INTERVAL_MSEC_DEFAULT = 6 * 60 * 60 * 1000;
   public static final String  DFS_BLOCKREPORT_INITIAL_DELAY_KEY = "dfs.blockreport.initialDelay";
@@ -758,6 +836,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_NAMENODE_MAX_FULL_BLOCK_REPORT_LEASES_DEFAULT = 6;
   public static final String  DFS_NAMENODE_FULL_BLOCK_REPORT_LEASE_LENGTH_MS = "dfs.namenode.full.block.report.lease.length.ms";
   public static final long    DFS_NAMENODE_FULL_BLOCK_REPORT_LEASE_LENGTH_MS_DEFAULT = 5L * 60L * 1000L;
+  public static final String  DFS_NAMENODE_BLOCKREPORT_QUEUE_SIZE_KEY = "dfs.namenode.blockreport.queue.size";
+  public static final int     DFS_NAMENODE_BLOCKREPORT_QUEUE_SIZE_DEFAULT = 1024;
+  public static final String  DFS_NAMENODE_BLOCKREPORT_MAX_LOCK_HOLD_MS_KEY = "dfs.namenode.blockreport.max.lock.hold.ms";
+  public static final long    DFS_NAMENODE_BLOCKREPORT_MAX_LOCK_HOLD_MS_DEFAULT = 4;
   public static final String  DFS_CACHEREPORT_INTERVAL_MSEC_KEY = "dfs.cachereport.intervalMsec";
   public static final long    DFS_CACHEREPORT_INTERVAL_MSEC_DEFAULT = 10 * 1000;
   public static final String  DFS_BLOCK_INVALIDATE_LIMIT_KEY = "dfs.block.invalidate.limit";
@@ -838,6 +920,21 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long    DFS_DATANODE_AVAILABLE_SPACE_VOLUME_CHOOSING_POLICY_BALANCED_SPACE_THRESHOLD_DEFAULT = 1024L * 1024L * 1024L * 10L; // 10 GB
   public static final String  DFS_DATANODE_AVAILABLE_SPACE_VOLUME_CHOOSING_POLICY_BALANCED_SPACE_PREFERENCE_FRACTION_KEY = "dfs.datanode.available-space-volume-choosing-policy.balanced-space-preference-fraction";
   public static final float   DFS_DATANODE_AVAILABLE_SPACE_VOLUME_CHOOSING_POLICY_BALANCED_SPACE_PREFERENCE_FRACTION_DEFAULT = 0.75f;
+  public static final String  DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_OVERLOAD_FACTOR_KEY = "dfs.datanode.latency-aware-volume-choosing-policy.overload-factor";
+  public static final float   DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_OVERLOAD_FACTOR_DEFAULT = 2.0f;
+  public static final String  DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_LATENCY_MAX_AGE_MS_KEY = "dfs.datanode.latency-aware-volume-choosing-policy.latency-max-age-ms";
+  public static final long    DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_LATENCY_MAX_AGE_MS_DEFAULT = 30000;
+  public static final String  DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_BASE_POLICY_KEY = "dfs.datanode.latency-aware-volume-choosing-policy.base-policy";
+  @SuppressWarnings("rawtypes")
+  public static final Class<? extends VolumeChoosingPolicy>
+      DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_BASE_POLICY_DEFAULT =
+          AvailableSpaceVolumeChoosingPolicy.class;
+  public static final String  DFS_DATANODE_DELETE_VOLUME_OPS_PER_SECOND_KEY = "dfs.datanode.delete.volume.ops.per.second";
+  public static final long    DFS_DATANODE_DELETE_VOLUME_OPS_PER_SECOND_DEFAULT = 0;
+  public static final String  DFS_DATANODE_DELETE_BATCH_SIZE_KEY = "dfs.datanode.delete.batch.size";
+  public static final int     DFS_DATANODE_DELETE_BATCH_SIZE_DEFAULT = 64;
+  public static final String  DFS_DATANODE_DELETE_VOLUME_BACKOFF_LATENCY_MS_KEY = "dfs.datanode.delete.volume.backoff.latency.ms";
+  public static final long    DFS_DATANODE_DELETE_VOLUME_BACKOFF_LATENCY_MS_DEFAULT = 0;
   public static final String  DFS_DATANODE_SOCKET_WRITE_TIMEOUT_KEY =
       HdfsClientConfigKeys.DFS_DATANODE_SOCKET_WRITE_TIMEOUT_KEY;
   public static final String  DFS_DATANODE_STARTUP_KEY = "dfs.datanode.startup";
@@ -1024,6 +1121,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_JOURNALNODE_SYNC_INTERVAL_KEY =
       "dfs.journalnode.sync.interval";
   public static final long DFS_JOURNALNODE_SYNC_INTERVAL_DEFAULT = 2*60*1000L;
+  public static final String DFS_JOURNALNODE_EDITS_PREALLOCATE_SIZE_KEY =
+      "dfs.journalnode.edits.preallocate.size";
+  public static final long DFS_JOURNALNODE_EDITS_PREALLOCATE_SIZE_DEFAULT =
+      8 * 1024 * 1024;
 
   // Journal-node related configs for the client side.
   public static final String  DFS_QJOURNAL_QUEUE_SIZE_LIMIT_KEY = "dfs.qjournal.queued-edits.limit.mb";
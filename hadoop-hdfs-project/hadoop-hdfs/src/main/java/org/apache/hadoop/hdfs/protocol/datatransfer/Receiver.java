@@ -36,6 +36,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpBlockChecksumProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpBlockGroupChecksumProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpCopyBlockProto;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpMultiplexProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpReadBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpReplaceBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpRequestShortCircuitAccessProto;
@@ -130,6 +131,9 @@ protected final void processOp(Op op) throws IOException {
     case REQUEST_SHORT_CIRCUIT_SHM:
       opRequestShortCircuitShm(in);
       break;
+    case MULTIPLEX:
+      opMultiplex(in);
+      break;
     default:
       throw new IOException("Unknown op " + op + " in data stream");
     }
@@ -265,6 +269,18 @@ private void opRequestShortCircuitShm(DataInputStream in) throws IOException {
     }
   }
 
+  /** Receive {@link Op#MULTIPLEX} */
+  private void opMultiplex(DataInputStream in) throws IOException {
+    final OpMultiplexProto proto = OpMultiplexProto.parseFrom(vintPrefixed(in));
+    TraceScope traceScope = continueTraceSpan(proto.getTraceInfo(),
+        proto.getClass().getSimpleName());
+    try {
+      multiplex(proto.getClientName(), proto.getStreamWindow());
+    } finally {
+      if (traceScope != null) traceScope.close();
+    }
+  }
+
   /** Receive OP_REPLACE_BLOCK */
   private void opReplaceBlock(DataInputStream in) throws IOException {
     OpReplaceBlockProto proto = OpReplaceBlockProto.parseFrom(vintPrefixed(in));
@@ -29,6 +29,7 @@
 import org.apache.hadoop.ipc.ProtobufRpcEngine;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.UserGroupInformation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -70,8 +71,9 @@ public InMemoryAliasMapProtocolClientSideTranslatorPB(Configuration conf) {
     LOG.info("Connecting to address: " + addr);
     try {
       rpcProxy = RPC.getProxy(AliasMapProtocolPB.class,
-          RPC.getProtocolVersion(AliasMapProtocolPB.class), aliasMapAddr, null,
-          conf, NetUtils.getDefaultSocketFactory(conf), 0);
+          RPC.getProtocolVersion(AliasMapProtocolPB.class), aliasMapAddr,
+          UserGroupInformation.getCurrentUser(), conf,
+          NetUtils.getDefaultSocketFactory(conf), 0);
     } catch (IOException e) {
       throw new RuntimeException(
           "Error in connecting to " + addr + " Got: " + e);
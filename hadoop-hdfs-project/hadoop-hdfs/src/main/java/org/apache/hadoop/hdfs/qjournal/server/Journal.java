@@ -29,6 +29,8 @@
 import java.security.PrivilegedExceptionAction;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.math.LongRange;
@@ -36,6 +38,7 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalNotFormattedException;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
@@ -49,7 +52,7 @@
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.StartupOption;
 import org.apache.hadoop.hdfs.server.common.StorageErrorReporter;
 import org.apache.hadoop.hdfs.server.common.StorageInfo;
-import org.apache.hadoop.hdfs.server.namenode.EditLogOutputStream;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileOutputStream;
 import org.apache.hadoop.hdfs.server.namenode.FileJournalManager;
 import org.apache.hadoop.hdfs.server.namenode.FileJournalManager.EditLogFile;
 import org.apache.hadoop.hdfs.server.namenode.JournalManager;
@@ -71,6 +74,7 @@
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.TextFormat;
 
 /**
@@ -83,7 +87,7 @@ public class Journal implements Closeable {
 
 
   // Current writing state
-  private EditLogOutputStream curSegment;
+  private JournalSegmentWriter curSegment;
   private long curSegmentTxId = HdfsServerConstants.INVALID_TXID;
   private long nextTxId = HdfsServerConstants.INVALID_TXID;
   private long highestWrittenTxId = 0;
@@ -135,6 +139,13 @@ public class Journal implements Closeable {
 
   private final JournalMetrics metrics;
 
+  /**
+   * The number of bytes to preallocate segments ahead of the written edits,
+   * and the thread preallocating them.
+   */
+  private final long preallocateSize;
+  private final ExecutorService preallocator;
+
   private long lastJournalTimestamp = 0;
 
   // This variable tracks, have we tried to start journalsyncer
@@ -158,6 +169,15 @@ public class Journal implements Closeable {
     this.fjm = storage.getJournalManager();
     
     this.metrics = JournalMetrics.create(this);
+
+    this.preallocateSize = conf.getLongBytes(
+        DFSConfigKeys.DFS_JOURNALNODE_EDITS_PREALLOCATE_SIZE_KEY,
+        DFSConfigKeys.DFS_JOURNALNODE_EDITS_PREALLOCATE_SIZE_DEFAULT);
+    this.preallocator = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("Edits preallocator for journal " + journalId)
+          .build());
     
     EditLogFile latest = scanStorageForLatestEdits();
     if (latest != null) {
@@ -244,7 +264,10 @@ void format(NamespaceInfo nsInfo) throws IOException {
   public void close() throws IOException {
     storage.close();
     IOUtils.closeStream(committedTxnId);
-    IOUtils.closeStream(curSegment);
+    if (curSegment != null) {
+      IOUtils.closeStream(curSegment.getStream());
+    }
+    preallocator.shutdownNow();
   }
   
   JNStorage getStorage() {
@@ -358,7 +381,7 @@ private void abortCurSegment() throws IOException {
       return;
     }
     
-    curSegment.abort();
+    curSegment.getStream().abort();
     curSegment = null;
     curSegmentTxId = HdfsServerConstants.INVALID_TXID;
   }
@@ -413,11 +436,20 @@ synchronized void journal(RequestInfo reqInfo,
     boolean isLagging = lastTxnId <= committedTxnId.get();
     boolean shouldFsync = !isLagging;
     
-    curSegment.writeRaw(records, 0, records.length);
-    curSegment.setReadyToFlush();
     StopWatch sw = new StopWatch();
     sw.start();
-    curSegment.flush(shouldFsync);
+    curSegment.write(records);
+    if (shouldFsync) {
+      try {
+        curSegment.sync();
+      } catch (IOException e) {
+        // The writer must not carry on past edits which may not be on disk.
+        LOG.warn("Aborting segment " + curSegmentTxId +
+            " which failed to sync ; journal id: " + journalId);
+        abortCurSegment();
+        throw e;
+      }
+    }
     sw.stop();
 
     long nanoSeconds = sw.now();
@@ -591,7 +623,10 @@ public synchronized void startLogSegment(RequestInfo reqInfo, long txid,
     // remove the record of the older segment here.
     purgePaxosDecision(txid);
     
-    curSegment = fjm.startLogSegment(txid, layoutVersion);
+    EditLogFileOutputStream stream =
+        (EditLogFileOutputStream) fjm.startLogSegment(txid, layoutVersion);
+    curSegment = new JournalSegmentWriter(stream, preallocateSize,
+        preallocator, metrics);
     curSegmentTxId = txid;
     nextTxId = txid;
   }
@@ -609,7 +644,7 @@ public synchronized void finalizeLogSegment(RequestInfo reqInfo, long startTxId,
     // Finalizing the log that the writer was just writing.
     if (startTxId == curSegmentTxId) {
       if (curSegment != null) {
-        curSegment.close();
+        curSegment.getStream().close();
         curSegment = null;
         curSegmentTxId = HdfsServerConstants.INVALID_TXID;
       }
@@ -46,6 +46,9 @@ class JournalMetrics {
   @Metric("Number of batches written where this node was lagging")
   MutableCounterLong batchesWrittenWhileLagging;
 
+  @Metric("Number of bytes preallocated ahead of the written edits")
+  MutableCounterLong bytesPreallocated;
+
   @Metric("Number of edit logs downloaded by JournalNodeSyncer")
   private MutableCounterLong numEditLogsSynced;
   
@@ -56,6 +59,8 @@ class JournalMetrics {
   };
   
   final MutableQuantiles[] syncsQuantiles;
+
+  final MutableQuantiles[] fsyncsQuantiles;
   
   private final Journal journal;
 
@@ -69,6 +74,13 @@ class JournalMetrics {
           "syncs" + interval + "s",
           "Journal sync time", "ops", "latencyMicros", interval);
     }
+    fsyncsQuantiles = new MutableQuantiles[QUANTILE_INTERVALS.length];
+    for (int i = 0; i < fsyncsQuantiles.length; i++) {
+      int interval = QUANTILE_INTERVALS[i];
+      fsyncsQuantiles[i] = registry.newQuantiles(
+          "fsyncs" + interval + "s",
+          "Journal segment fsync time", "ops", "latencyMicros", interval);
+    }
   }
   
   public static JournalMetrics create(Journal j) {
@@ -124,6 +136,12 @@ void addSync(long us) {
     }
   }
 
+  void addFsync(long us) {
+    for (MutableQuantiles q : fsyncsQuantiles) {
+      q.add(us);
+    }
+  }
+
   public MutableCounterLong getNumEditLogsSynced() {
     return numEditLogsSynced;
   }
@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileOutputStream;
+import org.apache.hadoop.util.StopWatch;
+
+/**
+ * Writes batches of edits to the in-progress segment of a journal.
+ *
+ * Each batch is written and synced with the journal locked. The writer of a
+ * journal sends the next batch only after the previous one was acknowledged,
+ * so there are no concurrent batches whose syncs could be combined.
+ *
+ * The segment is preallocated ahead of the written edits in the background,
+ * and the padding synced there, so that syncing a batch neither writes
+ * padding nor updates the file size.
+ */
+class JournalSegmentWriter {
+  static final Log LOG = LogFactory.getLog(JournalSegmentWriter.class);
+
+  private final EditLogFileOutputStream stream;
+  private final long preallocateSize;
+  private final Executor preallocator;
+  private final JournalMetrics metrics;
+
+  /** Whether a background preallocation is scheduled or in progress. */
+  private boolean preallocating = false;
+
+  JournalSegmentWriter(EditLogFileOutputStream stream, long preallocateSize,
+      Executor preallocator, JournalMetrics metrics) {
+    this.stream = stream;
+    this.preallocateSize = preallocateSize;
+    this.preallocator = preallocator;
+    this.metrics = metrics;
+  }
+
+  EditLogFileOutputStream getStream() {
+    return stream;
+  }
+
+  /**
+   * Write a batch of edits to the segment, without syncing it.
+   *
+   * @param records the serialized edits
+   */
+  void write(byte[] records) throws IOException {
+    stream.writeRaw(records, 0, records.length);
+    stream.setReadyToFlush();
+    stream.flush(false);
+    if (preallocateSize > 0 &&
+        stream.getPreallocatedLength() < preallocateSize / 2) {
+      schedulePreallocation();
+    }
+  }
+
+  /**
+   * Sync the edits written to the segment.
+   */
+  void sync() throws IOException {
+    StopWatch sw = new StopWatch().start();
+    stream.sync();
+    metrics.addFsync(sw.now(TimeUnit.MICROSECONDS));
+  }
+
+  private void schedulePreallocation() {
+    synchronized (this) {
+      if (preallocating) {
+        return;
+      }
+      preallocating = true;
+    }
+    try {
+      preallocator.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            long preallocated = stream.preallocateAhead(preallocateSize);
+            if (preallocated > 0) {
+              stream.sync();
+              metrics.bytesPreallocated.incr(preallocated);
+            }
+          } catch (IOException e) {
+            // The segment is extended as it is written instead.
+            LOG.warn("Unable to preallocate " + stream, e);
+          } finally {
+            synchronized (JournalSegmentWriter.this) {
+              preallocating = false;
+            }
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The journal is closing.
+      synchronized (this) {
+        preallocating = false;
+      }
+    }
+  }
+}
@@ -199,6 +199,9 @@ public class Balancer {
 
   private final Dispatcher dispatcher;
   private final NameNodeConnector nnc;
+  /** To report the throughput of the current iteration. */
+  private long iterationStartTime = Time.monotonicNow();
+  private long bytesMovedBeforeIteration;
   private final BalancingPolicy policy;
   private final Set<String> sourceNodes;
   private final boolean runDuringUpgrade;
@@ -294,6 +297,7 @@ static int getInt(Configuration conf, String key, int defaultValue) {
         DFSConfigKeys.DFS_BALANCER_MAX_ITERATION_TIME_DEFAULT);
 
     this.nnc = theblockpool;
+    this.bytesMovedBeforeIteration = theblockpool.getBytesMoved().get();
     this.dispatcher =
         new Dispatcher(theblockpool, p.getIncludedNodes(),
             p.getExcludedNodes(), movedWinWidth, moverThreads,
@@ -576,35 +580,45 @@ static class Result {
     final long bytesLeftToMove;
     final long bytesBeingMoved;
     final long bytesAlreadyMoved;
+    /** Bytes moved per second in the iteration. */
+    final long throughput;
 
     Result(ExitStatus exitStatus, long bytesLeftToMove, long bytesBeingMoved,
-        long bytesAlreadyMoved) {
+        long bytesAlreadyMoved, long throughput) {
       this.exitStatus = exitStatus;
       this.bytesLeftToMove = bytesLeftToMove;
       this.bytesBeingMoved = bytesBeingMoved;
       this.bytesAlreadyMoved = bytesAlreadyMoved;
+      this.throughput = throughput;
     }
 
     void print(int iteration, PrintStream out) {
-      out.printf("%-24s %10d  %19s  %18s  %17s%n",
+      out.printf("%-24s %10d  %19s  %18s  %17s  %12s%n",
           DateFormat.getDateTimeInstance().format(new Date()), iteration,
           StringUtils.byteDesc(bytesAlreadyMoved),
           StringUtils.byteDesc(bytesLeftToMove),
-          StringUtils.byteDesc(bytesBeingMoved));
+          StringUtils.byteDesc(bytesBeingMoved),
+          StringUtils.byteDesc(throughput) + "/s");
     }
   }
 
   Result newResult(ExitStatus exitStatus, long bytesLeftToMove, long bytesBeingMoved) {
+    final long bytesAlreadyMoved = dispatcher.getBytesMoved();
+    final long elapsed = Time.monotonicNow() - iterationStartTime;
+    final long throughput = elapsed <= 0 ? 0 :
+        (bytesAlreadyMoved - bytesMovedBeforeIteration) * 1000 / elapsed;
     return new Result(exitStatus, bytesLeftToMove, bytesBeingMoved,
-        dispatcher.getBytesMoved());
+        bytesAlreadyMoved, throughput);
   }
 
   Result newResult(ExitStatus exitStatus) {
-    return new Result(exitStatus, -1, -1, dispatcher.getBytesMoved());
+    return newResult(exitStatus, -1, -1);
   }
 
   /** Run an iteration for all datanodes. */
   Result runOneIteration() {
+    iterationStartTime = Time.monotonicNow();
+    bytesMovedBeforeIteration = dispatcher.getBytesMoved();
     try {
       final List<DatanodeStorageReport> reports = dispatcher.init();
       final long bytesLeftToMove = init(reports);
@@ -687,8 +701,8 @@ static int run(Collection<URI> namenodes, final BalancerParameters p,
     LOG.info("excluded nodes = " + p.getExcludedNodes());
     LOG.info("source nodes = " + p.getSourceNodes());
     checkKeytabAndInit(conf);
-    System.out.println("Time Stamp               Iteration#  Bytes Already Moved  Bytes Left To Move  Bytes Being Moved");
-    
+    System.out.println("Time Stamp               Iteration#  Bytes Already Moved  Bytes Left To Move  Bytes Being Moved    Throughput");
+
     List<NameNodeConnector> connectors = Collections.emptyList();
     try {
       connectors = NameNodeConnector.newNameNodeConnectors(namenodes, 
@@ -38,6 +38,7 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -117,8 +118,14 @@ public class Dispatcher {
   private NetworkTopology cluster;
 
   private final ExecutorService dispatchExecutor;
-
-  private final Allocator moverThreadAllocator;
+  /** Sends the getBlocks calls of the sources in the background. */
+  private final ExecutorService getBlocksExecutor;
+  /**
+   * Executes the block moves to all the targets. The moves in flight at each
+   * datanode are limited by {@link #maxConcurrentMovesPerNode} when they are
+   * scheduled.
+   */
+  private final ExecutorService moveExecutor;
 
   /** The maximum number of concurrent blocks moves at a datanode */
   private final int maxConcurrentMovesPerNode;
@@ -140,42 +147,6 @@ public class Dispatcher {
 
   private long maxIterationTime;
 
-  static class Allocator {
-    private final int max;
-    private int count = 0;
-    private int lotSize = 1;
-
-    Allocator(int max) {
-      this.max = max;
-    }
-
-    /** Allocate specified number of items */
-    synchronized int allocate(int n) {
-      final int remaining = max - count;
-      if (remaining <= 0) {
-        return 0;
-      } else {
-        final int allocated = remaining < n? remaining: n;
-        count += allocated;
-        return allocated;
-      }
-    }
-
-    /** Aloocate a single lot of items */
-    int allocate() {
-      return allocate(lotSize);
-    }
-
-    synchronized void reset() {
-      count = 0;
-    }
-
-    /** Set the lot size */
-    synchronized void setLotSize(int lotSize) {
-      this.lotSize = lotSize;
-    }
-  }
-
   private static class GlobalBlockMap {
     private final Map<Block, DBlock> map = new HashMap<Block, DBlock>();
 
@@ -312,26 +283,47 @@ private boolean chooseProxySource() {
       if (source.getDatanodeInfo().equals(targetDN) && addTo(source)) {
         return true;
       }
-      // if node group is supported, first try add nodes in the same node group
-      if (cluster.isNodeGroupAware()) {
-        for (StorageGroup loc : reportedBlock.getLocations()) {
-          if (cluster.isOnSameNodeGroup(loc.getDatanodeInfo(), targetDN)
-              && addTo(loc)) {
-            return true;
-          }
-        }
-      }
-      // check if there is replica which is on the same rack with the target
+      // if node group is supported, first try nodes in the same node group,
+      // then the replicas on the same rack as the target and then any replica
+      final List<StorageGroup> sameNodeGroup = new ArrayList<StorageGroup>();
+      final List<StorageGroup> sameRack = new ArrayList<StorageGroup>();
+      final List<StorageGroup> others = new ArrayList<StorageGroup>();
       for (StorageGroup loc : reportedBlock.getLocations()) {
-        if (cluster.isOnSameRack(loc.getDatanodeInfo(), targetDN) && addTo(loc)) {
-          return true;
+        if (cluster.isNodeGroupAware()
+            && cluster.isOnSameNodeGroup(loc.getDatanodeInfo(), targetDN)) {
+          sameNodeGroup.add(loc);
+        } else if (cluster.isOnSameRack(loc.getDatanodeInfo(), targetDN)) {
+          sameRack.add(loc);
+        } else {
+          others.add(loc);
         }
       }
-      // find out a non-busy replica
-      for (StorageGroup loc : reportedBlock.getLocations()) {
-        if (addTo(loc)) {
+      return addToLeastBusy(sameNodeGroup) || addToLeastBusy(sameRack)
+          || addToLeastBusy(others);
+    }
+
+    /**
+     * Add to the replica whose datanode has the fewest moves in flight, so the
+     * copies are spread over the datanodes instead of piling up on the first
+     * location reported by the namenode.
+     *
+     * @return true if a proxy is found; otherwise false
+     */
+    private boolean addToLeastBusy(List<StorageGroup> locations) {
+      while (!locations.isEmpty()) {
+        StorageGroup leastBusy = null;
+        int minPendings = Integer.MAX_VALUE;
+        for (StorageGroup loc : locations) {
+          final int pendings = loc.getDDatanode().getPendingQSize();
+          if (pendings < minPendings) {
+            leastBusy = loc;
+            minPendings = pendings;
+          }
+        }
+        if (addTo(leastBusy)) {
           return true;
         }
+        locations.remove(leastBusy);
       }
       return false;
     }
@@ -639,10 +631,15 @@ public boolean equals(Object obj) {
     protected long delayUntil = 0L;
     /** blocks being moved but not confirmed yet */
     private final List<PendingMove> pendings;
+    /**
+     * The maximum number of moves in flight at this datanode, either as the
+     * target or as the proxy. The datanode limits both kinds of transfers
+     * together with dfs.datanode.balance.max.concurrent.moves.
+     */
+    private final int maxConcurrentMoves;
     private volatile boolean hasFailure = false;
     private Map<Long, Set<DatanodeInfo>> blockPinningFailures = new HashMap<>();
     private volatile boolean hasSuccess = false;
-    private ExecutorService moveExecutor;
 
     @Override
     public String toString() {
@@ -652,27 +649,13 @@ public String toString() {
     private DDatanode(DatanodeInfo datanode, int maxConcurrentMoves) {
       this.datanode = datanode;
       this.pendings = new ArrayList<PendingMove>(maxConcurrentMoves);
+      this.maxConcurrentMoves = maxConcurrentMoves;
     }
 
     public DatanodeInfo getDatanodeInfo() {
       return datanode;
     }
 
-    synchronized ExecutorService initMoveExecutor(int poolSize) {
-      return moveExecutor = Executors.newFixedThreadPool(poolSize);
-    }
-
-    synchronized ExecutorService getMoveExecutor() {
-      return moveExecutor;
-    }
-
-    synchronized void shutdownMoveExecutor() {
-      if (moveExecutor != null) {
-        moveExecutor.shutdown();
-        moveExecutor = null;
-      }
-    }
-
     private static <G extends StorageGroup> void put(StorageType storageType,
         G g, EnumMap<StorageType, G> map) {
       final StorageGroup existing = map.put(storageType, g);
@@ -709,9 +692,19 @@ synchronized boolean isPendingQEmpty() {
       return pendings.isEmpty();
     }
 
+    /** @return the number of moves in flight at the node */
+    synchronized int getPendingQSize() {
+      return pendings.size();
+    }
+
+    /** Check if the node can take more moves */
+    synchronized boolean isPendingQNotFull() {
+      return pendings.size() < maxConcurrentMoves;
+    }
+
     /** Add a scheduled block move to the node */
     synchronized boolean addPendingBlock(PendingMove pendingBlock) {
-      if (!isDelayActive()) {
+      if (!isDelayActive() && isPendingQNotFull()) {
         return pendings.add(pendingBlock);
       }
       return false;
@@ -788,20 +781,52 @@ Iterator<DBlock> getBlockIterator() {
     }
 
     /**
-     * Fetch new blocks of this source from namenode and update this source's
-     * block list & {@link Dispatcher#globalBlocks}.
-     * 
-     * @return the total size of the received blocks in the number of bytes.
+     * Fetch new blocks of this source from namenode in the background. The
+     * source keeps moving the blocks it already has in the meantime.
+     *
+     * @param delay time to sleep before sending getBlocks.
+     * @return the blocks with their locations once they are received.
      */
-    private long getBlockList() throws IOException {
+    private Future<BlocksWithLocations> fetchBlockList(final long delay) {
       final long size = Math.min(getBlocksSize, blocksToReceive);
-      final BlocksWithLocations newBlksLocs =
-          nnc.getBlocks(getDatanodeInfo(), size, getBlocksMinBlockSize);
+      return getBlocksExecutor.submit(new Callable<BlocksWithLocations>() {
+        @Override
+        public BlocksWithLocations call() throws Exception {
+          if (delay > 0) {
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Sleeping " + delay + "  msec.");
+            }
+            Thread.sleep(delay);
+          }
+          final BlocksWithLocations newBlksLocs =
+              nnc.getBlocks(getDatanodeInfo(), size, getBlocksMinBlockSize);
+          if (LOG.isTraceEnabled()) {
+            LOG.trace("getBlocks(" + getDatanodeInfo() + ", "
+                + StringUtils.TraditionalBinaryPrefix.long2String(size, "B", 2)
+                + ") returns " + newBlksLocs.getBlocks().length + " blocks.");
+          }
+          return newBlksLocs;
+        }
+      });
+    }
 
-      if (LOG.isTraceEnabled()) {
-        LOG.trace("getBlocks(" + getDatanodeInfo() + ", "
-            + StringUtils.TraditionalBinaryPrefix.long2String(size, "B", 2)
-            + ") returns " + newBlksLocs.getBlocks().length + " blocks.");
+    /**
+     * Update this source's block list & {@link Dispatcher#globalBlocks} with
+     * the blocks fetched from the namenode.
+     *
+     * @param blockList the completed {@link #fetchBlockList(long)}.
+     * @return the total size of the received blocks in the number of bytes.
+     */
+    private long getBlockList(Future<BlocksWithLocations> blockList)
+        throws IOException, InterruptedException {
+      final BlocksWithLocations newBlksLocs;
+      try {
+        newBlksLocs = blockList.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
       }
 
       long bytesReceived = 0;
@@ -933,68 +958,93 @@ private boolean shouldFetchMoreBlocks() {
     private void dispatchBlocks(long delay) {
       this.blocksToReceive = 2 * getScheduledSize();
       long previousMoveTimestamp = Time.monotonicNow();
-      while (getScheduledSize() > 0 && !isIterationOver()
-          && (!srcBlocks.isEmpty() || blocksToReceive > 0)) {
-        if (LOG.isTraceEnabled()) {
-          LOG.trace(this + " blocksToReceive=" + blocksToReceive
-              + ", scheduledSize=" + getScheduledSize()
-              + ", srcBlocks#=" + srcBlocks.size());
-        }
-        final PendingMove p = chooseNextMove();
-        if (p != null) {
-          // Reset previous move timestamp
-          previousMoveTimestamp = Time.monotonicNow();
-          executePendingMove(p);
-          continue;
-        }
-
-        // Since we cannot schedule any block to move,
-        // remove any moved blocks from the source block list and
-        removeMovedBlocks(); // filter already moved blocks
-        // check if we should fetch more blocks from the namenode
-        if (shouldFetchMoreBlocks()) {
-          // fetch new blocks
-          try {
-            if(delay > 0) {
-              if (LOG.isDebugEnabled()) {
-                LOG.debug("Sleeping " + delay + "  msec.");
-              }
-              Thread.sleep(delay);
-            }
-            final long received = getBlockList();
+      // the next blocks are fetched while the current ones are being moved
+      Future<BlocksWithLocations> blockList = null;
+      boolean noMoreBlocks = false;
+      try {
+        while (getScheduledSize() > 0 && !isIterationOver()
+            && (!srcBlocks.isEmpty() || shouldFetchMoreBlocks()
+                || blockList != null)) {
+          if (LOG.isTraceEnabled()) {
+            LOG.trace(this + " blocksToReceive=" + blocksToReceive
+                + ", scheduledSize=" + getScheduledSize()
+                + ", srcBlocks#=" + srcBlocks.size());
+          }
+          if (blockList != null && blockList.isDone()) {
+            final long received = getBlockList(blockList);
+            blockList = null;
             if (received == 0) {
-              return;
+              noMoreBlocks = true;
+              blocksToReceive = 0;
+            } else {
+              blocksToReceive -= received;
             }
-            blocksToReceive -= received;
+          }
+          // prefetch when the source is running out of blocks to move
+          if (blockList == null && shouldFetchMoreBlocks()
+              && srcBlocks.size() < maxConcurrentMovesPerNode) {
+            blockList = fetchBlockList(delay);
+            delay = 0L;
+          }
+
+          final PendingMove p = chooseNextMove();
+          if (p != null) {
+            // Reset previous move timestamp
+            previousMoveTimestamp = Time.monotonicNow();
+            executePendingMove(p);
             continue;
-          } catch (InterruptedException ignored) {
-            // nothing to do
-          } catch (IOException e) {
-            LOG.warn("Exception while getting reportedBlock list", e);
-            return;
-          } finally {
+          }
+
+          // Since we cannot schedule any block to move,
+          // remove any moved blocks from the source block list and
+          removeMovedBlocks(); // filter already moved blocks
+          // check if we should fetch more blocks from the namenode
+          if (blockList == null && shouldFetchMoreBlocks()) {
+            blockList = fetchBlockList(delay);
             delay = 0L;
           }
-        } else {
-          // jump out of while-loop after the configured timeout.
-          long noMoveInterval = Time.monotonicNow() - previousMoveTimestamp;
-          if (noMoveInterval > maxNoMoveInterval) {
-            LOG.info("Failed to find a pending move for "  + noMoveInterval
-                + " ms.  Skipping " + this);
-            resetScheduledSize();
+          if (blockList != null) {
+            // wait for the new blocks
+            try {
+              blockList.get();
+            } catch (ExecutionException ignored) {
+              // reported when the blocks are added
+            } catch (InterruptedException ignored) {
+              // nothing to do
+            }
+            continue;
+          } else if (noMoreBlocks) {
+            return;
+          } else {
+            // jump out of while-loop after the configured timeout.
+            long noMoveInterval = Time.monotonicNow() - previousMoveTimestamp;
+            if (noMoveInterval > maxNoMoveInterval) {
+              LOG.info("Failed to find a pending move for "  + noMoveInterval
+                  + " ms.  Skipping " + this);
+              resetScheduledSize();
+            }
           }
-        }
 
-        // Now we can not schedule any block to move and there are
-        // no new blocks added to the source block list, so we wait.
-        try {
-          synchronized (Dispatcher.this) {
-            Dispatcher.this.wait(1000); // wait for targets/sources to be idle
+          // Now we can not schedule any block to move and there are
+          // no new blocks added to the source block list, so we wait.
+          try {
+            synchronized (Dispatcher.this) {
+              Dispatcher.this.wait(1000); // wait for targets/sources to be idle
+            }
+            // Didn't find a possible move in this iteration of the while loop,
+            // adding a small delay before choosing next move again.
+            Thread.sleep(100);
+          } catch (InterruptedException ignored) {
           }
-          // Didn't find a possible move in this iteration of the while loop,
-          // adding a small delay before choosing next move again.
-          Thread.sleep(100);
-        } catch (InterruptedException ignored) {
+        }
+      } catch (InterruptedException ignored) {
+        // nothing to do
+      } catch (IOException e) {
+        LOG.warn("Exception while getting reportedBlock list", e);
+        return;
+      } finally {
+        if (blockList != null) {
+          blockList.cancel(true);
         }
       }
 
@@ -1039,7 +1089,9 @@ public Dispatcher(NameNodeConnector nnc, Set<String> includedNodes,
 
     this.dispatchExecutor = dispatcherThreads == 0? null
         : Executors.newFixedThreadPool(dispatcherThreads);
-    this.moverThreadAllocator = new Allocator(moverThreads);
+    this.getBlocksExecutor = dispatcherThreads == 0? null
+        : Executors.newFixedThreadPool(dispatcherThreads);
+    this.moveExecutor = Executors.newFixedThreadPool(moverThreads);
     this.maxMoverThreads = moverThreads;
     this.maxConcurrentMovesPerNode = maxConcurrentMovesPerNode;
 
@@ -1138,20 +1190,6 @@ public DDatanode newDatanode(DatanodeInfo datanode) {
 
   public void executePendingMove(final PendingMove p) {
     // move the reportedBlock
-    final DDatanode targetDn = p.target.getDDatanode();
-    ExecutorService moveExecutor = targetDn.getMoveExecutor();
-    if (moveExecutor == null) {
-      final int nThreads = moverThreadAllocator.allocate();
-      if (nThreads > 0) {
-        moveExecutor = targetDn.initMoveExecutor(nThreads);
-      }
-    }
-    if (moveExecutor == null) {
-      LOG.warn("No mover threads available: skip moving " + p);
-      targetDn.removePendingBlock(p);
-      p.proxySource.removePendingBlock(p);
-      return;
-    }
     moveExecutor.execute(new Runnable() {
       @Override
       public void run() {
@@ -1192,23 +1230,11 @@ private long dispatchBlockMoves() throws InterruptedException {
           concurrentThreads / BALANCER_NUM_RPC_PER_SEC);
     }
 
-    // Determine the size of each mover thread pool per target
-    int threadsPerTarget = maxMoverThreads/targets.size();
-    if (threadsPerTarget == 0) {
-      // Some scheduled moves will get ignored as some targets won't have
-      // any threads allocated.
-      moverThreadAllocator.setLotSize(1);
-      LOG.warn(DFSConfigKeys.DFS_BALANCER_MOVERTHREADS_KEY + "=" +
-          maxMoverThreads + " is too small for moving blocks to " +
-          targets.size() + " targets. Balancing may be slower.");
-    } else {
-      if  (threadsPerTarget > maxConcurrentMovesPerNode) {
-        threadsPerTarget = maxConcurrentMovesPerNode;
-        LOG.info("Limiting threads per target to the specified max.");
-      }
-      moverThreadAllocator.setLotSize(threadsPerTarget);
-      LOG.info("Allocating " + threadsPerTarget + " threads per target.");
-    }
+    // The mover threads are shared by all the targets and the moves are
+    // limited per datanode, so the busy targets do not hold idle threads
+    LOG.info("Moving blocks to " + targets.size() + " targets with "
+        + maxMoverThreads + " mover threads and up to "
+        + maxConcurrentMovesPerNode + " concurrent moves per datanode.");
 
     long dSec = 0;
     final Iterator<Source> i = sources.iterator();
@@ -1369,10 +1395,6 @@ void reset(Configuration conf) {
     storageGroupMap.clear();
     sources.clear();
 
-    moverThreadAllocator.reset();
-    for(StorageGroup t : targets) {
-      t.getDDatanode().shutdownMoveExecutor();
-    }
     targets.clear();
     globalBlocks.removeAllButRetain(movedBlocks);
     movedBlocks.cleanup();
@@ -1388,6 +1410,11 @@ public void shutdownNow() {
     if (dispatchExecutor != null) {
       dispatchExecutor.shutdownNow();
     }
+    if (getBlocksExecutor != null) {
+      getBlocksExecutor.shutdownNow();
+    }
+    // let the moves in flight finish
+    moveExecutor.shutdown();
   }
 
   static class Util {
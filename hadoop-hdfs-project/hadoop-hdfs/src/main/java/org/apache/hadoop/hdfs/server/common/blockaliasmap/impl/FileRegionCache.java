@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.common.blockaliasmap.impl;
+
+import java.util.Optional;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.ExtendedBlockId;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.common.FileRegion;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Read-through cache of the {@link FileRegion}s resolved by the readers of
+ * the alias maps, configured by
+ * {@link DFSConfigKeys#DFS_PROVIDED_ALIASMAP_CACHE_SIZE} and
+ * {@link DFSConfigKeys#DFS_PROVIDED_ALIASMAP_CACHE_PREFETCH}. Only the
+ * regions found are cached. Block ids are only unique within a block pool,
+ * so the regions are cached by block pool and block id. The cache is off by
+ * default, as the DataNodes do not resolve the regions of provided blocks
+ * on every read.
+ */
+class FileRegionCache {
+
+  /** Cache which does not keep anything. */
+  static final FileRegionCache DISABLED = new FileRegionCache(0, 0);
+
+  private final Cache<ExtendedBlockId, FileRegion> cache;
+  private final int prefetch;
+
+  @VisibleForTesting
+  FileRegionCache(int size, int prefetch) {
+    this.cache = size > 0 ?
+        CacheBuilder.newBuilder().maximumSize(size)
+            .<ExtendedBlockId, FileRegion>build() :
+        null;
+    this.prefetch = size > 0 ? prefetch : 0;
+  }
+
+  static FileRegionCache create(Configuration conf) {
+    return new FileRegionCache(
+        conf.getInt(DFSConfigKeys.DFS_PROVIDED_ALIASMAP_CACHE_SIZE,
+            DFSConfigKeys.DFS_PROVIDED_ALIASMAP_CACHE_SIZE_DEFAULT),
+        conf.getInt(DFSConfigKeys.DFS_PROVIDED_ALIASMAP_CACHE_PREFETCH,
+            DFSConfigKeys.DFS_PROVIDED_ALIASMAP_CACHE_PREFETCH_DEFAULT));
+  }
+
+  /**
+   * @return the cached region of the block, if its generation stamp matches.
+   */
+  Optional<FileRegion> get(String blockPoolID, Block block) {
+    if (cache == null) {
+      return Optional.empty();
+    }
+    FileRegion region = cache.getIfPresent(
+        new ExtendedBlockId(block.getBlockId(), blockPoolID));
+    if (region != null
+        && Block.matchingIdAndGenStamp(region.getBlock(), block)) {
+      return Optional.of(region);
+    }
+    return Optional.empty();
+  }
+
+  void put(String blockPoolID, FileRegion region) {
+    if (cache != null) {
+      cache.put(new ExtendedBlockId(region.getBlock().getBlockId(),
+          blockPoolID), region);
+    }
+  }
+
+  /**
+   * @return the number of regions following a resolved one to cache with it.
+   */
+  int getPrefetch() {
+    return prefetch;
+  }
+
+  @VisibleForTesting
+  long size() {
+    return cache == null ? 0 : cache.size();
+  }
+}
@@ -28,16 +28,24 @@
 import org.apache.hadoop.hdfs.server.common.FileRegion;
 import org.apache.hadoop.security.UserGroupInformation;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * InMemoryLevelDBAliasMapClient is the client for the InMemoryAliasMapServer.
  * This is used by the Datanode and fs2img to store and retrieve FileRegions
- * based on the given Block.
+ * based on the given Block. The resolved FileRegions may be cached, and
+ * the iterators list the next batch of FileRegions while the current one is
+ * consumed.
  */
 @InterfaceAudience.Private
 @InterfaceStability.Unstable
@@ -47,18 +55,29 @@ public class InMemoryLevelDBAliasMapClient extends BlockAliasMap<FileRegion>
   private Configuration conf;
   private InMemoryAliasMapProtocolClientSideTranslatorPB aliasMap;
   private String blockPoolID;
+  private FileRegionCache cache = FileRegionCache.DISABLED;
+  private ExecutorService listExecutor;
 
   @Override
   public void close() {
     aliasMap.stop();
+    if (listExecutor != null) {
+      listExecutor.shutdownNow();
+    }
   }
 
   class LevelDbReader extends BlockAliasMap.Reader<FileRegion> {
 
     @Override
     public Optional<FileRegion> resolve(Block block) throws IOException {
+      Optional<FileRegion> cached = cache.get(blockPoolID, block);
+      if (cached.isPresent()) {
+        return cached;
+      }
       Optional<ProvidedStorageLocation> read = aliasMap.read(block);
-      return read.map(psl -> new FileRegion(block, psl));
+      Optional<FileRegion> region = read.map(psl -> new FileRegion(block, psl));
+      region.ifPresent(r -> cache.put(blockPoolID, r));
+      return region;
     }
 
     @Override
@@ -70,20 +89,37 @@ public void close() throws IOException {
 
       private Iterator<FileRegion> iterator;
       private Optional<Block> nextMarker;
+      /** The next batch, listed while the current one is consumed. */
+      private Future<InMemoryAliasMap.IterationResult> nextBatch;
 
       LevelDbIterator()  {
-        batch(Optional.empty());
+        try {
+          batch(aliasMap.list(Optional.empty()));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
       }
 
-      private void batch(Optional<Block> newNextMarker) {
+      private void batch(InMemoryAliasMap.IterationResult iterationResult) {
+        List<FileRegion> fileRegions = iterationResult.getFileRegions();
+        this.iterator = fileRegions.iterator();
+        this.nextMarker = iterationResult.getNextBlock();
+        if (nextMarker.isPresent()) {
+          final Optional<Block> marker = nextMarker;
+          nextBatch = getListExecutor().submit(() -> aliasMap.list(marker));
+        } else {
+          nextBatch = null;
+        }
+      }
+
+      private void nextBatch() {
         try {
-          InMemoryAliasMap.IterationResult iterationResult =
-              aliasMap.list(newNextMarker);
-          List<FileRegion> fileRegions = iterationResult.getFileRegions();
-          this.iterator = fileRegions.iterator();
-          this.nextMarker = iterationResult.getNextBlock();
-        } catch (IOException e) {
+          batch(nextBatch.get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
           throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          throw new RuntimeException(e.getCause());
         }
       }
 
@@ -98,7 +134,7 @@ public FileRegion next() {
           return iterator.next();
         } else {
           if (nextMarker.isPresent()) {
-            batch(nextMarker);
+            nextBatch();
             return next();
           } else {
             throw new NoSuchElementException();
@@ -164,6 +200,16 @@ public Writer<FileRegion> getWriter(Writer.Options opts, String blockPoolID)
   public void setConf(Configuration conf) {
     this.conf = conf;
     this.aliasMap = new InMemoryAliasMapProtocolClientSideTranslatorPB(conf);
+    this.cache = FileRegionCache.create(conf);
+  }
+
+  private synchronized ExecutorService getListExecutor() {
+    if (listExecutor == null) {
+      listExecutor = Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("InMemoryAliasMap-list-%d").build());
+    }
+    return listExecutor;
   }
 
   @Override
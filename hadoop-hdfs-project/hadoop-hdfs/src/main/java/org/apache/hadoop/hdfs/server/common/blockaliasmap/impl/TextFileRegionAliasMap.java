@@ -57,7 +57,8 @@
 
 /**
  * This class is used for block maps stored as text files,
- * with a specified delimiter.
+ * with a specified delimiter. In the compact format, the path of a block is
+ * left empty when it is the same as the path of the previous block.
  */
 @InterfaceAudience.Public
 @InterfaceStability.Unstable
@@ -67,6 +68,7 @@
   private Configuration conf;
   private ReaderOptions readerOpts = TextReader.defaults();
   private WriterOptions writerOpts = TextWriter.defaults();
+  private FileRegionCache cache = FileRegionCache.DISABLED;
 
   public static final Logger LOG =
       LoggerFactory.getLogger(TextFileRegionAliasMap.class);
@@ -74,6 +76,7 @@
   public void setConf(Configuration conf) {
     readerOpts.setConf(conf);
     writerOpts.setConf(conf);
+    cache = FileRegionCache.create(conf);
     this.conf = conf;
   }
 
@@ -112,7 +115,8 @@ TextReader createReader(Path file, String delim, Configuration cfg,
       filename = filename + codec.getDefaultExtension();
     }
     Path bpidFilePath = new Path(file.getParent(), filename);
-    return new TextReader(fs, bpidFilePath, codec, delim);
+    return new TextReader(fs, bpidFilePath, codec, delim,
+        new IdentityHashMap<>(), cache);
   }
 
   @Override
@@ -134,14 +138,14 @@ public Writer<FileRegion> getWriter(Writer.Options opts, String blockPoolID)
       CompressionCodecFactory factory = new CompressionCodecFactory(cfg);
       CompressionCodec codec = factory.getCodecByName(o.codec);
       blocksFile = new Path(o.dir, baseName + codec.getDefaultExtension());
-      return createWriter(blocksFile, codec, o.delim, cfg);
+      return createWriter(blocksFile, codec, o.delim, o.compact, cfg);
     }
-    return createWriter(blocksFile, null, o.delim, conf);
+    return createWriter(blocksFile, null, o.delim, o.compact, conf);
   }
 
   @VisibleForTesting
   TextWriter createWriter(Path file, CompressionCodec codec, String delim,
-      Configuration cfg) throws IOException {
+      boolean compact, Configuration cfg) throws IOException {
     FileSystem fs = file.getFileSystem(cfg);
     if (fs instanceof LocalFileSystem) {
       fs = ((LocalFileSystem)fs).getRaw();
@@ -149,7 +153,7 @@ TextWriter createWriter(Path file, CompressionCodec codec, String delim,
     OutputStream tmp = fs.create(file);
     java.io.Writer out = new BufferedWriter(new OutputStreamWriter(
           (null == codec) ? tmp : codec.createOutputStream(tmp), "UTF-8"));
-    return new TextWriter(out, delim);
+    return new TextWriter(out, delim, compact);
   }
 
   /**
@@ -207,6 +211,8 @@ public ReaderOptions delimiter(String delim) {
         new Path(DFSConfigKeys.DFS_PROVIDED_ALIASMAP_TEXT_WRITE_DIR_DEFAULT);
     private String delim =
         DFSConfigKeys.DFS_PROVIDED_ALIASMAP_TEXT_DELIMITER_DEFAULT;
+    private boolean compact =
+        DFSConfigKeys.DFS_PROVIDED_ALIASMAP_TEXT_COMPACT_DEFAULT;
 
     @Override
     public void setConf(Configuration conf) {
@@ -217,6 +223,9 @@ public void setConf(Configuration conf) {
       codec = conf.get(DFSConfigKeys.DFS_PROVIDED_ALIASMAP_TEXT_CODEC);
       delim = conf.get(DFSConfigKeys.DFS_PROVIDED_ALIASMAP_TEXT_DELIMITER,
           DFSConfigKeys.DFS_PROVIDED_ALIASMAP_TEXT_DELIMITER_DEFAULT);
+      compact = conf.getBoolean(
+          DFSConfigKeys.DFS_PROVIDED_ALIASMAP_TEXT_COMPACT,
+          DFSConfigKeys.DFS_PROVIDED_ALIASMAP_TEXT_COMPACT_DEFAULT);
     }
 
     @Override
@@ -250,6 +259,19 @@ public WriterOptions delimiter(String delim) {
       return this;
     }
 
+    public boolean isCompact() {
+      return compact;
+    }
+
+    /**
+     * @param compact if true, the path of a region is left empty when it is
+     *                the path of the previous region.
+     */
+    public WriterOptions compact(boolean compact) {
+      this.compact = compact;
+      return this;
+    }
+
   }
 
   /**
@@ -276,6 +298,7 @@ public static ReaderOptions defaults() {
     private final CompressionCodec codec;
     private final Map<FRIterator, BufferedReader> iterators;
     private final String blockPoolID;
+    private final FileRegionCache cache;
 
     protected TextReader(FileSystem fs, Path file, CompressionCodec codec,
         String delim) {
@@ -285,22 +308,37 @@ protected TextReader(FileSystem fs, Path file, CompressionCodec codec,
 
     TextReader(FileSystem fs, Path file, CompressionCodec codec, String delim,
         Map<FRIterator, BufferedReader> iterators) {
+      this(fs, file, codec, delim, iterators, FileRegionCache.DISABLED);
+    }
+
+    TextReader(FileSystem fs, Path file, CompressionCodec codec, String delim,
+        Map<FRIterator, BufferedReader> iterators, FileRegionCache cache) {
       this.fs = fs;
       this.file = file;
       this.codec = codec;
       this.delim = delim;
       this.iterators = Collections.synchronizedMap(iterators);
       this.blockPoolID = blockPoolIDFromFileName(file);
+      this.cache = cache;
     }
 
     @Override
     public Optional<FileRegion> resolve(Block ident) throws IOException {
+      Optional<FileRegion> cached = cache.get(blockPoolID, ident);
+      if (cached.isPresent()) {
+        return cached;
+      }
       // consider layering index w/ composable format
       Iterator<FileRegion> i = iterator();
       try {
         while (i.hasNext()) {
           FileRegion f = i.next();
           if (f.getBlock().equals(ident)) {
+            cache.put(blockPoolID, f);
+            // The next regions are usually the next blocks of the same file
+            for (int n = 0; n < cache.getPrefetch() && i.hasNext(); n++) {
+              cache.put(blockPoolID, i.next());
+            }
             return Optional.of(f);
           }
         }
@@ -317,6 +355,8 @@ public Optional<FileRegion> resolve(Block ident) throws IOException {
     class FRIterator implements Iterator<FileRegion> {
 
       private FileRegion pending;
+      /** Path of the previous region, for the lines of the compact format. */
+      private Path lastPath;
 
       @Override
       public boolean hasNext() {
@@ -343,7 +383,7 @@ public void remove() {
       }
     }
 
-    private FileRegion nextInternal(Iterator<FileRegion> i) throws IOException {
+    private FileRegion nextInternal(FRIterator i) throws IOException {
       BufferedReader r = iterators.get(i);
       if (null == r) {
         throw new IllegalStateException();
@@ -361,7 +401,12 @@ private FileRegion nextInternal(Iterator<FileRegion> i) throws IOException {
       if (f.length == 6) {
         nonce = f[5].getBytes(Charset.forName("UTF-8"));
       }
-      return new FileRegion(Long.parseLong(f[0]), new Path(f[1]),
+      if (!f[1].isEmpty()) {
+        i.lastPath = new Path(f[1]);
+      } else if (i.lastPath == null) {
+        throw new IOException("Missing path: " + line);
+      }
+      return new FileRegion(Long.parseLong(f[0]), i.lastPath,
           Long.parseLong(f[2]), Long.parseLong(f[3]), Long.parseLong(f[4]),
           nonce);
     }
@@ -433,10 +478,21 @@ public static WriterOptions defaults() {
 
     private final String delim;
     private final java.io.Writer out;
+    private final boolean compact;
+    private Path lastPath;
 
     public TextWriter(java.io.Writer out, String delim) {
+      this(out, delim, false);
+    }
+
+    /**
+     * @param compact if true, the path of a region is left empty when it is
+     *                the same as the path of the previous region.
+     */
+    public TextWriter(java.io.Writer out, String delim, boolean compact) {
       this.out = out;
       this.delim = delim;
+      this.compact = compact;
     }
 
     @Override
@@ -445,7 +501,11 @@ public void store(FileRegion token) throws IOException {
       final ProvidedStorageLocation psl = token.getProvidedStorageLocation();
 
       out.append(String.valueOf(block.getBlockId())).append(delim);
-      out.append(psl.getPath().toString()).append(delim);
+      if (!compact || !psl.getPath().equals(lastPath)) {
+        out.append(psl.getPath().toString());
+        lastPath = psl.getPath();
+      }
+      out.append(delim);
       out.append(Long.toString(psl.getOffset())).append(delim);
       out.append(Long.toString(psl.getLength())).append(delim);
       out.append(Long.toString(block.getGenerationStamp()));
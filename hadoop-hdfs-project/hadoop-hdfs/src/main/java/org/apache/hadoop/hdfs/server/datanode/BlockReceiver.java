@@ -45,6 +45,8 @@
 import org.apache.hadoop.hdfs.protocol.datatransfer.PipelineAck;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.BlockOpResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.DataNodeVolumeMetrics;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaInputStreams;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
 import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodePeerMetrics;
@@ -126,10 +128,16 @@ class BlockReceiver implements Closeable {
 
   private boolean syncOnClose;
   private volatile boolean dirSyncOnFinalize;
-  private boolean dirSyncOnHSyncDone = false;
+  private volatile boolean dirSyncOnHSyncDone = false;
+  /** performs hsync fsyncs off the receiver thread, if enabled */
+  private final GroupCommitSyncService syncService;
+  /** the most recently submitted sync of this receiver */
+  private GroupCommitSyncService.SyncRequest lastSyncRequest;
   private long restartBudget;
   /** the reference of the volume where the block receiver writes to */
   private ReplicaHandler replicaHandler;
+  /** metrics of the volume counting this receiver as an active writer */
+  private DataNodeVolumeMetrics activeWriterMetrics;
 
   /**
    * for replaceBlock response
@@ -169,6 +177,7 @@ class BlockReceiver implements Closeable {
       this.restartBudget = datanode.getDnConf().restartReplicaExpiry;
       this.datanodeSlowLogThresholdMs =
           datanode.getDnConf().getSlowIoWarningThresholdMs();
+      this.syncService = datanode.getGroupCommitSyncService();
       // For replaceBlock() calls response should be sent to avoid socketTimeout
       // at clients. So sending with the interval of 0.5 * socketTimeout
       final long readTimeout = datanode.getDnConf().socketTimeout;
@@ -246,6 +255,14 @@ class BlockReceiver implements Closeable {
         }
       }
       replicaInfo = replicaHandler.getReplica();
+      if (replicaInfo.getReplicaInfo() != null
+          && replicaInfo.getReplicaInfo().getVolume() != null) {
+        activeWriterMetrics =
+            replicaInfo.getReplicaInfo().getVolume().getMetrics();
+        if (activeWriterMetrics != null) {
+          activeWriterMetrics.incrActiveWriters();
+        }
+      }
       this.dropCacheBehindWrites = (cachingStrategy.getDropBehind() == null) ?
         datanode.getDnConf().dropCacheBehindWrites :
           cachingStrategy.getDropBehind();
@@ -315,6 +332,7 @@ public void close() throws IOException {
             Long.toString(maxWriteToDiskMs));
     }
     packetReceiver.close();
+    waitForOutstandingSync();
 
     IOException ioe = null;
     if (syncOnClose && (streams.getDataOut() != null || checksumOut != null)) {
@@ -369,6 +387,10 @@ public void close() throws IOException {
       IOUtils.cleanup(null, replicaHandler);
       replicaHandler = null;
     }
+    if (activeWriterMetrics != null) {
+      activeWriterMetrics.decrActiveWriters();
+      activeWriterMetrics = null;
+    }
     if (measuredFlushTime) {
       datanode.metrics.addFlushNanos(flushTotalNanos);
     }
@@ -407,33 +429,18 @@ void flushOrSync(boolean isSync) throws IOException {
     if (checksumOut != null) {
       long flushStartNanos = System.nanoTime();
       checksumOut.flush();
-      long flushEndNanos = System.nanoTime();
-      if (isSync) {
-        streams.syncChecksumOut();
-        datanode.metrics.addFsyncNanos(System.nanoTime() - flushEndNanos);
-      }
-      flushTotalNanos += flushEndNanos - flushStartNanos;
+      flushTotalNanos += System.nanoTime() - flushStartNanos;
     }
     if (streams.getDataOut() != null) {
       long flushStartNanos = System.nanoTime();
       streams.flushDataOut();
-      long flushEndNanos = System.nanoTime();
-      if (isSync) {
-        long fsyncStartNanos = flushEndNanos;
-        streams.syncDataOut();
-        datanode.metrics.addFsyncNanos(System.nanoTime() - fsyncStartNanos);
-      }
-      flushTotalNanos += flushEndNanos - flushStartNanos;
-    }
-    if (isSync && !dirSyncOnHSyncDone && replicaInfo instanceof LocalReplica) {
-      ((LocalReplica) replicaInfo).fsyncDirectory();
-      dirSyncOnHSyncDone = true;
+      flushTotalNanos += System.nanoTime() - flushStartNanos;
     }
     if (checksumOut != null || streams.getDataOut() != null) {
       datanode.metrics.addFlushNanos(flushTotalNanos);
-      if (isSync) {
-        datanode.metrics.incrFsyncCount();
-      }
+    }
+    if (isSync) {
+      syncFlushedData();
     }
     long duration = Time.monotonicNow() - begin;
     if (duration > datanodeSlowLogThresholdMs && LOG.isWarnEnabled()) {
@@ -444,6 +451,80 @@ void flushOrSync(boolean isSync) throws IOException {
     }
   }
 
+  /**
+   * Sync the data flushed so far to disk. The first sync of the replica
+   * also syncs its directory.
+   */
+  private void syncFlushedData() throws IOException {
+    if (checksumOut != null) {
+      long fsyncStartNanos = System.nanoTime();
+      streams.syncChecksumOut();
+      datanode.metrics.addFsyncNanos(System.nanoTime() - fsyncStartNanos);
+    }
+    if (streams.getDataOut() != null) {
+      long fsyncStartNanos = System.nanoTime();
+      streams.syncDataOut();
+      datanode.metrics.addFsyncNanos(System.nanoTime() - fsyncStartNanos);
+    }
+    if (!dirSyncOnHSyncDone && replicaInfo instanceof LocalReplica) {
+      ((LocalReplica) replicaInfo).fsyncDirectory();
+      dirSyncOnHSyncDone = true;
+    }
+    if (checksumOut != null || streams.getDataOut() != null) {
+      datanode.metrics.incrFsyncCount();
+    }
+  }
+
+  /**
+   * Flush the packet just written and, if requested, sync it to disk.
+   * <p>
+   * When group commit sync is enabled and there is a responder to hold back
+   * the ack, the sync is handed to the volume's sync thread and this thread
+   * moves on to the next packet. The ack for the packet must not be sent
+   * before the returned request has completed.
+   *
+   * @return the pending sync, or null if no sync is outstanding.
+   */
+  private GroupCommitSyncService.SyncRequest flushOrSubmitSync(boolean isSync)
+      throws IOException {
+    final FsVolumeSpi volume = replicaInfo.getReplicaInfo() == null ?
+        null : replicaInfo.getReplicaInfo().getVolume();
+    if (!isSync || syncService == null || responder == null
+        || volume == null) {
+      flushOrSync(isSync);
+      return null;
+    }
+    flushOrSync(false);
+    lastSyncRequest = syncService.submit(volume, this, () -> {
+      long begin = Time.monotonicNow();
+      syncFlushedData();
+      long duration = Time.monotonicNow() - begin;
+      if (duration > datanodeSlowLogThresholdMs && LOG.isWarnEnabled()) {
+        LOG.warn("Slow group commit sync took " + duration + "ms (threshold="
+            + datanodeSlowLogThresholdMs + "ms), volume=" + getVolumeBaseUri()
+            + ", blockId=" + replicaInfo.getBlockId());
+      }
+    });
+    return lastSyncRequest;
+  }
+
+  /**
+   * Wait for the last sync handed to the sync service, so that the streams
+   * are not closed underneath it. Its failure, if any, has already been or
+   * will be reported through the ack of the packet.
+   */
+  private void waitForOutstandingSync() {
+    final GroupCommitSyncService.SyncRequest request = lastSyncRequest;
+    if (request != null) {
+      try {
+        request.waitForCompletion();
+      } catch (IOException e) {
+        LOG.debug("Outstanding sync for {} failed", block, e);
+      }
+      lastSyncRequest = null;
+    }
+  }
+
   /**
    * While writing to mirrorOut, failure to write to mirror should not
    * affect this datanode unless it is caused by interruption.
@@ -607,14 +688,15 @@ private int receivePacket() throws IOException {
     
     ByteBuffer dataBuf = packetReceiver.getDataSlice();
     ByteBuffer checksumBuf = packetReceiver.getChecksumSlice();
-    
+    GroupCommitSyncService.SyncRequest syncRequest = null;
+
     if (lastPacketInBlock || len == 0) {
       if(LOG.isDebugEnabled()) {
         LOG.debug("Receiving an empty packet or the end of the block " + block);
       }
       // sync block if requested
       if (syncBlock) {
-        flushOrSync(true);
+        syncRequest = flushOrSubmitSync(true);
       }
     } else {
       final int checksumLen = diskChecksum.getChecksumSize(len);
@@ -806,7 +888,7 @@ private int receivePacket() throws IOException {
           }
 
           /// flush entire packet, sync if requested
-          flushOrSync(syncBlock);
+          syncRequest = flushOrSubmitSync(syncBlock);
           
           replicaInfo.setLastChecksumAndDataLen(offsetInBlock, lastCrc);
 
@@ -822,10 +904,10 @@ private int receivePacket() throws IOException {
     }
 
     // if sync was requested, put in queue for pending acks here
-    // (after the fsync finished)
+    // (after the fsync finished, or with the fsync still pending)
     if (responder != null && (syncBlock || shouldVerifyChecksum())) {
       ((PacketResponder) responder.getRunnable()).enqueue(seqno,
-          lastPacketInBlock, offsetInBlock, Status.SUCCESS);
+          lastPacketInBlock, offsetInBlock, Status.SUCCESS, syncRequest);
     }
 
     /*
@@ -1262,8 +1344,22 @@ private boolean isRunning() {
      */
     void enqueue(final long seqno, final boolean lastPacketInBlock,
         final long offsetInBlock, final Status ackStatus) {
+      enqueue(seqno, lastPacketInBlock, offsetInBlock, ackStatus, null);
+    }
+
+    /**
+     * enqueue the seqno that is still be to acked by the downstream datanode.
+     * @param seqno sequence number of the packet
+     * @param lastPacketInBlock if true, this is the last packet in block
+     * @param offsetInBlock offset of this packet in block
+     * @param syncRequest the pending sync of the packet, or null if none.
+     *                    The packet is not acked before the sync completes.
+     */
+    void enqueue(final long seqno, final boolean lastPacketInBlock,
+        final long offsetInBlock, final Status ackStatus,
+        final GroupCommitSyncService.SyncRequest syncRequest) {
       final Packet p = new Packet(seqno, lastPacketInBlock, offsetInBlock,
-          System.nanoTime(), ackStatus);
+          System.nanoTime(), ackStatus, syncRequest);
       if(LOG.isDebugEnabled()) {
         LOG.debug(myString + ": enqueue " + p);
       }
@@ -1472,6 +1568,11 @@ public void run() {
             continue;
           }
 
+          if (pkt != null && pkt.syncRequest != null) {
+            // The packet must be durable before it is acked.
+            pkt.syncRequest.waitForCompletion();
+          }
+
           if (lastPacketInBlock) {
             // Finalize the block and close the block file
             finalizeBlock(startTime);
@@ -1677,14 +1778,17 @@ private static class Packet {
     final long offsetInBlock;
     final long ackEnqueueNanoTime;
     final Status ackStatus;
+    final GroupCommitSyncService.SyncRequest syncRequest;
 
     Packet(long seqno, boolean lastPacketInBlock, long offsetInBlock,
-        long ackEnqueueNanoTime, Status ackStatus) {
+        long ackEnqueueNanoTime, Status ackStatus,
+        GroupCommitSyncService.SyncRequest syncRequest) {
       this.seqno = seqno;
       this.lastPacketInBlock = lastPacketInBlock;
       this.offsetInBlock = offsetInBlock;
       this.ackEnqueueNanoTime = ackEnqueueNanoTime;
       this.ackStatus = ackStatus;
+      this.syncRequest = syncRequest;
     }
 
     @Override
@@ -1694,6 +1798,7 @@ public String toString() {
         + ", offsetInBlock=" + offsetInBlock
         + ", ackEnqueueNanoTime=" + ackEnqueueNanoTime
         + ", ackStatus=" + ackStatus
+        + ", syncPending=" + (syncRequest != null)
         + ")";
     }
   }
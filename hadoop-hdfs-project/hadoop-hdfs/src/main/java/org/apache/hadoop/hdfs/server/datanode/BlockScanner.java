@@ -18,6 +18,12 @@
 
 package org.apache.hadoop.hdfs.server.datanode;
 
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_DATANODE_BYTES_PER_SECOND;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_DATANODE_BYTES_PER_SECOND_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_RECENT_BLOCKS_MAX;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_RECENT_BLOCKS_MAX_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BACKOFF_LATENCY_MS;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BACKOFF_LATENCY_MS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY;
@@ -37,6 +43,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,6 +73,12 @@ public class BlockScanner {
    */
   private Conf conf;
 
+  /**
+   * The throttler shared by all the volume scanners, or null if there is no
+   * DataNode wide scan budget.
+   */
+  private final DataTransferThrottler datanodeThrottler;
+
   @VisibleForTesting
   void setConf(Conf conf) {
     this.conf = conf;
@@ -109,6 +122,9 @@ static class Conf {
 
     static boolean allowUnitTestSettings = false;
     final long targetBytesPerSec;
+    final long datanodeBytesPerSec;
+    final long backoffLatencyMs;
+    final int maxRecentBlocks;
     final long maxStalenessMs;
     final long scanPeriodMs;
     final long cursorSaveMs;
@@ -156,6 +172,15 @@ private static long getConfiguredScanPeriodMs(Configuration conf) {
       this.targetBytesPerSec = Math.max(0L, conf.getLong(
           DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND,
           DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND_DEFAULT));
+      this.datanodeBytesPerSec = Math.max(0L, conf.getLong(
+          DFS_BLOCK_SCANNER_DATANODE_BYTES_PER_SECOND,
+          DFS_BLOCK_SCANNER_DATANODE_BYTES_PER_SECOND_DEFAULT));
+      this.backoffLatencyMs = Math.max(0L, conf.getLong(
+          DFS_BLOCK_SCANNER_VOLUME_BACKOFF_LATENCY_MS,
+          DFS_BLOCK_SCANNER_VOLUME_BACKOFF_LATENCY_MS_DEFAULT));
+      this.maxRecentBlocks = Math.max(0, conf.getInt(
+          DFS_BLOCK_SCANNER_RECENT_BLOCKS_MAX,
+          DFS_BLOCK_SCANNER_RECENT_BLOCKS_MAX_DEFAULT));
       this.maxStalenessMs = Math.max(0L, getUnitTestLong(conf,
           INTERNAL_DFS_BLOCK_SCANNER_MAX_STALENESS_MS,
           INTERNAL_DFS_BLOCK_SCANNER_MAX_STALENESS_MS_DEFAULT));
@@ -180,9 +205,13 @@ public BlockScanner(DataNode datanode) {
   public BlockScanner(DataNode datanode, Configuration conf) {
     this.datanode = datanode;
     this.conf = new Conf(conf);
+    this.datanodeThrottler = this.conf.datanodeBytesPerSec > 0 ?
+        new DataTransferThrottler(this.conf.datanodeBytesPerSec) : null;
     if (isEnabled()) {
-      LOG.info("Initialized block scanner with targetBytesPerSec {}",
-          this.conf.targetBytesPerSec);
+      LOG.info("Initialized block scanner with targetBytesPerSec {}, " +
+          "datanodeBytesPerSec {}, backoffLatencyMs {}",
+          this.conf.targetBytesPerSec, this.conf.datanodeBytesPerSec,
+          this.conf.backoffLatencyMs);
     } else {
       LOG.info("Disabled block scanner.");
     }
@@ -220,7 +249,7 @@ public synchronized void addVolumeScanner(FsVolumeReference ref) {
       }
       LOG.debug("Adding scanner for volume {} (StorageID {})",
           volume, volume.getStorageID());
-      scanner = new VolumeScanner(conf, datanode, ref);
+      scanner = new VolumeScanner(conf, datanode, ref, datanodeThrottler);
       scanner.start();
       scanners.put(volume.getStorageID(), scanner);
       success = true;
@@ -346,6 +375,27 @@ synchronized void markSuspectBlock(String storageId, ExtendedBlock block) {
     scanner.markSuspectBlock(block);
   }
 
+  /**
+   * Mark a block as recently written, so that it is verified ahead of the
+   * regular scan. This has no effect unless
+   * {@link org.apache.hadoop.hdfs.DFSConfigKeys#DFS_BLOCK_SCANNER_RECENT_BLOCKS_MAX}
+   * is positive.
+   *
+   * @param storageId     The ID of the storage where the block replica
+   *                      is being stored.
+   * @param block         The block's ID and block pool id.
+   */
+  synchronized void markRecentlyWrittenBlock(String storageId,
+      ExtendedBlock block) {
+    if (!isEnabled() || conf.maxRecentBlocks <= 0) {
+      return;
+    }
+    VolumeScanner scanner = scanners.get(storageId);
+    if (scanner != null) {
+      scanner.markRecentlyWrittenBlock(block);
+    }
+  }
+
   @InterfaceAudience.Private
   public static class Servlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
@@ -42,6 +42,7 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaInputStreams;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.BlockReadCache;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
@@ -124,6 +125,8 @@ class BlockSender implements java.io.Closeable {
   private ReplicaInputStreams ris;
   /** updated while using transferTo() */
   private long blockInPosition = -1;
+  /** Whether the block data is served from the DataNode's read cache */
+  private boolean readFromCache;
   /** Checksum utility */
   private final DataChecksum checksum;
   /** Initial position to read */
@@ -415,7 +418,9 @@ class BlockSender implements java.io.Closeable {
       if (DataNode.LOG.isDebugEnabled()) {
         DataNode.LOG.debug("replica=" + replica);
       }
-      blockIn = datanode.data.getBlockInputStream(block, offset); // seek to offset
+      // seek to offset
+      blockIn = datanode.data.getCachedBlockInputStream(block, offset);
+      readFromCache = blockIn instanceof BlockReadCache.CachedBlockStream;
       ris = new ReplicaInputStreams(
           blockIn, checksumIn, volumeRef, fileIoProvider);
     } catch (IOException ioe) {
@@ -656,6 +661,10 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
       throw ioeToSocketException(e);
     }
 
+    if (readFromCache) {
+      datanode.metrics.incrReadCacheBytesServed(dataLen);
+    }
+
     if (throttler != null) { // rebalancing so throttle
       throttler.throttle(packetLen);
     }
@@ -77,6 +77,8 @@ public class DNConf {
   final int socketTimeout;
   final int socketWriteTimeout;
   final int socketKeepaliveTimeout;
+  final boolean multiplexedConnectionsEnabled;
+  final int multiplexedConnectionsMaxStreamWindow;
   private final int transferSocketSendBufferSize;
   private final int transferSocketRecvBufferSize;
   private final boolean tcpNoDelay;
@@ -87,6 +89,9 @@ public class DNConf {
   final boolean syncBehindWritesInBackground;
   final boolean dropCacheBehindReads;
   final boolean syncOnClose;
+  final boolean groupCommitSyncEnabled;
+  final long groupCommitSyncTimeoutMs;
+  final int groupCommitSyncThreadsPerVolume;
   final boolean encryptDataTransfer;
   final boolean connectToDnViaHostname;
 
@@ -99,6 +104,8 @@ public class DNConf {
   final boolean diskStatsEnabled;
   final long outliersReportIntervalMs;
   final long ibrInterval;
+  final int ibrMaxBlocks;
+  final boolean ibrPiggybackOnHeartbeat;
   final long initialBlockReportDelayMs;
   final long cacheReportInterval;
   final long datanodeSlowIoWarningThresholdMs;
@@ -133,6 +140,12 @@ public DNConf(final Configurable dn) {
     socketKeepaliveTimeout = getConf().getInt(
         DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY,
         DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_DEFAULT);
+    multiplexedConnectionsEnabled = getConf().getBoolean(
+        DFSConfigKeys.DFS_DATANODE_MULTIPLEXED_CONNECTIONS_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_MULTIPLEXED_CONNECTIONS_ENABLED_DEFAULT);
+    multiplexedConnectionsMaxStreamWindow = getConf().getInt(
+        DFSConfigKeys.DFS_DATANODE_MULTIPLEXED_CONNECTIONS_MAX_STREAM_WINDOW_KEY,
+        DFSConfigKeys.DFS_DATANODE_MULTIPLEXED_CONNECTIONS_MAX_STREAM_WINDOW_DEFAULT);
     this.transferSocketSendBufferSize = getConf().getInt(
         DFSConfigKeys.DFS_DATANODE_TRANSFER_SOCKET_SEND_BUFFER_SIZE_KEY,
         DFSConfigKeys.DFS_DATANODE_TRANSFER_SOCKET_SEND_BUFFER_SIZE_DEFAULT);
@@ -186,6 +199,12 @@ public DNConf(final Configurable dn) {
     this.ibrInterval = getConf().getLong(
         DFSConfigKeys.DFS_BLOCKREPORT_INCREMENTAL_INTERVAL_MSEC_KEY,
         DFSConfigKeys.DFS_BLOCKREPORT_INCREMENTAL_INTERVAL_MSEC_DEFAULT);
+    this.ibrMaxBlocks = getConf().getInt(
+        DFSConfigKeys.DFS_BLOCKREPORT_INCREMENTAL_MAX_BLOCKS_KEY,
+        DFSConfigKeys.DFS_BLOCKREPORT_INCREMENTAL_MAX_BLOCKS_DEFAULT);
+    this.ibrPiggybackOnHeartbeat = getConf().getBoolean(
+        DFSConfigKeys.DFS_BLOCKREPORT_INCREMENTAL_PIGGYBACK_ON_HEARTBEAT_KEY,
+        DFSConfigKeys.DFS_BLOCKREPORT_INCREMENTAL_PIGGYBACK_ON_HEARTBEAT_DEFAULT);
     this.blockReportSplitThreshold = getConf().getLong(
         DFS_BLOCKREPORT_SPLIT_THRESHOLD_KEY,
         DFS_BLOCKREPORT_SPLIT_THRESHOLD_DEFAULT);
@@ -228,6 +247,17 @@ public DNConf(final Configurable dn) {
     // do we need to sync block file contents to disk when blockfile is closed?
     this.syncOnClose = getConf().getBoolean(DFS_DATANODE_SYNCONCLOSE_KEY,
         DFS_DATANODE_SYNCONCLOSE_DEFAULT);
+    this.groupCommitSyncEnabled = getConf().getBoolean(
+        DFSConfigKeys.DFS_DATANODE_GROUP_COMMIT_SYNC_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_GROUP_COMMIT_SYNC_ENABLED_DEFAULT);
+    this.groupCommitSyncTimeoutMs = getConf().getTimeDuration(
+        DFSConfigKeys.DFS_DATANODE_GROUP_COMMIT_SYNC_TIMEOUT_KEY,
+        DFSConfigKeys.DFS_DATANODE_GROUP_COMMIT_SYNC_TIMEOUT_DEFAULT,
+        TimeUnit.MILLISECONDS);
+    this.groupCommitSyncThreadsPerVolume = getConf().getInt(
+        DFSConfigKeys.DFS_DATANODE_GROUP_COMMIT_SYNC_THREADS_PER_VOLUME_KEY,
+        DFSConfigKeys.
+            DFS_DATANODE_GROUP_COMMIT_SYNC_THREADS_PER_VOLUME_DEFAULT);
 
     this.minimumNameNodeVersion = getConf().get(
         DFS_DATANODE_MIN_SUPPORTED_NAMENODE_VERSION_KEY,
@@ -387,6 +387,7 @@ public static InetSocketAddress createSocketAddr(String target) {
   private String dnUserName = null;
   private BlockRecoveryWorker blockRecoveryWorker;
   private ErasureCodingWorker ecWorker;
+  private GroupCommitSyncService groupCommitSyncService;
   private final Tracer tracer;
   private final TracerConfigurationManager tracerConfigurationManager;
   private static final int NUM_CORES = Runtime.getRuntime()
@@ -1434,6 +1435,11 @@ void startDataNode(List<StorageLocation> dataDirectories,
     metrics.getJvmMetrics().setPauseMonitor(pauseMonitor);
 
     ecWorker = new ErasureCodingWorker(getConf(), this);
+    if (dnConf.groupCommitSyncEnabled) {
+      groupCommitSyncService =
+          new GroupCommitSyncService(dnConf.groupCommitSyncTimeoutMs,
+              dnConf.groupCommitSyncThreadsPerVolume);
+    }
     blockRecoveryWorker = new BlockRecoveryWorker(this);
 
     blockPoolManager = new BlockPoolManager(this);
@@ -2102,6 +2108,10 @@ public void shutdown() {
       ecWorker.shutDown();
     }
 
+    if (groupCommitSyncService != null) {
+      groupCommitSyncService.shutdown();
+    }
+
     if(blockPoolManager != null) {
       try {
         this.blockPoolManager.shutDownAll(bposArray);
@@ -2626,6 +2636,9 @@ void closeBlock(ExtendedBlock block, String delHint, String storageUuid,
     metrics.incrBlocksWritten();
     notifyNamenodeReceivedBlock(block, delHint, storageUuid,
         isTransientStorage);
+    if (storageUuid != null && !isTransientStorage) {
+      blockScanner.markRecentlyWrittenBlock(storageUuid, block);
+    }
   }
 
   /** Start a single datanode daemon and wait for it to finish.
@@ -3426,6 +3439,14 @@ public ErasureCodingWorker getErasureCodingWorker(){
     return ecWorker;
   }
 
+  /**
+   * @return the service performing hsync fsyncs on behalf of block
+   *         receivers, or null if group commit sync is disabled.
+   */
+  GroupCommitSyncService getGroupCommitSyncService() {
+    return groupCommitSyncService;
+  }
+
   IOStreamPair connectToDN(DatanodeInfo datanodeID, int timeout,
                            ExtendedBlock block,
                            Token<BlockTokenIdentifier> blockToken)
@@ -24,6 +24,9 @@
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.hdfs.DFSUtilClient;
 import org.apache.hadoop.hdfs.ExtendedBlockId;
+import org.apache.hadoop.hdfs.net.MultiplexedConnection;
+import org.apache.hadoop.hdfs.net.MultiplexedConnection.Stream;
+import org.apache.hadoop.hdfs.net.MultiplexedConnection.StreamHandler;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.protocol.BlockChecksumOptions;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
@@ -84,6 +87,7 @@
 import java.net.SocketTimeoutException;
 import java.nio.channels.ClosedChannelException;
 import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.ShortCircuitFdResponse.DO_NOT_USE_RECEIPT_VERIFICATION;
@@ -115,10 +119,15 @@ class DataXceiver extends Receiver implements Runnable {
   private long opStartTime; //the start time of receiving an Op
   private final InputStream socketIn;
   private OutputStream socketOut;
+  // whether the streams of the peer have been wrapped by SASL.
+  private boolean saslNegotiated = false;
   private BlockReceiver blockReceiver = null;
   private final int ioFileBufferSize;
   private final int smallBufferSize;
   private Thread xceiver = null;
+  // whether run() has set up the peer, see parkStream().
+  private boolean started = false;
+  private int opsProcessed = 0;
 
   /**
    * Client Name used in previous operation. Not available on first request
@@ -218,45 +227,32 @@ private synchronized BlockReceiver getCurrentBlockReceiver() {
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
     Op op = null;
+    boolean parked = false;
 
     try {
       synchronized(this) {
         xceiver = Thread.currentThread();
       }
-      dataXceiverServer.addPeer(peer, Thread.currentThread(), this);
-      peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
-      InputStream input = socketIn;
-      try {
-        IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
-          socketIn, datanode.getXferAddress().getPort(),
-          datanode.getDatanodeId());
-        input = new BufferedInputStream(saslStreams.in,
-            smallBufferSize);
-        socketOut = saslStreams.out;
-      } catch (InvalidMagicNumberException imne) {
-        if (imne.isHandshake4Encryption()) {
-          LOG.info("Failed to read expected encryption handshake from client " +
-              "at {}. Perhaps the client " +
-              "is running an older version of Hadoop which does not support " +
-              "encryption", peer.getRemoteAddressString(), imne);
-        } else {
-          LOG.info("Failed to read expected SASL data transfer protection " +
-              "handshake from client at {}" +
-              ". Perhaps the client is running an older version of Hadoop " +
-              "which does not support SASL data transfer protection",
-              peer.getRemoteAddressString(), imne);
+      if (started) {
+        // A stream resuming on another thread of the pool.
+        dataXceiverServer.setPeerThread(peer, Thread.currentThread());
+      } else {
+        started = true;
+        dataXceiverServer.addPeer(peer, Thread.currentThread(), this);
+        if (!setUpStreams()) {
+          return;
         }
-        return;
       }
       
-      super.initialize(new DataInputStream(input));
-      
       // We process requests in a loop, and stay around for a short timeout.
       // This optimistic behaviour allows the other end to reuse connections.
       // Setting keepalive timeout to 0 disable this behavior.
       do {
+        if (shouldPark()) {
+          parked = true;
+          return;
+        }
         updateCurrentThreadName("Waiting for operation #" + (opsProcessed + 1));
 
         try {
@@ -322,14 +318,112 @@ public void run() {
       }
     } finally {
       collectThreadLocalStates();
-      LOG.debug("{}:Number of active connections is: {}",
-          datanode.getDisplayName(), datanode.getXceiverCount());
-      updateCurrentThreadName("Cleaning up");
-      if (peer != null) {
-        dataXceiverServer.closePeer(peer);
-        IOUtils.closeStream(in);
+      if (parked) {
+        // Last, as another thread may resume the stream right away.
+        parkStream();
+      } else {
+        LOG.debug("{}:Number of active connections is: {}",
+            datanode.getDisplayName(), datanode.getXceiverCount());
+        updateCurrentThreadName("Cleaning up");
+        if (peer != null) {
+          dataXceiverServer.closePeer(peer);
+          IOUtils.closeStream(in);
+        }
+      }
+    }
+  }
+
+  /**
+   * Whether to give the thread back to the pool until the client sends the
+   * next operation, rather than to block reading it.  Only streams of
+   * multiplexed connections do, unless SASL wraps them, as it may buffer
+   * the next operation where it cannot be seen.
+   */
+  private boolean shouldPark() throws IOException {
+    return peer instanceof Stream && !saslNegotiated && !peer.isClosed()
+        && in.available() == 0;
+  }
+
+  /**
+   * Serve the stream on the pool of the server once the client sends the
+   * next operation or closes it, or close it if the client takes as long
+   * as it would to use a connection again.
+   */
+  void parkStream() {
+    final Stream stream = (Stream) peer;
+    final long timeoutMs = opsProcessed == 0 ?
+        dnConf.socketTimeout : dnConf.socketKeepaliveTimeout;
+    final Runnable[] resume = new Runnable[1];
+    final ScheduledFuture<?> timeout = dataXceiverServer.scheduleStreamTimeout(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (stream.cancelWhenReadable(resume[0])) {
+              LOG.debug("Cached {} closing after {} ops.  " +
+                  "This message is usually benign.", peer, opsProcessed);
+              closeParkedStream();
+            }
+          }
+        }, timeoutMs);
+    resume[0] = new Runnable() {
+      @Override
+      public void run() {
+        if (timeout != null) {
+          timeout.cancel(false);
+        }
+        if (!dataXceiverServer.executeStream(DataXceiver.this)) {
+          // The DataNode is shutting down or too busy.
+          closeParkedStream();
+        }
+      }
+    };
+    stream.whenReadable(resume[0]);
+  }
+
+  private void closeParkedStream() {
+    if (started) {
+      dataXceiverServer.closePeer(peer);
+    } else {
+      IOUtils.cleanup(null, peer);
+    }
+    IOUtils.closeStream(in);
+  }
+
+  /**
+   * Negotiate SASL with the client, if need be, to set up the streams of the
+   * peer.
+   *
+   * @return false if the client failed the handshake.
+   */
+  private boolean setUpStreams() throws IOException {
+    peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
+    InputStream input = socketIn;
+    try {
+      IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
+        socketIn, datanode.getXferAddress().getPort(),
+        datanode.getDatanodeId());
+      input = new BufferedInputStream(saslStreams.in,
+          smallBufferSize);
+      saslNegotiated = saslStreams.out != socketOut;
+      socketOut = saslStreams.out;
+    } catch (InvalidMagicNumberException imne) {
+      if (imne.isHandshake4Encryption()) {
+        LOG.info("Failed to read expected encryption handshake from client " +
+            "at {}. Perhaps the client " +
+            "is running an older version of Hadoop which does not support " +
+            "encryption", peer.getRemoteAddressString(), imne);
+      } else {
+        LOG.info("Failed to read expected SASL data transfer protection " +
+            "handshake from client at {}" +
+            ". Perhaps the client is running an older version of Hadoop " +
+            "which does not support SASL data transfer protection",
+            peer.getRemoteAddressString(), imne);
       }
+      return false;
     }
+    
+    super.initialize(new DataInputStream(input));
+    return true;
   }
 
   /**
@@ -1055,6 +1149,58 @@ public void blockGroupChecksum(final StripedBlockInfo stripedBlockInfo,
     datanode.metrics.addBlockChecksumOp(elapsed());
   }
 
+  @Override
+  public void multiplex(final String clientName, final int streamWindow)
+      throws IOException {
+    previousOpClientName = clientName;
+    updateCurrentThreadName("Receiving multiplexed streams");
+    if (!dnConf.multiplexedConnectionsEnabled) {
+      sendResponse(ERROR_UNSUPPORTED, "This datanode has not been " +
+          "configured to accept multiplexed connections.");
+      return;
+    }
+    if (streamWindow <= 0) {
+      sendResponse(ERROR_INVALID, "Invalid stream window " + streamWindow);
+      return;
+    }
+    // Bound the memory buffered for the streams of the client.
+    final int window =
+        Math.min(streamWindow, dnConf.multiplexedConnectionsMaxStreamWindow);
+    BlockOpResponseProto.newBuilder()
+        .setStatus(SUCCESS)
+        .setStreamWindow(window)
+        .build()
+        .writeDelimitedTo(getOutputStream());
+    getOutputStream().flush();
+
+    // Each stream is served by a DataXceiver of its own, as if it were a
+    // connection, but one which only takes a thread of the pool of the
+    // server while it serves an operation.  This thread only receives the
+    // frames of all the streams, which do not negotiate SASL again.
+    final MultiplexedConnection connection = new MultiplexedConnection(peer,
+        in, getOutputStream(), window,
+        peer.hasSecureChannel() || saslNegotiated, new StreamHandler() {
+          @Override
+          public void accept(Stream stream) throws IOException {
+            // The streams do not have a thread each to count.
+            int curXceiverCount = dataXceiverServer.getNumPeers();
+            if (curXceiverCount > dataXceiverServer.maxXceiverCount) {
+              throw new IOException("Xceiver count " + curXceiverCount
+                  + " exceeds the limit of concurrent xcievers: "
+                  + dataXceiverServer.maxXceiverCount);
+            }
+            DataXceiver.create(stream, datanode, dataXceiverServer)
+                .parkStream();
+          }
+        });
+    try {
+      connection.receive();
+    } finally {
+      // Closing the connection also ends the loop of this DataXceiver.
+      connection.close();
+    }
+  }
+
   @Override
   public void copyBlock(final ExtendedBlock block,
       final Token<BlockTokenIdentifier> blockToken) throws IOException {
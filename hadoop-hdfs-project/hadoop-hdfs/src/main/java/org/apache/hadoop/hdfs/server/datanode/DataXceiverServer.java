@@ -21,6 +21,13 @@
 import java.net.SocketTimeoutException;
 import java.nio.channels.AsynchronousCloseException;
 import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
@@ -49,6 +56,16 @@ class DataXceiverServer implements Runnable {
   private final HashMap<Peer, Thread> peers = new HashMap<Peer, Thread>();
   private final HashMap<Peer, DataXceiver> peersXceiver = new HashMap<Peer, DataXceiver>();
   private boolean closed = false;
+
+  /**
+   * Serves the streams of multiplexed connections, which only take a thread
+   * while they serve an operation.  Operations are not queued for a thread,
+   * since one in progress may wait for the client to read what it sent, and
+   * the client for the response to another one.
+   */
+  private final ThreadPoolExecutor streamExecutor;
+  /** Times out the streams waiting for their next operation. */
+  private final ScheduledThreadPoolExecutor streamTimer;
   
   /**
    * Maximal number of concurrent xceivers per node.
@@ -135,6 +152,20 @@ synchronized void release() {
             DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT),
         conf.getInt(DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY,
             DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT));
+
+    this.streamExecutor = new ThreadPoolExecutor(0, maxXceiverCount,
+        60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            // In the thread group of the DataNode, so that the threads count
+            // as xceivers.
+            return new Daemon(datanode.threadGroup, r);
+          }
+        });
+    this.streamTimer =
+        new ScheduledThreadPoolExecutor(1, new Daemon.DaemonFactory());
+    this.streamTimer.setRemoveOnCancelPolicy(true);
   }
 
   @Override
@@ -211,6 +242,8 @@ public void run() {
     }
     // Close all peers.
     closeAllPeers();
+    streamExecutor.shutdownNow();
+    streamTimer.shutdownNow();
   }
 
   void kill() {
@@ -235,6 +268,42 @@ synchronized void addPeer(Peer peer, Thread t, DataXceiver xceiver)
     datanode.metrics.incrDataNodeActiveXceiversCount();
   }
 
+  /** Record which thread is serving a stream of a multiplexed connection. */
+  synchronized void setPeerThread(Peer peer, Thread t) {
+    if (peers.containsKey(peer)) {
+      peers.put(peer, t);
+    }
+  }
+
+  /**
+   * Serve an operation on a stream of a multiplexed connection.
+   *
+   * @return false if the server is shutting down, or as many operations
+   *         are in progress as it may serve.
+   */
+  boolean executeStream(DataXceiver xceiver) {
+    try {
+      streamExecutor.execute(xceiver);
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Run a task once a stream of a multiplexed connection has waited too
+   * long for its next operation.
+   *
+   * @return null if the server is shutting down.
+   */
+  ScheduledFuture<?> scheduleStreamTimeout(Runnable task, long timeoutMs) {
+    try {
+      return streamTimer.schedule(task, timeoutMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      return null;
+    }
+  }
+
   synchronized void closePeer(Peer peer) {
     peers.remove(peer);
     peersXceiver.remove(peer);
@@ -298,6 +367,12 @@ synchronized int getNumPeersXceiver() {
     return peersXceiver.size();
   }
 
+  /** Return the number of threads serving streams right now. */
+  @VisibleForTesting
+  int getNumActiveStreamThreads() {
+    return streamExecutor.getActiveCount();
+  }
+
   @VisibleForTesting
   PeerServer getPeerServer() {
     return peerServer;
@@ -0,0 +1,285 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.util.Daemon;
+import org.slf4j.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Performs the fsyncs requested by hsync on behalf of {@link BlockReceiver}s,
+ * using a small pool of threads per volume.
+ * <p>
+ * Each writer has at most one sync in progress. Requests that a writer makes
+ * while its sync is in progress are queued and serviced together by its next
+ * sync, since the writer flushes its buffers before submitting each request.
+ * The syncs of different writers run concurrently. When all the threads of
+ * the volume are busy, the sync is done by the submitting thread, as it is
+ * without this service. Handing the fsync to this service lets the receiver
+ * thread carry on with reading, verifying, mirroring and writing the
+ * following packets, while the ack of the synced packet is held back until
+ * the sync has completed.
+ */
+class GroupCommitSyncService {
+  public static final Logger LOG = DataNode.LOG;
+
+  // Keep-alive time of the idle sync threads
+  private static final long THREADS_KEEP_ALIVE_SECONDS = 60;
+
+  /** The work done to make a writer's flushed data durable. */
+  interface SyncOp {
+    void sync() throws IOException;
+  }
+
+  /**
+   * A pending sync. Completed by a sync thread of the volume, waited on by
+   * the packet responder before acking the packet.
+   */
+  static class SyncRequest {
+    private final SyncOp op;
+    private final long timeoutMs;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile IOException error;
+
+    SyncRequest(SyncOp op, long timeoutMs) {
+      this.op = op;
+      this.timeoutMs = timeoutMs;
+    }
+
+    private void complete(IOException e) {
+      error = e;
+      done.countDown();
+    }
+
+    /**
+     * Wait for the sync to complete.
+     * @throws IOException if the sync failed, did not complete within the
+     *                     timeout or the wait was interrupted.
+     */
+    void waitForCompletion() throws IOException {
+      try {
+        if (!done.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+          throw new IOException("Sync did not complete within " + timeoutMs
+              + " ms");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for sync");
+      }
+      if (error != null) {
+        throw error;
+      }
+    }
+  }
+
+  private final Map<String, VolumeSyncer> syncers = new ConcurrentHashMap<>();
+  private final long timeoutMs;
+  private final int threadsPerVolume;
+  private volatile boolean running = true;
+
+  /**
+   * @param timeoutMs how long to wait for a sync to complete.
+   * @param threadsPerVolume the maximum number of syncs running at the same
+   *                         time on one volume.
+   */
+  GroupCommitSyncService(long timeoutMs, int threadsPerVolume) {
+    this.timeoutMs = timeoutMs;
+    this.threadsPerVolume = threadsPerVolume;
+  }
+
+  /**
+   * Queue a sync of the data flushed so far by the given writer.
+   *
+   * @param volume the volume the writer's replica lives on.
+   * @param owner identifies the writer; requests with the same owner that
+   *              are queued behind its sync in progress share one sync.
+   * @param op performs the sync.
+   * @return the request, which completes once the sync is done.
+   */
+  SyncRequest submit(FsVolumeSpi volume, Object owner, SyncOp op)
+      throws IOException {
+    final SyncRequest request = new SyncRequest(op, timeoutMs);
+    getSyncer(volume).add(owner, request);
+    return request;
+  }
+
+  private VolumeSyncer getSyncer(FsVolumeSpi volume) throws IOException {
+    final String storageId = volume.getStorageID();
+    VolumeSyncer syncer = syncers.get(storageId);
+    if (syncer == null) {
+      synchronized (this) {
+        if (!running) {
+          throw new IOException("GroupCommitSyncService is shut down");
+        }
+        syncer = syncers.get(storageId);
+        if (syncer == null) {
+          syncer = new VolumeSyncer(volume);
+          syncers.put(storageId, syncer);
+        }
+      }
+    }
+    return syncer;
+  }
+
+  @VisibleForTesting
+  int getNumSyncers() {
+    return syncers.size();
+  }
+
+  /**
+   * Stop all the sync threads. Requests that are still queued fail.
+   */
+  synchronized void shutdown() {
+    running = false;
+    for (VolumeSyncer syncer : syncers.values()) {
+      syncer.close();
+    }
+    for (VolumeSyncer syncer : syncers.values()) {
+      try {
+        syncer.executor.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    syncers.clear();
+  }
+
+  /** Services the sync requests of one volume. */
+  private class VolumeSyncer {
+    private final FsVolumeSpi volume;
+    private final ThreadPoolExecutor executor;
+    /** The writers with a sync in progress and their queued requests. */
+    private final Map<Object, List<SyncRequest>> pending = new HashMap<>();
+    /** Set under the lock, so that no request is queued after shutdown. */
+    private boolean closed = false;
+
+    VolumeSyncer(final FsVolumeSpi volume) {
+      this.volume = volume;
+      ThreadFactory threadFactory = new ThreadFactory() {
+        private int counter = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+          Thread t = new Daemon(r);
+          t.setName("GroupCommitSync #" + counter++ + " for volume "
+              + volume.getBaseURI());
+          return t;
+        }
+      };
+      // No queue: when all the threads are busy, the submitting thread syncs.
+      this.executor = new ThreadPoolExecutor(0, threadsPerVolume,
+          THREADS_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(), threadFactory);
+    }
+
+    void add(final Object owner, SyncRequest request) throws IOException {
+      synchronized (this) {
+        if (closed) {
+          throw new IOException("GroupCommitSyncService is shut down");
+        }
+        List<SyncRequest> requests = pending.get(owner);
+        if (requests != null) {
+          // Serviced by the next sync of the writer.
+          requests.add(request);
+          return;
+        }
+        requests = new ArrayList<>();
+        requests.add(request);
+        pending.put(owner, requests);
+      }
+      final Runnable task = new Runnable() {
+        @Override
+        public void run() {
+          syncAll(owner);
+        }
+      };
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        task.run();
+      }
+    }
+
+    /** Sync until no more requests of the writer are queued. */
+    private void syncAll(Object owner) {
+      while (true) {
+        final List<SyncRequest> requests;
+        synchronized (this) {
+          requests = pending.get(owner);
+          if (requests == null) {
+            // Failed by shutdown.
+            return;
+          }
+          if (requests.isEmpty()) {
+            pending.remove(owner);
+            return;
+          }
+          pending.put(owner, new ArrayList<SyncRequest>());
+        }
+        // The last request covers everything flushed by the earlier ones.
+        IOException error = null;
+        try {
+          requests.get(requests.size() - 1).op.sync();
+        } catch (IOException e) {
+          error = e;
+        } catch (Throwable t) {
+          error = new IOException("Failed to sync on " + volume, t);
+        }
+        for (SyncRequest r : requests) {
+          r.complete(error);
+        }
+        if (LOG.isDebugEnabled() && requests.size() > 1) {
+          LOG.debug("Serviced " + requests.size() + " sync requests of "
+              + owner + " with one sync on " + volume);
+        }
+      }
+    }
+
+    void close() {
+      final List<SyncRequest> remaining = new ArrayList<>();
+      synchronized (this) {
+        closed = true;
+        for (List<SyncRequest> requests : pending.values()) {
+          remaining.addAll(requests);
+        }
+        pending.clear();
+      }
+      executor.shutdownNow();
+      for (SyncRequest r : remaining) {
+        r.complete(new IOException("GroupCommitSyncService is shut down"));
+      }
+    }
+  }
+}
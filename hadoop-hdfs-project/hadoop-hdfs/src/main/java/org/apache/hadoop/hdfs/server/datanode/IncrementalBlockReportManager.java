@@ -24,6 +24,7 @@
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hdfs.protocol.Block;
@@ -136,20 +137,46 @@ int putMissing(ReceivedDeletedBlockInfo[] rdbis) {
   /** The time interval between two IBRs. */
   private final long ibrInterval;
 
+  /**
+   * Send an IBR as soon as this many blocks are pending, regardless of the
+   * interval; 0 to disable.
+   */
+  private final int maxBlocks;
+
+  /**
+   * If set, received blocks wait for the next heartbeat instead of being
+   * reported as soon as the IBR interval allows.
+   */
+  private final boolean piggybackOnHeartbeat;
+
+  /** If set, the pending IBR is sent without waiting for a heartbeat. */
+  private volatile boolean forceSend = false;
+
+  /** The number of blocks in the pending IBRs. */
+  private final AtomicInteger numPendingBlocks = new AtomicInteger();
+
   /** The timestamp of the last IBR. */
   private volatile long lastIBR;
   private DataNodeMetrics dnMetrics;
 
   IncrementalBlockReportManager(
       final long ibrInterval,
+      final int maxBlocks,
+      final boolean piggybackOnHeartbeat,
       final DataNodeMetrics dnMetrics) {
     this.ibrInterval = ibrInterval;
+    this.maxBlocks = maxBlocks;
+    this.piggybackOnHeartbeat = piggybackOnHeartbeat;
     this.lastIBR = monotonicNow() - ibrInterval;
     this.dnMetrics = dnMetrics;
   }
 
   boolean sendImmediately() {
-    return readyToSend && monotonicNow() - ibrInterval >= lastIBR;
+    if (maxBlocks > 0 && numPendingBlocks.get() >= maxBlocks) {
+      return true;
+    }
+    return readyToSend && (!piggybackOnHeartbeat || forceSend)
+        && monotonicNow() - ibrInterval >= lastIBR;
   }
 
   synchronized void waitTillNextIBR(long waitTime) {
@@ -178,14 +205,17 @@ private synchronized StorageReceivedDeletedBlocks[] generateIBRs() {
 
     /* set blocks to zero */
     this.dnMetrics.resetBlocksInPendingIBR();
+    numPendingBlocks.set(0);
 
     readyToSend = false;
+    forceSend = false;
     return reports.toArray(new StorageReceivedDeletedBlocks[reports.size()]);
   }
 
   private synchronized void putMissing(StorageReceivedDeletedBlocks[] reports) {
     for (StorageReceivedDeletedBlocks r : reports) {
-      pendingIBRs.get(r.getStorage()).putMissing(r.getBlocks());
+      numPendingBlocks.addAndGet(
+          pendingIBRs.get(r.getStorage()).putMissing(r.getBlocks()));
     }
     if (reports.length > 0) {
       readyToSend = true;
@@ -249,10 +279,12 @@ synchronized void addRDBI(ReceivedDeletedBlockInfo rdbi,
     // There may only be one such entry.
     for (PerStorageIBR perStorage : pendingIBRs.values()) {
       if (perStorage.remove(rdbi.getBlock()) != null) {
+        numPendingBlocks.decrementAndGet();
         break;
       }
     }
     getPerStorageIBR(storage).put(rdbi);
+    numPendingBlocks.incrementAndGet();
   }
 
   synchronized void notifyNamenodeBlock(ReceivedDeletedBlockInfo rdbi,
@@ -264,15 +296,20 @@ synchronized void notifyNamenodeBlock(ReceivedDeletedBlockInfo rdbi,
       // the report will be sent out in the next heartbeat.
       readyToSend = true;
     } else if (status == BlockStatus.RECEIVED_BLOCK) {
-      // the report is sent right away.
+      // the report is sent right away, or with the next heartbeat if
+      // piggybacking.
       triggerIBR(isOnTransientStorage);
     }
+    if (maxBlocks > 0 && numPendingBlocks.get() >= maxBlocks) {
+      notifyAll();
+    }
   }
 
   synchronized void triggerIBR(boolean force) {
     readyToSend = true;
     if (force) {
       lastIBR = monotonicNow() - ibrInterval;
+      forceSend = true;
     }
     if (sendImmediately()) {
       notifyAll();
@@ -294,6 +331,12 @@ synchronized void triggerDeletionReportForTests() {
 
   void clearIBRs() {
     pendingIBRs.clear();
+    numPendingBlocks.set(0);
+  }
+
+  @VisibleForTesting
+  int getNumPendingBlocks() {
+    return numPendingBlocks.get();
   }
 
   @VisibleForTesting
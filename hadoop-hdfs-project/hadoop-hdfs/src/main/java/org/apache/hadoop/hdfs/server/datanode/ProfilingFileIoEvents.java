@@ -101,7 +101,10 @@ public void afterFileIo(@Nullable FsVolumeSpi volume,
       DataNodeVolumeMetrics metrics = getVolumeMetrics(volume);
       if (metrics != null) {
         long latency = Time.monotonicNow() - begin;
-        metrics.addDataFileIoLatency(latency);
+        // The volume scanner backs off when the volume is loaded, so its own
+        // reads are not counted as load.
+        metrics.addDataFileIoLatency(latency,
+            !(Thread.currentThread() instanceof VolumeScanner));
         switch (op) {
         case SYNC:
           metrics.addSyncIoLatency(latency);
@@ -21,6 +21,7 @@
 import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -36,8 +37,10 @@
 import org.apache.hadoop.hdfs.server.datanode.BlockScanner.Conf;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi.BlockIterator;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.DataNodeVolumeMetrics;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.hdfs.util.Canceler;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Time;
@@ -67,6 +70,24 @@ public class VolumeScanner extends Thread {
    */
   private final static String BLOCK_ITERATOR_NAME = "scanner";
 
+  /**
+   * How often the scan rate is adjusted to the load of the volume while a
+   * block is being scanned.
+   */
+  private final static long SCAN_RATE_UPDATE_INTERVAL_MS = 1000;
+
+  /**
+   * How old the volume's latency average may be before it is no longer
+   * considered a sign of foreground load.
+   */
+  private final static long MAX_LATENCY_AGE_MS = 30000;
+
+  /**
+   * The fraction of the configured scan rate below which a busy volume is
+   * never throttled, so that scans still make progress.
+   */
+  private final static int MAX_BACKOFF_FACTOR = 16;
+
   /**
    * The configuration.
    */
@@ -108,10 +129,16 @@ void setConf(Conf conf) {
    */
   private long scannedBytesSum = 0;
 
+  /**
+   * The throttler shared by the scanners of all volumes of the DataNode, or
+   * null if there is no DataNode wide scan budget.
+   */
+  private final DataTransferThrottler datanodeThrottler;
+
   /**
    * The throttler to use with BlockSender objects.
    */
-  private final DataTransferThrottler throttler = new DataTransferThrottler(1);
+  private final ScanThrottler throttler = new ScanThrottler();
 
   /**
    * The null output stream to use with BlockSender objects.
@@ -134,6 +161,14 @@ void setConf(Conf conf) {
   private final LinkedHashSet<ExtendedBlock> suspectBlocks =
       new LinkedHashSet<ExtendedBlock>();
 
+  /**
+   * Blocks which were written recently.
+   * The scanner scans these blocks after the suspect blocks, and ahead of
+   * the block iterators.
+   */
+  private final LinkedHashSet<ExtendedBlock> recentBlocks =
+      new LinkedHashSet<ExtendedBlock>();
+
   /**
    * Blocks which were suspect which we have scanned.
    * This is used to avoid scanning the same suspect block over and over.
@@ -178,6 +213,8 @@ static class Statistics {
     long scanErrorsSinceRestart = 0;
     long nextBlockPoolScanStartMs = -1;
     long blockPoolPeriodEndsMs = -1;
+    // Set by the scanner thread without holding the lock.
+    volatile long scanBytesPerSec = 0;
     ExtendedBlock lastBlockScanned = null;
     boolean eof = false;
 
@@ -192,6 +229,7 @@ static class Statistics {
       this.scanErrorsSinceRestart = other.scanErrorsSinceRestart;
       this.nextBlockPoolScanStartMs = other.nextBlockPoolScanStartMs;
       this.blockPoolPeriodEndsMs = other.blockPoolPeriodEndsMs;
+      this.scanBytesPerSec = other.scanBytesPerSec;
       this.lastBlockScanned = other.lastBlockScanned;
       this.eof = other.eof;
     }
@@ -209,6 +247,7 @@ public String toString() {
           append(", scanErrorsSinceRestart=").append(scanErrorsSinceRestart).
           append(", nextBlockPoolScanStartMs=").append(nextBlockPoolScanStartMs).
           append(", blockPoolPeriodEndsMs=").append(blockPoolPeriodEndsMs).
+          append(", scanBytesPerSec=").append(scanBytesPerSec).
           append(", lastBlockScanned=").append(lastBlockScanned).
           append(", eof=").append(eof).
           append("}").toString();
@@ -247,6 +286,8 @@ public void printStats(StringBuilder p) {
             positiveMsToHours(stats.blockPoolPeriodEndsMs -
                 Time.now())));
       }
+      p.append(String.format("Current scan rate (bytes/sec)     : %57d%n",
+          stats.scanBytesPerSec));
       p.append(String.format("Last block scanned                : %57s%n",
           ((stats.lastBlockScanned == null) ? "none" :
           stats.lastBlockScanned.toString())));
@@ -299,9 +340,11 @@ public void handle(ExtendedBlock block, IOException e) {
     }
   }
 
-  VolumeScanner(Conf conf, DataNode datanode, FsVolumeReference ref) {
+  VolumeScanner(Conf conf, DataNode datanode, FsVolumeReference ref,
+      DataTransferThrottler datanodeThrottler) {
     this.conf = conf;
     this.datanode = datanode;
+    this.datanodeThrottler = datanodeThrottler;
     this.metrics = datanode.getMetrics();
     this.ref = ref;
     this.volume = ref.getVolume();
@@ -405,16 +448,79 @@ private synchronized long findNextUsableBlockIter() {
     return minTimeoutMs;
   }
 
+  /**
+   * Calculate the rate to scan at.  While the recent file I/O latency of the
+   * volume exceeds the backoff latency, the target rate is reduced in
+   * proportion, but not below 1/MAX_BACKOFF_FACTOR of it.
+   */
+  @VisibleForTesting
+  static long calculateScanBytesPerSec(long targetBytesPerSec,
+      long backoffLatencyMs, double recentLatencyMs) {
+    if (backoffLatencyMs <= 0 || recentLatencyMs <= backoffLatencyMs) {
+      return targetBytesPerSec;
+    }
+    long scaled = (long) (targetBytesPerSec * backoffLatencyMs /
+        recentLatencyMs);
+    return Math.max(scaled,
+        Math.max(targetBytesPerSec / MAX_BACKOFF_FACTOR, 1L));
+  }
+
+  private long getScanBytesPerSec() {
+    double recentLatencyMs = 0;
+    if (conf.backoffLatencyMs > 0) {
+      DataNodeVolumeMetrics volumeMetrics = volume.getMetrics();
+      if (volumeMetrics != null) {
+        recentLatencyMs =
+            volumeMetrics.getRecentDataFileIoLatency(MAX_LATENCY_AGE_MS);
+      }
+    }
+    return calculateScanBytesPerSec(conf.targetBytesPerSec,
+        conf.backoffLatencyMs, recentLatencyMs);
+  }
+
+  /**
+   * Throttles scans to the rate of this volume, which follows the load on
+   * the volume, and to the DataNode wide scan budget, if there is one.
+   */
+  private class ScanThrottler extends DataTransferThrottler {
+    private long lastUpdateMs = 0;
+
+    ScanThrottler() {
+      super(1);
+    }
+
+    synchronized void updateBandwidth() {
+      long bytesPerSec = getScanBytesPerSec();
+      if (bytesPerSec != getBandwidth()) {
+        LOG.debug("{}: scanning at {} bytes/sec", VolumeScanner.this,
+            bytesPerSec);
+        setBandwidth(bytesPerSec);
+      }
+      lastUpdateMs = Time.monotonicNow();
+      stats.scanBytesPerSec = bytesPerSec;
+    }
+
+    @Override
+    public synchronized void throttle(long numOfBytes, Canceler canceler) {
+      if (Time.monotonicNow() - lastUpdateMs >= SCAN_RATE_UPDATE_INTERVAL_MS) {
+        updateBandwidth();
+      }
+      super.throttle(numOfBytes, canceler);
+      if (datanodeThrottler != null) {
+        datanodeThrottler.throttle(numOfBytes, canceler);
+      }
+    }
+  }
+
   /**
    * Scan a block.
    *
    * @param cblock               The block to scan.
-   * @param bytesPerSec          The bytes per second to scan at.
    *
    * @return                     The length of the block that was scanned, or
    *                               -1 if the block could not be scanned.
    */
-  private long scanBlock(ExtendedBlock cblock, long bytesPerSec) {
+  private long scanBlock(ExtendedBlock cblock) {
     // 'cblock' has a valid blockId and block pool id, but we don't yet know the
     // genstamp the block is supposed to have.  Ask the FsDatasetImpl for this
     // information.
@@ -444,7 +550,7 @@ private long scanBlock(ExtendedBlock cblock, long bytesPerSec) {
       blockSender = new BlockSender(block, 0, -1,
           false, true, true, datanode, null,
           CachingStrategy.newDropBehind());
-      throttler.setBandwidth(bytesPerSec);
+      throttler.updateBandwidth();
       long bytesRead = blockSender.sendBlock(nullStream, null, throttler);
       resultHandler.handle(block, null);
       metrics.incrBlocksVerified();
@@ -487,8 +593,9 @@ static boolean calculateShouldScan(String storageId, long targetBytesPerSec,
   /**
    * Run an iteration of the VolumeScanner loop.
    *
-   * @param suspectBlock   A suspect block which we should scan, or null to
-   *                       scan the next regularly scheduled block.
+   * @param suspectBlock   A suspect or recently written block which we
+   *                       should scan, or null to scan the next regularly
+   *                       scheduled block.
    *
    * @return     The number of milliseconds to delay before running the loop
    *               again, or 0 to re-run the loop immediately.
@@ -555,7 +662,7 @@ private long runLoop(ExtendedBlock suspectBlock) {
           saveBlockIterator(curBlockIter);
         }
       }
-      bytesScanned = scanBlock(block, conf.targetBytesPerSec);
+      bytesScanned = scanBlock(block);
       if (bytesScanned >= 0) {
         scannedBytesSum += bytesScanned;
         scannedBytes[(int)(curMinute % MINUTES_PER_HOUR)] += bytesScanned;
@@ -590,16 +697,20 @@ private long runLoop(ExtendedBlock suspectBlock) {
 
   /**
    * If there are elements in the suspectBlocks list, removes
-   * and returns the first one.  Otherwise, returns null.
+   * and returns the first one.  Otherwise, does the same for the
+   * recentBlocks list, or returns null if both are empty.
    */
   private synchronized ExtendedBlock popNextSuspectBlock() {
-    Iterator<ExtendedBlock> iter = suspectBlocks.iterator();
-    if (!iter.hasNext()) {
-      return null;
+    for (LinkedHashSet<ExtendedBlock> blocks :
+        Arrays.asList(suspectBlocks, recentBlocks)) {
+      Iterator<ExtendedBlock> iter = blocks.iterator();
+      if (iter.hasNext()) {
+        ExtendedBlock block = iter.next();
+        iter.remove();
+        return block;
+      }
     }
-    ExtendedBlock block = iter.next();
-    iter.remove();
-    return block;
+    return null;
   }
 
   @Override
@@ -691,6 +802,28 @@ public synchronized void markSuspectBlock(ExtendedBlock block) {
     notify(); // wake scanner thread.
   }
 
+  /**
+   * Queue a recently written block to be scanned ahead of the block
+   * iterators.  If the queue is full, the oldest block is dropped from it;
+   * it will still be verified by the regular scan.
+   */
+  public synchronized void markRecentlyWrittenBlock(ExtendedBlock block) {
+    if (stopping || conf.maxRecentBlocks <= 0) {
+      return;
+    }
+    if (!recentBlocks.add(block)) {
+      return;
+    }
+    while (recentBlocks.size() > conf.maxRecentBlocks) {
+      Iterator<ExtendedBlock> iter = recentBlocks.iterator();
+      iter.next();
+      iter.remove();
+    }
+    LOG.trace("{}: Scheduling recently written block {} for scanning.",
+        this, block);
+    notify(); // wake scanner thread.
+  }
+
   /**
    * Allow the scanner to scan the given block pool.
    *
@@ -17,19 +17,32 @@
  */
 package org.apache.hadoop.hdfs.server.datanode.erasurecode;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtilClient;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.protocol.BlockECReconstructionCommand.BlockECReconstructionInfo;
+import org.apache.hadoop.hdfs.util.StripedBlockUtil;
 import org.apache.hadoop.util.Daemon;
 import org.slf4j.Logger;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -50,8 +63,18 @@ public final class ErasureCodingWorker {
   private final Configuration conf;
   private final float xmitWeight;
 
+  private final boolean pipelineEnabled;
+  private final int maxTasksPerVolume;
+
   private ThreadPoolExecutor stripedReconstructionPool;
   private ThreadPoolExecutor stripedReadPool;
+  private ThreadPoolExecutor stripedWritePool;
+
+  // Reconstructions held back because one of their local volumes is busy,
+  // in the order they were received.
+  private final LinkedList<VolumeScheduledTask> pendingTasks =
+      new LinkedList<>();
+  private final Map<String, Integer> runningTasksPerVolume = new HashMap<>();
 
   public ErasureCodingWorker(Configuration conf, DataNode datanode) {
     this.datanode = datanode;
@@ -65,10 +88,20 @@ public ErasureCodingWorker(Configuration conf, DataNode datanode) {
             DFSConfigKeys.DFS_DN_EC_RECONSTRUCTION_XMITS_WEIGHT_KEY +
             ", it can not be negative value (" + this.xmitWeight + ").");
 
+    this.pipelineEnabled = conf.getBoolean(
+        DFSConfigKeys.DFS_DN_EC_RECONSTRUCTION_PIPELINE_ENABLED_KEY,
+        DFSConfigKeys.DFS_DN_EC_RECONSTRUCTION_PIPELINE_ENABLED_DEFAULT);
+    this.maxTasksPerVolume = conf.getInt(
+        DFSConfigKeys.DFS_DN_EC_RECONSTRUCTION_VOLUME_MAX_TASKS_KEY,
+        DFSConfigKeys.DFS_DN_EC_RECONSTRUCTION_VOLUME_MAX_TASKS_DEFAULT);
+
     initializeStripedReadThreadPool();
     initializeStripedBlkReconstructionThreadPool(conf.getInt(
         DFSConfigKeys.DFS_DN_EC_RECONSTRUCTION_THREADS_KEY,
         DFSConfigKeys.DFS_DN_EC_RECONSTRUCTION_THREADS_DEFAULT));
+    if (pipelineEnabled) {
+      initializeStripedWriteThreadPool();
+    }
   }
 
   private void initializeStripedReadThreadPool() {
@@ -111,6 +144,15 @@ private void initializeStripedBlkReconstructionThreadPool(int numThreads) {
     stripedReconstructionPool.allowCoreThreadTimeOut(true);
   }
 
+  private void initializeStripedWriteThreadPool() {
+    LOG.debug("Using pipelined striped block reconstruction");
+    // Each reconstruction has at most one transfer in flight, so the pool
+    // never grows beyond the number of running reconstructions.
+    stripedWritePool = DFSUtilClient.getThreadPoolExecutor(1,
+        Integer.MAX_VALUE, 60, "stripedWrite-", true);
+    stripedWritePool.allowCoreThreadTimeOut(true);
+  }
+
   /**
    * Handles the Erasure Coding reconstruction work commands.
    *
@@ -140,7 +182,7 @@ public void processErasureCodingTasks(
           //      an unbounded number of tasks in the executor's task queue.
           xmitsSubmitted = Math.max((int)(task.getXmits() * xmitWeight), 1);
           getDatanode().incrementXmitsInProcess(xmitsSubmitted);
-          stripedReconstructionPool.submit(task);
+          scheduleReconstruction(task, getLocalStorageIds(stripedReconInfo));
         } else {
           LOG.warn("No missing internal block. Skip reconstruction for task:{}",
               reconInfo);
@@ -153,6 +195,131 @@ public void processErasureCodingTasks(
     }
   }
 
+  /**
+   * Find the local volumes a reconstruction reads from or writes to, so that
+   * reconstructions can be spread over the volumes of this datanode.
+   */
+  private Set<String> getLocalStorageIds(StripedReconstructionInfo info) {
+    if (maxTasksPerVolume <= 0) {
+      return Collections.emptySet();
+    }
+    final String localUuid = datanode.getDatanodeUuid();
+    final Set<String> storageIds = new HashSet<>();
+    final DatanodeInfo[] sources = info.getSources();
+    for (int i = 0; i < sources.length; i++) {
+      if (sources[i] != null
+          && localUuid.equals(sources[i].getDatanodeUuid())) {
+        FsVolumeSpi volume = datanode.getFSDataset().getVolume(
+            StripedBlockUtil.constructInternalBlock(info.getBlockGroup(),
+                info.getEcPolicy(), info.getLiveIndices()[i]));
+        if (volume != null) {
+          storageIds.add(volume.getStorageID());
+        }
+      }
+    }
+    final DatanodeInfo[] targets = info.getTargets();
+    for (int i = 0; i < targets.length; i++) {
+      if (localUuid.equals(targets[i].getDatanodeUuid())) {
+        storageIds.add(info.getTargetStorageIds()[i]);
+      }
+    }
+    return storageIds;
+  }
+
+  /**
+   * Run a reconstruction once none of the given local volumes has
+   * {@link DFSConfigKeys#DFS_DN_EC_RECONSTRUCTION_VOLUME_MAX_TASKS_KEY}
+   * reconstructions running against it. Reconstructions which do not touch a
+   * busy volume are not held up by those which do.
+   */
+  @VisibleForTesting
+  void scheduleReconstruction(Runnable task, Set<String> storageIds) {
+    if (maxTasksPerVolume <= 0 || storageIds.isEmpty()) {
+      stripedReconstructionPool.submit(task);
+      return;
+    }
+    synchronized (this) {
+      pendingTasks.add(new VolumeScheduledTask(task, storageIds));
+      dispatchPendingTasks();
+    }
+  }
+
+  private synchronized void dispatchPendingTasks() {
+    if (stripedReconstructionPool.isShutdown()) {
+      return;
+    }
+    for (Iterator<VolumeScheduledTask> it = pendingTasks.iterator();
+         it.hasNext();) {
+      final VolumeScheduledTask pending = it.next();
+      if (!canRun(pending.storageIds)) {
+        continue;
+      }
+      it.remove();
+      for (String storageId : pending.storageIds) {
+        runningTasksPerVolume.merge(storageId, 1, Integer::sum);
+      }
+      stripedReconstructionPool.submit(pending);
+    }
+  }
+
+  private boolean canRun(Set<String> storageIds) {
+    for (String storageId : storageIds) {
+      if (runningTasksPerVolume.getOrDefault(storageId, 0)
+          >= maxTasksPerVolume) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private synchronized void taskFinished(Set<String> storageIds) {
+    for (String storageId : storageIds) {
+      runningTasksPerVolume.computeIfPresent(storageId,
+          (id, running) -> running > 1 ? running - 1 : null);
+    }
+    dispatchPendingTasks();
+  }
+
+  @VisibleForTesting
+  synchronized int getNumPendingTasks() {
+    return pendingTasks.size();
+  }
+
+  /**
+   * A reconstruction together with the local volumes it uses.
+   */
+  private final class VolumeScheduledTask implements Runnable {
+    private final Runnable task;
+    private final Set<String> storageIds;
+
+    VolumeScheduledTask(Runnable task, Set<String> storageIds) {
+      this.task = task;
+      this.storageIds = storageIds;
+    }
+
+    @Override
+    public void run() {
+      try {
+        task.run();
+      } finally {
+        taskFinished(storageIds);
+      }
+    }
+  }
+
+  boolean isPipelineEnabled() {
+    return pipelineEnabled;
+  }
+
+  /**
+   * Send decoded data to the targets in the background, while the
+   * reconstruction goes on reading from its sources.
+   */
+  Future<Void> submitTransfer(Callable<Void> transfer) {
+    Preconditions.checkState(pipelineEnabled);
+    return stripedWritePool.submit(transfer);
+  }
+
   DataNode getDatanode() {
     return datanode;
   }
@@ -168,5 +335,8 @@ CompletionService<Void> createReadService() {
   public void shutDown() {
     stripedReconstructionPool.shutdown();
     stripedReadPool.shutdown();
+    if (stripedWritePool != null) {
+      stripedWritePool.shutdown();
+    }
   }
 }
@@ -18,7 +18,10 @@
 package org.apache.hadoop.hdfs.server.datanode.erasurecode;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hdfs.server.datanode.DataNodeFaultInjector;
@@ -50,6 +53,7 @@ boolean hasValidTargets() {
 
   @Override
   public void run() {
+    final long startMs = Time.monotonicNow();
     try {
       initDecoderIfNecessary();
 
@@ -61,6 +65,13 @@ public void run() {
 
       stripedWriter.endTargetBlocks();
 
+      final long elapsedMs = Math.max(Time.monotonicNow() - startMs, 1);
+      final long bytesPerSec = getBytesWritten() * 1000 / elapsedMs;
+      getDatanode().getMetrics().addECReconstructionThroughput(bytesPerSec);
+      LOG.info("Reconstructed striped block group {}: {} bytes read, {} bytes"
+          + " written in {} ms ({} bytes/s)", getBlockGroup(), getBytesRead(),
+          getBytesWritten(), elapsedMs, bytesPerSec);
+
       // Currently we don't check the acks for packets, this is similar as
       // block replication.
     } catch (Throwable e) {
@@ -81,38 +92,93 @@ public void run() {
 
   @Override
   void reconstruct() throws IOException {
-    while (getPositionInBlock() < getMaxTargetLength()) {
-      DataNodeFaultInjector.get().stripedBlockReconstruction();
-      long remaining = getMaxTargetLength() - getPositionInBlock();
-      final int toReconstructLen =
-          (int) Math.min(getStripedReader().getBufferSize(), remaining);
-
-      long start = Time.monotonicNow();
-      // step1: read from minimum source DNs required for reconstruction.
-      // The returned success list is the source DNs we do real read from
-      getStripedReader().readMinimumSources(toReconstructLen);
-      long readEnd = Time.monotonicNow();
-
-      // step2: decode to reconstruct targets
-      reconstructTargets(toReconstructLen);
-      long decodeEnd = Time.monotonicNow();
-
-      // step3: transfer data
-      if (stripedWriter.transferData2Targets() == 0) {
-        String error = "Transfer failed for all targets.";
-        throw new IOException(error);
+    final DataNodeMetrics metrics = getDatanode().getMetrics();
+    final boolean pipelined = isPipelineEnabled();
+    Future<Void> pendingTransfer = null;
+    try {
+      while (getPositionInBlock() < getMaxTargetLength()) {
+        DataNodeFaultInjector.get().stripedBlockReconstruction();
+        long remaining = getMaxTargetLength() - getPositionInBlock();
+        final int toReconstructLen =
+            (int) Math.min(getStripedReader().getBufferSize(), remaining);
+
+        long start = Time.monotonicNow();
+        // step1: read from minimum source DNs required for reconstruction.
+        // The returned success list is the source DNs we do real read from.
+        // When pipelined, this overlaps with the transfer of the last round.
+        getStripedReader().readMinimumSources(toReconstructLen);
+        long readEnd = Time.monotonicNow();
+        metrics.incrECReconstructionReadTime(readEnd - start);
+
+        // The target buffers are decoded into again, so the last round must
+        // have been sent.
+        if (pendingTransfer != null) {
+          waitForTransfer(pendingTransfer);
+          pendingTransfer = null;
+        }
+
+        // step2: decode to reconstruct targets
+        long decodeStart = Time.monotonicNow();
+        reconstructTargets(toReconstructLen);
+        metrics.incrECReconstructionDecodingTime(
+            Time.monotonicNow() - decodeStart);
+        getStripedReader().clearBuffers();
+        updatePositionInBlock(toReconstructLen);
+
+        // step3: transfer data
+        if (pipelined) {
+          pendingTransfer = submitTransfer(this::transferTargets);
+        } else {
+          transferTargets();
+        }
       }
-      long writeEnd = Time.monotonicNow();
-
-      // Only the succeed reconstructions are recorded.
-      final DataNodeMetrics metrics = getDatanode().getMetrics();
-      metrics.incrECReconstructionReadTime(readEnd - start);
-      metrics.incrECReconstructionDecodingTime(decodeEnd - readEnd);
-      metrics.incrECReconstructionWriteTime(writeEnd - decodeEnd);
+      if (pendingTransfer != null) {
+        waitForTransfer(pendingTransfer);
+        pendingTransfer = null;
+      }
+    } finally {
+      if (pendingTransfer != null) {
+        // Do not release the target buffers under a running transfer.
+        try {
+          pendingTransfer.get();
+        } catch (ExecutionException e) {
+          LOG.debug("Transfer failed after reconstruction of {} failed",
+              getBlockGroup(), e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
 
-      updatePositionInBlock(toReconstructLen);
+  /**
+   * Send the decoded data of one round to the targets, and make the target
+   * buffers ready for the next round.
+   */
+  private Void transferTargets() throws IOException {
+    long start = Time.monotonicNow();
+    if (stripedWriter.transferData2Targets() == 0) {
+      String error = "Transfer failed for all targets.";
+      throw new IOException(error);
+    }
+    getDatanode().getMetrics().incrECReconstructionWriteTime(
+        Time.monotonicNow() - start);
+    stripedWriter.clearBuffers();
+    return null;
+  }
 
-      clearBuffers();
+  private void waitForTransfer(Future<Void> transfer) throws IOException {
+    try {
+      transfer.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while transferring "
+          + "reconstructed data of " + getBlockGroup());
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
     }
   }
 
@@ -129,13 +195,4 @@ private void reconstructTargets(int toReconstructLen) throws IOException {
 
     stripedWriter.updateRealTargetBuffers(toReconstructLen);
   }
-
-  /**
-   * Clear all associated buffers.
-   */
-  private void clearBuffers() {
-    getStripedReader().clearBuffers();
-
-    stripedWriter.clearBuffers();
-  }
 }
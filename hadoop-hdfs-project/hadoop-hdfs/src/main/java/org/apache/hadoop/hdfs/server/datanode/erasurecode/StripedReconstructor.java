@@ -38,7 +38,9 @@
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.BitSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -83,7 +85,8 @@
  * and send them directly. Same as continuous block replication, we
  * don't check the packet ack. Since the datanode doing the reconstruction work
  * are one of the source datanodes, so the reconstructed data are sent
- * remotely.
+ * remotely. If the reconstruction is pipelined, step3 of one round runs in
+ * the background while step1 of the next round reads from the sources.
  *
  * There are some points we can do further improvements in next phase:
  * 1. we can read the block file directly on the local datanode,
@@ -226,6 +229,14 @@ CompletionService<Void> createReadService() {
     return erasureCodingWorker.createReadService();
   }
 
+  boolean isPipelineEnabled() {
+    return erasureCodingWorker.isPipelineEnabled();
+  }
+
+  Future<Void> submitTransfer(Callable<Void> transfer) {
+    return erasureCodingWorker.submitTransfer(transfer);
+  }
+
   ExtendedBlock getBlockGroup() {
     return blockGroup;
   }
@@ -27,10 +27,13 @@
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
+import org.apache.hadoop.util.Time;
 
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is for maintaining Datanode Volume IO related statistics and
@@ -76,6 +79,24 @@ public class DataNodeVolumeMetrics {
   @Metric("file io error rate")
   private MutableRate fileIoErrorRate;
 
+  @Metric("number of replicas being written")
+  private MutableGaugeInt activeWriters;
+  @Metric("number of replicas waiting to be deleted")
+  private MutableGaugeInt pendingDeletions;
+
+  /**
+   * Weight of a new sample in the moving average of data file io latency.
+   */
+  private static final double RECENT_LATENCY_WEIGHT = 0.1;
+
+  // Unlike the rates, which are only updated when the metrics are
+  // snapshotted, the moving average follows the current load of the volume.
+  // It is updated on every sampled io, so it is kept as the bits of a double
+  // and updated without locking.
+  private final AtomicLong recentDataFileIoLatency =
+      new AtomicLong(Double.doubleToRawLongBits(0));
+  private volatile long recentDataFileIoLatencyUpdateMs = 0;
+
   public long getTotalMetadataOperations() {
     return totalMetadataOperations.value();
   }
@@ -162,6 +183,20 @@ public double getWriteIoStdDev() {
     return syncIoRate.lastStat().stddev();
   }
 
+  /**
+   * Get the exponentially weighted moving average of the data file io
+   * latency of this volume, in milliseconds.
+   *
+   * @param maxAgeMs if there has been no sampled io for this long, the
+   *                 average is considered stale and 0 is returned.
+   */
+  public double getRecentDataFileIoLatency(long maxAgeMs) {
+    if (Time.monotonicNow() - recentDataFileIoLatencyUpdateMs > maxAgeMs) {
+      return 0;
+    }
+    return Double.longBitsToDouble(recentDataFileIoLatency.get());
+  }
+
   public long getTotalFileIoErrors() {
     return totalFileIoErrors.value();
   }
@@ -179,6 +214,14 @@ public double getFileIoErrorStdDev() {
     return fileIoErrorRate.lastStat().stddev();
   }
 
+  public int getActiveWriters() {
+    return activeWriters.value();
+  }
+
+  public int getPendingDeletions() {
+    return pendingDeletions.value();
+  }
+
   private final String name;
   private final MetricsSystem ms;
 
@@ -247,8 +290,27 @@ public void addMetadastaOperationLatency(final long latency) {
   }
 
   public void addDataFileIoLatency(final long latency) {
+    addDataFileIoLatency(latency, true);
+  }
+
+  /**
+   * @param sampleRecent whether the io is a sample of the load of the volume
+   *                     which is followed by the moving average.
+   */
+  public void addDataFileIoLatency(final long latency, boolean sampleRecent) {
     totalDataFileIos.incr();
     dataFileIoRate.add(latency);
+    if (sampleRecent) {
+      long prev;
+      long next;
+      do {
+        prev = recentDataFileIoLatency.get();
+        double recent = Double.longBitsToDouble(prev);
+        next = Double.doubleToRawLongBits(
+            recent + RECENT_LATENCY_WEIGHT * (latency - recent));
+      } while (!recentDataFileIoLatency.compareAndSet(prev, next));
+      recentDataFileIoLatencyUpdateMs = Time.monotonicNow();
+    }
     for (MutableQuantiles q : dataFileIoLatencyQuantiles) {
       q.add(latency);
     }
@@ -282,6 +344,22 @@ public void addWriteIoLatency(final long latency) {
     }
   }
 
+  public void incrActiveWriters() {
+    activeWriters.incr();
+  }
+
+  public void decrActiveWriters() {
+    activeWriters.decr();
+  }
+
+  public void incrPendingDeletions() {
+    pendingDeletions.incr();
+  }
+
+  public void decrPendingDeletions() {
+    pendingDeletions.decr();
+  }
+
   public void addFileIoError(final long latency) {
     totalFileIoErrors.incr();
     metadataOperationRate.add(latency);
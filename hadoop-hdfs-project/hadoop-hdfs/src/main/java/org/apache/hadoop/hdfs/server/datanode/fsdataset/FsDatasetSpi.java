@@ -300,6 +300,21 @@ LengthInputStream getMetaDataInputStream(ExtendedBlock b
   InputStream getBlockInputStream(ExtendedBlock b, long seekOffset)
             throws IOException;
 
+  /**
+   * Returns an input stream at specified offset of the specified block,
+   * for sending the block to a reader. Unlike
+   * {@link #getBlockInputStream(ExtendedBlock, long)}, the data may be served
+   * from a read cache, so the stream is not necessarily backed by the
+   * replica's block file.
+   * @param b block
+   * @param seekOffset offset with in the block to seek to
+   * @return an input stream to read the contents of the specified block,
+   *  starting at the offset
+   * @throws IOException
+   */
+  InputStream getCachedBlockInputStream(ExtendedBlock b, long seekOffset)
+      throws IOException;
+
   /**
    * Returns an input stream at specified offset of the specified block.
    * The block is still in the tmp directory and is not finalized
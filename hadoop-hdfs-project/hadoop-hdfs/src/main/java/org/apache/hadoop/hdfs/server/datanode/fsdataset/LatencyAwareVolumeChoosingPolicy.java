@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_BASE_POLICY_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_BASE_POLICY_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_LATENCY_MAX_AGE_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_LATENCY_MAX_AGE_MS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_OVERLOAD_FACTOR_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_OVERLOAD_FACTOR_KEY;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.DiskChecker.DiskOutOfSpaceException;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A DN volume choosing policy which steers new replicas away from overloaded
+ * volumes. The load of a volume is estimated from the number of replicas
+ * being written to it and the recent latency of its file io, as sampled when
+ * dfs.datanode.fileio.profiling.sampling.percentage is set. Volumes whose
+ * load exceeds the least loaded volume's by more than the configured factor
+ * are skipped, and the choice among the remaining volumes is left to a base
+ * policy, by default {@link AvailableSpaceVolumeChoosingPolicy}, so that the
+ * available space stays balanced.
+ */
+public class LatencyAwareVolumeChoosingPolicy<V extends FsVolumeSpi>
+    implements VolumeChoosingPolicy<V>, Configurable {
+
+  private static final Log LOG =
+      LogFactory.getLog(LatencyAwareVolumeChoosingPolicy.class);
+
+  private Configuration conf;
+  private float overloadFactor =
+      DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_OVERLOAD_FACTOR_DEFAULT;
+  private long latencyMaxAgeMs =
+      DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_LATENCY_MAX_AGE_MS_DEFAULT;
+  private VolumeChoosingPolicy<V> basePolicy =
+      new AvailableSpaceVolumeChoosingPolicy<V>();
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    overloadFactor = conf.getFloat(
+        DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_OVERLOAD_FACTOR_KEY,
+        DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_OVERLOAD_FACTOR_DEFAULT);
+    latencyMaxAgeMs = conf.getLong(
+        DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_LATENCY_MAX_AGE_MS_KEY,
+        DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_LATENCY_MAX_AGE_MS_DEFAULT);
+    basePolicy = ReflectionUtils.newInstance(conf.getClass(
+        DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_BASE_POLICY_KEY,
+        DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_BASE_POLICY_DEFAULT,
+        VolumeChoosingPolicy.class), conf);
+
+    LOG.info("Latency aware volume choosing policy initialized: " +
+        DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_OVERLOAD_FACTOR_KEY +
+        " = " + overloadFactor + ", " +
+        DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_LATENCY_MAX_AGE_MS_KEY +
+        " = " + latencyMaxAgeMs + ", base policy = " +
+        basePolicy.getClass().getName());
+
+    if (overloadFactor < 1.0) {
+      LOG.warn("The value of " +
+          DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_OVERLOAD_FACTOR_KEY +
+          " is less than 1.0, so only the least loaded volumes will be chosen");
+    }
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  @Override
+  public V chooseVolume(List<V> volumes, long replicaSize, String storageId)
+      throws IOException {
+    if (volumes.size() < 1) {
+      throw new DiskOutOfSpaceException("No more available volumes");
+    }
+    List<V> candidates = new ArrayList<V>(volumes.size());
+    List<Double> loads = new ArrayList<Double>(volumes.size());
+    double leastLoad = Double.MAX_VALUE;
+    for (V volume : volumes) {
+      if (volume.getAvailable() <= replicaSize) {
+        continue;
+      }
+      double load = getLoad(volume);
+      candidates.add(volume);
+      loads.add(load);
+      leastLoad = Math.min(leastLoad, load);
+    }
+    if (candidates.size() <= 1) {
+      // Nothing to steer, let the base policy pick or report the failure.
+      return basePolicy.chooseVolume(
+          candidates.isEmpty() ? volumes : candidates, replicaSize, storageId);
+    }
+
+    List<V> unloaded = new ArrayList<V>(candidates.size());
+    double maxLoad = leastLoad * Math.max(overloadFactor, 1.0);
+    for (int i = 0; i < candidates.size(); i++) {
+      if (loads.get(i) <= maxLoad) {
+        unloaded.add(candidates.get(i));
+      }
+    }
+    if (LOG.isDebugEnabled() && unloaded.size() < candidates.size()) {
+      LOG.debug("Skipping " + (candidates.size() - unloaded.size()) +
+          " overloaded volume(s) out of " + candidates.size() +
+          " for write of block size " + replicaSize);
+    }
+    return basePolicy.chooseVolume(unloaded, replicaSize, storageId);
+  }
+
+  /**
+   * @return the estimated load of a volume: the replicas being written to it,
+   * including the new one, times its recent io latency in milliseconds, plus
+   * one so that idle volumes with no sampled io still compare.
+   */
+  @VisibleForTesting
+  double getLoad(FsVolumeSpi volume) {
+    DataNodeVolumeMetrics metrics = volume.getMetrics();
+    if (metrics == null) {
+      return 1;
+    }
+    return (metrics.getActiveWriters() + 1) *
+        (metrics.getRecentDataFileIoLatency(latencyMaxAgeMs) + 1);
+  }
+}
@@ -157,10 +157,18 @@ class BlockPoolSlice {
 
     // Use cached value initially if available. Or the following call will
     // block until the initial du command completes.
-    this.dfsUsage = new CachingGetSpaceUsed.Builder().setPath(bpDir)
-                                                     .setConf(conf)
-                                                     .setInitialUsed(loadDfsUsed())
-                                                     .build();
+    FSCachingGetSpaceUsed.Builder builder = new FSCachingGetSpaceUsed.Builder()
+        .setVolume(volume).setBpid(bpid);
+    Class<? extends GetSpaceUsed> klass = conf.getClass(
+        DFSConfigKeys.DFS_DATANODE_SPACE_USED_CLASSNAME_KEY, null,
+        GetSpaceUsed.class);
+    if (klass != null) {
+      builder.setKlass(klass);
+    }
+    this.dfsUsage = builder.setPath(bpDir)
+                           .setConf(conf)
+                           .setInitialUsed(loadDfsUsed())
+                           .build();
 
     // Make the dfs usage to be saved during shutdown.
     shutdownHook = new Runnable() {
@@ -379,6 +387,10 @@ void getVolumeMap(ReplicaMap volumeMap,
       // add rbw replicas
       addToReplicasMap(volumeMap, rbwDir, lazyWriteReplicaMap, false);
     }
+    // The replicas are known now, no need to wait for the first refresh.
+    if (dfsUsage instanceof ReplicaCachingGetSpaceUsed) {
+      ((ReplicaCachingGetSpaceUsed) dfsUsage).refresh(volumeMap);
+    }
   }
 
   /**
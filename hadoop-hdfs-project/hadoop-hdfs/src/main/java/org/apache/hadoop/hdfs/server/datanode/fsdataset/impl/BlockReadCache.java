@@ -0,0 +1,850 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_READ_CACHE_ADMISSION_MIN_FREQUENCY_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_READ_CACHE_ADMISSION_MIN_FREQUENCY_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_READ_CACHE_ADMISSION_WINDOW_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_READ_CACHE_ADMISSION_WINDOW_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_READ_CACHE_MEMORY_CAPACITY_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_READ_CACHE_MEMORY_CAPACITY_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_READ_CACHE_SSD_CAPACITY_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_READ_CACHE_SSD_CAPACITY_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_READ_CACHE_SSD_DIR_KEY;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.ExtendedBlockId;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A DataNode-local cache of frequently read finalized replicas.
+ * <p>
+ * Unlike {@link FsDatasetCache}, which caches the replicas the NameNode
+ * tells it to, this cache decides by itself from the reads it sees. It has
+ * two tiers: replicas are mmapped and mlocked into memory as
+ * {@link MappableBlock}s, and replicas evicted from memory are copied to an
+ * optional directory on a fast local device, typically an SSD.
+ * <p>
+ * Admission follows TinyLFU: the recent read frequency of every replica is
+ * tracked in a {@link FrequencySketch}. A replica is loaded once it has been
+ * read often enough, and when memory is full only if it is hotter than the
+ * least recently used cached replica, which is then evicted. Loading and
+ * demotion to the SSD tier happen on a background thread; readers are never
+ * blocked on them.
+ * <p>
+ * Cached data is only served while the replica's generation stamp and length
+ * are unchanged, so appends, truncation and recovery implicitly invalidate
+ * it.
+ * <p>
+ * A hit only takes a reference on the cached entry and moves it to the end
+ * of the LRU list of its tier, under locks of their own; the cache-wide lock
+ * is taken to admit, evict and invalidate replicas. The memory tier counts
+ * against dfs.datanode.max.locked.memory, which it shares with
+ * {@link FsDatasetCache}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class BlockReadCache {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(BlockReadCache.class);
+
+  /** Subdirectory of the configured SSD directory that the cache owns. */
+  static final String SSD_SUBDIR = "blockreadcache";
+  /** log2 of the number of separately locked frequency sketches. */
+  private static final int SKETCH_STRIPE_BITS = 4;
+
+  /** Implemented by the streams that serve replica data from the cache. */
+  public interface CachedBlockStream {
+  }
+
+  /**
+   * A count-min sketch of recent read frequencies. Counters saturate at 15
+   * and are all halved after a window of increments, so that the sketch
+   * forgets old reads.
+   */
+  static class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+        0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int window;
+    private int additions;
+
+    FrequencySketch(int width, int window) {
+      int w = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+      this.counters = new byte[DEPTH][w];
+      this.mask = w - 1;
+      this.window = window;
+    }
+
+    private int index(long key, int row) {
+      long h = (key + SEEDS[row]) * SEEDS[row];
+      h ^= h >>> 31;
+      return (int) h & mask;
+    }
+
+    synchronized void increment(long key) {
+      for (int row = 0; row < DEPTH; row++) {
+        int i = index(key, row);
+        if (counters[row][i] < MAX_COUNT) {
+          counters[row][i]++;
+        }
+      }
+      if (++additions >= window) {
+        reset();
+      }
+    }
+
+    synchronized int frequency(long key) {
+      int freq = MAX_COUNT;
+      for (int row = 0; row < DEPTH; row++) {
+        freq = Math.min(freq, counters[row][index(key, row)]);
+      }
+      return freq;
+    }
+
+    private void reset() {
+      for (byte[] row : counters) {
+        for (int i = 0; i < row.length; i++) {
+          row[i] >>= 1;
+        }
+      }
+      additions /= 2;
+    }
+  }
+
+  /**
+   * A cached copy of a replica. Readers reference the entry under its own
+   * lock; the copy is released once the entry has been evicted and the last
+   * reference is dropped.
+   */
+  private abstract static class Entry {
+    final ExtendedBlockId key;
+    final long genStamp;
+    final long length;
+    /** The neighbours of the entry in the {@link LruList} of its tier. */
+    private Entry lruPrev;
+    private Entry lruNext;
+    /** Number of open streams and pending demotions using the copy. */
+    private int refCount;
+    private boolean evicted;
+
+    Entry(ExtendedBlockId key, long genStamp, long length) {
+      this.key = key;
+      this.genStamp = genStamp;
+      this.length = length;
+    }
+
+    /**
+     * @return true if a reference was taken, false if the entry has already
+     *         been evicted.
+     */
+    synchronized boolean reference() {
+      if (evicted) {
+        return false;
+      }
+      refCount++;
+      return true;
+    }
+
+    void unreference() {
+      final boolean release;
+      synchronized (this) {
+        refCount--;
+        release = evicted && refCount == 0;
+      }
+      if (release) {
+        release();
+      }
+    }
+
+    void evict() {
+      final boolean release;
+      synchronized (this) {
+        release = !evicted && refCount == 0;
+        evicted = true;
+      }
+      if (release) {
+        release();
+      }
+    }
+
+    /** Free the cached copy. */
+    abstract void release();
+  }
+
+  /** A replica mapped into memory. */
+  private final class MemoryEntry extends Entry {
+    final long reserved;
+    final MappableBlock block;
+
+    MemoryEntry(ExtendedBlockId key, long genStamp, long length,
+        long reserved, MappableBlock block) {
+      super(key, genStamp, length);
+      this.reserved = reserved;
+      this.block = block;
+    }
+
+    @Override
+    void release() {
+      block.close();
+      cacheManager.release(reserved);
+    }
+  }
+
+  /** A replica copied to the SSD tier. */
+  private static final class SsdEntry extends Entry {
+    final File file;
+
+    SsdEntry(ExtendedBlockId key, long genStamp, long length, File file) {
+      super(key, genStamp, length);
+      this.file = file;
+    }
+
+    @Override
+    void release() {
+      if (!file.delete()) {
+        LOG.warn("Failed to delete {}", file);
+      }
+    }
+  }
+
+  /**
+   * The entries of a tier from the least to the most recently used, linked
+   * through the entries themselves so that both moving an entry to the end
+   * on a hit and finding the one to evict take constant time. The list has
+   * a lock of its own, so that hits do not take the cache's.
+   */
+  private static final class LruList<E extends Entry> {
+    private Entry head;
+    private Entry tail;
+
+    private boolean isLinked(Entry e) {
+      return e.lruPrev != null || head == e;
+    }
+
+    private void link(Entry e) {
+      e.lruPrev = tail;
+      e.lruNext = null;
+      if (tail == null) {
+        head = e;
+      } else {
+        tail.lruNext = e;
+      }
+      tail = e;
+    }
+
+    private void unlink(Entry e) {
+      if (e.lruPrev == null) {
+        head = e.lruNext;
+      } else {
+        e.lruPrev.lruNext = e.lruNext;
+      }
+      if (e.lruNext == null) {
+        tail = e.lruPrev;
+      } else {
+        e.lruNext.lruPrev = e.lruPrev;
+      }
+      e.lruPrev = null;
+      e.lruNext = null;
+    }
+
+    synchronized void add(E e) {
+      link(e);
+    }
+
+    synchronized void remove(E e) {
+      if (isLinked(e)) {
+        unlink(e);
+      }
+    }
+
+    /** Make an entry the most recently used, unless it was removed. */
+    synchronized void touch(E e) {
+      if (isLinked(e) && tail != e) {
+        unlink(e);
+        link(e);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized E leastRecentlyUsed() {
+      return (E) head;
+    }
+  }
+
+  /** Work for the background thread. */
+  private interface CacheTask extends Runnable {
+    /** Give back what the task holds, without running it. */
+    void cancel();
+  }
+
+  private final DataNodeMetrics metrics;
+  private final FsDatasetCache cacheManager;
+  private final long memoryCapacity;
+  private final File ssdDir;
+  private final long ssdCapacity;
+  private final int minFrequency;
+  private final FsDatasetCache.PageRounder rounder =
+      new FsDatasetCache.PageRounder();
+  private final FrequencySketch[] sketches;
+
+  /**
+   * The cached replicas. Readers look them up without locking; entries are
+   * only added and removed under the cache's lock, which also guards the
+   * space accounting.
+   */
+  private final Map<ExtendedBlockId, MemoryEntry> memory =
+      new ConcurrentHashMap<>();
+  private final Map<ExtendedBlockId, SsdEntry> ssd = new ConcurrentHashMap<>();
+  /** The entries of the maps, in the order to evict them. */
+  private final LruList<MemoryEntry> memoryLru = new LruList<>();
+  private final LruList<SsdEntry> ssdLru = new LruList<>();
+  /** Replicas being loaded, mapped to whether the load was cancelled. */
+  private final Map<ExtendedBlockId, Boolean> loading =
+      new ConcurrentHashMap<>();
+  /** Memory used or reserved by loads in progress. */
+  private long memoryUsed;
+  /** SSD space used or reserved by demotions in progress. */
+  private long ssdUsed;
+  private volatile boolean shutdown;
+
+  private final ExecutorService worker;
+
+  public BlockReadCache(Configuration conf, DataNodeMetrics metrics,
+      FsDatasetCache cacheManager) {
+    this.metrics = metrics;
+    this.cacheManager = cacheManager;
+    this.memoryCapacity = conf.getLong(
+        DFS_DATANODE_READ_CACHE_MEMORY_CAPACITY_KEY,
+        DFS_DATANODE_READ_CACHE_MEMORY_CAPACITY_DEFAULT);
+    this.minFrequency = Math.max(1, conf.getInt(
+        DFS_DATANODE_READ_CACHE_ADMISSION_MIN_FREQUENCY_KEY,
+        DFS_DATANODE_READ_CACHE_ADMISSION_MIN_FREQUENCY_DEFAULT));
+    final int window = Math.max(16, conf.getInt(
+        DFS_DATANODE_READ_CACHE_ADMISSION_WINDOW_KEY,
+        DFS_DATANODE_READ_CACHE_ADMISSION_WINDOW_DEFAULT));
+    // Each stripe sees its share of the reads.
+    this.sketches = new FrequencySketch[1 << SKETCH_STRIPE_BITS];
+    for (int i = 0; i < sketches.length; i++) {
+      sketches[i] = new FrequencySketch(window / 4 / sketches.length,
+          Math.max(16, window / sketches.length));
+    }
+
+    final String dir = conf.getTrimmed(DFS_DATANODE_READ_CACHE_SSD_DIR_KEY, "");
+    final long capacity = conf.getLong(
+        DFS_DATANODE_READ_CACHE_SSD_CAPACITY_KEY,
+        DFS_DATANODE_READ_CACHE_SSD_CAPACITY_DEFAULT);
+    File ssdDirectory = null;
+    if (!dir.isEmpty() && capacity > 0) {
+      ssdDirectory = new File(dir, SSD_SUBDIR);
+      // Whatever the cache left over from a previous run cannot be trusted.
+      FileUtil.fullyDelete(ssdDirectory);
+      if (!ssdDirectory.mkdirs()) {
+        LOG.warn("Could not create read cache directory {}; the SSD tier "
+            + "is disabled.", ssdDirectory);
+        ssdDirectory = null;
+      }
+    }
+    this.ssdDir = ssdDirectory;
+    this.ssdCapacity = ssdDirectory == null ? 0 : capacity;
+
+    this.worker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("BlockReadCache-%d")
+            .build());
+    LOG.info("Read cache enabled with {} bytes of memory and {} bytes of SSD"
+        + " space{}", memoryCapacity, ssdCapacity,
+        ssdDir == null ? "" : " in " + ssdDir);
+  }
+
+  private static long sketchKey(ExtendedBlockId key) {
+    return key.getBlockId() ^ ((long) key.getBlockPoolId().hashCode() << 32);
+  }
+
+  private FrequencySketch sketch(long sketchKey) {
+    return sketches[(int) ((sketchKey * 0x9e3779b97f4a7c15L)
+        >>> (64 - SKETCH_STRIPE_BITS))];
+  }
+
+  private int frequency(ExtendedBlockId key) {
+    final long sketchKey = sketchKey(key);
+    return sketch(sketchKey).frequency(sketchKey);
+  }
+
+  private static boolean matches(ReplicaInfo replica, long genStamp,
+      long length) {
+    return replica.getGenerationStamp() == genStamp
+        && replica.getNumBytes() == length;
+  }
+
+  /**
+   * Record a read of the given replica and return a stream over its cached
+   * data, if it is cached.
+   *
+   * @param bpid the block pool of the replica.
+   * @param replica the replica being read.
+   * @param seekOffset the offset in the block to start reading at.
+   * @return a stream implementing {@link CachedBlockStream} positioned at
+   *         seekOffset, or null if the replica is not cached.
+   */
+  public InputStream getInputStream(String bpid, ReplicaInfo replica,
+      long seekOffset) throws IOException {
+    if (shutdown || replica.getState() != ReplicaState.FINALIZED
+        || replica.getVolume().isTransientStorage()) {
+      return null;
+    }
+    final ExtendedBlockId key =
+        new ExtendedBlockId(replica.getBlockId(), bpid);
+    final long sketchKey = sketchKey(key);
+    sketch(sketchKey).increment(sketchKey);
+    final MemoryEntry m = memory.get(key);
+    if (m != null) {
+      if (!matches(replica, m.genStamp, m.length)) {
+        removeMemoryEntry(m);
+      } else if (m.reference()) {
+        memoryLru.touch(m);
+        metrics.incrReadCacheHits();
+        return new MemoryInputStream(m, seekOffset);
+      }
+    }
+    maybeAdmit(key, replica);
+    final SsdEntry s = ssd.get(key);
+    if (s != null) {
+      if (!matches(replica, s.genStamp, s.length)) {
+        removeSsdEntry(s);
+      } else if (s.reference()) {
+        // The reference keeps eviction from deleting the file before it is
+        // open. Once open, the data stays readable even if it is.
+        try {
+          ssdLru.touch(s);
+          final SsdInputStream in = new SsdInputStream(s.file);
+          try {
+            in.getChannel().position(seekOffset);
+          } catch (IOException e) {
+            IOUtils.closeQuietly(in);
+            throw e;
+          }
+          metrics.incrReadCacheHits();
+          metrics.incrReadCacheSsdHits();
+          return in;
+        } finally {
+          s.unreference();
+        }
+      }
+    }
+    metrics.incrReadCacheMisses();
+    return null;
+  }
+
+  /**
+   * Start loading the replica into memory if it is hot enough.
+   */
+  private void maybeAdmit(ExtendedBlockId key, ReplicaInfo replica) {
+    if (memory.containsKey(key) || loading.containsKey(key)) {
+      return;
+    }
+    final long length = replica.getNumBytes();
+    if (length <= 0 || length > Integer.MAX_VALUE) {
+      return;
+    }
+    final long size = rounder.roundUp(length);
+    if (size > memoryCapacity) {
+      return;
+    }
+    final int freq = frequency(key);
+    if (freq < minFrequency) {
+      return;
+    }
+    synchronized (this) {
+      if (shutdown || memory.containsKey(key) || loading.containsKey(key)) {
+        return;
+      }
+      if (memoryUsed + size > memoryCapacity) {
+        final MemoryEntry lru = memoryLru.leastRecentlyUsed();
+        if (lru != null && freq <= frequency(lru.key)) {
+          metrics.incrReadCacheAdmissionsRejected();
+          return;
+        }
+      }
+      memoryUsed += size;
+      evictMemory();
+      if (memoryUsed > memoryCapacity) {
+        // The rest of the memory is reserved by other loads in progress.
+        memoryUsed -= size;
+        return;
+      }
+      if (cacheManager.reserve(size) < 0) {
+        LOG.debug("Not caching {}: dfs.datanode.max.locked.memory is used up",
+            key);
+        memoryUsed -= size;
+        metrics.incrReadCacheAdmissionsRejected();
+        return;
+      }
+      loading.put(key, Boolean.FALSE);
+      worker.execute(new LoadTask(key, replica, replica.getGenerationStamp(),
+          length, size));
+    }
+  }
+
+  /** Maps a replica into memory. */
+  private final class LoadTask implements CacheTask {
+    private final ExtendedBlockId key;
+    private final ReplicaInfo replica;
+    private final long genStamp;
+    private final long length;
+    private final long size;
+
+    LoadTask(ExtendedBlockId key, ReplicaInfo replica, long genStamp,
+        long length, long size) {
+      this.key = key;
+      this.replica = replica;
+      this.genStamp = genStamp;
+      this.length = length;
+      this.size = size;
+    }
+
+    @Override
+    public void run() {
+      MappableBlock block = null;
+      InputStream blockIn = null;
+      InputStream metaIn = null;
+      try {
+        blockIn = replica.getDataInputStream(0);
+        metaIn = replica.getMetadataInputStream(0).getWrappedStream();
+        if (!(blockIn instanceof FileInputStream)
+            || !(metaIn instanceof FileInputStream)) {
+          LOG.debug("Not caching {}: replica is not backed by files", key);
+        } else {
+          block = MappableBlock.load(length, (FileInputStream) blockIn,
+              (FileInputStream) metaIn, replica.getBlockURI().toString());
+        }
+      } catch (Throwable t) {
+        LOG.warn("Failed to load {} into the read cache", key, t);
+        metrics.incrReadCacheLoadFailures();
+      } finally {
+        IOUtils.closeQuietly(blockIn);
+        IOUtils.closeQuietly(metaIn);
+      }
+      synchronized (BlockReadCache.this) {
+        final Boolean cancelled = loading.remove(key);
+        if (block == null || shutdown || Boolean.TRUE.equals(cancelled)
+            || !matches(replica, genStamp, length)) {
+          memoryUsed -= size;
+          if (block != null) {
+            block.close();
+          }
+          cacheManager.release(size);
+        } else {
+          final MemoryEntry m =
+              new MemoryEntry(key, genStamp, length, size, block);
+          memoryLru.add(m);
+          memory.put(key, m);
+          metrics.incrReadCacheAdmissions();
+          LOG.debug("Loaded {} into the read cache", key);
+        }
+        metrics.setReadCacheMemoryUsed(memoryUsed);
+      }
+    }
+
+    @Override
+    public void cancel() {
+      synchronized (BlockReadCache.this) {
+        loading.remove(key);
+        memoryUsed -= size;
+        metrics.setReadCacheMemoryUsed(memoryUsed);
+      }
+      cacheManager.release(size);
+    }
+  }
+
+  /**
+   * Evict least recently used replicas until memory use fits the capacity,
+   * demoting them to the SSD tier if there is one.
+   */
+  private void evictMemory() {
+    while (memoryUsed > memoryCapacity) {
+      final MemoryEntry m = memoryLru.leastRecentlyUsed();
+      if (m == null) {
+        break;
+      }
+      memory.remove(m.key);
+      releaseMemoryEntry(m, true);
+      metrics.incrReadCacheMemoryEvictions();
+    }
+  }
+
+  private synchronized void removeMemoryEntry(MemoryEntry m) {
+    if (memory.remove(m.key, m)) {
+      releaseMemoryEntry(m, false);
+    }
+  }
+
+  private void releaseMemoryEntry(MemoryEntry m, boolean demote) {
+    memoryLru.remove(m);
+    memoryUsed -= m.reserved;
+    metrics.setReadCacheMemoryUsed(memoryUsed);
+    // Keep the mapping alive until it has been copied.
+    if (demote && ssdDir != null && m.length <= ssdCapacity
+        && !ssd.containsKey(m.key) && !shutdown && m.reference()) {
+      worker.execute(new DemoteTask(m));
+    }
+    m.evict();
+  }
+
+  /** Copies a replica evicted from memory to the SSD tier. */
+  private final class DemoteTask implements CacheTask {
+    private final MemoryEntry m;
+
+    DemoteTask(MemoryEntry m) {
+      this.m = m;
+    }
+
+    @Override
+    public void run() {
+      final File file = new File(ssdDir, m.key.getBlockPoolId() + "_"
+          + m.key.getBlockId() + "_" + m.genStamp);
+      synchronized (BlockReadCache.this) {
+        if (shutdown || ssd.containsKey(m.key)) {
+          m.unreference();
+          return;
+        }
+        ssdUsed += m.length;
+        evictSsd();
+      }
+      boolean success = false;
+      try (FileOutputStream out = new FileOutputStream(file)) {
+        final FileChannel channel = out.getChannel();
+        final ByteBuffer buf = m.block.duplicateBuffer();
+        while (buf.hasRemaining()) {
+          channel.write(buf);
+        }
+        success = true;
+      } catch (IOException e) {
+        LOG.warn("Failed to copy {} to the read cache's SSD tier", m.key, e);
+      }
+      m.unreference();
+      synchronized (BlockReadCache.this) {
+        if (success && !shutdown) {
+          final SsdEntry s = new SsdEntry(m.key, m.genStamp, m.length, file);
+          ssdLru.add(s);
+          ssd.put(m.key, s);
+        } else {
+          ssdUsed -= m.length;
+          if (!file.delete() && file.exists()) {
+            LOG.warn("Failed to delete {}", file);
+          }
+        }
+        metrics.setReadCacheSsdUsed(ssdUsed);
+      }
+    }
+
+    @Override
+    public void cancel() {
+      m.unreference();
+    }
+  }
+
+  private void evictSsd() {
+    while (ssdUsed > ssdCapacity) {
+      final SsdEntry s = ssdLru.leastRecentlyUsed();
+      if (s == null) {
+        break;
+      }
+      ssd.remove(s.key);
+      releaseSsdEntry(s);
+      metrics.incrReadCacheSsdEvictions();
+    }
+  }
+
+  private synchronized void removeSsdEntry(SsdEntry s) {
+    if (ssd.remove(s.key, s)) {
+      releaseSsdEntry(s);
+    }
+  }
+
+  private void releaseSsdEntry(SsdEntry s) {
+    ssdLru.remove(s);
+    ssdUsed -= s.length;
+    metrics.setReadCacheSsdUsed(ssdUsed);
+    s.evict();
+  }
+
+  /**
+   * Drop a replica from the cache, e.g. because it has been deleted.
+   */
+  public synchronized void invalidate(String bpid, long blockId) {
+    final ExtendedBlockId key = new ExtendedBlockId(blockId, bpid);
+    loading.replace(key, Boolean.TRUE);
+    final MemoryEntry m = memory.remove(key);
+    if (m != null) {
+      releaseMemoryEntry(m, false);
+    }
+    final SsdEntry s = ssd.remove(key);
+    if (s != null) {
+      releaseSsdEntry(s);
+    }
+  }
+
+  @VisibleForTesting
+  boolean isCachedInMemory(String bpid, long blockId) {
+    return memory.containsKey(new ExtendedBlockId(blockId, bpid));
+  }
+
+  @VisibleForTesting
+  boolean isCachedOnSsd(String bpid, long blockId) {
+    return ssd.containsKey(new ExtendedBlockId(blockId, bpid));
+  }
+
+  @VisibleForTesting
+  synchronized long getMemoryUsed() {
+    return memoryUsed;
+  }
+
+  /**
+   * Drop everything and stop the background thread.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      if (shutdown) {
+        return;
+      }
+      shutdown = true;
+    }
+    // Tasks which never ran still hold reservations and references.
+    for (Runnable task : worker.shutdownNow()) {
+      ((CacheTask) task).cancel();
+    }
+    try {
+      worker.awaitTermination(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      for (MemoryEntry m : memory.values()) {
+        releaseMemoryEntry(m, false);
+      }
+      memory.clear();
+      for (SsdEntry s : ssd.values()) {
+        releaseSsdEntry(s);
+      }
+      ssd.clear();
+    }
+  }
+
+  /** Reads a replica from its mapping in memory. */
+  private static class MemoryInputStream extends InputStream
+      implements CachedBlockStream {
+    private final MemoryEntry entry;
+    private final ByteBuffer buf;
+    private boolean closed;
+
+    MemoryInputStream(MemoryEntry entry, long seekOffset) {
+      this.entry = entry;
+      this.buf = entry.block.duplicateBuffer();
+      buf.position((int) Math.min(Math.max(seekOffset, 0), buf.limit()));
+    }
+
+    private void checkOpen() throws IOException {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      checkOpen();
+      return buf.hasRemaining() ? buf.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      checkOpen();
+      if (len == 0) {
+        return 0;
+      }
+      if (!buf.hasRemaining()) {
+        return -1;
+      }
+      final int n = Math.min(len, buf.remaining());
+      buf.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      checkOpen();
+      final int skipped = (int) Math.min(Math.max(n, 0), buf.remaining());
+      buf.position(buf.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      checkOpen();
+      return buf.remaining();
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        entry.unreference();
+      }
+    }
+  }
+
+  /** Reads a replica from its copy on the SSD tier. */
+  private static class SsdInputStream extends FileInputStream
+      implements CachedBlockStream {
+    SsdInputStream(File file) throws IOException {
+      super(file);
+    }
+  }
+}
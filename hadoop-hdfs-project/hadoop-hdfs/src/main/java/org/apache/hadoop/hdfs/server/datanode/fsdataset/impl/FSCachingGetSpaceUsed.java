@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.CachingGetSpaceUsed;
+import org.apache.hadoop.fs.GetSpaceUsed;
+
+/**
+ * A {@link CachingGetSpaceUsed} which computes the space used by a block pool
+ * slice from the DataNode's own state, instead of from the file system.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public abstract class FSCachingGetSpaceUsed extends CachingGetSpaceUsed {
+  private final FsVolumeImpl volume;
+  private final String bpid;
+
+  public FSCachingGetSpaceUsed(Builder builder) throws IOException {
+    super(builder);
+    this.volume = builder.getVolume();
+    this.bpid = builder.getBpid();
+  }
+
+  FsVolumeImpl getVolume() {
+    return volume;
+  }
+
+  String getBpid() {
+    return bpid;
+  }
+
+  /**
+   * The builder of the space used of a block pool slice.  It builds any
+   * configured {@link GetSpaceUsed}, handing the volume and the block pool
+   * to subclasses of {@link FSCachingGetSpaceUsed}.
+   */
+  public static class Builder extends GetSpaceUsed.Builder {
+    private FsVolumeImpl volume;
+    private String bpid;
+
+    public FsVolumeImpl getVolume() {
+      return volume;
+    }
+
+    public Builder setVolume(FsVolumeImpl volume) {
+      this.volume = volume;
+      return this;
+    }
+
+    public String getBpid() {
+      return bpid;
+    }
+
+    public Builder setBpid(String bpid) {
+      this.bpid = bpid;
+      return this;
+    }
+
+    @Override
+    public GetSpaceUsed build() throws IOException {
+      Class<? extends GetSpaceUsed> klass = getKlass();
+      if (!FSCachingGetSpaceUsed.class.isAssignableFrom(klass)) {
+        return super.build();
+      }
+      FSCachingGetSpaceUsed spaceUsed;
+      try {
+        spaceUsed = (FSCachingGetSpaceUsed)
+            klass.getConstructor(Builder.class).newInstance(this);
+      } catch (ReflectiveOperationException e) {
+        throw new IOException("Failed to create an instance of " + klass, e);
+      }
+      spaceUsed.init();
+      return spaceUsed;
+    }
+  }
+}
@@ -20,8 +20,14 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -32,16 +38,22 @@
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
 import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.apache.hadoop.hdfs.server.common.Storage.StorageDirectory;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.DataNodeVolumeMetrics;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
 import org.apache.hadoop.hdfs.server.protocol.BlockCommand;
+import org.apache.hadoop.hdfs.util.Canceler;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.nativeio.NativeIOException;
+import org.apache.hadoop.util.Time;
 
 /**
  * This class is a container of multiple thread pools, each for a volume,
@@ -54,6 +66,12 @@
  * is inefficient when we have more than 1 volume.  AsyncDiskService is the
  * solution for these.
  * Another example of async disk operation is requesting sync_file_range().
+ *
+ * Replica deletions run in the thread pool of their volume, unless they are
+ * limited to a number per second.  Then they have a queue and a thread of
+ * their own per volume, so that they do not hold back the other operations,
+ * and are done in batches ordered by directory at a rate which is reduced
+ * while the volume is slow to serve reads and writes.
  * 
  * This class and {@link org.apache.hadoop.util.AsyncDiskService} are similar.
  * They should be combined.
@@ -67,6 +85,12 @@ class FsDatasetAsyncDiskService {
   private static final int MAXIMUM_THREADS_PER_VOLUME = 4;
   // ThreadPool keep-alive time for threads over core pool size
   private static final long THREADS_KEEP_ALIVE_SECONDS = 60; 
+  // Age after which the recent io latency of a volume is considered stale
+  private static final long MAX_LATENCY_AGE_MS = 30000;
+  // The deletion rate of a volume is never reduced by more than this factor
+  private static final long MAX_BACKOFF_FACTOR = 16;
+  // Interval at which the deletion rate of a volume is recomputed
+  private static final long DELETE_RATE_UPDATE_INTERVAL_MS = 1000;
   
   private final DataNode datanode;
   private final FsDatasetImpl fsdatasetImpl;
@@ -77,6 +101,11 @@ class FsDatasetAsyncDiskService {
       = new HashMap<String, Set<Long>>();
   private static final int MAX_DELETED_BLOCKS = 64;
   private int numDeletedBlocks = 0;
+  private Map<String, VolumeDeletionQueue> deletionQueues
+      = new HashMap<String, VolumeDeletionQueue>();
+  private final long deleteOpsPerSec;
+  private final int deleteBatchSize;
+  private final long deleteBackoffLatencyMs;
   
   /**
    * Create a AsyncDiskServices with a set of volumes (specified by their
@@ -85,10 +114,20 @@ class FsDatasetAsyncDiskService {
    * The AsyncDiskServices uses one ThreadPool per volume to do the async
    * disk operations.
    */
-  FsDatasetAsyncDiskService(DataNode datanode, FsDatasetImpl fsdatasetImpl) {
+  FsDatasetAsyncDiskService(DataNode datanode, FsDatasetImpl fsdatasetImpl,
+      Configuration conf) {
     this.datanode = datanode;
     this.fsdatasetImpl = fsdatasetImpl;
     this.threadGroup = new ThreadGroup(getClass().getSimpleName());
+    this.deleteOpsPerSec = conf.getLong(
+        DFSConfigKeys.DFS_DATANODE_DELETE_VOLUME_OPS_PER_SECOND_KEY,
+        DFSConfigKeys.DFS_DATANODE_DELETE_VOLUME_OPS_PER_SECOND_DEFAULT);
+    this.deleteBatchSize = Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DELETE_BATCH_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_DELETE_BATCH_SIZE_DEFAULT));
+    this.deleteBackoffLatencyMs = conf.getLong(
+        DFSConfigKeys.DFS_DATANODE_DELETE_VOLUME_BACKOFF_LATENCY_MS_KEY,
+        DFSConfigKeys.DFS_DATANODE_DELETE_VOLUME_BACKOFF_LATENCY_MS_DEFAULT);
   }
 
   private void addExecutorForVolume(final FsVolumeImpl volume) {
@@ -116,6 +155,10 @@ public Thread newThread(Runnable r) {
     // This can reduce the number of running threads
     executor.allowCoreThreadTimeOut(true);
     executors.put(volume.getStorageID(), executor);
+    if (deleteOpsPerSec > 0) {
+      deletionQueues.put(volume.getStorageID(),
+          new VolumeDeletionQueue(volume));
+    }
   }
 
   /**
@@ -151,6 +194,10 @@ synchronized void removeVolume(String storageId) {
     } else {
       executor.shutdown();
       executors.remove(storageId);
+      VolumeDeletionQueue queue = deletionQueues.remove(storageId);
+      if (queue != null) {
+        queue.stop();
+      }
     }
   }
   
@@ -159,6 +206,9 @@ synchronized long countPendingDeletions() {
     for (ThreadPoolExecutor exec : executors.values()) {
       count += exec.getTaskCount() - exec.getCompletedTaskCount();
     }
+    for (VolumeDeletionQueue queue : deletionQueues.values()) {
+      count += queue.size();
+    }
     return count;
   }
   
@@ -194,8 +244,13 @@ synchronized void shutdown() {
       for (Map.Entry<String, ThreadPoolExecutor> e : executors.entrySet()) {
         e.getValue().shutdown();
       }
+      // The queued deletions are still done, but no longer throttled.
+      for (VolumeDeletionQueue queue : deletionQueues.values()) {
+        queue.stop();
+      }
       // clear the executor map so that calling execute again will fail.
       executors = null;
+      deletionQueues = null;
       
       LOG.info("All async disk service threads have been shut down");
     }
@@ -224,9 +279,210 @@ void deleteAsync(FsVolumeReference volumeRef, ReplicaInfo replicaToDelete,
       ExtendedBlock block, String trashDirectory) {
     LOG.info("Scheduling " + block.getLocalBlock()
         + " replica " + replicaToDelete + " for deletion");
-    ReplicaFileDeleteTask deletionTask = new ReplicaFileDeleteTask(
+    final ReplicaFileDeleteTask deletionTask = new ReplicaFileDeleteTask(
         volumeRef, replicaToDelete, block, trashDirectory);
-    execute(((FsVolumeImpl) volumeRef.getVolume()), deletionTask);
+    if (deleteOpsPerSec > 0) {
+      getDeletionQueue(deletionTask.volume).add(deletionTask);
+      return;
+    }
+    final DataNodeVolumeMetrics metrics = deletionTask.volume.getMetrics();
+    if (metrics != null) {
+      metrics.incrPendingDeletions();
+    }
+    try {
+      execute(deletionTask.volume, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            deletionTask.run();
+          } finally {
+            if (metrics != null) {
+              metrics.decrPendingDeletions();
+            }
+          }
+        }
+
+        @Override
+        public String toString() {
+          return deletionTask.toString();
+        }
+      });
+    } catch (RuntimeException e) {
+      if (metrics != null) {
+        metrics.decrPendingDeletions();
+      }
+      throw e;
+    }
+  }
+
+  private synchronized VolumeDeletionQueue getDeletionQueue(
+      FsVolumeImpl volume) {
+    if (deletionQueues == null) {
+      throw new RuntimeException("AsyncDiskService is already shutdown");
+    }
+    VolumeDeletionQueue queue = deletionQueues.get(volume.getStorageID());
+    if (queue == null) {
+      throw new RuntimeException("Cannot find volume " + volume
+          + " for deletion of replicas");
+    }
+    return queue;
+  }
+
+  /**
+   * Compute the deletion rate of a volume, in replicas per second.  When the
+   * recent io latency of the volume exceeds the backoff latency, the rate is
+   * reduced in proportion, down to 1/{@link #MAX_BACKOFF_FACTOR} of the
+   * target rate.
+   */
+  static long calculateDeleteOpsPerSec(long targetOpsPerSec,
+      long backoffLatencyMs, double recentLatencyMs) {
+    if (backoffLatencyMs <= 0 || recentLatencyMs <= backoffLatencyMs) {
+      return targetOpsPerSec;
+    }
+    long scaled = (long) (targetOpsPerSec * backoffLatencyMs /
+        recentLatencyMs);
+    return Math.max(scaled,
+        Math.max(targetOpsPerSec / MAX_BACKOFF_FACTOR, 1L));
+  }
+
+  /** Orders deletions by the directory of their block file. */
+  private static final Comparator<ReplicaFileDeleteTask> BY_DIRECTORY =
+      new Comparator<ReplicaFileDeleteTask>() {
+        @Override
+        public int compare(ReplicaFileDeleteTask a, ReplicaFileDeleteTask b) {
+          return a.getDirectory().compareTo(b.getDirectory());
+        }
+      };
+
+  /**
+   * The queue of the throttled replica deletions of a volume, drained by a
+   * thread of its own which is started with the first deletion.  The thread
+   * takes up to a batch of deletions at a time, sorts them by directory so
+   * that unlinks in the same directory are done together, and throttles them
+   * to the deletion rate of the volume.
+   */
+  private class VolumeDeletionQueue implements Runnable {
+    private final FsVolumeImpl volume;
+    private final LinkedList<ReplicaFileDeleteTask> pending =
+        new LinkedList<ReplicaFileDeleteTask>();
+    private final DataTransferThrottler throttler;
+    private final Canceler canceler = new Canceler();
+    private long lastRateUpdateMs = 0;
+    private int numInProgress = 0;
+    private boolean stopping = false;
+    private Thread thread = null;
+
+    VolumeDeletionQueue(FsVolumeImpl volume) {
+      this.volume = volume;
+      // A period of a second, so that rates of a few deletions per second
+      // still allow at least one deletion per period.
+      this.throttler = new DataTransferThrottler(1000, deleteOpsPerSec);
+    }
+
+    synchronized void add(ReplicaFileDeleteTask task) {
+      if (stopping) {
+        throw new RuntimeException("Volume " + volume
+            + " is already removed, cannot schedule " + task);
+      }
+      if (thread == null) {
+        thread = new Thread(threadGroup, this);
+        thread.setName("Async disk deleter for volume " + volume);
+        thread.setDaemon(true);
+        thread.start();
+      }
+      pending.add(task);
+      DataNodeVolumeMetrics metrics = volume.getMetrics();
+      if (metrics != null) {
+        metrics.incrPendingDeletions();
+      }
+      notifyAll();
+    }
+
+    synchronized int size() {
+      return pending.size() + numInProgress;
+    }
+
+    /**
+     * Stop taking new deletions.  The queued ones are done without throttling,
+     * after which the thread exits.
+     */
+    synchronized void stop() {
+      stopping = true;
+      canceler.cancel("Volume " + volume + " is being removed");
+      notifyAll();
+    }
+
+    private synchronized List<ReplicaFileDeleteTask> takeBatch()
+        throws InterruptedException {
+      while (pending.isEmpty()) {
+        if (stopping) {
+          return null;
+        }
+        wait();
+      }
+      List<ReplicaFileDeleteTask> batch = new ArrayList<ReplicaFileDeleteTask>(
+          Math.min(deleteBatchSize, pending.size()));
+      while (batch.size() < deleteBatchSize && !pending.isEmpty()) {
+        batch.add(pending.poll());
+      }
+      numInProgress = batch.size();
+      return batch;
+    }
+
+    private synchronized void onDeleted() {
+      numInProgress--;
+      DataNodeVolumeMetrics metrics = volume.getMetrics();
+      if (metrics != null) {
+        metrics.decrPendingDeletions();
+      }
+    }
+
+    private void throttle() {
+      if (canceler.isCancelled()) {
+        return;
+      }
+      long now = Time.monotonicNow();
+      if (now - lastRateUpdateMs >= DELETE_RATE_UPDATE_INTERVAL_MS) {
+        double recentLatencyMs = 0;
+        DataNodeVolumeMetrics metrics = volume.getMetrics();
+        if (deleteBackoffLatencyMs > 0 && metrics != null) {
+          recentLatencyMs =
+              metrics.getRecentDataFileIoLatency(MAX_LATENCY_AGE_MS);
+        }
+        long opsPerSec = calculateDeleteOpsPerSec(deleteOpsPerSec,
+            deleteBackoffLatencyMs, recentLatencyMs);
+        if (opsPerSec != throttler.getBandwidth()) {
+          LOG.debug("Deleting replicas of volume " + volume + " at "
+              + opsPerSec + " per second");
+          throttler.setBandwidth(opsPerSec);
+        }
+        lastRateUpdateMs = now;
+      }
+      throttler.throttle(1, canceler);
+    }
+
+    @Override
+    public void run() {
+      try {
+        List<ReplicaFileDeleteTask> batch;
+        while ((batch = takeBatch()) != null) {
+          Collections.sort(batch, BY_DIRECTORY);
+          for (ReplicaFileDeleteTask task : batch) {
+            throttle();
+            try {
+              task.run();
+            } catch (Throwable t) {
+              LOG.warn("Error in " + task, t);
+            } finally {
+              onDeleted();
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        LOG.warn("Interrupted while waiting for replicas of volume " + volume
+            + " to delete", e);
+      }
+    }
   }
 
   /**
@@ -264,6 +520,11 @@ class ReplicaFileDeleteTask implements Runnable {
       this.trashDirectory = trashDirectory;
     }
 
+    String getDirectory() {
+      URI blockURI = replicaToDelete.getBlockURI();
+      return blockURI == null ? "" : blockURI.resolve(".").toString();
+    }
+
     @Override
     public String toString() {
       // Called in AsyncDiskService.execute for displaying error messages.
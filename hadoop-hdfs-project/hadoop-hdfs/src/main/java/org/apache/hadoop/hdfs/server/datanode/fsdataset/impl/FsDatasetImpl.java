@@ -235,6 +235,8 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
   final FsDatasetAsyncDiskService asyncDiskService;
   final Daemon lazyWriter;
   final FsDatasetCache cacheManager;
+  /** Null unless dfs.datanode.read-cache.enabled is set. */
+  private final BlockReadCache readCache;
   private final Configuration conf;
   private final int volFailuresTolerated;
   private final int volsConfigured;
@@ -326,7 +328,7 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
             VolumeChoosingPolicy.class), conf);
     volumes = new FsVolumeList(volumeFailureInfos, datanode.getBlockScanner(),
         blockChooserImpl);
-    asyncDiskService = new FsDatasetAsyncDiskService(datanode, this);
+    asyncDiskService = new FsDatasetAsyncDiskService(datanode, this, conf);
     asyncLazyPersistService = new RamDiskAsyncLazyPersistService(datanode, conf);
     deletingBlock = new HashMap<String, Set<Long>>();
 
@@ -336,6 +338,13 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
     setupAsyncLazyPersistThreads();
 
     cacheManager = new FsDatasetCache(this);
+    if (conf.getBoolean(DFSConfigKeys.DFS_DATANODE_READ_CACHE_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_READ_CACHE_ENABLED_DEFAULT)) {
+      readCache =
+          new BlockReadCache(conf, datanode.getMetrics(), cacheManager);
+    } else {
+      readCache = null;
+    }
 
     // Start the lazy writer once we have built the replica maps.
     // We need to start the lazy writer even if MaxLockedMemory is set to
@@ -794,6 +803,30 @@ public InputStream getBlockInputStream(ExtendedBlock b,
     }
   }
 
+  @Override // FsDatasetSpi
+  public InputStream getCachedBlockInputStream(ExtendedBlock b,
+      long seekOffset) throws IOException {
+    if (readCache != null) {
+      ReplicaInfo info;
+      synchronized(this) {
+        info = volumeMap.get(b.getBlockPoolId(), b.getLocalBlock());
+      }
+      if (info != null) {
+        InputStream in =
+            readCache.getInputStream(b.getBlockPoolId(), info, seekOffset);
+        if (in != null) {
+          return in;
+        }
+      }
+    }
+    return getBlockInputStream(b, seekOffset);
+  }
+
+  @VisibleForTesting
+  BlockReadCache getReadCache() {
+    return readCache;
+  }
+
   /**
    * Get the meta info of a block stored in volumeMap. To find a block,
    * block pool Id, block Id and generation stamp must match.
@@ -1232,6 +1265,9 @@ private ReplicaInPipeline append(String bpid,
       }
       // If the block is cached, start uncaching it.
       cacheManager.uncacheBlock(bpid, replicaInfo.getBlockId());
+      if (readCache != null) {
+        readCache.invalidate(bpid, replicaInfo.getBlockId());
+      }
 
       // If there are any hardlinks to the block, break them.  This ensures
       // we are not appending to a file that is part of a previous/ directory.
@@ -2102,6 +2138,9 @@ private void invalidate(String bpid, Block[] invalidBlks, boolean async)
 
       // If the block is cached, start uncaching it.
       cacheManager.uncacheBlock(bpid, invalidBlks[i].getBlockId());
+      if (readCache != null) {
+        readCache.invalidate(bpid, invalidBlks[i].getBlockId());
+      }
 
       try {
         if (async) {
@@ -2149,6 +2188,9 @@ public void invalidate(String bpid, ReplicaInfo block) {
 
     // If the block is cached, start uncaching it.
     cacheManager.uncacheBlock(bpid, block.getBlockId());
+    if (readCache != null) {
+      readCache.invalidate(bpid, block.getBlockId());
+    }
 
     datanode.notifyNamenodeDeletedBlock(new ExtendedBlock(bpid, block),
         block.getStorageUuid());
@@ -2297,6 +2339,10 @@ public void shutdown() {
     if (asyncLazyPersistService != null) {
       asyncLazyPersistService.shutdown();
     }
+
+    if (readCache != null) {
+      readCache.shutdown();
+    }
     
     if(volumes != null) {
       volumes.shutdown();
@@ -58,6 +58,15 @@ public long getLength() {
     return length;
   }
 
+  /**
+   * @return a buffer sharing the mapped region, positioned at its start.
+   * The buffer must not be used once the block is closed.
+   */
+  ByteBuffer duplicateBuffer() {
+    Preconditions.checkState(mmap != null, "block is closed");
+    return mmap.duplicate();
+  }
+
   /**
    * Load the block.
    *
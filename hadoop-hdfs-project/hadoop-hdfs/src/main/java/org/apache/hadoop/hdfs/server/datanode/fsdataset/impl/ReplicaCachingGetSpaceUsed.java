@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
+import org.apache.hadoop.util.AutoCloseableLock;
+import org.apache.hadoop.util.DataChecksum;
+import org.apache.hadoop.util.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Computes the space used by a block pool slice from the replicas the
+ * DataNode keeps in memory, rather than by running du over the block pool
+ * directory. Between refreshes the value is kept up to date incrementally as
+ * replicas are finalized and deleted; a refresh only walks the in-memory
+ * replica map, so it does not touch the disks.
+ *
+ * The length of each meta file is derived from the configured checksum, so
+ * replicas written with a different checksum are accounted approximately.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class ReplicaCachingGetSpaceUsed extends FSCachingGetSpaceUsed {
+  static final Logger LOG =
+      LoggerFactory.getLogger(ReplicaCachingGetSpaceUsed.class);
+
+  private final int bytesPerChecksum;
+  private final int checksumSize;
+
+  public ReplicaCachingGetSpaceUsed(Builder builder) throws IOException {
+    super(builder);
+    Configuration conf = builder.getConf();
+    int bpc = DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_DEFAULT;
+    String type = DFSConfigKeys.DFS_CHECKSUM_TYPE_DEFAULT;
+    if (conf != null) {
+      bpc = conf.getInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY, bpc);
+      type = conf.get(DFSConfigKeys.DFS_CHECKSUM_TYPE_KEY, type);
+    }
+    DataChecksum checksum = DataChecksum.newDataChecksum(
+        DataChecksum.Type.valueOf(type), bpc);
+    this.bytesPerChecksum = checksum.getBytesPerChecksum();
+    this.checksumSize = checksum.getChecksumSize();
+  }
+
+  @Override
+  protected void init() {
+    // The block pool slice is built while the dataset lock may be held by
+    // another thread, and before its replicas are loaded. Rather than refresh
+    // now, start from zero; the slice refreshes once its replicas are read.
+    if (used.get() < 0) {
+      used.set(0);
+    }
+    super.init();
+  }
+
+  @Override
+  protected void refresh() {
+    FsVolumeImpl volume = getVolume();
+    if (volume == null || !(volume.getDataset() instanceof FsDatasetImpl)) {
+      return;
+    }
+    refresh(((FsDatasetImpl) volume.getDataset()).volumeMap);
+  }
+
+  /**
+   * Recompute the space used from the replicas of this block pool slice
+   * found in the given map.
+   */
+  void refresh(ReplicaMap volumeMap) {
+    long start = Time.monotonicNow();
+    List<ReplicaInfo> replicas;
+    // Copy the references under the lock, the sizes are summed outside it.
+    try (AutoCloseableLock lock = volumeMap.getLock().acquire()) {
+      Collection<ReplicaInfo> bpReplicas = volumeMap.replicas(getBpid());
+      if (bpReplicas == null) {
+        return;
+      }
+      replicas = new ArrayList<>(bpReplicas);
+    }
+    long dfsUsed = 0;
+    int count = 0;
+    for (ReplicaInfo replica : replicas) {
+      if (replica.getVolume() != getVolume()) {
+        continue;
+      }
+      long bytesOnDisk = replica.getBytesOnDisk();
+      dfsUsed += bytesOnDisk + getMetaFileLength(bytesOnDisk);
+      count++;
+    }
+    setUsed(dfsUsed);
+    LOG.debug("Refreshed the space used of {} on {}: {} bytes in {} replicas,"
+        + " took {} ms", getBpid(), getVolume(), dfsUsed, count,
+        Time.monotonicNow() - start);
+  }
+
+  @VisibleForTesting
+  long getMetaFileLength(long blockLength) {
+    long chunks = (blockLength + bytesPerChecksum - 1) / bytesPerChecksum;
+    return BlockMetadataHeader.getHeaderSize() + chunks * checksumSize;
+  }
+}
@@ -30,6 +30,7 @@
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
+import org.apache.hadoop.metrics2.lib.MutableStat;
 import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
 import org.apache.hadoop.metrics2.lib.MutableGaugeLong;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
@@ -96,6 +97,30 @@ public class DataNodeMetrics {
   @Metric MutableRate        ramDiskBlocksLazyPersistWindowMs;
   final MutableQuantiles[]   ramDiskBlocksLazyPersistWindowMsQuantiles;
 
+  // Read cache metrics
+  @Metric("Reads of replicas served from the read cache")
+  MutableCounterLong readCacheHits;
+  @Metric("Reads of replicas served from the read cache's SSD tier")
+  MutableCounterLong readCacheSsdHits;
+  @Metric("Reads of replicas not found in the read cache")
+  MutableCounterLong readCacheMisses;
+  @Metric("Bytes sent to readers from the read cache")
+  MutableCounterLong readCacheBytesServed;
+  @Metric("Replicas loaded into the read cache")
+  MutableCounterLong readCacheAdmissions;
+  @Metric("Replicas not admitted because they were colder than the victim")
+  MutableCounterLong readCacheAdmissionsRejected;
+  @Metric("Replicas that could not be loaded into the read cache")
+  MutableCounterLong readCacheLoadFailures;
+  @Metric("Replicas evicted from the read cache's memory tier")
+  MutableCounterLong readCacheMemoryEvictions;
+  @Metric("Replicas evicted from the read cache's SSD tier")
+  MutableCounterLong readCacheSsdEvictions;
+  @Metric("Bytes of memory used by the read cache")
+  MutableGaugeLong readCacheMemoryUsed;
+  @Metric("Bytes of SSD used by the read cache")
+  MutableGaugeLong readCacheSsdUsed;
+
   @Metric MutableCounterLong fsyncCount;
   
   @Metric MutableCounterLong volumeFailures;
@@ -157,6 +182,9 @@ public class DataNodeMetrics {
   private MutableCounterLong ecReconstructionDecodingTimeMillis;
   @Metric("Milliseconds spent on write by erasure coding worker")
   private MutableCounterLong ecReconstructionWriteTimeMillis;
+  @Metric(value = "Bytes per second written by erasure coding reconstruction"
+      + " tasks", sampleName = "Tasks", valueName = "BytesPerSec")
+  private MutableStat ecReconstructionThroughput;
 
   final MetricsRegistry registry = new MetricsRegistry("datanode");
   final String name;
@@ -414,6 +442,61 @@ public void incrRamDiskBlocksReadHits() {
     ramDiskBlocksReadHits.incr();
   }
 
+  public void incrReadCacheHits() {
+    readCacheHits.incr();
+  }
+
+  public void incrReadCacheSsdHits() {
+    readCacheSsdHits.incr();
+  }
+
+  public void incrReadCacheMisses() {
+    readCacheMisses.incr();
+  }
+
+  public void incrReadCacheBytesServed(long bytes) {
+    readCacheBytesServed.incr(bytes);
+  }
+
+  public void incrReadCacheAdmissions() {
+    readCacheAdmissions.incr();
+  }
+
+  public void incrReadCacheAdmissionsRejected() {
+    readCacheAdmissionsRejected.incr();
+  }
+
+  public void incrReadCacheLoadFailures() {
+    readCacheLoadFailures.incr();
+  }
+
+  public void incrReadCacheMemoryEvictions() {
+    readCacheMemoryEvictions.incr();
+  }
+
+  public void incrReadCacheSsdEvictions() {
+    readCacheSsdEvictions.incr();
+  }
+
+  public void setReadCacheMemoryUsed(long bytes) {
+    readCacheMemoryUsed.set(bytes);
+  }
+
+  public void setReadCacheSsdUsed(long bytes) {
+    readCacheSsdUsed.set(bytes);
+  }
+
+  /**
+   * @return the fraction of replica reads, since startup, that were served
+   * from the read cache.
+   */
+  @Metric("Fraction of replica reads served from the read cache")
+  public float getReadCacheHitRatio() {
+    final long hits = readCacheHits.value();
+    final long total = hits + readCacheMisses.value();
+    return total == 0 ? 0.0f : (float) hits / total;
+  }
+
   public void incrRamDiskBlocksEvicted() {
     ramDiskBlocksEvicted.incr();
   }
@@ -521,4 +604,8 @@ public void incrECReconstructionWriteTime(long millis) {
   public void incrECReconstructionDecodingTime(long millis) {
     ecReconstructionDecodingTimeMillis.incr(millis);
   }
+
+  public void addECReconstructionThroughput(long bytesPerSec) {
+    ecReconstructionThroughput.add(bytesPerSec);
+  }
 }
@@ -138,7 +138,7 @@ public static void writeHeader(int layoutVersion, DataOutputStream out)
   }
 
   @Override
-  public void close() throws IOException {
+  public synchronized void close() throws IOException {
     if (fp == null) {
       throw new IOException("Trying to use aborted output stream");
     }
@@ -170,7 +170,7 @@ public void close() throws IOException {
   }
   
   @Override
-  public void abort() throws IOException {
+  public synchronized void abort() throws IOException {
     if (fp == null) {
       return;
     }
@@ -200,10 +200,27 @@ public void flushAndSync(boolean durable) throws IOException {
       LOG.info("Nothing to flush");
       return;
     }
-    preallocate(); // preallocate file if necessary
-    doubleBuf.flushTo(fp);
-    if (durable && !shouldSkipFsyncForTests && !shouldSyncWritesAndSkipFsync) {
-      fc.force(false); // metadata updates not needed
+    synchronized (this) {
+      preallocate(); // preallocate file if necessary
+      doubleBuf.flushTo(fp);
+    }
+    if (durable) {
+      sync();
+    }
+  }
+
+  /**
+   * Sync the data flushed to the file so far to persistent store. This may be
+   * called concurrently with flushing more data, which the sync may or may
+   * not include.
+   */
+  public void sync() throws IOException {
+    FileChannel channel = fc;
+    if (channel == null) {
+      throw new IOException("Trying to sync a closed output stream");
+    }
+    if (!shouldSkipFsyncForTests && !shouldSyncWritesAndSkipFsync) {
+      channel.force(false); // metadata updates not needed
     }
   }
 
@@ -216,19 +233,50 @@ public boolean shouldForceSync() {
   }
 
   private void preallocate() throws IOException {
+    preallocate(doubleBuf.getReadyBuf().getLength());
+  }
+
+  /**
+   * Preallocate the file ahead of the data flushed so far, so that at least
+   * the given number of bytes can be flushed without extending the file.
+   * The padding is not synced, see {@link #sync()}.
+   *
+   * @param length the number of bytes to preallocate ahead
+   * @return the number of bytes added to the file
+   */
+  public synchronized long preallocateAhead(long length) throws IOException {
+    if (fp == null || fc == null) {
+      return 0;
+    }
+    return preallocate(length);
+  }
+
+  /**
+   * @return the number of bytes which can be flushed without extending
+   *         the file
+   */
+  public synchronized long getPreallocatedLength() throws IOException {
+    if (fc == null) {
+      return 0;
+    }
+    return fc.size() - fc.position();
+  }
+
+  private long preallocate(long length) throws IOException {
     long position = fc.position();
     long size = fc.size();
-    int bufSize = doubleBuf.getReadyBuf().getLength();
-    long need = bufSize - (size - position);
+    long need = length - (size - position);
     if (need <= 0) {
-      return;
+      return 0;
     }
     long oldSize = size;
     long total = 0;
     long fillCapacity = fill.capacity();
     while (need > 0) {
-      fill.position(0);
-      IOUtils.writeFully(fc, fill, size);
+      // the fill is shared by the streams preallocating concurrently.
+      ByteBuffer buf = fill.duplicate();
+      buf.position(0);
+      IOUtils.writeFully(fc, buf, size);
       need -= fillCapacity;
       size += fillCapacity;
       total += fillCapacity;
@@ -237,6 +285,7 @@ private void preallocate() throws IOException {
       LOG.debug("Preallocated " + total + " bytes at the end of " +
       		"the edit log (offset " + oldSize + ")");
     }
+    return total;
   }
 
   /**
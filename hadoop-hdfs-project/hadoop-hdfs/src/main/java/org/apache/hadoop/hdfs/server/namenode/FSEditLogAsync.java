@@ -20,41 +20,91 @@
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.util.ExitUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+/**
+ * The edit log, with edits written and synced in the background.
+ *
+ * Callers serialize their ops and queue them.  The sync thread writes the
+ * queued ops to the edit log buffer, while the flush thread syncs the edits
+ * written so far to the journals: edits are committed in groups, and the
+ * next group is written while the previous one is synced.  Callers waiting
+ * for their edits, or RPC calls waiting for their responses, are notified
+ * by a thread of their own so that the next sync can start right away.
+ */
 class FSEditLogAsync extends FSEditLog implements Runnable {
   static final Log LOG = LogFactory.getLog(FSEditLog.class);
 
+  // the least number of edits that may wait for a sync.
+  private static final int MIN_UNSYNCED_EDITS = 1024;
+  // buffers larger than this are not kept for serializing the next ops.
+  private static final int MAX_THREAD_BUFFER_SIZE = 1024 * 1024;
+
   // use separate mutex to avoid possible deadlock when stopping the thread.
   private final Object syncThreadLock = new Object();
   private Thread syncThread;
+  private Thread flushThread;
+  private ExecutorService syncNotifyExecutor;
   private static final ThreadLocal<Edit> THREAD_EDIT = new ThreadLocal<Edit>();
+  private static final ThreadLocal<DataOutputBuffer> THREAD_BUFFER =
+      new ThreadLocal<DataOutputBuffer>();
 
   // requires concurrent access from caller threads and syncing thread.
   private final BlockingQueue<Edit> editPendingQ =
       new ArrayBlockingQueue<Edit>(4096);
 
-  // only accessed by syncing thread so no synchronization required.
-  // queue is unbounded because it's effectively limited by the size
-  // of the edit log buffer - ie. a sync will eventually be forced.
+  // edits written to the edit log buffer but not synced yet, in txid order.
+  // requires concurrent access from the syncing and flushing threads, under
+  // the lock.  whatever may end a wait on one of the conditions is signalled
+  // under the lock too: syncWaitQ and the limits only change under it, and
+  // editPendingQ only becomes empty when the syncing thread takes an edit,
+  // which it then adds to syncWaitQ and signals.
   private final Deque<Edit> syncWaitQ = new ArrayDeque<Edit>();
+  private final ReentrantLock syncWaitLock = new ReentrantLock();
+  private final Condition editsWritten = syncWaitLock.newCondition();
+  private final Condition editsSynced = syncWaitLock.newCondition();
+  private long numEditsWritten = 0;
+  // the syncing thread waits for the flushing thread once this many edits
+  // wait for a sync.  it adapts to the edits written during a sync.
+  private int unsyncedEditsLimit;
+  private final int maxUnsyncedEdits;
+  // the number of edits synced by the last sync, which the flushing thread
+  // waits for before the next sync, for at most half the time a sync takes.
+  private int syncGroupSize = 0;
+  // only accessed by the flushing thread.
+  private long avgSyncTimeNanos = 0;
 
   FSEditLogAsync(Configuration conf, NNStorage storage, List<URI> editsDirs) {
     super(conf, storage, editsDirs);
     // op instances cannot be shared due to queuing for background thread.
     cache.disableCache();
+    maxUnsyncedEdits = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_MAX_UNSYNCED_EDITS,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_MAX_UNSYNCED_EDITS_DEFAULT);
+    Preconditions.checkArgument(maxUnsyncedEdits > 0,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_MAX_UNSYNCED_EDITS
+        + " must be positive");
+    unsyncedEditsLimit = Math.min(MIN_UNSYNCED_EDITS, maxUnsyncedEdits);
   }
 
   private boolean isSyncThreadAlive() {
@@ -66,7 +116,20 @@ private boolean isSyncThreadAlive() {
   private void startSyncThread() {
     synchronized(syncThreadLock) {
       if (!isSyncThreadAlive()) {
-        syncThread = new Thread(this, this.getClass().getSimpleName());
+        // the other threads may outlive a failed sync thread.
+        stopSyncThread();
+        final String name = this.getClass().getSimpleName();
+        syncNotifyExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat(name + "-notify").build());
+        flushThread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            flushEdits();
+          }
+        }, name + "-flush");
+        flushThread.start();
+        syncThread = new Thread(this, name);
         syncThread.start();
       }
     }
@@ -78,10 +141,16 @@ private void stopSyncThread() {
         try {
           syncThread.interrupt();
           syncThread.join();
+          flushThread.interrupt();
+          flushThread.join();
+          syncNotifyExecutor.shutdown();
+          syncNotifyExecutor.awaitTermination(1, TimeUnit.MINUTES);
         } catch (InterruptedException e) {
           // we're quitting anyway.
         } finally {
           syncThread = null;
+          flushThread = null;
+          syncNotifyExecutor = null;
         }
       }
     }
@@ -113,6 +182,7 @@ public void close() {
 
   @Override
   void logEdit(final FSEditLogOp op) {
+    serializeFields(op);
     Edit edit = getEditInstance(op);
     THREAD_EDIT.set(edit);
     enqueueEdit(edit);
@@ -145,6 +215,22 @@ public boolean logEdit() {
     edit.logSyncWait();
   }
 
+  // serialize the op in the calling thread, which has a buffer of its own,
+  // rather than in the syncing thread.
+  private void serializeFields(FSEditLogOp op) {
+    DataOutputBuffer buf = THREAD_BUFFER.get();
+    if (buf == null || buf.getData().length > MAX_THREAD_BUFFER_SIZE) {
+      buf = new DataOutputBuffer();
+      THREAD_BUFFER.set(buf);
+    }
+    try {
+      op.serializeFields(buf);
+    } catch (IOException ioe) {
+      // should never happen!  the buffer is in memory.
+      terminate(ioe);
+    }
+  }
+
   private void enqueueEdit(Edit edit) {
     if (LOG.isDebugEnabled()) {
       LOG.debug("logEdit " + edit);
@@ -161,38 +247,99 @@ private void enqueueEdit(Edit edit) {
     }
   }
 
-  private Edit dequeueEdit() throws InterruptedException {
-    // only block for next edit if no pending syncs.
-    return syncWaitQ.isEmpty() ? editPendingQ.take() : editPendingQ.poll();
-  }
-
   @Override
   public void run() {
     try {
       while (true) {
-        boolean doSync;
-        Edit edit = dequeueEdit();
-        if (edit != null) {
-          // sync if requested by edit log.
-          doSync = edit.logEdit();
+        Edit edit = editPendingQ.take();
+        // the flushing thread syncs whatever has been written, so there is
+        // no need to act on the edit log asking for a sync.
+        edit.logEdit();
+        edit.txid = getLastWrittenTxId();
+        syncWaitLock.lock();
+        try {
+          // let a sync catch up if too many edits wait for one already.
+          // the flushing thread may be waiting for more edits, so wake it
+          // before waiting for it.
+          while (syncWaitQ.size() >= unsyncedEditsLimit) {
+            editsWritten.signal();
+            editsSynced.await();
+          }
           syncWaitQ.add(edit);
-        } else {
-          // sync when editq runs dry, but have edits pending a sync.
-          doSync = !syncWaitQ.isEmpty();
+          numEditsWritten++;
+          // the limit may have shrunk below the size of the last sync group.
+          if (editPendingQ.isEmpty() || syncWaitQ.size()
+              >= Math.min(syncGroupSize, unsyncedEditsLimit)) {
+            editsWritten.signal();
+          }
+        } finally {
+          syncWaitLock.unlock();
         }
-        if (doSync) {
-          // normally edit log exceptions cause the NN to terminate, but tests
-          // relying on ExitUtil.terminate need to see the exception.
-          RuntimeException syncEx = null;
-          try {
-            logSync(getLastWrittenTxId());
-          } catch (RuntimeException ex) {
-            syncEx = ex;
+      }
+    } catch (InterruptedException ie) {
+      LOG.info(Thread.currentThread().getName() + " was interrupted, exiting");
+    } catch (Throwable t) {
+      terminate(t);
+    }
+  }
+
+  // sync the edits written so far, and notify their callers, as long as
+  // there are edits waiting for a sync.
+  private void flushEdits() {
+    try {
+      while (true) {
+        final long txid;
+        final long numWritten;
+        syncWaitLock.lock();
+        try {
+          // sync once the queued edits are written, unless too many edits
+          // wait for a sync already.
+          while (syncWaitQ.isEmpty() || (!editPendingQ.isEmpty()
+              && syncWaitQ.size() < unsyncedEditsLimit)) {
+            editsWritten.await();
           }
-          while ((edit = syncWaitQ.poll()) != null) {
-            edit.logSyncNotify(syncEx);
+          // the callers notified after the last sync are likely to log
+          // their next edits soon.  rather than syncing the first of them
+          // and making the others wait for a whole sync, wait a bit for them.
+          long waitNanos = avgSyncTimeNanos / 2;
+          while (waitNanos > 0 && syncWaitQ.size()
+              < Math.min(syncGroupSize, unsyncedEditsLimit)) {
+            waitNanos = editsWritten.awaitNanos(waitNanos);
+          }
+          txid = syncWaitQ.getLast().txid;
+          numWritten = numEditsWritten;
+        } finally {
+          syncWaitLock.unlock();
+        }
+        // normally edit log exceptions cause the NN to terminate, but tests
+        // relying on ExitUtil.terminate need to see the exception.
+        RuntimeException syncEx = null;
+        long syncedTxId = txid;
+        final long start = System.nanoTime();
+        try {
+          logSync(txid);
+          // edits written since the txid may have been synced too.
+          syncedTxId = getSyncTxId();
+        } catch (RuntimeException ex) {
+          syncEx = ex;
+        }
+        final long syncTime = System.nanoTime() - start;
+        avgSyncTimeNanos = avgSyncTimeNanos == 0 ? syncTime
+            : (3 * avgSyncTimeNanos + syncTime) / 4;
+        final List<Edit> synced = new ArrayList<Edit>();
+        syncWaitLock.lock();
+        try {
+          while (!syncWaitQ.isEmpty() &&
+              syncWaitQ.getFirst().txid <= syncedTxId) {
+            synced.add(syncWaitQ.removeFirst());
           }
+          syncGroupSize = synced.size();
+          adjustUnsyncedEditsLimit(numEditsWritten - numWritten);
+          editsSynced.signal();
+        } finally {
+          syncWaitLock.unlock();
         }
+        notifySynced(synced, syncEx);
       }
     } catch (InterruptedException ie) {
       LOG.info(Thread.currentThread().getName() + " was interrupted, exiting");
@@ -201,6 +348,58 @@ public void run() {
     }
   }
 
+  // allow twice the edits written during the last sync to wait for the next
+  // one, so that the syncing thread only waits for slower syncs than usual.
+  // the limit grows at once, but shrinks gradually.
+  private void adjustUnsyncedEditsLimit(long writtenDuringSync) {
+    assert syncWaitLock.isHeldByCurrentThread();
+    long limit = 2 * writtenDuringSync;
+    if (limit < unsyncedEditsLimit) {
+      limit = (3L * unsyncedEditsLimit + limit) / 4;
+    }
+    unsyncedEditsLimit = (int) Math.min(maxUnsyncedEdits,
+        Math.max(MIN_UNSYNCED_EDITS, limit));
+  }
+
+  @VisibleForTesting
+  void setUnsyncedEditsLimit(int limit) {
+    syncWaitLock.lock();
+    try {
+      unsyncedEditsLimit = Math.min(maxUnsyncedEdits, limit);
+      editsWritten.signal();
+      editsSynced.signal();
+    } finally {
+      syncWaitLock.unlock();
+    }
+  }
+
+  @VisibleForTesting
+  int getUnsyncedEditsLimit() {
+    syncWaitLock.lock();
+    try {
+      return unsyncedEditsLimit;
+    } finally {
+      syncWaitLock.unlock();
+    }
+  }
+
+  // the callers are notified by another thread, since sending rpc responses
+  // would hold up the next sync.
+  private void notifySynced(final List<Edit> synced,
+      final RuntimeException syncEx) {
+    if (synced.isEmpty()) {
+      return;
+    }
+    syncNotifyExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        for (Edit edit : synced) {
+          edit.logSyncNotify(syncEx);
+        }
+      }
+    });
+  }
+
   private void terminate(Throwable t) {
     String message = "Exception while edit logging: "+t.getMessage();
     LOG.fatal(message, t);
@@ -222,6 +421,8 @@ private Edit getEditInstance(FSEditLogOp op) {
   private abstract static class Edit {
     final FSEditLog log;
     final FSEditLogOp op;
+    // the last txid written with the edit, set by the syncing thread.
+    long txid;
 
     Edit(FSEditLog log, FSEditLogOp op) {
       this.log = log;
@@ -155,6 +155,8 @@ public abstract class FSEditLogOp {
   long txid;
   byte[] rpcClientId;
   int rpcCallId;
+  // the fields of the op if they were serialized ahead of writing the op.
+  private byte[] serializedFields;
 
   public static class OpInstanceCache {
     private static final ThreadLocal<OpInstanceCacheMap> CACHE =
@@ -209,6 +211,7 @@ final void reset() {
     txid = HdfsServerConstants.INVALID_TXID;
     rpcClientId = RpcConstants.DUMMY_CLIENT_ID;
     rpcCallId = RpcConstants.INVALID_CALL_ID;
+    serializedFields = null;
     resetSubFields();
   }
 
@@ -282,6 +285,19 @@ abstract void readFields(DataInputStream in, int logVersion)
   public abstract void writeFields(DataOutputStream out)
       throws IOException;
 
+  /**
+   * Serialize the fields of the op ahead of writing it, so that writing the
+   * op to the edit log only copies them.  The op must not be modified
+   * afterwards.
+   *
+   * @param buf scratch buffer to serialize the fields into
+   */
+  void serializeFields(DataOutputBuffer buf) throws IOException {
+    buf.reset();
+    writeFields(buf);
+    serializedFields = Arrays.copyOf(buf.getData(), buf.getLength());
+  }
+
   static interface BlockListUpdatingOp {
     Block[] getBlocks();
     String getPath();
@@ -4863,7 +4879,11 @@ public void writeOp(FSEditLogOp op) throws IOException {
       buf.writeByte(op.opCode.getOpCode());
       buf.writeInt(0); // write 0 for the length first
       buf.writeLong(op.txid);
-      op.writeFields(buf);
+      if (op.serializedFields != null) {
+        buf.write(op.serializedFields);
+      } else {
+        op.writeFields(buf);
+      }
       int end = buf.getLength();
       
       // write the length back: content of the op + 4 bytes checksum - op_code
@@ -1576,10 +1576,12 @@ public void blockReceivedAndDeleted(final DatanodeRegistration nodeReg,
           +" blocks.");
     }
     final BlockManager bm = namesystem.getBlockManager();
-    for (final StorageReceivedDeletedBlocks r : receivedAndDeletedBlocks) {
-      bm.enqueueBlockOp(new Runnable() {
-        @Override
-        public void run() {
+    // Queue the reports of all the storages as one operation, which is
+    // batched with the reports of other datanodes under the write lock.
+    bm.enqueueBlockOp(new Runnable() {
+      @Override
+      public void run() {
+        for (StorageReceivedDeletedBlocks r : receivedAndDeletedBlocks) {
           try {
             namesystem.processIncrementalBlockReport(nodeReg, r);
           } catch (Exception ex) {
@@ -1590,8 +1592,8 @@ public void run() {
                     + "failed from " + nodeReg + ": " + ex.getMessage());
           }
         }
-      });
-    }
+      }
+    });
   }
 
   @Override // DatanodeProtocol
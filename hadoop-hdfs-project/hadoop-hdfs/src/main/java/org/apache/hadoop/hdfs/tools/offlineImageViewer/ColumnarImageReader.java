@@ -0,0 +1,250 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.tools.offlineImageViewer;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.tools.offlineImageViewer.PBImageColumnarWriter.Column;
+import org.apache.hadoop.hdfs.tools.offlineImageViewer.PBImageColumnarWriter.Encoding;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the files written by {@link PBImageColumnarWriter}, one row group at
+ * a time. The minimum and maximum values of the columns of every row group are
+ * available without reading the row group.
+ */
+public class ColumnarImageReader implements Closeable {
+  private static final int NUM_COLUMNS = Column.values().length;
+
+  /** Footer entry of a row group. */
+  private static class RowGroupInfo {
+    private final int numRows;
+    private final long[] offsets = new long[NUM_COLUMNS];
+    private final int[] lengths = new int[NUM_COLUMNS];
+    private final Object[] mins = new Object[NUM_COLUMNS];
+    private final Object[] maxs = new Object[NUM_COLUMNS];
+
+    RowGroupInfo(int numRows) {
+      this.numRows = numRows;
+    }
+  }
+
+  /** The values of the columns of a row group. */
+  public static class RowGroup {
+    private final int numRows;
+    private final long[][] numbers = new long[NUM_COLUMNS][];
+    private final String[][] strings = new String[NUM_COLUMNS][];
+
+    RowGroup(int numRows) {
+      this.numRows = numRows;
+    }
+
+    public int getNumRows() {
+      return numRows;
+    }
+
+    public long getLong(Column column, int row) {
+      Preconditions.checkArgument(column.isNumeric(),
+          "%s is not a numeric column", column);
+      return numbers[column.ordinal()][row];
+    }
+
+    public String getString(Column column, int row) {
+      Preconditions.checkArgument(!column.isNumeric(),
+          "%s is a numeric column", column);
+      return strings[column.ordinal()][row];
+    }
+
+    /** @return the full path of the inode in the given row. */
+    public String getPath(int row) {
+      String parent = getString(Column.PARENT, row);
+      String name = getString(Column.NAME, row);
+      return new Path(parent.isEmpty() ? "/" : parent,
+          name.isEmpty() ? "/" : name).toString();
+    }
+  }
+
+  private final RandomAccessFile file;
+  private final RowGroupInfo[] rowGroups;
+
+  public ColumnarImageReader(File path) throws IOException {
+    file = new RandomAccessFile(path, "r");
+    try {
+      byte[] magic = new byte[PBImageColumnarWriter.MAGIC.length];
+      file.readFully(magic);
+      checkMagic(magic);
+      file.seek(file.length() - magic.length);
+      file.readFully(magic);
+      checkMagic(magic);
+      file.seek(file.length() - magic.length - 8);
+      long footerOffset = file.readLong();
+      byte[] footer = new byte[(int) (file.length() - magic.length - 8
+          - footerOffset)];
+      file.seek(footerOffset);
+      file.readFully(footer);
+      rowGroups = readFooter(new DataInputStream(
+          new ByteArrayInputStream(footer)));
+    } catch (IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  private static void checkMagic(byte[] magic) throws IOException {
+    if (!Arrays.equals(magic, PBImageColumnarWriter.MAGIC)) {
+      throw new IOException("Not a columnar fsimage file");
+    }
+  }
+
+  private static RowGroupInfo[] readFooter(DataInputStream in)
+      throws IOException {
+    int version = in.readInt();
+    if (version != PBImageColumnarWriter.VERSION) {
+      throw new IOException("Unsupported version " + version);
+    }
+    int numColumns = WritableUtils.readVInt(in);
+    if (numColumns != NUM_COLUMNS) {
+      throw new IOException("Unexpected number of columns " + numColumns);
+    }
+    for (Column column : Column.values()) {
+      String name = Text.readString(in);
+      Encoding encoding = WritableUtils.readEnum(in, Encoding.class);
+      if (!name.equals(column.name()) || encoding != column.getEncoding()) {
+        throw new IOException("Unexpected column " + name + " " + encoding);
+      }
+    }
+    RowGroupInfo[] infos = new RowGroupInfo[WritableUtils.readVInt(in)];
+    for (int i = 0; i < infos.length; i++) {
+      infos[i] = new RowGroupInfo(WritableUtils.readVInt(in));
+      for (int c = 0; c < NUM_COLUMNS; c++) {
+        infos[i].offsets[c] = WritableUtils.readVLong(in);
+        infos[i].lengths[c] = WritableUtils.readVInt(in);
+      }
+      for (Column column : Column.values()) {
+        int c = column.ordinal();
+        if (column.isNumeric()) {
+          infos[i].mins[c] = WritableUtils.readVLong(in);
+          infos[i].maxs[c] = WritableUtils.readVLong(in);
+        } else {
+          infos[i].mins[c] = Text.readString(in);
+          infos[i].maxs[c] = Text.readString(in);
+        }
+      }
+    }
+    return infos;
+  }
+
+  public int getNumRowGroups() {
+    return rowGroups.length;
+  }
+
+  /** @return the number of inodes in the file. */
+  public long getNumRows() {
+    long numRows = 0;
+    for (RowGroupInfo info : rowGroups) {
+      numRows += info.numRows;
+    }
+    return numRows;
+  }
+
+  public int getNumRows(int rowGroup) {
+    return rowGroups[rowGroup].numRows;
+  }
+
+  /** @return the minimum value of a numeric column in a row group. */
+  public long getMin(int rowGroup, Column column) {
+    return (Long) rowGroups[rowGroup].mins[column.ordinal()];
+  }
+
+  /** @return the maximum value of a numeric column in a row group. */
+  public long getMax(int rowGroup, Column column) {
+    return (Long) rowGroups[rowGroup].maxs[column.ordinal()];
+  }
+
+  /** @return the smallest value of a string column in a row group. */
+  public String getMinString(int rowGroup, Column column) {
+    return (String) rowGroups[rowGroup].mins[column.ordinal()];
+  }
+
+  /** @return the largest value of a string column in a row group. */
+  public String getMaxString(int rowGroup, Column column) {
+    return (String) rowGroups[rowGroup].maxs[column.ordinal()];
+  }
+
+  /** Read and decode all the columns of a row group. */
+  public RowGroup readRowGroup(int rowGroup) throws IOException {
+    RowGroupInfo info = rowGroups[rowGroup];
+    RowGroup result = new RowGroup(info.numRows);
+    for (Column column : Column.values()) {
+      int c = column.ordinal();
+      byte[] chunk = new byte[info.lengths[c]];
+      file.seek(info.offsets[c]);
+      file.readFully(chunk);
+      try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+          new ByteArrayInputStream(chunk)))) {
+        switch (column.getEncoding()) {
+        case DELTA:
+          long[] numbers = new long[info.numRows];
+          long previous = 0;
+          for (int i = 0; i < numbers.length; i++) {
+            previous += WritableUtils.readVLong(in);
+            numbers[i] = previous;
+          }
+          result.numbers[c] = numbers;
+          break;
+        case DICTIONARY:
+          String[] dictionary = new String[WritableUtils.readVInt(in)];
+          for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = Text.readString(in);
+          }
+          String[] values = new String[info.numRows];
+          for (int i = 0; i < values.length; i++) {
+            values[i] = dictionary[WritableUtils.readVInt(in)];
+          }
+          result.strings[c] = values;
+          break;
+        case PLAIN:
+          String[] names = new String[info.numRows];
+          for (int i = 0; i < names.length; i++) {
+            names[i] = Text.readString(in);
+          }
+          result.strings[c] = names;
+          break;
+        default:
+          throw new IOException("Unknown encoding " + column.getEncoding());
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+}
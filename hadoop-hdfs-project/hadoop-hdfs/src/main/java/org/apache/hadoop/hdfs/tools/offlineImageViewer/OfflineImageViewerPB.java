@@ -32,6 +32,7 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.util.StringUtils;
 
@@ -77,6 +78,10 @@ public class OfflineImageViewerPB {
       + "    to both inodes and inodes-under-construction, separated by a\n"
       + "    delimiter. The default delimiter is \\t, though this may be\n"
       + "    changed via the -delimiter argument.\n"
+      + "  * Columnar (experimental): Generate a compressed columnar file with\n"
+      + "    the elements of the Delimited processor, for analytics. The\n"
+      + "    inodes are written in row groups with the statistics of their\n"
+      + "    columns.\n"
       + "\n"
       + "Required command line arguments:\n"
       + "-i,--inputFile <arg>   FSImage or XML file to process.\n"
@@ -89,12 +94,20 @@ public class OfflineImageViewerPB {
       + "                       will also create an <outputFile>.md5 file.\n"
       + "-p,--processor <arg>   Select which type of processor to apply\n"
       + "                       against image file. (XML|FileDistribution|\n"
-      + "                       ReverseXML|Web|Delimited)\n"
+      + "                       ReverseXML|Web|Delimited|Columnar)\n"
       + "                       The default is Web.\n"
       + "-delimiter <arg>       Delimiting string to use with Delimited processor.  \n"
       + "-t,--temp <arg>        Use temporary dir to cache intermediate result to generate\n"
-      + "                       Delimited outputs. If not set, Delimited processor constructs\n"
+      + "                       Delimited or Columnar outputs. If not set, Delimited processor constructs\n"
       + "                       the namespace in memory before outputting text.\n"
+      + "-m,--multiThread <arg> Number of threads to decode and output the inodes\n"
+      + "                       with the Delimited or Columnar processors.\n"
+      + "                       (1 by default)\n"
+      + "                       With more than one thread, the namespace is indexed\n"
+      + "                       outside of the Java heap and -t cannot be used.\n"
+      + "                       Each thread writes its own output: the output file\n"
+      + "                       and <outputFile>.<n> for the thread n > 0.\n"
+      + "                       The Columnar processor writes a single file.\n"
       + "-h,--help              Display usage information and exit\n";
 
   /**
@@ -119,6 +132,7 @@ private static Options buildOptions() {
     options.addOption("addr", true, "");
     options.addOption("delimiter", true, "");
     options.addOption("t", "temp", true, "");
+    options.addOption("m", "multiThread", true, "");
 
     return options;
   }
@@ -172,6 +186,18 @@ public static int run(String[] args) throws Exception {
     String delimiter = cmd.getOptionValue("delimiter",
         PBImageDelimitedTextWriter.DEFAULT_DELIMITER);
     String tempPath = cmd.getOptionValue("t", "");
+    int numThreads = Integer.parseInt(cmd.getOptionValue("m", "1"));
+    if (numThreads < 1) {
+      System.err.println("Invalid number of threads specified : " + numThreads);
+      printUsage();
+      return -1;
+    }
+    if (numThreads > 1 && !tempPath.isEmpty()) {
+      System.err.println("The temporary dir cannot be used with multiple "
+          + "threads");
+      printUsage();
+      return -1;
+    }
 
     Configuration conf = new Configuration();
     try (PrintStream out = outputFile.equals("-") ?
@@ -206,8 +232,28 @@ public static int run(String[] args) throws Exception {
         }
         break;
       case "DELIMITED":
-        try (PBImageDelimitedTextWriter writer =
-            new PBImageDelimitedTextWriter(out, delimiter, tempPath)) {
+        PrintStream[] outs = new PrintStream[
+            outputFile.equals("-") ? 1 : numThreads];
+        outs[0] = out;
+        try {
+          for (int i = 1; i < outs.length; i++) {
+            outs[i] = new PrintStream(outputFile + "." + i, "UTF-8");
+          }
+          try (PBImageDelimitedTextWriter writer =
+              new PBImageDelimitedTextWriter(outs, delimiter, tempPath,
+                  numThreads)) {
+            writer.visit(new RandomAccessFile(inputFile, "r"));
+          }
+        } finally {
+          for (int i = 1; i < outs.length; i++) {
+            IOUtils.closeStream(outs[i]);
+          }
+        }
+        break;
+      case "COLUMNAR":
+        try (PBImageColumnarWriter writer = new PBImageColumnarWriter(out,
+            tempPath, numThreads,
+            PBImageColumnarWriter.DEFAULT_ROW_GROUP_SIZE)) {
           writer.visit(new RandomAccessFile(inputFile, "r"));
         }
         break;
@@ -0,0 +1,403 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.tools.offlineImageViewer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.CountingOutputStream;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.INode;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.INodeDirectory;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.INodeFile;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.INodeSymlink;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * PBImageColumnarWriter writes the inodes of the PB fsimage to a compressed
+ * columnar file for analytics, see {@link ColumnarImageReader}. It has the
+ * elements of {@link PBImageDelimitedTextWriter} plus the inode id, with the
+ * times in milliseconds and the permission as a number.
+ *
+ * The inodes are written in row groups of up to
+ * {@link #DEFAULT_ROW_GROUP_SIZE} inodes, each column of a row group in its
+ * own deflate compressed chunk:
+ * <ul>
+ *   <li>the numbers are stored as the variable-length difference with the
+ *   previous value of the column;</li>
+ *   <li>the parent directories, the users and the groups are dictionary
+ *   encoded;</li>
+ *   <li>the names are stored as they are.</li>
+ * </ul>
+ * Only the current row group of each thread is kept in memory. With multiple
+ * threads, every thread fills and compresses its own row groups, so the
+ * inodes are grouped by the thread which decoded them and the order of the
+ * rows in the file is not deterministic. The footer has the offsets
+ * and the minimum and maximum values of every column chunk, so the readers
+ * can skip the row groups they do not need:
+ * <pre>
+ *   MAGIC
+ *   row group 0: chunk of column 0, chunk of column 1...
+ *   row group 1...
+ *   footer: version, columns, row groups (rows and chunks)
+ *   footer offset (long), MAGIC
+ * </pre>
+ */
+public class PBImageColumnarWriter extends PBImageTextWriter {
+  static final byte[] MAGIC = "OIVCOLS1".getBytes(StandardCharsets.UTF_8);
+  static final int VERSION = 1;
+  static final int DEFAULT_ROW_GROUP_SIZE = 64 * 1024;
+
+  /** How the values of a column are stored. */
+  enum Encoding {
+    /** Numbers stored as the difference with the previous value. */
+    DELTA,
+    /** Strings stored as their index in the dictionary of the chunk. */
+    DICTIONARY,
+    /** Strings stored as they are. */
+    PLAIN
+  }
+
+  /** The columns of the file, in order. */
+  public enum Column {
+    ID(Encoding.DELTA),
+    PARENT(Encoding.DICTIONARY),
+    NAME(Encoding.PLAIN),
+    /** The number of the {@link INode.Type}. */
+    TYPE(Encoding.DELTA),
+    REPLICATION(Encoding.DELTA),
+    MODIFICATION_TIME(Encoding.DELTA),
+    ACCESS_TIME(Encoding.DELTA),
+    PREFERRED_BLOCK_SIZE(Encoding.DELTA),
+    BLOCKS_COUNT(Encoding.DELTA),
+    FILE_SIZE(Encoding.DELTA),
+    NS_QUOTA(Encoding.DELTA),
+    DS_QUOTA(Encoding.DELTA),
+    PERMISSION(Encoding.DELTA),
+    /** 1 if the inode has ACL entries, 0 otherwise. */
+    ACL(Encoding.DELTA),
+    USER_NAME(Encoding.DICTIONARY),
+    GROUP_NAME(Encoding.DICTIONARY);
+
+    private final Encoding encoding;
+
+    Column(Encoding encoding) {
+      this.encoding = encoding;
+    }
+
+    Encoding getEncoding() {
+      return encoding;
+    }
+
+    public boolean isNumeric() {
+      return encoding == Encoding.DELTA;
+    }
+  }
+
+  /** The values of a column in the current row group. */
+  private static class ColumnChunk {
+    private final Column column;
+    private final DataOutputBuffer values = new DataOutputBuffer();
+    private final DataOutputBuffer dictionaryValues = new DataOutputBuffer();
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private long previous;
+    private long min;
+    private long max;
+    private String minString;
+    private String maxString;
+
+    ColumnChunk(Column column) {
+      this.column = column;
+      reset();
+    }
+
+    void add(long value) throws IOException {
+      WritableUtils.writeVLong(values, value - previous);
+      previous = value;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+
+    void add(String value) throws IOException {
+      if (column.getEncoding() == Encoding.DICTIONARY) {
+        Integer index = dictionary.get(value);
+        if (index == null) {
+          index = dictionary.size();
+          dictionary.put(value, index);
+          Text.writeString(dictionaryValues, value);
+        }
+        WritableUtils.writeVInt(values, index);
+      } else {
+        Text.writeString(values, value);
+      }
+      if (minString == null || value.compareTo(minString) < 0) {
+        minString = value;
+      }
+      if (maxString == null || value.compareTo(maxString) > 0) {
+        maxString = value;
+      }
+    }
+
+    /** Compress the chunk to the output and start a new one. */
+    void write(OutputStream out) throws IOException {
+      Deflater deflater = new Deflater();
+      try {
+        // Finished without closing the output
+        DeflaterOutputStream zout = new DeflaterOutputStream(out, deflater);
+        DataOutputStream dout = new DataOutputStream(zout);
+        if (column.getEncoding() == Encoding.DICTIONARY) {
+          WritableUtils.writeVInt(dout, dictionary.size());
+          dout.write(dictionaryValues.getData(), 0,
+              dictionaryValues.getLength());
+        }
+        dout.write(values.getData(), 0, values.getLength());
+        dout.flush();
+        zout.finish();
+      } finally {
+        deflater.end();
+      }
+    }
+
+    void writeStats(DataOutput out) throws IOException {
+      if (column.isNumeric()) {
+        WritableUtils.writeVLong(out, min);
+        WritableUtils.writeVLong(out, max);
+      } else {
+        Text.writeString(out, minString);
+        Text.writeString(out, maxString);
+      }
+    }
+
+    void reset() {
+      values.reset();
+      dictionaryValues.reset();
+      dictionary.clear();
+      previous = 0;
+      min = Long.MAX_VALUE;
+      max = Long.MIN_VALUE;
+      minString = null;
+      maxString = null;
+    }
+  }
+
+  /** Footer entry of a row group. */
+  private static class RowGroup {
+    private final int numRows;
+    private final long[] offsets = new long[Column.values().length];
+    private final int[] lengths = new int[Column.values().length];
+    private final DataOutputBuffer stats = new DataOutputBuffer();
+
+    RowGroup(int numRows) {
+      this.numRows = numRows;
+    }
+  }
+
+  /** The row group being filled by a thread. */
+  private static class RowGroupBuilder {
+    private final ColumnChunk[] chunks =
+        new ColumnChunk[Column.values().length];
+    private final DataOutputBuffer compressed = new DataOutputBuffer();
+    private int numRows = 0;
+
+    RowGroupBuilder() {
+      for (Column column : Column.values()) {
+        chunks[column.ordinal()] = new ColumnChunk(column);
+      }
+    }
+
+    void add(Column column, long value) throws IOException {
+      chunks[column.ordinal()].add(value);
+    }
+
+    void add(Column column, String value) throws IOException {
+      chunks[column.ordinal()].add(value);
+    }
+  }
+
+  private final PrintStream printStream;
+  private final CountingOutputStream out;
+  private final int rowGroupSize;
+  private final RowGroupBuilder[] builders;
+  private final List<RowGroup> rowGroups = new ArrayList<>();
+
+  PBImageColumnarWriter(PrintStream out, String tempPath) throws IOException {
+    this(out, tempPath, 1, DEFAULT_ROW_GROUP_SIZE);
+  }
+
+  /**
+   * @param out the stream to write the file to.
+   * @param tempPath the path to store metadata, see {@link PBImageTextWriter}.
+   * @param numThreads the number of threads to decode the inodes and build
+   *                   the row groups.
+   * @param rowGroupSize the maximum number of inodes in a row group.
+   */
+  PBImageColumnarWriter(PrintStream out, String tempPath, int numThreads,
+      int rowGroupSize) throws IOException {
+    super(new PrintStream[] {out}, tempPath, numThreads);
+    Preconditions.checkArgument(rowGroupSize > 0,
+        "Invalid row group size %s", rowGroupSize);
+    this.printStream = out;
+    this.out = new CountingOutputStream(new BufferedOutputStream(out));
+    this.rowGroupSize = rowGroupSize;
+    this.builders = new RowGroupBuilder[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      builders[i] = new RowGroupBuilder();
+    }
+  }
+
+  @Override
+  protected void outputHeader() throws IOException {
+    out.write(MAGIC);
+  }
+
+  @Override
+  protected void outputINode(String parent, INode inode, int thread)
+      throws IOException {
+    RowGroupBuilder b = builders[thread];
+    PermissionStatus p = null;
+    boolean hasAcl = false;
+    b.add(Column.ID, inode.getId());
+    b.add(Column.PARENT, parent);
+    b.add(Column.NAME, inode.getName().toStringUtf8());
+    b.add(Column.TYPE, inode.getType().getNumber());
+    switch (inode.getType()) {
+    case FILE:
+      INodeFile file = inode.getFile();
+      p = getPermission(file.getPermission());
+      hasAcl = file.hasAcl() && file.getAcl().getEntriesCount() > 0;
+      b.add(Column.REPLICATION, file.getReplication());
+      b.add(Column.MODIFICATION_TIME, file.getModificationTime());
+      b.add(Column.ACCESS_TIME, file.getAccessTime());
+      b.add(Column.PREFERRED_BLOCK_SIZE, file.getPreferredBlockSize());
+      b.add(Column.BLOCKS_COUNT, file.getBlocksCount());
+      b.add(Column.FILE_SIZE, FSImageLoader.getFileSize(file));
+      b.add(Column.NS_QUOTA, 0);
+      b.add(Column.DS_QUOTA, 0);
+      break;
+    case DIRECTORY:
+      INodeDirectory dir = inode.getDirectory();
+      p = getPermission(dir.getPermission());
+      hasAcl = dir.hasAcl() && dir.getAcl().getEntriesCount() > 0;
+      b.add(Column.REPLICATION, 0);
+      b.add(Column.MODIFICATION_TIME, dir.getModificationTime());
+      b.add(Column.ACCESS_TIME, 0);
+      b.add(Column.PREFERRED_BLOCK_SIZE, 0);
+      b.add(Column.BLOCKS_COUNT, 0);
+      b.add(Column.FILE_SIZE, 0);
+      b.add(Column.NS_QUOTA, dir.getNsQuota());
+      b.add(Column.DS_QUOTA, dir.getDsQuota());
+      break;
+    case SYMLINK:
+      INodeSymlink s = inode.getSymlink();
+      p = getPermission(s.getPermission());
+      b.add(Column.REPLICATION, 0);
+      b.add(Column.MODIFICATION_TIME, s.getModificationTime());
+      b.add(Column.ACCESS_TIME, s.getAccessTime());
+      b.add(Column.PREFERRED_BLOCK_SIZE, 0);
+      b.add(Column.BLOCKS_COUNT, 0);
+      b.add(Column.FILE_SIZE, 0);
+      b.add(Column.NS_QUOTA, 0);
+      b.add(Column.DS_QUOTA, 0);
+      break;
+    default:
+      break;
+    }
+    assert p != null;
+    b.add(Column.PERMISSION, p.getPermission().toShort());
+    b.add(Column.ACL, hasAcl ? 1 : 0);
+    b.add(Column.USER_NAME, p.getUserName());
+    b.add(Column.GROUP_NAME, p.getGroupName());
+    if (++b.numRows == rowGroupSize) {
+      writeRowGroup(b);
+    }
+  }
+
+  @Override
+  protected synchronized void outputFooter() throws IOException {
+    for (RowGroupBuilder b : builders) {
+      if (b.numRows > 0) {
+        writeRowGroup(b);
+      }
+    }
+    long footerOffset = out.getCount();
+    DataOutputStream footer = new DataOutputStream(out);
+    footer.writeInt(VERSION);
+    WritableUtils.writeVInt(footer, Column.values().length);
+    for (Column column : Column.values()) {
+      Text.writeString(footer, column.name());
+      WritableUtils.writeEnum(footer, column.getEncoding());
+    }
+    WritableUtils.writeVInt(footer, rowGroups.size());
+    for (RowGroup rowGroup : rowGroups) {
+      WritableUtils.writeVInt(footer, rowGroup.numRows);
+      for (int i = 0; i < rowGroup.offsets.length; i++) {
+        WritableUtils.writeVLong(footer, rowGroup.offsets[i]);
+        WritableUtils.writeVInt(footer, rowGroup.lengths[i]);
+      }
+      footer.write(rowGroup.stats.getData(), 0, rowGroup.stats.getLength());
+    }
+    footer.writeLong(footerOffset);
+    footer.write(MAGIC);
+    footer.flush();
+    // PrintStream does not throw the errors of the underlying stream
+    if (printStream.checkError()) {
+      throw new IOException("Failed to write the columnar file");
+    }
+  }
+
+  /**
+   * Compress the row group of a thread and append it to the file. Only the
+   * append is serialized between the threads.
+   */
+  private void writeRowGroup(RowGroupBuilder b) throws IOException {
+    RowGroup rowGroup = new RowGroup(b.numRows);
+    b.compressed.reset();
+    for (ColumnChunk chunk : b.chunks) {
+      int i = chunk.column.ordinal();
+      rowGroup.offsets[i] = b.compressed.getLength();
+      chunk.write(b.compressed);
+      rowGroup.lengths[i] = (int) (b.compressed.getLength()
+          - rowGroup.offsets[i]);
+      chunk.writeStats(rowGroup.stats);
+      chunk.reset();
+    }
+    synchronized (this) {
+      long offset = out.getCount();
+      for (int i = 0; i < rowGroup.offsets.length; i++) {
+        rowGroup.offsets[i] += offset;
+      }
+      out.write(b.compressed.getData(), 0, b.compressed.getLength());
+      rowGroups.add(rowGroup);
+    }
+    b.numRows = 0;
+  }
+}
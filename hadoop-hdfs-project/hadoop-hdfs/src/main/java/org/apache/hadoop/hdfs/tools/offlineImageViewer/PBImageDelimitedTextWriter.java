@@ -46,8 +46,14 @@
 public class PBImageDelimitedTextWriter extends PBImageTextWriter {
   static final String DEFAULT_DELIMITER = "\t";
   private static final String DATE_FORMAT="yyyy-MM-dd HH:mm";
-  private final SimpleDateFormat dateFormatter =
-      new SimpleDateFormat(DATE_FORMAT);
+  /** The entries may be generated by multiple threads. */
+  private final ThreadLocal<SimpleDateFormat> dateFormatter =
+      new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+          return new SimpleDateFormat(DATE_FORMAT);
+        }
+      };
 
   private final String delimiter;
 
@@ -57,8 +63,14 @@ public class PBImageDelimitedTextWriter extends PBImageTextWriter {
     this.delimiter = delimiter;
   }
 
+  PBImageDelimitedTextWriter(PrintStream[] outs, String delimiter,
+      String tempPath, int numThreads) throws IOException {
+    super(outs, tempPath, numThreads);
+    this.delimiter = delimiter;
+  }
+
   private String formatDate(long date) {
-    return dateFormatter.format(new Date(date));
+    return dateFormatter.get().format(new Date(date));
   }
 
   private void append(StringBuffer buffer, int field) {
@@ -77,6 +89,23 @@ private void append(StringBuffer buffer, String field) {
   }
 
   @Override
+  protected void outputHeader() {
+    for (PrintStream out : getOutputs()) {
+      out.println(getHeader());
+    }
+  }
+
+  @Override
+  protected void outputINode(String parent, INode inode, int thread) {
+    PrintStream[] outs = getOutputs();
+    outs[thread % outs.length].println(getEntry(parent, inode));
+  }
+
+  /**
+   * Get text output for the given inode.
+   * @param parent the path of parent directory
+   * @param inode the INode object to output.
+   */
   public String getEntry(String parent, INode inode) {
     StringBuffer buffer = new StringBuffer();
     String inodeName = inode.getName().toStringUtf8();
@@ -139,7 +168,9 @@ public String getEntry(String parent, INode inode) {
     return buffer.toString();
   }
 
-  @Override
+  /**
+   * Get text output for the header line.
+   */
   public String getHeader() {
     StringBuffer buffer = new StringBuffer();
     buffer.append("Path");
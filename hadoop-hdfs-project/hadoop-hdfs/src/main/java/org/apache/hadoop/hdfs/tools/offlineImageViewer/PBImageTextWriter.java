@@ -20,6 +20,8 @@
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.CodedInputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -46,6 +48,7 @@
 
 import java.io.BufferedInputStream;
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -54,18 +57,30 @@
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class reads the protobuf-based fsimage and generates text output
- * for each inode to {@link PBImageTextWriter#out}. The sub-class can override
- * {@link getEntry()} to generate formatted string for each inode.
+ * This class reads the protobuf-based fsimage and generates output for each
+ * inode to its outputs. The sub-classes implement
+ * {@link #outputINode(String, INode, int)} to generate the output of each
+ * inode.
  *
  * Since protobuf-based fsimage does not guarantee the order of inodes and
  * directories, PBImageTextWriter runs two-phase scans:
@@ -80,10 +95,17 @@
  *   and generate output.</li>
  * </ol>
  *
- * Two various of {@link MetadataMap} are provided. {@link InMemoryMetadataDB}
+ * Three various of {@link MetadataMap} are provided. {@link InMemoryMetadataDB}
  * stores all metadata in memory (O(n) memory) while
  * {@link LevelDBMetadataMap} stores metadata in LevelDB on disk (O(1) memory).
  * User can choose between them based on the time/space tradeoffs.
+ * {@link OffHeapMetadataMap} stores a compact index of the metadata outside of
+ * the Java heap and is used when the inodes are processed by multiple threads.
+ *
+ * With multiple threads, one thread reads the serialized inodes from the INode
+ * sections and the others decode them, look up their parent paths and write
+ * the text outputs. Each thread writes to its own output if there are enough
+ * of them; otherwise, the threads share the outputs.
  */
 abstract class PBImageTextWriter implements Closeable {
   private static final Logger LOG =
@@ -117,6 +139,24 @@ private static interface MetadataMap extends Closeable {
     public void sync() throws IOException;
   }
 
+  /**
+   * A LRU cache for directory path strings.
+   *
+   * The key of this LRU cache is the inode of a directory.
+   */
+  private static class DirPathCache extends LinkedHashMap<Long, String> {
+    private final static int CAPACITY = 16 * 1024;
+
+    DirPathCache() {
+      super(CAPACITY);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, String> entry) {
+      return super.size() > CAPACITY;
+    }
+  }
+
   /**
    * Maintain all the metadata in memory.
    */
@@ -271,24 +311,6 @@ public void sync() throws IOException {
       }
     }
 
-    /**
-     * A LRU cache for directory path strings.
-     *
-     * The key of this LRU cache is the inode of a directory.
-     */
-    private static class DirPathCache extends LinkedHashMap<Long, String> {
-      private final static int CAPACITY = 16 * 1024;
-
-      DirPathCache() {
-        super(CAPACITY);
-      }
-
-      @Override
-      protected boolean removeEldestEntry(Map.Entry<Long, String> entry) {
-        return super.size() > CAPACITY;
-      }
-    }
-
     /** Map the child inode to the parent directory inode. */
     private LevelDBStore dirChildMap = null;
     /** Directory entry map */
@@ -392,8 +414,166 @@ public void sync() throws IOException {
     }
   }
 
+  /**
+   * Maintain the metadata in direct buffers outside of the Java heap. For
+   * each inode id, it only keeps the id of the parent directory and, for the
+   * directories, the offset of their names in a buffer. The buffers are
+   * allocated as the ids are written, so the unused ranges of ids do not take
+   * any memory.
+   *
+   * The metadata is written by one thread at a time. Once it is written, the
+   * parent paths can be looked up concurrently.
+   */
+  private static class OffHeapMetadataMap implements MetadataMap {
+    /**
+     * An array of longs split in direct buffers, 0 for the unwritten values.
+     */
+    private static class LongArray {
+      private static final int CHUNK_BITS = 20;
+      private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+      private ByteBuffer[] chunks = new ByteBuffer[0];
+
+      long get(long index) {
+        final int chunk = (int) (index >>> CHUNK_BITS);
+        if (chunk >= chunks.length || chunks[chunk] == null) {
+          return 0;
+        }
+        return chunks[chunk].getLong((int) (index & (CHUNK_SIZE - 1)) << 3);
+      }
+
+      void set(long index, long value) {
+        final int chunk = (int) (index >>> CHUNK_BITS);
+        if (chunk >= chunks.length) {
+          chunks = Arrays.copyOf(chunks, Math.max(chunk + 1, chunks.length * 2));
+        }
+        if (chunks[chunk] == null) {
+          chunks[chunk] = ByteBuffer.allocateDirect(CHUNK_SIZE << 3);
+        }
+        chunks[chunk].putLong((int) (index & (CHUNK_SIZE - 1)) << 3, value);
+      }
+    }
+
+    private static final int NAME_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /** Inode id to parent directory inode id. */
+    private LongArray parents = new LongArray();
+    /** Directory inode id to the offset of its name plus one. */
+    private LongArray dirNames = new LongArray();
+    /** Directory names, stored as their length and their UTF-8 bytes. */
+    private List<ByteBuffer> names = new ArrayList<>();
+    /** The paths of the recent directories of each thread. */
+    private final ThreadLocal<DirPathCache> dirPathCache =
+        new ThreadLocal<DirPathCache>() {
+          @Override
+          protected DirPathCache initialValue() {
+            return new DirPathCache();
+          }
+        };
+
+    OffHeapMetadataMap() {
+    }
+
+    @Override
+    public void close() throws IOException {
+      // Let the direct buffers be collected
+      parents = null;
+      dirNames = null;
+      names = null;
+    }
+
+    private static long toIndex(long inode) throws IOException {
+      if (inode < INodeId.ROOT_INODE_ID) {
+        throw new IOException("Invalid inode id " + inode);
+      }
+      return inode - INodeId.ROOT_INODE_ID;
+    }
+
+    @Override
+    public synchronized void putDirChild(long parentId, long childId)
+        throws IOException {
+      parents.set(toIndex(childId), parentId);
+    }
+
+    @Override
+    public synchronized void putDir(INode dir) throws IOException {
+      Preconditions.checkArgument(dir.hasDirectory(),
+          "INode %s (%s) is not a directory.", dir.getId(), dir.getName());
+      final byte[] name = dir.getName().toByteArray();
+      ByteBuffer chunk = names.isEmpty() ? null : names.get(names.size() - 1);
+      if (chunk == null || chunk.remaining() < 4 + name.length) {
+        chunk = ByteBuffer.allocateDirect(
+            Math.max(NAME_CHUNK_SIZE, 4 + name.length));
+        names.add(chunk);
+      }
+      final long offset = ((long) (names.size() - 1) << 32) | chunk.position();
+      chunk.putInt(name.length).put(name);
+      dirNames.set(toIndex(dir.getId()), offset + 1);
+    }
+
+    private String getName(long offset) {
+      final ByteBuffer chunk = names.get((int) (offset >>> 32)).duplicate();
+      chunk.position((int) offset);
+      final byte[] name = new byte[chunk.getInt()];
+      chunk.get(name);
+      return new String(name, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getParentPath(long inode) throws IOException {
+      if (inode == INodeId.ROOT_INODE_ID) {
+        return "";
+      }
+      final long parent = parents.get(toIndex(inode));
+      if (parent == 0) {
+        // The inode is an INodeReference, which is generated from snapshot.
+        // For delimited oiv tool, no need to print out metadata in snapshots.
+        PBImageTextWriter.ignoreSnapshotName(inode);
+      }
+      return getPath(parent);
+    }
+
+    private String getPath(long dir) throws IOException {
+      if (dir == INodeId.ROOT_INODE_ID) {
+        return "/";
+      }
+      final DirPathCache cache = dirPathCache.get();
+      String path = cache.get(dir);
+      if (path == null) {
+        final long name = dirNames.get(toIndex(dir));
+        final long parent = parents.get(toIndex(dir));
+        if (name == 0 || parent == 0) {
+          // The parent is an INodeReference, which is generated from snapshot.
+          // For delimited oiv tool, no need to print out metadata in snapshots.
+          PBImageTextWriter.ignoreSnapshotName(dir);
+        }
+        final String dirName = getName(name - 1);
+        path = new Path(getPath(parent),
+            dirName.isEmpty() ? "/" : dirName).toString();
+        cache.put(dir, path);
+      }
+      return path;
+    }
+
+    @Override
+    public void sync() {
+    }
+  }
+
+  /** Number of serialized inodes handed to a thread at once. */
+  private static final int INODE_BATCH_SIZE = 1024;
+
+  /** Processes an inode read from an INode section. */
+  private interface INodeVisitor {
+    /**
+     * @param inode the inode to process.
+     * @param thread the number of the thread processing the inode.
+     */
+    void visit(INode inode, int thread) throws IOException;
+  }
+
   private SerialNumberManager.StringTable stringTable;
-  private PrintStream out;
+  private final PrintStream[] outs;
+  private final int numThreads;
   private MetadataMap metadataMap = null;
 
   /**
@@ -403,8 +583,32 @@ public void sync() throws IOException {
    *                 in memory instead.
    */
   PBImageTextWriter(PrintStream out, String tempPath) throws IOException {
-    this.out = out;
-    if (tempPath.isEmpty()) {
+    this(new PrintStream[] {out}, tempPath, 1);
+  }
+
+  /**
+   * Construct a PB FsImage writer to generate text files with multiple
+   * threads.
+   * @param outs the writers to output text information of fsimage. Thread i
+   *             writes to the writer i modulo the number of writers.
+   * @param tempPath the path to store metadata. If it is empty, store metadata
+   *                 in memory instead, outside of the Java heap when there
+   *                 are multiple threads. It cannot be used with multiple
+   *                 threads.
+   * @param numThreads the number of threads to decode and output the inodes.
+   */
+  PBImageTextWriter(PrintStream[] outs, String tempPath, int numThreads)
+      throws IOException {
+    Preconditions.checkArgument(outs.length > 0, "No output");
+    Preconditions.checkArgument(numThreads > 0,
+        "Invalid number of threads %s", numThreads);
+    Preconditions.checkArgument(numThreads == 1 || tempPath.isEmpty(),
+        "The temporary dir cannot be used with multiple threads");
+    this.outs = outs;
+    this.numThreads = numThreads;
+    if (numThreads > 1) {
+      metadataMap = new OffHeapMetadataMap();
+    } else if (tempPath.isEmpty()) {
       metadataMap = new InMemoryMetadataDB();
     } else {
       metadataMap = new LevelDBMetadataMap(tempPath);
@@ -413,21 +617,40 @@ public void sync() throws IOException {
 
   @Override
   public void close() throws IOException {
-    out.flush();
+    for (PrintStream out : outs) {
+      out.flush();
+    }
     IOUtils.cleanup(null, metadataMap);
   }
 
   /**
-   * Get text output for the given inode.
+   * @return the outputs of this writer.
+   */
+  protected PrintStream[] getOutputs() {
+    return outs;
+  }
+
+  /**
+   * Output the header before the inodes. Writes nothing by default.
+   */
+  protected void outputHeader() throws IOException {
+  }
+
+  /**
+   * Output the given inode. With multiple threads, this is called
+   * concurrently by the threads.
    * @param parent the path of parent directory
    * @param inode the INode object to output.
+   * @param thread the number of the thread calling this method.
    */
-  abstract protected String getEntry(String parent, INode inode);
+  abstract protected void outputINode(String parent, INode inode, int thread)
+      throws IOException;
 
   /**
-   * Get text output for the header line.
+   * Output the footer after all the inodes. Writes nothing by default.
    */
-  abstract protected String getHeader();
+  protected void outputFooter() throws IOException {
+  }
 
   public void visit(RandomAccessFile file) throws IOException {
     Configuration conf = new Configuration();
@@ -494,7 +717,7 @@ private void output(Configuration conf, FileSummary summary,
       throws IOException {
     InputStream is;
     long startTime = Time.monotonicNow();
-    out.println(getHeader());
+    outputHeader();
     for (FileSummary.Section section : sections) {
       if (SectionName.fromString(section.getName()) == SectionName.INODE) {
         fin.getChannel().position(section.getOffset());
@@ -504,6 +727,7 @@ private void output(Configuration conf, FileSummary summary,
         outputINodes(is);
       }
     }
+    outputFooter();
     long timeTaken = Time.monotonicNow() - startTime;
     LOG.debug("Time to output inodes: {}ms", timeTaken);
   }
@@ -559,18 +783,115 @@ private void loadINodeDirSection(
   private void loadDirectoriesInINodeSection(InputStream in) throws IOException {
     INodeSection s = INodeSection.parseDelimitedFrom(in);
     LOG.info("Loading directories in INode section.");
-    int numDirs = 0;
-    for (int i = 0; i < s.getNumInodes(); ++i) {
-      INode p = INode.parseDelimitedFrom(in);
-      if (LOG.isDebugEnabled() && i % 10000 == 0) {
-        LOG.debug("Scanned {} inodes.", i);
+    final AtomicLong numDirs = new AtomicLong();
+    visitINodes(in, s.getNumInodes(), new INodeVisitor() {
+      @Override
+      public void visit(INode p, int thread) throws IOException {
+        if (p.hasDirectory()) {
+          metadataMap.putDir(p);
+          numDirs.incrementAndGet();
+        }
+      }
+    });
+    LOG.info("Found {} directories in INode section.", numDirs);
+  }
+
+  /**
+   * Read the inodes of an INode section and process them with the threads of
+   * this writer.
+   * @param in the INode section after its header.
+   * @param numInodes the number of inodes in the section.
+   * @param visitor the processing for each inode.
+   */
+  private void visitINodes(InputStream in, long numInodes,
+      final INodeVisitor visitor) throws IOException {
+    if (numThreads == 1) {
+      for (long i = 0; i < numInodes; ++i) {
+        if (LOG.isDebugEnabled() && i % 100000 == 0) {
+          LOG.debug("Scanned {} inodes.", i);
+        }
+        visitor.visit(INode.parseDelimitedFrom(in), 0);
+      }
+      return;
+    }
+
+    // The inodes are only split here and decoded by the threads
+    final List<byte[]> end = Collections.emptyList();
+    final BlockingQueue<List<byte[]>> queue =
+        new ArrayBlockingQueue<>(numThreads * 2);
+    final ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("OIV-INode-%d").build());
+    final List<Future<Void>> futures = new ArrayList<>(numThreads);
+    for (int t = 0; t < numThreads; t++) {
+      final int thread = t;
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          for (List<byte[]> batch = queue.take(); batch != end;
+              batch = queue.take()) {
+            for (byte[] bytes : batch) {
+              visitor.visit(INode.parseFrom(bytes), thread);
+            }
+          }
+          return null;
+        }
+      }));
+    }
+
+    try {
+      List<byte[]> batch = new ArrayList<>(INODE_BATCH_SIZE);
+      for (long i = 0; i < numInodes; ++i) {
+        if (LOG.isDebugEnabled() && i % 100000 == 0) {
+          LOG.debug("Scanned {} inodes.", i);
+        }
+        final int firstByte = in.read();
+        if (firstByte == -1) {
+          throw new EOFException("Unexpected end of the INode section");
+        }
+        final byte[] bytes =
+            new byte[CodedInputStream.readRawVarint32(firstByte, in)];
+        IOUtils.readFully(in, bytes, 0, bytes.length);
+        batch.add(bytes);
+        if (batch.size() == INODE_BATCH_SIZE) {
+          enqueue(queue, batch, futures);
+          batch = new ArrayList<>(INODE_BATCH_SIZE);
+        }
       }
-      if (p.hasDirectory()) {
-        metadataMap.putDir(p);
-        numDirs++;
+      enqueue(queue, batch, futures);
+      for (int t = 0; t < numThreads; t++) {
+        enqueue(queue, end, futures);
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while processing the inodes", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Hand a batch of inodes to the threads, waiting while they are busy.
+   * @throws ExecutionException if a thread failed.
+   */
+  private static void enqueue(BlockingQueue<List<byte[]>> queue,
+      List<byte[]> batch, List<Future<Void>> futures)
+      throws InterruptedException, ExecutionException {
+    while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+      for (Future<Void> future : futures) {
+        if (future.isDone()) {
+          // Either failed or the end was already handed to it
+          future.get();
+        }
       }
     }
-    LOG.info("Found {} directories in INode section.", numDirs);
   }
 
   /**
@@ -606,30 +927,28 @@ private void buildNamespace(InputStream in, List<Long> refIdList)
   private void outputINodes(InputStream in) throws IOException {
     INodeSection s = INodeSection.parseDelimitedFrom(in);
     LOG.info("Found {} INodes in the INode section", s.getNumInodes());
-    long ignored = 0;
-    long ignoredSnapshots = 0;
-    for (int i = 0; i < s.getNumInodes(); ++i) {
-      INode p = INode.parseDelimitedFrom(in);
-      try {
-        String parentPath = metadataMap.getParentPath(p.getId());
-        out.println(getEntry(parentPath, p));
-      } catch (IOException ioe) {
-        ignored++;
-        if (!(ioe instanceof IgnoreSnapshotException)) {
-          LOG.warn("Exception caught, ignoring node:{}", p.getId(), ioe);
-        } else {
-          ignoredSnapshots++;
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("Exception caught, ignoring node:{}.", p.getId(), ioe);
+    final AtomicLong ignored = new AtomicLong();
+    final AtomicLong ignoredSnapshots = new AtomicLong();
+    visitINodes(in, s.getNumInodes(), new INodeVisitor() {
+      @Override
+      public void visit(INode p, int thread) {
+        try {
+          String parentPath = metadataMap.getParentPath(p.getId());
+          outputINode(parentPath, p, thread);
+        } catch (IOException ioe) {
+          ignored.incrementAndGet();
+          if (!(ioe instanceof IgnoreSnapshotException)) {
+            LOG.warn("Exception caught, ignoring node:{}", p.getId(), ioe);
+          } else {
+            ignoredSnapshots.incrementAndGet();
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Exception caught, ignoring node:{}.", p.getId(), ioe);
+            }
           }
         }
       }
-
-      if (LOG.isDebugEnabled() && i % 100000 == 0) {
-        LOG.debug("Outputted {} INodes.", i);
-      }
-    }
-    if (ignored > 0) {
+    });
+    if (ignored.get() > 0) {
       LOG.warn("Ignored {} nodes, including {} in snapshots. Please turn on"
               + " debug log for details", ignored, ignoredSnapshots);
     }
@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
+import org.apache.hadoop.net.unix.DomainSocket;
+import org.apache.hadoop.net.unix.TemporarySocketDirectory;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Measures short-circuit read throughput with many concurrent readers, each
+ * opening a file, doing a positional read and closing it again, as columnar
+ * scanners do. This exercises the client's short-circuit cache and shared
+ * memory slot allocation rather than the disk.
+ *
+ * Usage: ShortCircuitReadBenchmark [-threads N] [-files N] [-fileSize BYTES]
+ *   [-readSize BYTES] [-seconds N] [-stripes N]
+ *
+ * -stripes sets dfs.client.read.shortcircuit.cache.stripes, so that runs
+ * with and without a striped cache can be compared.
+ */
+public class ShortCircuitReadBenchmark extends Configured implements Tool {
+
+  private int numThreads = 64;
+  private int numFiles = 64;
+  private long fileSize = 1024 * 1024;
+  private int readSize = 64 * 1024;
+  private int seconds = 30;
+  private int stripes = 1;
+
+  private void printUsage() {
+    System.err.println("Usage: ShortCircuitReadBenchmark [-threads N] "
+        + "[-files N] [-fileSize BYTES] [-readSize BYTES] [-seconds N] "
+        + "[-stripes N]");
+  }
+
+  private boolean parseArgs(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 == args.length) {
+        return false;
+      }
+      String value = args[++i];
+      switch (args[i - 1]) {
+      case "-threads":
+        numThreads = Integer.parseInt(value);
+        break;
+      case "-files":
+        numFiles = Integer.parseInt(value);
+        break;
+      case "-fileSize":
+        fileSize = Long.parseLong(value);
+        break;
+      case "-readSize":
+        readSize = Integer.parseInt(value);
+        break;
+      case "-seconds":
+        seconds = Integer.parseInt(value);
+        break;
+      case "-stripes":
+        stripes = Integer.parseInt(value);
+        break;
+      default:
+        return false;
+      }
+    }
+    return numThreads > 0 && numFiles > 0 && readSize > 0
+        && fileSize >= readSize && seconds > 0 && stripes > 0;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    if (!parseArgs(args)) {
+      printUsage();
+      return -1;
+    }
+    if (DomainSocket.getLoadingFailureReason() != null) {
+      System.err.println("Short-circuit reads are not available: "
+          + DomainSocket.getLoadingFailureReason());
+      return -1;
+    }
+    Configuration conf = new Configuration(getConf());
+    TemporarySocketDirectory sockDir = new TemporarySocketDirectory();
+    DomainSocket.disableBindPathValidation();
+    conf.setBoolean(HdfsClientConfigKeys.Read.ShortCircuit.KEY, true);
+    conf.set(DFSConfigKeys.DFS_DOMAIN_SOCKET_PATH_KEY,
+        new File(sockDir.getDir(), "scrbench._PORT.sock").getAbsolutePath());
+    conf.setInt(HdfsClientConfigKeys.Read.ShortCircuit.CACHE_STRIPES_KEY,
+        stripes);
+    conf.setInt(HdfsClientConfigKeys.Read.ShortCircuit.STREAMS_CACHE_SIZE_KEY,
+        Math.max(numFiles,
+            HdfsClientConfigKeys.Read.ShortCircuit.STREAMS_CACHE_SIZE_DEFAULT));
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      final Path[] files = new Path[numFiles];
+      for (int i = 0; i < numFiles; i++) {
+        files[i] = new Path("/scrbench/file" + i);
+        DFSTestUtil.createFile(fs, files[i], fileSize, (short) 1, i);
+      }
+      System.out.println("Created " + numFiles + " files of " + fileSize
+          + " bytes; running " + numThreads + " readers for " + seconds
+          + "s with " + stripes + " cache stripe(s).");
+      runReaders(fs, files);
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+      sockDir.close();
+    }
+    return 0;
+  }
+
+  private void runReaders(final FileSystem fs, final Path[] files)
+      throws Exception {
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<Long>> results = new ArrayList<>();
+    final long start = Time.monotonicNow();
+    for (int t = 0; t < numThreads; t++) {
+      final long seed = t;
+      results.add(executor.submit(() -> {
+        Random random = new Random(seed);
+        byte[] buf = new byte[readSize];
+        long reads = 0;
+        while (!stop.get()) {
+          Path file = files[random.nextInt(files.length)];
+          long position = (long) (random.nextDouble() * (fileSize - readSize));
+          try (FSDataInputStream in = fs.open(file)) {
+            in.readFully(position, buf);
+          }
+          reads++;
+        }
+        return reads;
+      }));
+    }
+    Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+    stop.set(true);
+    long totalReads = 0;
+    for (Future<Long> result : results) {
+      totalReads += result.get();
+    }
+    long elapsedMs = Time.monotonicNow() - start;
+    executor.shutdown();
+    double opsPerSec = totalReads * 1000.0 / elapsedMs;
+    System.out.println(String.format("Reads: %d, elapsed: %d ms, "
+        + "%.1f reads/s, %.1f MB/s", totalReads, elapsedMs, opsPerSec,
+        opsPerSec * readSize / (1024 * 1024)));
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new HdfsConfiguration(),
+        new ShortCircuitReadBenchmark(), args);
+    System.exit(res);
+  }
+}
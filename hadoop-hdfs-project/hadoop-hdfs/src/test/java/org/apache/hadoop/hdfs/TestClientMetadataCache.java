@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.GlobalStorageStatistics;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSOpsCountStatistics.OpType;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
+import org.apache.hadoop.hdfs.qjournal.MiniQJMHACluster;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ClientMetadataCache}.
+ */
+public class TestClientMetadataCache {
+  private static final int BLOCK_SIZE = 1024;
+
+  private Configuration conf;
+  private MiniDFSCluster cluster;
+  private DFSOpsCountStatistics statistics;
+
+  @Before
+  public void setUp() {
+    conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setBoolean(HdfsClientConfigKeys.MetadataCache.ENABLED_KEY, true);
+    conf.setLong(HdfsClientConfigKeys.MetadataCache.TTL_MS_KEY, 600000);
+    statistics = (DFSOpsCountStatistics) GlobalStorageStatistics.INSTANCE
+        .put(DFSOpsCountStatistics.NAME, DFSOpsCountStatistics::new);
+    statistics.reset();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  private long hits() {
+    return statistics.getLong(OpType.METADATA_CACHE_HIT.getSymbol());
+  }
+
+  private long misses() {
+    return statistics.getLong(OpType.METADATA_CACHE_MISS.getSymbol());
+  }
+
+  /**
+   * @return a client of the cluster which does not cache metadata
+   */
+  private static FileSystem newUncachedFileSystem(FileSystem fs,
+      Configuration conf) throws IOException {
+    Configuration otherConf = new Configuration(conf);
+    otherConf.setBoolean(HdfsClientConfigKeys.MetadataCache.ENABLED_KEY,
+        false);
+    return FileSystem.newInstance(fs.getUri(), otherConf);
+  }
+
+  @Test(timeout = 120000)
+  public void testCachedLookups() throws Exception {
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    DistributedFileSystem fs = cluster.getFileSystem();
+    Path file = new Path("/dir/file");
+    DFSTestUtil.createFile(fs, file, 3 * BLOCK_SIZE, (short) 1, 1);
+
+    FileStatus status = fs.getFileStatus(file);
+    BlockLocation[] locations = fs.getFileBlockLocations(status, 0,
+        3 * BLOCK_SIZE);
+    assertEquals(3, locations.length);
+    assertEquals(2, misses());
+    assertEquals(0, hits());
+
+    assertEquals(status, fs.getFileStatus(file));
+    // A range of the cached locations.
+    locations = fs.getFileBlockLocations(status, BLOCK_SIZE + 1, BLOCK_SIZE);
+    assertEquals(2, locations.length);
+    assertEquals(BLOCK_SIZE, locations[0].getOffset());
+    // Opening the file uses the cached locations, and reading it does not
+    // change them for the other readers.
+    assertEquals(3 * BLOCK_SIZE, DFSTestUtil.readFileBuffer(fs, file).length);
+    assertEquals(3 * BLOCK_SIZE, DFSTestUtil.readFileBuffer(fs, file).length);
+    assertEquals(2, misses());
+    assertEquals(4, hits());
+    assertEquals(4.0 / 6, statistics.getMetadataCacheHitRatio(), 0.001);
+
+    // The callers are given copies of the cached status, whose paths the
+    // file systems set.
+    Path other = new Path("/other");
+    fs.getClient().getFileInfo(file.toString()).setPath(other);
+    assertFalse(other.equals(
+        fs.getClient().getFileInfo(file.toString()).getPath()));
+    assertEquals(6, hits());
+
+    // The changes made through the client invalidate its cache.
+    fs.setReplication(file, (short) 2);
+    assertEquals(2, fs.getFileStatus(file).getReplication());
+    DFSTestUtil.appendFile(fs, file, BLOCK_SIZE);
+    assertEquals(4 * BLOCK_SIZE, fs.getFileStatus(file).getLen());
+    assertEquals(4, fs.getFileBlockLocations(file, 0, 4 * BLOCK_SIZE).length);
+    fs.delete(new Path("/dir"), true);
+    assertFalse(fs.exists(file));
+  }
+
+  @Test(timeout = 120000)
+  public void testFilesBeingWrittenAreNotCached() throws Exception {
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    DistributedFileSystem fs = cluster.getFileSystem();
+    Path file = new Path("/file");
+    try (FSDataOutputStream out = fs.create(file)) {
+      out.write(new byte[2 * BLOCK_SIZE]);
+      out.hflush();
+      fs.getFileBlockLocations(file, 0, 2 * BLOCK_SIZE);
+      fs.getFileBlockLocations(file, 0, 2 * BLOCK_SIZE);
+      assertEquals(0, hits());
+    }
+    fs.getFileBlockLocations(file, 0, 2 * BLOCK_SIZE);
+    fs.getFileBlockLocations(file, 0, 2 * BLOCK_SIZE);
+    assertEquals(1, hits());
+  }
+
+  @Test(timeout = 120000)
+  public void testEntriesExpire() throws Exception {
+    conf.setLong(HdfsClientConfigKeys.MetadataCache.TTL_MS_KEY, 1000);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(2).build();
+    final DistributedFileSystem fs = cluster.getFileSystem();
+    final Path file = new Path("/file");
+    DFSTestUtil.createFile(fs, file, BLOCK_SIZE, (short) 1, 1);
+    assertEquals(1, fs.getFileStatus(file).getReplication());
+
+    try (FileSystem other = newUncachedFileSystem(fs, conf)) {
+      other.setReplication(file, (short) 2);
+    }
+    assertEquals(1, fs.getFileStatus(file).getReplication());
+    GenericTestUtils.waitFor(() -> {
+      try {
+        return fs.getFileStatus(file).getReplication() == 2;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }, 100, 10000);
+  }
+
+  @Test(timeout = 120000)
+  public void testInotifyInvalidation() throws Exception {
+    conf.setBoolean(HdfsClientConfigKeys.MetadataCache.INOTIFY_ENABLED_KEY,
+        true);
+    MiniQJMHACluster qjmCluster = new MiniQJMHACluster.Builder(conf).build();
+    try {
+      cluster = qjmCluster.getDfsCluster();
+      cluster.waitActive();
+      cluster.transitionToActive(0);
+      final DistributedFileSystem fs = cluster.getFileSystem(0);
+      final Path file = new Path("/file");
+      DFSTestUtil.createFile(fs, file, 0, (short) 1, 1);
+      assertTrue(fs.exists(file));
+      GenericTestUtils.waitFor(
+          () -> fs.getClient().getMetadataCache().isTailingInotify(),
+          100, 10000);
+
+      try (FileSystem other = newUncachedFileSystem(fs, conf)) {
+        other.delete(file, false);
+      }
+      GenericTestUtils.waitFor(() -> {
+        try {
+          fs.getFileStatus(file);
+          return false;
+        } catch (FileNotFoundException e) {
+          return true;
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }, 100, 30000);
+    } finally {
+      cluster = null;
+      qjmCluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testInvalidateTree() throws Exception {
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    DistributedFileSystem fs = cluster.getFileSystem();
+    DFSTestUtil.createFile(fs, new Path("/a/b/c"), 0, (short) 1, 1);
+    DFSTestUtil.createFile(fs, new Path("/ab"), 0, (short) 1, 1);
+    for (String path : new String[] {"/a", "/a/b", "/a/b/c", "/ab"}) {
+      fs.getFileStatus(new Path(path));
+    }
+    ClientMetadataCache cache = fs.getClient().getMetadataCache();
+    cache.invalidateTree("/a");
+    for (String path : new String[] {"/a", "/a/b", "/a/b/c"}) {
+      if (cache.getFileInfo(path) != null) {
+        fail(path + " is still cached");
+      }
+    }
+    assertTrue(cache.getFileInfo("/ab") != null);
+  }
+}
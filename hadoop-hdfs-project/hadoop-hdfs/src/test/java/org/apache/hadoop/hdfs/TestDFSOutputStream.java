@@ -40,6 +40,7 @@
 import org.apache.hadoop.fs.StreamCapabilities.StreamCapability;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.DataStreamer.LastExceptionInStreamer;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
 import org.apache.hadoop.hdfs.client.impl.DfsClientConf;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
@@ -371,6 +372,59 @@ public void testStreamFlush() throws Exception {
     os.close();
   }
 
+  @Test
+  public void testPacketWindow() {
+    DataStreamer.PacketWindow window = new DataStreamer.PacketWindow(4, 6);
+    assertEquals(4, window.getSize());
+    // The window does not grow unless the writer is held back by it.
+    window.onAck(1000);
+    assertEquals(4, window.getSize());
+    assertTrue(!window.isFull(4));
+    assertTrue(window.isFull(5));
+    window.onAck(1000);
+    assertEquals(5, window.getSize());
+    assertTrue(window.isFull(6));
+    window.onAck(1000);
+    assertTrue(window.isFull(7));
+    window.onAck(1000);
+    // ...nor beyond its limit.
+    assertEquals(6, window.getSize());
+
+    // Packets queueing up in the pipeline shrink the window, down to its
+    // initial size.
+    for (int i = 0; i < 10; i++) {
+      window.onAck(10000);
+    }
+    assertEquals(4, window.getSize());
+
+    // Without a limit, the window keeps its initial size.
+    window = new DataStreamer.PacketWindow(4, 0);
+    assertTrue(window.isFull(5));
+    window.onAck(1000);
+    assertEquals(4, window.getSize());
+  }
+
+  @Test
+  public void testWriteWithAdaptivePacketWindow() throws Exception {
+    Configuration conf = new Configuration(cluster.getConfiguration(0));
+    conf.setInt(HdfsClientConfigKeys.Write.MAX_PACKETS_IN_FLIGHT_KEY, 2);
+    conf.setInt(
+        HdfsClientConfigKeys.Write.MAX_PACKETS_IN_FLIGHT_ADAPTIVE_LIMIT_KEY,
+        16);
+    FileSystem fs = FileSystem.newInstance(cluster.getURI(), conf);
+    try {
+      Path path = new Path("/adaptive-window");
+      byte[] data = new byte[4 * 1024 * 1024];
+      new Random(0xA5).nextBytes(data);
+      try (FSDataOutputStream out = fs.create(path)) {
+        out.write(data);
+      }
+      Assert.assertArrayEquals(data, DFSTestUtil.readFileBuffer(fs, path));
+    } finally {
+      fs.close();
+    }
+  }
+
   @AfterClass
   public static void tearDown() {
     if (cluster != null) {
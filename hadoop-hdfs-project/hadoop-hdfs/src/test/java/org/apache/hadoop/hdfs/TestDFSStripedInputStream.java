@@ -21,7 +21,9 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
@@ -37,6 +39,7 @@
 import org.apache.hadoop.io.erasurecode.rawcoder.NativeRSRawErasureCoderFactory;
 import org.apache.hadoop.io.erasurecode.rawcoder.RawErasureDecoder;
 import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.Time;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -45,6 +48,7 @@
 import org.junit.rules.Timeout;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
@@ -398,8 +402,67 @@ private void testStatefulRead(boolean useByteBuffer,
     fs.delete(filePath, true);
   }
 
+  @Test
+  public void testStatefulReadWithReadahead() throws Exception {
+    conf.setInt(HdfsClientConfigKeys.StripedRead.READAHEAD_STRIPES_KEY, 2);
+    tearDown();
+    startUp();
+    testStatefulRead(false, false);
+    testStatefulRead(true, false);
+  }
+
   @Test
   public void testStatefulReadWithDNFailure() throws Exception {
+    testStatefulReadWithDNFailure(false);
+  }
+
+  @Test
+  public void testStatefulReadWithDNFailureAndReadahead() throws Exception {
+    conf.setInt(HdfsClientConfigKeys.StripedRead.READAHEAD_STRIPES_KEY, 1);
+    tearDown();
+    startUp();
+    testStatefulReadWithDNFailure(false);
+  }
+
+  /**
+   * A DataNode which does not answer is treated as erased once the slow read
+   * threshold has passed.
+   */
+  @Test
+  public void testStatefulReadWithSlowDN() throws Exception {
+    conf.setInt(HdfsClientConfigKeys.StripedRead.READAHEAD_STRIPES_KEY, 1);
+    conf.setLong(
+        HdfsClientConfigKeys.StripedRead.SLOW_READ_THRESHOLD_MS_KEY, 100);
+    tearDown();
+    startUp();
+    final DFSClientFaultInjector oldInjector = DFSClientFaultInjector.get();
+    final int slowDNPort =
+        cluster.getDataNodes().get(dataBlocks - 1).getXferPort();
+    DFSClientFaultInjector.set(new DFSClientFaultInjector() {
+      @Override
+      public void readStripedChunk(DatanodeInfo datanode) throws IOException {
+        if (datanode.getXferPort() == slowDNPort) {
+          try {
+            Thread.sleep(60000);
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException("Slow read interrupted");
+          }
+        }
+      }
+    });
+    try {
+      final long start = Time.monotonicNow();
+      testStatefulReadWithDNFailure(true);
+      assertTrue(Time.monotonicNow() - start < 30000);
+    } finally {
+      DFSClientFaultInjector.set(oldInjector);
+    }
+  }
+
+  /**
+   * @param slow whether the DataNode is slow, rather than stopped
+   */
+  private void testStatefulReadWithDNFailure(boolean slow) throws Exception {
     final int numBlocks = 4;
     final int failedDNIdx = dataBlocks - 1;
     DFSTestUtil.createStripedFile(cluster, filePath, null, numBlocks,
@@ -449,7 +512,9 @@ public void testStatefulReadWithDNFailure() throws Exception {
         missingBlkIdx[i] = dataBlocks + i;
       }
     }
-    cluster.stopDataNode(failedDNIdx);
+    if (!slow) {
+      cluster.stopDataNode(failedDNIdx);
+    }
     for (int i = 0; i < stripesPerBlock; i++) {
       byte[][] decodeInputs = new byte[dataBlocks + parityBlocks][cellSize];
       byte[][] decodeOutputs = new byte[missingBlkIdx.length][cellSize];
@@ -503,6 +568,11 @@ public void testStatefulReadWithDNFailure() throws Exception {
 
     assertEquals(readSize, done);
     assertArrayEquals(expected, readBuffer);
+    if (slow) {
+      assertTrue(in.getReadStatistics().getTotalEcSlowReads() > 0);
+    }
+    in.close();
+    fs.delete(filePath, true);
   }
 
   @Test
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hdfs.DataNodeReadLatencyTracker.LatencyHistogram;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.util.Time;
+import org.junit.Test;
+
+/**
+ * Tests for {@link DataNodeReadLatencyTracker} and {@link HedgedReadBudget}.
+ */
+public class TestDataNodeReadLatencyTracker {
+  private static final DatanodeInfo FAST =
+      DFSTestUtil.getDatanodeInfo("1.1.1.1", "fast", 9866);
+  private static final DatanodeInfo SLOW =
+      DFSTestUtil.getDatanodeInfo("2.2.2.2", "slow", 9866);
+  private static final DatanodeInfo UNKNOWN =
+      DFSTestUtil.getDatanodeInfo("3.3.3.3", "unknown", 9866);
+
+  private static void addSamples(DataNodeReadLatencyTracker tracker,
+      DatanodeInfo dn, long millis, int count) {
+    for (int i = 0; i < count; i++) {
+      tracker.addSample(dn, TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+  }
+
+  @Test
+  public void testHistogramBuckets() {
+    for (long value : new long[] {0, 1, 15, 16, 17, 100, 1000, 123456789,
+        Long.MAX_VALUE}) {
+      int bucket = LatencyHistogram.bucketOf(value);
+      long highest = LatencyHistogram.highestValueOf(bucket);
+      assertTrue(value <= highest);
+      // Buckets are within 12.5% of the values they hold.
+      assertTrue(highest - value <= value / 8);
+      if (bucket > 0) {
+        assertTrue(LatencyHistogram.highestValueOf(bucket - 1) < value);
+      }
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    final long now = Time.monotonicNow();
+    LatencyHistogram histogram = new LatencyHistogram(60000);
+    for (int i = 1; i <= 100; i++) {
+      histogram.add(i * 1000, now);
+    }
+    assertEquals(-1, histogram.getPercentile(50, 101, now));
+    long median = histogram.getPercentile(50, 1, now);
+    assertTrue(median >= 50000 && median <= 50000 * 9 / 8);
+    long p99 = histogram.getPercentile(99, 1, now);
+    assertTrue(p99 >= 99000 && p99 <= 99000 * 9 / 8);
+
+    // Samples are kept for two windows.
+    assertEquals(median, histogram.getPercentile(50, 1, now + 60000));
+    assertEquals(-1, histogram.getPercentile(50, 1, now + 130000));
+  }
+
+  @Test
+  public void testHedgeThreshold() {
+    DataNodeReadLatencyTracker tracker =
+        new DataNodeReadLatencyTracker(95, 5, 3, 60000);
+    assertEquals(500, tracker.getHedgeThresholdMillis(UNKNOWN, 500));
+    addSamples(tracker, FAST, 1, DataNodeReadLatencyTracker.MIN_SAMPLES);
+    // Not below the minimum threshold.
+    assertEquals(5, tracker.getHedgeThresholdMillis(FAST, 500));
+    addSamples(tracker, SLOW, 100, DataNodeReadLatencyTracker.MIN_SAMPLES);
+    long threshold = tracker.getHedgeThresholdMillis(SLOW, 500);
+    assertTrue(threshold >= 100 && threshold <= 113);
+  }
+
+  @Test
+  public void testSlowNodesAreReadLast() {
+    DataNodeReadLatencyTracker tracker =
+        new DataNodeReadLatencyTracker(95, 5, 3, 60000);
+    DatanodeInfo[] candidates = {SLOW, UNKNOWN, FAST};
+    assertEquals(0, tracker.chooseNode(candidates, 3));
+    addSamples(tracker, FAST, 5, DataNodeReadLatencyTracker.MIN_SAMPLES);
+    addSamples(tracker, SLOW, 10, DataNodeReadLatencyTracker.MIN_SAMPLES);
+    // Not slow enough to be read last.
+    assertEquals(0, tracker.chooseNode(candidates, 3));
+    addSamples(tracker, SLOW, 100, 4 * DataNodeReadLatencyTracker.MIN_SAMPLES);
+    // Nodes without samples are not assumed to be slow.
+    assertEquals(1, tracker.chooseNode(candidates, 3));
+    assertEquals(0, tracker.chooseNode(new DatanodeInfo[] {SLOW}, 1));
+
+    DataNodeReadLatencyTracker disabled =
+        new DataNodeReadLatencyTracker(95, 5, 0, 60000);
+    addSamples(disabled, FAST, 5, DataNodeReadLatencyTracker.MIN_SAMPLES);
+    addSamples(disabled, SLOW, 100, DataNodeReadLatencyTracker.MIN_SAMPLES);
+    assertEquals(0, disabled.chooseNode(candidates, 3));
+  }
+
+  @Test
+  public void testHedgedReadBudget() {
+    HedgedReadBudget budget = new HedgedReadBudget(0.5f, 2);
+    assertTrue(budget.tryAcquire());
+    assertTrue(budget.tryAcquire());
+    assertFalse(budget.tryAcquire());
+    budget.onRead();
+    assertFalse(budget.tryAcquire());
+    budget.onRead();
+    assertTrue(budget.tryAcquire());
+    // The bucket does not fill up beyond the burst.
+    for (int i = 0; i < 100; i++) {
+      budget.onRead();
+    }
+    assertTrue(budget.tryAcquire());
+    assertTrue(budget.tryAcquire());
+    assertFalse(budget.tryAcquire());
+  }
+}
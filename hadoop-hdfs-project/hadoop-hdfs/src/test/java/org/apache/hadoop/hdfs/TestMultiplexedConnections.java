@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
+import org.apache.hadoop.hdfs.protocol.DatanodeID;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests block readers sharing multiplexed connections to DataNodes.
+ */
+public class TestMultiplexedConnections {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(TestMultiplexedConnections.class);
+  private static final int NUM_FILES = 12;
+  private static final int MAX_STREAMS = 4;
+  private static final int FILE_SIZE = 256 * 1024;
+
+  private static int clusters = 0;
+
+  private MiniDFSCluster cluster;
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  private DistributedFileSystem startCluster(boolean datanodeEnabled)
+      throws Exception {
+    return startCluster(new HdfsConfiguration(), datanodeEnabled);
+  }
+
+  private DistributedFileSystem startCluster(Configuration conf,
+      boolean datanodeEnabled) throws Exception {
+    // Each test needs a client context of its own.
+    conf.set(HdfsClientConfigKeys.DFS_CLIENT_CONTEXT,
+        "TestMultiplexedConnections-" + clusters++);
+    conf.setBoolean(HdfsClientConfigKeys.MultiplexedConnections.ENABLED_KEY,
+        true);
+    conf.setInt(HdfsClientConfigKeys.MultiplexedConnections.MAX_STREAMS_KEY,
+        MAX_STREAMS);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_DATANODE_MULTIPLEXED_CONNECTIONS_ENABLED_KEY,
+        datanodeEnabled);
+    // The DataNode gives the streams a smaller window than the one asked for.
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_MULTIPLEXED_CONNECTIONS_MAX_STREAM_WINDOW_KEY,
+        32 * 1024);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    DistributedFileSystem fs = cluster.getFileSystem();
+    for (int i = 0; i < NUM_FILES; i++) {
+      DFSTestUtil.createFile(fs, new Path("/file" + i), FILE_SIZE, (short) 1,
+          i);
+    }
+    return fs;
+  }
+
+  /**
+   * Read all the files at once, each with a reader of its own.
+   */
+  private void readConcurrently(DistributedFileSystem fs, int connections)
+      throws Exception {
+    final List<FSDataInputStream> streams = new ArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_FILES);
+    try {
+      for (int i = 0; i < NUM_FILES; i++) {
+        FSDataInputStream in = fs.open(new Path("/file" + i));
+        streams.add(in);
+        in.read();
+      }
+      // All the block readers are open now.
+      assertEquals(connections, fs.getClient().getClientContext()
+          .getMultiplexedConnectionPool().getNumConnections());
+
+      List<Future<byte[]>> results = new ArrayList<>();
+      for (final FSDataInputStream in : streams) {
+        results.add(executor.submit(() -> {
+          byte[] data = new byte[FILE_SIZE];
+          in.seek(0);
+          IOUtils.readFully(in, data, 0, FILE_SIZE);
+          return data;
+        }));
+      }
+      for (int i = 0; i < NUM_FILES; i++) {
+        assertArrayEquals(DFSTestUtil.readFileAsBytes(
+            cluster.getFileSystem(), new Path("/file" + i)),
+            results.get(i).get());
+      }
+    } finally {
+      executor.shutdownNow();
+      for (FSDataInputStream in : streams) {
+        IOUtils.closeStream(in);
+      }
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testReadersShareConnections() throws Exception {
+    DistributedFileSystem fs = startCluster(true);
+    readConcurrently(fs, NUM_FILES / MAX_STREAMS);
+
+    // The connections are closed once their streams are no longer used.
+    final MultiplexedConnectionPool pool =
+        fs.getClient().getClientContext().getMultiplexedConnectionPool();
+    GenericTestUtils.waitFor(() -> pool.getNumConnections() == 0, 100, 60000);
+  }
+
+  @Test(timeout = 120000)
+  public void testFallBackToConnectionPerReader() throws Exception {
+    DistributedFileSystem fs = startCluster(false);
+    readConcurrently(fs, 0);
+    // The DataNode is not asked again for a while.
+    assertEquals(1, fs.getClient().getClientContext()
+        .getMultiplexedConnectionPool().getNumDatanodes());
+  }
+
+  /**
+   * Readers done with their blocks leave their connections open for reuse.
+   * Each of the connections holds a DataNode thread waiting for the next
+   * operation, unless it is a stream of a multiplexed connection.
+   */
+  @Test(timeout = 120000)
+  public void testIdleStreamsDoNotHoldThreads() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    // Keep the idle connections around while they are counted.
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY, 60000);
+    conf.setLong(
+        HdfsClientConfigKeys.DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_KEY, 60000);
+
+    DistributedFileSystem fs = startCluster(conf, false);
+    DataNode dn = cluster.getDataNodes().get(0);
+    int idle = dn.getXceiverCount();
+    readConcurrently(fs, 0);
+    final int idleThreadsPerReader = dn.getXceiverCount() - idle;
+    assertTrue("Only " + idleThreadsPerReader + " threads for " + NUM_FILES
+        + " readers", idleThreadsPerReader >= NUM_FILES);
+    tearDown();
+
+    fs = startCluster(conf, true);
+    final DataNode muxDn = cluster.getDataNodes().get(0);
+    idle = muxDn.getXceiverCount();
+    readConcurrently(fs, NUM_FILES / MAX_STREAMS);
+    GenericTestUtils.waitFor(
+        () -> DataNodeTestUtils.getNumActiveStreamThreads(muxDn) == 0,
+        100, 60000);
+    // The streams are still open, but only the connections hold threads, to
+    // receive and send their frames.
+    final int connections = fs.getClient().getClientContext()
+        .getMultiplexedConnectionPool().getNumConnections();
+    assertTrue(connections > 0);
+    LOG.info("{} idle readers hold {} DataNode threads, or none with "
+        + "multiplexing, which takes {} threads for {} connections and the "
+        + "idle pool", NUM_FILES, idleThreadsPerReader,
+        muxDn.getXceiverCount() - idle, connections);
+  }
+
+  @Test
+  public void testUnsupportedDatanodesExpire() throws Exception {
+    final MultiplexedConnectionPool pool =
+        new MultiplexedConnectionPool(MAX_STREAMS, 1000);
+    final List<DatanodeID> datanodes = new ArrayList<>();
+    for (int i = 0; i < 150; i++) {
+      datanodes.add(new DatanodeID("127.0.0.1", "localhost", "dn" + i,
+          10000 + i, 0, 0, 0));
+    }
+    final int[] connects = new int[1];
+    MultiplexedConnectionPool.Connector connector = () -> {
+      connects[0]++;
+      return null;
+    };
+    pool.setUnsupported(datanodes.get(0));
+    assertNull(pool.openStream(datanodes.get(0), connector));
+    assertEquals(0, connects[0]);
+
+    // Once the reply expires, the DataNode is asked again, and failing to
+    // connect does not make it unsupported.
+    Thread.sleep(1500);
+    assertNull(pool.openStream(datanodes.get(0), connector));
+    assertNull(pool.openStream(datanodes.get(0), connector));
+    assertEquals(2, connects[0]);
+
+    // DataNodes which have nothing left to remember are removed as more
+    // DataNodes are added.
+    for (DatanodeID datanode : datanodes.subList(0, 100)) {
+      pool.setUnsupported(datanode);
+    }
+    Thread.sleep(1500);
+    for (DatanodeID datanode : datanodes.subList(100, 150)) {
+      pool.setUnsupported(datanode);
+    }
+    assertEquals(50, pool.getNumDatanodes());
+  }
+}
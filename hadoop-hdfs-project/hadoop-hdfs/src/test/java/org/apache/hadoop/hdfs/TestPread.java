@@ -22,6 +22,7 @@
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -39,6 +40,7 @@
 import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
@@ -771,6 +773,173 @@ public Boolean get() {
     }
   }
 
+  /**
+   * Delays the n-th read from a DataNode, or all of them if n is 0, by the
+   * given time.  Unlike a mock, it lets the other reads run meanwhile.
+   */
+  private static DFSClientFaultInjector delayRead(final int n,
+      final long delayMillis) {
+    final DFSClientFaultInjector previous = DFSClientFaultInjector.get();
+    final AtomicInteger reads = new AtomicInteger();
+    DFSClientFaultInjector.set(new DFSClientFaultInjector() {
+      @Override
+      public void startFetchFromDatanode() {
+        int read = reads.incrementAndGet();
+        if (n == 0 || read == n) {
+          try {
+            Thread.sleep(delayMillis);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    });
+    return previous;
+  }
+
+  private static void resetHedgedReadMetrics(DFSHedgedReadMetrics metrics) {
+    metrics.hedgedReadOps.set(0);
+    metrics.hedgedReadOpsWin.set(0);
+    metrics.hedgedReadOpsWaste.set(0);
+    metrics.hedgedReadOpsThrottled.set(0);
+  }
+
+  /**
+   * Tests that a hedged read is started after a percentile of the latency of
+   * the DataNode, rather than after the fixed threshold.
+   */
+  @Test(timeout = 60000)
+  public void testAdaptiveHedgedRead() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(HdfsClientConfigKeys.HedgedRead.THREADPOOL_SIZE_KEY, 5);
+    conf.setLong(HdfsClientConfigKeys.HedgedRead.THRESHOLD_MILLIS_KEY, 60000);
+    conf.setFloat(HdfsClientConfigKeys.HedgedRead.ADAPTIVE_PERCENTILE_KEY, 99);
+    conf.setLong(
+        HdfsClientConfigKeys.HedgedRead.ADAPTIVE_MIN_THRESHOLD_MILLIS_KEY, 50);
+    final int warmupReads = 2 * DataNodeReadLatencyTracker.MIN_SAMPLES;
+    DFSClientFaultInjector previous = delayRead(warmupReads + 1, 10000);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(3).build();
+    try {
+      DistributedFileSystem fs = cluster.getFileSystem();
+      DFSHedgedReadMetrics metrics = fs.getClient().getHedgedReadMetrics();
+      resetHedgedReadMetrics(metrics);
+      Path file = new Path("/adaptiveHedgedRead.dat");
+      DFSTestUtil.createFile(fs, file, blockSize, (short) 3, seed);
+      byte[] expected = DFSTestUtil.readFileBuffer(fs, file);
+      byte[] buffer = new byte[1024];
+      try (FSDataInputStream in = fs.open(file)) {
+        for (int i = 0; i < warmupReads; i++) {
+          in.readFully(0, buffer);
+        }
+        assertEquals(0, metrics.getHedgedReadOps());
+
+        // The delayed read is hedged long before the fixed threshold.
+        long start = System.currentTimeMillis();
+        in.readFully(1024, buffer);
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(expected, 1024, 2048),
+            buffer));
+      }
+      assertEquals(1, metrics.getHedgedReadOps());
+      assertEquals(1, metrics.getHedgedReadWins());
+      assertEquals(0, metrics.getHedgedReadWaste());
+    } finally {
+      cluster.shutdown();
+      DFSClientFaultInjector.set(previous);
+    }
+  }
+
+  /**
+   * Tests that hedged reads are not started once the budget is spent.
+   */
+  @Test(timeout = 60000)
+  public void testHedgedReadBudget() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(HdfsClientConfigKeys.HedgedRead.THREADPOOL_SIZE_KEY, 5);
+    conf.setLong(HdfsClientConfigKeys.HedgedRead.THRESHOLD_MILLIS_KEY, 10);
+    conf.setFloat(HdfsClientConfigKeys.HedgedRead.BUDGET_RATIO_KEY, 0.01f);
+    conf.setInt(HdfsClientConfigKeys.HedgedRead.BUDGET_BURST_KEY, 1);
+    DFSClientFaultInjector previous = delayRead(0, 100);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(3).build();
+    try {
+      DistributedFileSystem fs = cluster.getFileSystem();
+      DFSHedgedReadMetrics metrics = fs.getClient().getHedgedReadMetrics();
+      resetHedgedReadMetrics(metrics);
+      Path file = new Path("/hedgedReadBudget.dat");
+      DFSTestUtil.createFile(fs, file, blockSize, (short) 3, seed);
+      byte[] buffer = new byte[1024];
+      final int reads = 5;
+      try (FSDataInputStream in = fs.open(file)) {
+        for (int i = 0; i < reads; i++) {
+          in.readFully(0, buffer);
+        }
+      }
+      assertEquals(1, metrics.getHedgedReadOps());
+      assertEquals(1,
+          metrics.getHedgedReadWins() + metrics.getHedgedReadWaste());
+      assertEquals(reads - 1, metrics.getHedgedReadThrottled());
+    } finally {
+      cluster.shutdown();
+      DFSClientFaultInjector.set(previous);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testVectoredRead() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    // Merge only ranges which are very close, so that the merged ranges
+    // span blocks as well as single blocks.
+    conf.setInt(HdfsClientConfigKeys.VectoredRead.MIN_SEEK_KEY, 16);
+    conf.setInt(HdfsClientConfigKeys.VectoredRead.MAX_MERGED_SIZE_KEY,
+        3 * blockSize);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(1).build();
+    try {
+      FileSystem fs = cluster.getFileSystem();
+      Path file = new Path("/vectoredRead.dat");
+      DFSTestUtil.createFile(fs, file, fileSize, (short) 1, seed);
+      byte[] expected = DFSTestUtil.readFileBuffer(fs, file);
+
+      List<FileRange> ranges = new ArrayList<>();
+      ranges.add(FileRange.createFileRange(0, 100));
+      ranges.add(FileRange.createFileRange(110, 100));
+      // Across block boundaries.
+      ranges.add(FileRange.createFileRange(blockSize - 10, 2 * blockSize));
+      ranges.add(FileRange.createFileRange(5 * blockSize, 1));
+      ranges.add(FileRange.createFileRange(fileSize - 30, 10));
+      ranges.add(FileRange.createFileRange(7 * blockSize, 0));
+      FileRange pastEnd = FileRange.createFileRange(fileSize - 5, 10);
+      ranges.add(pastEnd);
+
+      try (FSDataInputStream in = fs.open(file)) {
+        in.readVectored(ranges, ByteBuffer::allocate);
+        for (FileRange range : ranges) {
+          if (range == pastEnd) {
+            continue;
+          }
+          ByteBuffer data = range.getData().get();
+          assertEquals(range.getLength(), data.remaining());
+          for (int i = 0; i < range.getLength(); i++) {
+            assertEquals("At " + (range.getOffset() + i),
+                expected[(int) range.getOffset() + i], data.get());
+          }
+        }
+        try {
+          pastEnd.getData().get();
+          Assert.fail("Reading past the end of the file should fail");
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof EOFException);
+        }
+        assertEquals(0, in.getPos());
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     new TestPread().testPreadDFS();
   }
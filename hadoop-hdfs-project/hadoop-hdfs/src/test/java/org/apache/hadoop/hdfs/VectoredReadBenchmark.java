@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileRange;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.VectoredReadUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Compares reading many small ranges of a file with one positional read
+ * each, as columnar readers do, to reading them with a single vectored read,
+ * on HDFS and on the raw local file system. The default implementation of
+ * vectored reads, which reads the ranges one by one into newly allocated
+ * buffers, is measured too.
+ *
+ * Usage: VectoredReadBenchmark [-fileSize BYTES] [-ranges N]
+ *   [-rangeSize BYTES] [-iterations N] [-direct true|false]
+ *
+ * -direct reads the ranges of the vectored reads into direct buffers.
+ */
+public class VectoredReadBenchmark extends Configured implements Tool {
+
+  private long fileSize = 256L * 1024 * 1024;
+  private int numRanges = 64;
+  private int rangeSize = 16 * 1024;
+  private int iterations = 20;
+  private boolean direct = false;
+
+  private void printUsage() {
+    System.err.println("Usage: VectoredReadBenchmark [-fileSize BYTES] "
+        + "[-ranges N] [-rangeSize BYTES] [-iterations N] "
+        + "[-direct true|false]");
+  }
+
+  private boolean parseArgs(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 == args.length) {
+        return false;
+      }
+      String value = args[++i];
+      switch (args[i - 1]) {
+      case "-fileSize":
+        fileSize = Long.parseLong(value);
+        break;
+      case "-ranges":
+        numRanges = Integer.parseInt(value);
+        break;
+      case "-rangeSize":
+        rangeSize = Integer.parseInt(value);
+        break;
+      case "-iterations":
+        iterations = Integer.parseInt(value);
+        break;
+      case "-direct":
+        direct = Boolean.parseBoolean(value);
+        break;
+      default:
+        return false;
+      }
+    }
+    return numRanges > 0 && rangeSize > 0 && iterations > 0
+        && fileSize >= 2L * numRanges * rangeSize;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    if (!parseArgs(args)) {
+      printUsage();
+      return -1;
+    }
+    Configuration conf = new Configuration(getConf());
+    MiniDFSCluster cluster = null;
+    File localDir = GenericTestUtils.getTestDir("VectoredReadBenchmark");
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      FileSystem dfs = cluster.getFileSystem();
+      Path dfsFile = new Path("/vectoredbench/file");
+      DFSTestUtil.createFile(dfs, dfsFile, fileSize, (short) 1, 0);
+
+      FileSystem localFs = FileSystem.getLocal(conf).getRawFileSystem();
+      Path localFile = new Path(localDir.getAbsolutePath(), "file");
+      DFSTestUtil.createFile(localFs, localFile, fileSize, (short) 1, 0);
+
+      System.out.println("Reading " + numRanges + " ranges of " + rangeSize
+          + " bytes from a file of " + fileSize + " bytes, " + iterations
+          + " times.");
+      runBenchmark("hdfs", dfs, dfsFile);
+      runBenchmark("raw local", localFs, localFile);
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+      FileUtil.fullyDelete(localDir);
+    }
+    return 0;
+  }
+
+  private List<FileRange> randomRanges(Random random) {
+    // Pick distinct slots, so that the ranges do not overlap.
+    long numSlots = fileSize / rangeSize;
+    TreeSet<Long> slots = new TreeSet<>();
+    while (slots.size() < numRanges) {
+      slots.add((long) (random.nextDouble() * numSlots));
+    }
+    List<FileRange> ranges = new ArrayList<>(numRanges);
+    for (long slot : slots) {
+      ranges.add(FileRange.createFileRange(slot * rangeSize, rangeSize));
+    }
+    return ranges;
+  }
+
+  private void runBenchmark(String name, FileSystem fs, Path file)
+      throws Exception {
+    long preadMs = 0;
+    long defaultMs = 0;
+    long vectoredMs = 0;
+    Random random = new Random(0);
+    byte[] buf = new byte[rangeSize];
+    try (FSDataInputStream in = fs.open(file)) {
+      for (int i = 0; i < iterations; i++) {
+        List<FileRange> ranges = randomRanges(random);
+        long start = Time.monotonicNow();
+        for (FileRange range : ranges) {
+          in.readFully(range.getOffset(), buf, 0, range.getLength());
+        }
+        preadMs += Time.monotonicNow() - start;
+
+        // The default implementation, reading the ranges one by one
+        start = Time.monotonicNow();
+        VectoredReadUtils.readVectored(in, ranges,
+            direct ? ByteBuffer::allocateDirect : ByteBuffer::allocate);
+        for (FileRange range : ranges) {
+          range.getData().get();
+        }
+        defaultMs += Time.monotonicNow() - start;
+
+        start = Time.monotonicNow();
+        in.readVectored(ranges,
+            direct ? ByteBuffer::allocateDirect : ByteBuffer::allocate);
+        for (FileRange range : ranges) {
+          range.getData().get();
+        }
+        vectoredMs += Time.monotonicNow() - start;
+      }
+    }
+    System.out.println(String.format("%s: preads %.1f ms, default vectored "
+        + "read %.1f ms, vectored read %.1f ms per iteration", name,
+        (double) preadMs / iterations, (double) defaultMs / iterations,
+        (double) vectoredMs / iterations));
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new HdfsConfiguration(),
+        new VectoredReadBenchmark(), args);
+    System.exit(res);
+  }
+}
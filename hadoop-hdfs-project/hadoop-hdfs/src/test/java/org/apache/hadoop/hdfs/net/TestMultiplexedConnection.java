@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hdfs.net.MultiplexedConnection.Stream;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+/**
+ * Tests the streams and the flow control of {@link MultiplexedConnection}.
+ */
+public class TestMultiplexedConnection {
+  private static final int WINDOW = 4096;
+
+  @Rule
+  public Timeout testTimeout = new Timeout(60000);
+
+  private MultiplexedConnection client;
+  private MultiplexedConnection server;
+  private Thread serverReceiver;
+  private final BlockingQueue<Stream> accepted = new LinkedBlockingQueue<>();
+
+  @Before
+  public void setUp() throws IOException {
+    try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+      listener.bind(new InetSocketAddress("127.0.0.1", 0));
+      SocketChannel clientChannel =
+          SocketChannel.open(listener.getLocalAddress());
+      SocketChannel serverChannel = listener.accept();
+      Peer clientPeer = new NioInetPeer(clientChannel.socket());
+      final Peer serverPeer = new NioInetPeer(serverChannel.socket());
+      // Like a DataNode, the server side wakes up now and then.
+      serverPeer.setReadTimeout(1000);
+
+      client = new MultiplexedConnection(clientPeer,
+          new BufferedInputStream(clientPeer.getInputStream()),
+          clientPeer.getOutputStream(), WINDOW, true, null);
+      client.startReceiving();
+      server = new MultiplexedConnection(serverPeer,
+          new BufferedInputStream(serverPeer.getInputStream()),
+          serverPeer.getOutputStream(), WINDOW, false,
+          new MultiplexedConnection.StreamHandler() {
+            @Override
+            public void accept(Stream stream) {
+              accepted.add(stream);
+            }
+          });
+    }
+    serverReceiver = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          server.receive();
+        } catch (IOException e) {
+          // The connection is closed by the tests.
+        }
+      }
+    });
+    serverReceiver.start();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    client.close();
+    server.close();
+    serverReceiver.join();
+  }
+
+  private Stream accept() throws InterruptedException {
+    Stream stream = accepted.poll(10, TimeUnit.SECONDS);
+    assertTrue("No stream was opened", stream != null);
+    return stream;
+  }
+
+  private static byte[] data(int length, int seed) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (i * 31 + seed);
+    }
+    return data;
+  }
+
+  @Test
+  public void testSlowReaderOnlyHoldsBackItsOwnStream() throws Exception {
+    final Stream bulkClient = client.openStream();
+    final Stream bulkServer = accept();
+    Stream echoClient = client.openStream();
+    Stream echoServer = accept();
+
+    // The server sends much more than the window on the first stream, which
+    // nobody reads for now.
+    final byte[] bulk = data(10 * WINDOW, 1);
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          bulkServer.getOutputStream().write(bulk);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    writer.start();
+
+    // The second stream keeps going both ways.
+    for (int i = 0; i < 10; i++) {
+      byte[] request = data(WINDOW, i);
+      echoClient.getOutputStream().write(request);
+      byte[] received = new byte[request.length];
+      new DataInputStream(echoServer.getInputStream()).readFully(received);
+      echoServer.getOutputStream().write(received);
+      byte[] echoed = new byte[request.length];
+      new DataInputStream(echoClient.getInputStream()).readFully(echoed);
+      assertArrayEquals(request, echoed);
+    }
+    assertTrue(writer.isAlive());
+
+    byte[] received = new byte[bulk.length];
+    new DataInputStream(bulkClient.getInputStream()).readFully(received);
+    assertArrayEquals(bulk, received);
+    writer.join();
+  }
+
+  @Test
+  public void testTimeouts() throws Exception {
+    Stream stream = client.openStream();
+    Stream serverStream = accept();
+
+    stream.setReadTimeout(100);
+    try {
+      stream.getInputStream().read();
+      fail("The read did not time out");
+    } catch (SocketTimeoutException e) {
+      GenericTestUtils.assertExceptionContains("Timed out", e);
+    }
+
+    // Writing more than the window times out when nobody reads.
+    stream.setWriteTimeout(100);
+    try {
+      stream.getOutputStream().write(new byte[2 * WINDOW]);
+      fail("The write did not time out");
+    } catch (SocketTimeoutException e) {
+      GenericTestUtils.assertExceptionContains("Timed out", e);
+    }
+    // The bytes sent within the window were delivered.
+    new DataInputStream(serverStream.getInputStream())
+        .readFully(new byte[WINDOW]);
+    assertFalse(client.isClosed());
+  }
+
+  @Test
+  public void testSecureChannel() throws Exception {
+    // The streams are as secure as the connection carrying them.
+    Stream stream = client.openStream();
+    Stream serverStream = accept();
+    assertTrue(stream.hasSecureChannel());
+    assertFalse(serverStream.hasSecureChannel());
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    Stream first = client.openStream();
+    Stream firstServer = accept();
+    Stream second = client.openStream();
+    Stream secondServer = accept();
+    assertEquals(2, client.getNumStreams());
+
+    // A stream closed by the server ends after its data.
+    secondServer.getOutputStream().write(data(100, 0));
+    secondServer.close();
+    byte[] received = new byte[100];
+    new DataInputStream(second.getInputStream()).readFully(received);
+    assertArrayEquals(data(100, 0), received);
+    assertEquals(-1, second.getInputStream().read());
+    assertTrue(second.isClosed());
+    try {
+      second.getOutputStream().write(1);
+      fail("Wrote to a closed stream");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains("closed", e);
+    }
+    assertEquals(1, client.getNumStreams());
+
+    // The client closes the connection once its last stream is closed.
+    first.close();
+    assertEquals(-1, firstServer.getInputStream().read());
+    assertTrue(client.isClosed());
+    serverReceiver.join(10000);
+    assertTrue(server.isClosed());
+  }
+}
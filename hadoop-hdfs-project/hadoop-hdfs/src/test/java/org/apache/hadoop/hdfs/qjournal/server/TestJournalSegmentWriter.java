@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.qjournal.QJMTestUtil;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.StartupOption;
+import org.apache.hadoop.hdfs.server.common.StorageErrorReporter;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileOutputStream;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeLayoutVersion;
+import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Tests the syncs and the preallocation of
+ * {@link JournalSegmentWriter}.
+ */
+public class TestJournalSegmentWriter {
+  private static final File TEST_DIR = new File(
+      new File(MiniDFSCluster.getBaseDirectory()), "TestJournalSegmentWriter");
+
+  private final Configuration conf = new Configuration();
+  private Journal journal;
+  private EditLogFileOutputStream stream;
+
+  @Before
+  public void setup() throws Exception {
+    FileUtil.fullyDelete(TEST_DIR);
+    journal = new Journal(conf, new File(TEST_DIR, "journal"), "test-journal",
+        StartupOption.REGULAR, Mockito.mock(StorageErrorReporter.class));
+    journal.format(new NamespaceInfo(12345, "mycluster", "my-bp", 0L));
+    EditLogFileOutputStream segment = new EditLogFileOutputStream(conf,
+        new File(TEST_DIR, "segment"), 1024);
+    segment.create(NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+    stream = Mockito.spy(segment);
+  }
+
+  @After
+  public void cleanup() {
+    IOUtils.closeStream(stream);
+    IOUtils.closeStream(journal);
+  }
+
+  @Test(timeout = 60000)
+  public void testWriteThenSync() throws Exception {
+    JournalSegmentWriter writer = new JournalSegmentWriter(stream, 0,
+        MoreExecutors.directExecutor(), journal.getMetrics());
+
+    // A written batch is flushed to the file, but not synced.
+    writer.write(QJMTestUtil.createTxnData(1, 1));
+    Mockito.verify(stream, Mockito.never()).sync();
+
+    writer.sync();
+    Mockito.verify(stream, Mockito.times(1)).sync();
+  }
+
+  @Test(timeout = 60000)
+  public void testPreallocateAhead() throws Exception {
+    final long preallocateSize = 4 * 1024 * 1024;
+    JournalSegmentWriter writer = new JournalSegmentWriter(stream,
+        preallocateSize, MoreExecutors.directExecutor(),
+        journal.getMetrics());
+    long preallocated = stream.getPreallocatedLength();
+    assertTrue(preallocated < preallocateSize / 2);
+
+    writer.write(QJMTestUtil.createTxnData(1, 1));
+    assertTrue(stream.getPreallocatedLength() >= preallocateSize);
+    assertTrue(journal.getMetrics().bytesPreallocated.value() > 0);
+
+    // The padding is truncated once the segment is closed.
+    stream.close();
+    File segment = new File(TEST_DIR, "segment");
+    assertTrue(segment.length() < preallocateSize);
+  }
+}
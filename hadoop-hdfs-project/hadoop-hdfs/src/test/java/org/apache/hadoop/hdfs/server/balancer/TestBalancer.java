@@ -985,7 +985,7 @@ private static int runBalancer(Collection<URI> namenodes,
     LOG.info("parameters = " + p);
     LOG.info("Print stack trace", new Throwable());
 
-    System.out.println("Time Stamp               Iteration#  Bytes Already Moved  Bytes Left To Move  Bytes Being Moved");
+    System.out.println("Time Stamp               Iteration#  Bytes Already Moved  Bytes Left To Move  Bytes Being Moved    Throughput");
 
     List<NameNodeConnector> connectors = Collections.emptyList();
     try {
@@ -103,6 +103,40 @@ public void writeRead() throws Exception {
         fileRegion.get());
   }
 
+  @Test
+  public void resolveCached() throws Exception {
+    levelDBAliasMapServer.setConf(conf);
+    levelDBAliasMapServer.start();
+    Configuration cacheConf = new Configuration(conf);
+    cacheConf.setInt(DFSConfigKeys.DFS_PROVIDED_ALIASMAP_CACHE_SIZE, 10);
+    inMemoryLevelDBAliasMapClient.setConf(cacheConf);
+    Block block = new Block(42, 43, 44);
+    FileRegion region = new FileRegion(block,
+        new ProvidedStorageLocation(new Path("cuckoo"), 45, 46, new byte[0]));
+    FileRegion newRegion = new FileRegion(block,
+        new ProvidedStorageLocation(new Path("magpie"), 45, 46, new byte[0]));
+    BlockAliasMap.Reader<FileRegion> reader =
+        inMemoryLevelDBAliasMapClient.getReader(null, BPID);
+    assertEquals(Optional.empty(), reader.resolve(block));
+    inMemoryLevelDBAliasMapClient.getWriter(null, BPID).store(region);
+    assertEquals(region, reader.resolve(block).get());
+
+    // Another client changes the region behind the cache
+    Configuration noCacheConf = new Configuration(conf);
+    noCacheConf.setInt(DFSConfigKeys.DFS_PROVIDED_ALIASMAP_CACHE_SIZE, 0);
+    InMemoryLevelDBAliasMapClient noCacheClient =
+        new InMemoryLevelDBAliasMapClient();
+    noCacheClient.setConf(noCacheConf);
+    try {
+      noCacheClient.getWriter(null, BPID).store(newRegion);
+      assertEquals(newRegion,
+          noCacheClient.getReader(null, BPID).resolve(block).get());
+      assertEquals(region, reader.resolve(block).get());
+    } finally {
+      noCacheClient.close();
+    }
+  }
+
   @Test
   public void iterateSingleBatch() throws Exception {
     levelDBAliasMapServer.setConf(conf);
@@ -20,11 +20,14 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.common.blockaliasmap.impl.TextFileRegionAliasMap.*;
 import org.apache.hadoop.hdfs.server.common.FileRegion;
 import org.apache.hadoop.io.DataInputBuffer;
@@ -52,7 +55,8 @@ void check(TextWriter.Options opts, final Path vp,
     TextFileRegionAliasMap mFmt = new TextFileRegionAliasMap() {
       @Override
       public TextWriter createWriter(Path file, CompressionCodec codec,
-          String delim, Configuration conf) throws IOException {
+          String delim, boolean compact, Configuration conf)
+          throws IOException {
         assertEquals(vp, file);
         if (null == vc) {
           assertNull(codec);
@@ -157,6 +161,67 @@ public InputStream createStream() {
     fail("Invalid iterator");
   }
 
+  @Test
+  public void testCompactReadWrite() throws Exception {
+    final DataOutputBuffer out = new DataOutputBuffer();
+    Path otherFile = new Path(OUTFILE_PATH, OUTFILE_BASENAME + "other");
+    FileRegion r1 = new FileRegion(4344L, OUTFILE, 0, 1024);
+    FileRegion r2 = new FileRegion(4345L, OUTFILE, 1024, 1024);
+    FileRegion r3 = new FileRegion(4346L, otherFile, 0, 512);
+    FileRegion r4 = new FileRegion(4347L, OUTFILE, 0, 512);
+    try (TextWriter csv =
+        new TextWriter(new OutputStreamWriter(out), ",", true)) {
+      csv.store(r1);
+      csv.store(r2);
+      csv.store(r3);
+      csv.store(r4);
+    }
+    String text = new String(out.getData(), 0, out.getLength(), "UTF-8");
+    assertEquals("4345,,1024,1024,0", text.split("\n")[1]);
+
+    final AtomicInteger opened = new AtomicInteger();
+    try (TextReader csv = new TextReader(null, null, null, ",",
+        new IdentityHashMap<>(), new FileRegionCache(10, 1)) {
+      @Override
+      public InputStream createStream() {
+        opened.incrementAndGet();
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), 0, out.getLength());
+        return in;
+      }}) {
+      Iterator<FileRegion> i = csv.iterator();
+      assertEquals(r1, i.next());
+      assertEquals(r2, i.next());
+      assertEquals(r3, i.next());
+      assertEquals(r4, i.next());
+      assertFalse(i.hasNext());
+
+      // The region after a resolved one is cached with it
+      opened.set(0);
+      assertEquals(r1, csv.resolve(r1.getBlock()).get());
+      assertEquals(r2, csv.resolve(r2.getBlock()).get());
+      assertEquals(r1, csv.resolve(r1.getBlock()).get());
+      assertEquals(1, opened.get());
+      assertEquals(r3, csv.resolve(r3.getBlock()).get());
+      assertEquals(2, opened.get());
+      assertFalse(csv.resolve(new Block(4348L)).isPresent());
+    }
+  }
+
+  @Test
+  public void testRegionCacheIsKeyedByBlockPool() {
+    FileRegionCache cache = new FileRegionCache(10, 0);
+    FileRegion r1 = new FileRegion(4344L, OUTFILE, 0, 1024);
+    cache.put("BP-1", r1);
+    assertEquals(r1, cache.get("BP-1", r1.getBlock()).get());
+    // The same block id in another block pool is another block
+    assertFalse(cache.get("BP-2", r1.getBlock()).isPresent());
+    FileRegion r2 = new FileRegion(4344L, OUTFILE, 1024, 1024);
+    cache.put("BP-2", r2);
+    assertEquals(r1, cache.get("BP-1", r1.getBlock()).get());
+    assertEquals(r2, cache.get("BP-2", r2.getBlock()).get());
+  }
+
   @Test
   public void testCSVReadWriteTsv() throws Exception {
     final DataOutputBuffer out = new DataOutputBuffer();
@@ -80,6 +80,11 @@ public static void setCacheReportsDisabledForTests(MiniDFSCluster cluster,
     }
   }
 
+  /** Return the number of threads serving multiplexed streams right now. */
+  public static int getNumActiveStreamThreads(DataNode dn) {
+    return dn.getXferServer().getNumActiveStreamThreads();
+  }
+
   public static void triggerDeletionReport(DataNode dn) throws IOException {
     for (BPOfferService bpos : dn.getAllBpOs()) {
       bpos.triggerDeletionReportForTests();
@@ -1171,6 +1171,12 @@ public synchronized InputStream getBlockInputStream(ExtendedBlock b,
     return result;
   }
 
+  @Override // FsDatasetSpi
+  public InputStream getCachedBlockInputStream(ExtendedBlock b,
+      long seekOffset) throws IOException {
+    return getBlockInputStream(b, seekOffset);
+  }
+
   /** Not supported */
   @Override // FsDatasetSpi
   public ReplicaInputStreams getTmpInputStreams(ExtendedBlock b, long blkoff,
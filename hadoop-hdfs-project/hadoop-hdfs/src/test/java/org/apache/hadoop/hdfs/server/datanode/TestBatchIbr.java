@@ -18,6 +18,9 @@
 package org.apache.hadoop.hdfs.server.datanode;
 
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKREPORT_INCREMENTAL_INTERVAL_MSEC_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKREPORT_INCREMENTAL_MAX_BLOCKS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKREPORT_INCREMENTAL_PIGGYBACK_ON_HEARTBEAT_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY;
 
 import java.io.IOException;
@@ -39,6 +42,14 @@
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
+import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
+import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo.BlockStatus;
 import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.BlockWrite.ReplaceDatanodeOnFailure;
 import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.test.GenericTestUtils;
@@ -47,10 +58,13 @@
 import org.apache.log4j.Level;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 /**
  * This test verifies that incremental block reports are sent in batch mode
- * and the namenode allows closing a file with COMMITTED blocks.
+ * and the namenode allows closing a file with COMMITTED blocks. It also logs
+ * the number of reports and the NameNode RPC queue time, so that the batching
+ * settings can be compared.
  */
 public class TestBatchIbr {
   public static final Log LOG = LogFactory.getLog(TestBatchIbr.class);
@@ -69,6 +83,18 @@ public class TestBatchIbr {
         LogFactory.getLog(IncrementalBlockReportManager.class), Level.ALL);
   }
 
+  static HdfsConfiguration newConf(long ibrInterval, int maxBlocks,
+      boolean piggyback) throws IOException {
+    final HdfsConfiguration conf = newConf(ibrInterval);
+    conf.setInt(DFS_BLOCKREPORT_INCREMENTAL_MAX_BLOCKS_KEY, maxBlocks);
+    conf.setBoolean(DFS_BLOCKREPORT_INCREMENTAL_PIGGYBACK_ON_HEARTBEAT_KEY,
+        piggyback);
+    if (piggyback) {
+      conf.setLong(DFS_HEARTBEAT_INTERVAL_KEY, 1);
+    }
+    return conf;
+  }
+
   static HdfsConfiguration newConf(long ibrInterval) throws IOException {
     final HdfsConfiguration conf = new HdfsConfiguration();
     conf.setLong(DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, BLOCK_SIZE);
@@ -103,10 +129,14 @@ public Path call() throws Exception {
   }
 
   static void runIbrTest(final long ibrInterval) throws Exception {
+    runIbrTest(ibrInterval, newConf(ibrInterval));
+  }
+
+  static void runIbrTest(final long ibrInterval, final Configuration conf)
+      throws Exception {
     final ExecutorService executor = createExecutor();
     final Random ran = new Random();
 
-    final Configuration conf = newConf(ibrInterval);
     final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
         .numDataNodes(NUM_DATANODES).build();
     final DistributedFileSystem dfs = cluster.getFileSystem();
@@ -166,6 +196,8 @@ public Boolean call() throws Exception {
 
       LOG.info("ibrInterval=" + ibrInterval + " ("
           + toConfString(DFS_BLOCKREPORT_INCREMENTAL_INTERVAL_MSEC_KEY, conf)
+          + ", " + toConfString(
+              DFS_BLOCKREPORT_INCREMENTAL_PIGGYBACK_ON_HEARTBEAT_KEY, conf)
           + "), numBlockCreated=" + numBlockCreated);
       LOG.info("duration=" + toSecondString(testEndTime - testStartTime)
           + ", createFileTime=" + toSecondString(createFileTime.get())
@@ -176,6 +208,7 @@ public Boolean call() throws Exception {
           + ", NUM_THREADS=" + NUM_THREADS
           + ", NUM_DATANODES=" + NUM_DATANODES);
       logIbrCounts(cluster.getDataNodes());
+      logNameNodeRpcMetrics(cluster.getNameNode());
     } finally {
       executor.shutdown();
       cluster.shutdown();
@@ -201,6 +234,23 @@ static void logIbrCounts(List<DataNode> datanodes) {
 
   }
 
+  /**
+   * Log how many IBR calls the NameNode served and how long calls waited in
+   * its RPC queue.
+   */
+  static void logNameNodeRpcMetrics(NameNode nn) {
+    final MetricsRecordBuilder nnMetrics =
+        MetricsAsserts.getMetrics("NameNodeActivity");
+    final MetricsRecordBuilder rpcMetrics = MetricsAsserts.getMetrics(
+        "RpcActivityForPort" + nn.getServiceRpcAddress().getPort());
+    LOG.info("NameNode: BlockReceivedAndDeletedOps="
+        + MetricsAsserts.getLongCounter("BlockReceivedAndDeletedOps", nnMetrics)
+        + ", RpcQueueTimeNumOps="
+        + MetricsAsserts.getLongCounter("RpcQueueTimeNumOps", rpcMetrics)
+        + ", RpcQueueTimeAvgTime="
+        + MetricsAsserts.getDoubleGauge("RpcQueueTimeAvgTime", rpcMetrics));
+  }
+
   static class ThreadLocalBuffer extends ThreadLocal<byte[]> {
     @Override
     protected byte[] initialValue() {
@@ -260,4 +310,50 @@ public void testIbr() throws Exception {
     runIbrTest(0L);
     runIbrTest(100L);
   }
+
+  @Test
+  public void testIbrPiggybackOnHeartbeat() throws Exception {
+    runIbrTest(0L, newConf(0L, 64, true));
+  }
+
+  @Test
+  public void testIbrThresholds() throws Exception {
+    final DataNodeMetrics metrics = Mockito.mock(DataNodeMetrics.class);
+    final IncrementalBlockReportManager ibrManager =
+        new IncrementalBlockReportManager(0L, 3, true, metrics);
+    final DatanodeStorage storage = new DatanodeStorage("s1");
+
+    // Received blocks wait for the heartbeat.
+    ibrManager.notifyNamenodeBlock(newRdbi(1), storage, false);
+    ibrManager.notifyNamenodeBlock(newRdbi(2), storage, false);
+    Assert.assertFalse(ibrManager.sendImmediately());
+    // Reporting the same block again does not count it twice.
+    ibrManager.notifyNamenodeBlock(newRdbi(2), storage, false);
+    Assert.assertEquals(2, ibrManager.getNumPendingBlocks());
+    Assert.assertFalse(ibrManager.sendImmediately());
+
+    // Until enough of them are pending.
+    ibrManager.notifyNamenodeBlock(newRdbi(3), storage, false);
+    Assert.assertTrue(ibrManager.sendImmediately());
+    sendIBRs(ibrManager);
+    Assert.assertEquals(0, ibrManager.getNumPendingBlocks());
+    Assert.assertFalse(ibrManager.sendImmediately());
+
+    // Blocks on transient storage are reported right away.
+    ibrManager.notifyNamenodeBlock(newRdbi(4), storage, true);
+    Assert.assertTrue(ibrManager.sendImmediately());
+    sendIBRs(ibrManager);
+    Assert.assertFalse(ibrManager.sendImmediately());
+  }
+
+  private static ReceivedDeletedBlockInfo newRdbi(long blockId) {
+    return new ReceivedDeletedBlockInfo(new Block(blockId, BLOCK_SIZE, 1),
+        BlockStatus.RECEIVED_BLOCK, null);
+  }
+
+  private static void sendIBRs(IncrementalBlockReportManager ibrManager)
+      throws IOException {
+    ibrManager.sendIBRs(Mockito.mock(DatanodeProtocol.class),
+        Mockito.mock(DatanodeRegistration.class), "bp");
+  }
 }
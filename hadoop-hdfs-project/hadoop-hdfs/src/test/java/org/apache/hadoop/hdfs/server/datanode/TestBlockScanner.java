@@ -19,6 +19,7 @@
 
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_RECENT_BLOCKS_MAX;
 import static org.apache.hadoop.hdfs.server.datanode.BlockScanner.Conf.INTERNAL_DFS_DATANODE_SCAN_PERIOD_MS;
 import static org.apache.hadoop.hdfs.server.datanode.BlockScanner.Conf.INTERNAL_VOLUME_SCANNER_SCAN_RESULT_HANDLER;
 import static org.apache.hadoop.hdfs.server.datanode.BlockScanner.Conf.INTERNAL_DFS_BLOCK_SCANNER_CURSOR_SAVE_INTERVAL_MS;
@@ -46,6 +47,7 @@
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.datanode.FsDatasetTestUtils.MaterializedReplica;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.DataNodeVolumeMetrics;
 import org.apache.hadoop.hdfs.server.datanode.VolumeScanner.ScanResultHandler;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -705,6 +707,83 @@ public void testCalculateNeededBytesPerSec() throws Exception {
         calculateShouldScan("test", 100000L, 365000000L, 0, 60));
   }
 
+  @Test(timeout=120000)
+  public void testCalculateScanBytesPerSec() throws Exception {
+    // Without a backoff latency, always scan at the target rate.
+    assertEquals(1000L, VolumeScanner.calculateScanBytesPerSec(1000L, 0, 50));
+
+    // The volume is not slower than the backoff latency.
+    assertEquals(1000L, VolumeScanner.calculateScanBytesPerSec(1000L, 10, 10));
+
+    // Latency twice the backoff latency halves the rate.
+    assertEquals(500L, VolumeScanner.calculateScanBytesPerSec(1000L, 10, 20));
+
+    // The rate is not reduced below 1/16th of the target.
+    assertEquals(62L,
+        VolumeScanner.calculateScanBytesPerSec(1000L, 10, 100000));
+    assertEquals(1L, VolumeScanner.calculateScanBytesPerSec(4L, 10, 100000));
+  }
+
+  /**
+   * Test that the io of the scanner itself does not count as load of the
+   * volume.
+   */
+  @Test(timeout=120000)
+  public void testScannerIoIsNotSampled() throws Exception {
+    DataNodeVolumeMetrics metrics =
+        DataNodeVolumeMetrics.create(new Configuration(), "scannerIo");
+    try {
+      metrics.addDataFileIoLatency(100);
+      double recent = metrics.getRecentDataFileIoLatency(60000);
+      assertEquals(10.0, recent, 0.001);
+      metrics.addDataFileIoLatency(1000, false);
+      assertEquals(recent, metrics.getRecentDataFileIoLatency(60000), 0.0);
+      assertEquals(2, metrics.getTotalDataFileIos());
+    } finally {
+      metrics.unRegister();
+    }
+  }
+
+  /**
+   * Test that recently written blocks are scanned without waiting for the
+   * next scan period.
+   */
+  @Test(timeout=120000)
+  public void testScanRecentlyWrittenBlocks() throws Exception {
+    Configuration conf = new Configuration();
+    // Set a really long scan period.
+    conf.setLong(DFS_DATANODE_SCAN_PERIOD_HOURS_KEY, 100L);
+    conf.setInt(DFS_BLOCK_SCANNER_RECENT_BLOCKS_MAX, 4);
+    conf.set(INTERNAL_VOLUME_SCANNER_SCAN_RESULT_HANDLER,
+        TestScanResultHandler.class.getName());
+    final TestContext ctx = new TestContext(conf, 1);
+    final int NUM_EXPECTED_BLOCKS = 5;
+    ctx.createFiles(0, NUM_EXPECTED_BLOCKS, 1);
+    final TestScanResultHandler.Info info =
+        TestScanResultHandler.getInfo(ctx.volumes.get(0));
+    synchronized (info) {
+      info.shouldRun = true;
+      info.notify();
+    }
+    GenericTestUtils.waitFor(() -> {
+      synchronized (info) {
+        return info.goodBlocks.size() == NUM_EXPECTED_BLOCKS;
+      }
+    }, 50, 30000);
+
+    // The block pool has been scanned, so only the new block's write can
+    // get it scanned within the scan period.
+    DFSTestUtil.createFile(ctx.dfs[0], ctx.getPath(NUM_EXPECTED_BLOCKS), 1,
+        (short) 1, 123L);
+    final ExtendedBlock recent = ctx.getFileBlock(0, NUM_EXPECTED_BLOCKS);
+    GenericTestUtils.waitFor(() -> {
+      synchronized (info) {
+        return info.goodBlocks.contains(recent);
+      }
+    }, 50, 30000);
+    ctx.close();
+  }
+
   /**
    * Test that we can mark certain blocks as suspect, and get them quickly
    * rescanned that way.  See HDFS-7686 and HDFS-7548.
@@ -110,6 +110,8 @@ public void testFullBlock() throws Exception {
     Assert.assertTrue(getLongMetric("EcReconstructionReadTimeMillis") > 0);
     Assert.assertTrue(getLongMetric("EcReconstructionDecodingTimeMillis") > 0);
     Assert.assertTrue(getLongMetric("EcReconstructionWriteTimeMillis") > 0);
+    Assert.assertEquals("EcReconstructionThroughputNumTasks should be ",
+        1, getLongMetric("EcReconstructionThroughputNumTasks"));
   }
 
   // A partial block, reconstruct the partial block
@@ -0,0 +1,256 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hdfs.server.datanode.GroupCommitSyncService.SyncRequest;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.Time;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link GroupCommitSyncService}.
+ */
+public class TestGroupCommitSyncService {
+  private GroupCommitSyncService service;
+
+  @Before
+  public void setUp() {
+    service = new GroupCommitSyncService(60000, 4);
+  }
+
+  @After
+  public void tearDown() {
+    service.shutdown();
+  }
+
+  private static FsVolumeSpi newVolume(String storageId) {
+    FsVolumeSpi volume = mock(FsVolumeSpi.class);
+    doReturn(storageId).when(volume).getStorageID();
+    doReturn(URI.create("file:///" + storageId)).when(volume).getBaseURI();
+    return volume;
+  }
+
+  @Test(timeout = 60000)
+  public void testQueuedRequestsOfOneWriterShareASync() throws Exception {
+    final FsVolumeSpi volume = newVolume("s1");
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger syncs = new AtomicInteger();
+    final Object writer = new Object();
+
+    // Hold the writer's sync so its following requests queue up.
+    SyncRequest first = service.submit(volume, writer, () -> {
+      blocked.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    });
+    blocked.await();
+    SyncRequest[] requests = new SyncRequest[5];
+    for (int i = 0; i < requests.length; i++) {
+      requests[i] = service.submit(volume, writer, syncs::incrementAndGet);
+    }
+    release.countDown();
+
+    first.waitForCompletion();
+    for (SyncRequest r : requests) {
+      r.waitForCompletion();
+    }
+    assertEquals(1, syncs.get());
+    assertEquals(1, service.getNumSyncers());
+  }
+
+  @Test(timeout = 60000)
+  public void testFailureIsReportedToAllCoalescedRequests() throws Exception {
+    final FsVolumeSpi volume = newVolume("s1");
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final IOException error = new IOException("injected");
+    final Object writer = new Object();
+
+    service.submit(volume, writer, () -> {
+      blocked.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    });
+    blocked.await();
+    SyncRequest r1 = service.submit(volume, writer, () -> {
+      throw error;
+    });
+    SyncRequest r2 = service.submit(volume, writer, () -> {
+      throw error;
+    });
+    release.countDown();
+
+    for (SyncRequest r : new SyncRequest[] {r1, r2}) {
+      try {
+        r.waitForCompletion();
+        fail("Expected the sync to fail");
+      } catch (IOException e) {
+        assertSame(error, e);
+      }
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testOneSyncerPerVolume() throws Exception {
+    final AtomicInteger syncs = new AtomicInteger();
+    final Object writer = new Object();
+    service.submit(newVolume("s1"), writer, syncs::incrementAndGet)
+        .waitForCompletion();
+    service.submit(newVolume("s2"), writer, syncs::incrementAndGet)
+        .waitForCompletion();
+    service.submit(newVolume("s1"), writer, syncs::incrementAndGet)
+        .waitForCompletion();
+    assertEquals(3, syncs.get());
+    assertEquals(2, service.getNumSyncers());
+  }
+
+  @Test(timeout = 60000)
+  public void testSubmitAfterShutdown() throws Exception {
+    service.shutdown();
+    try {
+      service.submit(newVolume("s1"), new Object(), () -> { });
+      fail("Expected submit to fail after shutdown");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testRequestsQueuedBeforeShutdownComplete() throws Exception {
+    final FsVolumeSpi volume = newVolume("s1");
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final Object writer = new Object();
+    SyncRequest first = service.submit(volume, writer, () -> {
+      blocked.countDown();
+      try {
+        Thread.sleep(Long.MAX_VALUE);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    });
+    blocked.await();
+    SyncRequest queued = service.submit(volume, writer, () -> { });
+    service.shutdown();
+    for (SyncRequest r : new SyncRequest[] {first, queued}) {
+      try {
+        r.waitForCompletion();
+        fail("Expected the sync to fail on shutdown");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testWaitTimesOut() throws Exception {
+    service.shutdown();
+    service = new GroupCommitSyncService(100, 4);
+    final CountDownLatch release = new CountDownLatch(1);
+    SyncRequest request = service.submit(newVolume("s1"), new Object(),
+        () -> {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+        });
+    try {
+      request.waitForCompletion();
+      fail("Expected the wait to time out");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains("did not complete", e);
+    } finally {
+      release.countDown();
+    }
+  }
+
+  /**
+   * Test that the syncs of different writers on one volume run at the same
+   * time, also when there are more writers than sync threads, so that the
+   * latency of hsync does not grow with the number of writers.
+   */
+  @Test(timeout = 60000)
+  public void testWritersSyncConcurrently() throws Exception {
+    service.shutdown();
+    service = new GroupCommitSyncService(60000, 2);
+    final FsVolumeSpi volume = newVolume("s1");
+    final int numWriters = 6;
+    final long syncMs = 500;
+    final CountDownLatch allSyncing = new CountDownLatch(numWriters);
+    final AtomicInteger notConcurrent = new AtomicInteger();
+    Thread[] writers = new Thread[numWriters];
+    final IOException[] errors = new IOException[numWriters];
+    long start = Time.monotonicNow();
+    for (int i = 0; i < numWriters; i++) {
+      final int index = i;
+      writers[i] = new Thread(() -> {
+        try {
+          service.submit(volume, new Object(), () -> {
+            allSyncing.countDown();
+            try {
+              if (!allSyncing.await(10, TimeUnit.SECONDS)) {
+                notConcurrent.incrementAndGet();
+              }
+              Thread.sleep(syncMs);
+            } catch (InterruptedException e) {
+              throw new IOException(e);
+            }
+          }).waitForCompletion();
+        } catch (IOException e) {
+          errors[index] = e;
+        }
+      });
+      writers[i].start();
+    }
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    long elapsed = Time.monotonicNow() - start;
+    for (IOException e : errors) {
+      assertNull(e);
+    }
+    assertEquals(0, notConcurrent.get());
+    // Syncing one writer after the other would take numWriters * syncMs.
+    assertTrue("Syncs took " + elapsed + " ms",
+        elapsed < numWriters * syncMs / 2);
+  }
+}
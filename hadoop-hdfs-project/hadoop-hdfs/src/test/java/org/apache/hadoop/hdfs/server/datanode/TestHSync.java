@@ -31,6 +31,7 @@
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.AppendTestUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
@@ -61,8 +62,22 @@ public void testHSyncWithAppend() throws Exception {
     testHSyncOperation(true);
   }
 
-  private void testHSyncOperation(boolean testWithAppend) throws IOException {
+  /** Test that hsync behaves the same when fsyncs are group committed */
+  @Test
+  public void testHSyncWithGroupCommit() throws Exception {
     Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(
+        DFSConfigKeys.DFS_DATANODE_GROUP_COMMIT_SYNC_ENABLED_KEY, true);
+    testHSyncOperation(conf, false);
+    testHSyncOperation(conf, true);
+  }
+
+  private void testHSyncOperation(boolean testWithAppend) throws IOException {
+    testHSyncOperation(new HdfsConfiguration(), testWithAppend);
+  }
+
+  private void testHSyncOperation(Configuration conf, boolean testWithAppend)
+      throws IOException {
     MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
     final DistributedFileSystem fs = cluster.getFileSystem();
 
@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.erasurecode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the per-volume scheduling of reconstructions in
+ * {@link ErasureCodingWorker}.
+ */
+public class TestErasureCodingWorker {
+  private ErasureCodingWorker worker;
+
+  @Before
+  public void setUp() {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_DN_EC_RECONSTRUCTION_VOLUME_MAX_TASKS_KEY,
+        1);
+    worker = new ErasureCodingWorker(conf, mock(DataNode.class));
+  }
+
+  @After
+  public void tearDown() {
+    worker.shutDown();
+  }
+
+  /**
+   * A reconstruction which runs until it is released.
+   */
+  private static class BlockingTask implements Runnable {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    public void run() {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    boolean awaitStarted(long millis) throws InterruptedException {
+      return started.await(millis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private static Set<String> volume(String storageId) {
+    return Collections.singleton(storageId);
+  }
+
+  @Test(timeout = 60000)
+  public void testBusyVolumeHoldsBackOnlyItsOwnTasks() throws Exception {
+    BlockingTask first = new BlockingTask();
+    BlockingTask sameVolume = new BlockingTask();
+    BlockingTask otherVolume = new BlockingTask();
+
+    worker.scheduleReconstruction(first, volume("s1"));
+    assertTrue(first.awaitStarted(10000));
+    worker.scheduleReconstruction(sameVolume, volume("s1"));
+    worker.scheduleReconstruction(otherVolume, volume("s2"));
+
+    assertTrue(otherVolume.awaitStarted(10000));
+    assertFalse(sameVolume.awaitStarted(500));
+    assertEquals(1, worker.getNumPendingTasks());
+
+    // Finishing the first task lets the held back one run.
+    first.release.countDown();
+    assertTrue(sameVolume.awaitStarted(10000));
+    assertEquals(0, worker.getNumPendingTasks());
+
+    sameVolume.release.countDown();
+    otherVolume.release.countDown();
+  }
+
+  @Test(timeout = 60000)
+  public void testTasksWithoutLocalVolumesAreNotHeldBack() throws Exception {
+    BlockingTask first = new BlockingTask();
+    worker.scheduleReconstruction(first, volume("s1"));
+    assertTrue(first.awaitStarted(10000));
+
+    final BlockingTask remote = new BlockingTask();
+    worker.scheduleReconstruction(remote, Collections.emptySet());
+    GenericTestUtils.waitFor(() -> remote.started.getCount() == 0, 100, 10000);
+    assertEquals(0, worker.getNumPendingTasks());
+
+    first.release.countDown();
+    remote.release.countDown();
+  }
+}
@@ -132,6 +132,12 @@ public InputStream getBlockInputStream(ExtendedBlock b, long seekOffset)
     return null;
   }
 
+  @Override
+  public InputStream getCachedBlockInputStream(ExtendedBlock b,
+      long seekOffset) throws IOException {
+    return null;
+  }
+
   @Override
   public ReplicaInputStreams getTmpInputStreams(ExtendedBlock b, long blkoff,
       long ckoff) throws IOException {
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_BASE_POLICY_KEY;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestLatencyAwareVolumeChoosingPolicy {
+
+  @SuppressWarnings("unchecked")
+  private static LatencyAwareVolumeChoosingPolicy<FsVolumeSpi> newPolicy() {
+    Configuration conf = new Configuration();
+    conf.setClass(DFS_DATANODE_LATENCY_AWARE_VOLUME_CHOOSING_POLICY_BASE_POLICY_KEY,
+        RoundRobinVolumeChoosingPolicy.class, VolumeChoosingPolicy.class);
+    return ReflectionUtils.newInstance(
+        LatencyAwareVolumeChoosingPolicy.class, conf);
+  }
+
+  private static FsVolumeSpi mockVolume(long available, int activeWriters,
+      double latencyMs) throws IOException {
+    FsVolumeSpi volume = Mockito.mock(FsVolumeSpi.class);
+    DataNodeVolumeMetrics metrics = Mockito.mock(DataNodeVolumeMetrics.class);
+    Mockito.when(volume.getAvailable()).thenReturn(available);
+    Mockito.when(volume.getMetrics()).thenReturn(metrics);
+    Mockito.when(metrics.getActiveWriters()).thenReturn(activeWriters);
+    Mockito.when(metrics.getRecentDataFileIoLatency(Mockito.anyLong()))
+        .thenReturn(latencyMs);
+    return volume;
+  }
+
+  // Without any load the volumes are chosen by the base policy.
+  @Test
+  public void testRR() throws Exception {
+    TestRoundRobinVolumeChoosingPolicy.testRR(newPolicy());
+  }
+
+  @Test
+  public void testRRPolicyExceptionMessage() throws Exception {
+    TestRoundRobinVolumeChoosingPolicy.testRRPolicyExceptionMessage(
+        newPolicy());
+  }
+
+  @Test
+  public void testOverloadedVolumeIsSkipped() throws Exception {
+    final LatencyAwareVolumeChoosingPolicy<FsVolumeSpi> policy = newPolicy();
+    final List<FsVolumeSpi> volumes = new ArrayList<FsVolumeSpi>();
+    volumes.add(mockVolume(1000L, 1, 1.0));
+    // Slow and busy.
+    volumes.add(mockVolume(1000L, 4, 20.0));
+    volumes.add(mockVolume(1000L, 2, 1.0));
+
+    for (int i = 0; i < 10; i++) {
+      Assert.assertNotSame(volumes.get(1),
+          policy.chooseVolume(volumes, 100, null));
+    }
+  }
+
+  @Test
+  public void testOverloadedVolumeIsChosenWhenOthersAreFull()
+      throws Exception {
+    final LatencyAwareVolumeChoosingPolicy<FsVolumeSpi> policy = newPolicy();
+    final List<FsVolumeSpi> volumes = new ArrayList<FsVolumeSpi>();
+    volumes.add(mockVolume(50L, 0, 0));
+    volumes.add(mockVolume(1000L, 4, 20.0));
+
+    Assert.assertEquals(volumes.get(1),
+        policy.chooseVolume(volumes, 100, null));
+  }
+
+  @Test
+  public void testLoad() throws Exception {
+    final LatencyAwareVolumeChoosingPolicy<FsVolumeSpi> policy = newPolicy();
+    Assert.assertEquals(1.0,
+        policy.getLoad(Mockito.mock(FsVolumeSpi.class)), 0.0);
+    Assert.assertEquals(3 * 5.0,
+        policy.getLoad(mockVolume(1000L, 2, 4.0)), 0.0);
+  }
+}
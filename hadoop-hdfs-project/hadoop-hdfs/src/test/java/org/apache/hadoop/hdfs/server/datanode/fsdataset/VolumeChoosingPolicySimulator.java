@@ -0,0 +1,230 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.StorageType;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.mockito.Mockito;
+
+/**
+ * Simulates block writes to the volumes of a DataNode, some of which are
+ * slower than the others, and compares the write latency and the space
+ * balance achieved by volume choosing policies.
+ *
+ * Each volume serves its writes in order at its bandwidth. Writes arrive as
+ * a Poisson process whose rate is set so that the volumes are busy for the
+ * given fraction of the time. The latency of a write is the time between its
+ * arrival and the end of its transfer. The io latency the policies see is
+ * that of a packet on a volume with as many concurrent writers.
+ *
+ * Usage: VolumeChoosingPolicySimulator [-volumes N] [-slowVolumes N]
+ *   [-slowdown X] [-utilization X] [-writes N] [-seed N]
+ */
+public class VolumeChoosingPolicySimulator extends Configured
+    implements Tool {
+
+  private static final long BLOCK_SIZE = 128L * 1024 * 1024;
+  private static final long PACKET_SIZE = 64L * 1024;
+  /** Bandwidth of a healthy volume, in bytes per millisecond. */
+  private static final double BANDWIDTH = 100.0 * 1024 * 1024 / 1000;
+  private static final long CAPACITY = 4L * 1024 * 1024 * 1024 * 1024;
+
+  private int numVolumes = 12;
+  private int numSlowVolumes = 2;
+  private double slowdown = 4;
+  private double utilization = 0.7;
+  private int numWrites = 100000;
+  private long seed = 0;
+
+  /**
+   * The state of a simulated volume.
+   */
+  private static class SimVolume {
+    private final double bandwidth;
+    /** Completion times of the writes queued on the volume. */
+    private final ArrayDeque<Double> completions = new ArrayDeque<>();
+    private long used;
+    private FsVolumeSpi volume;
+
+    SimVolume(double bandwidth, long used) {
+      this.bandwidth = bandwidth;
+      this.used = used;
+    }
+
+    void retire(double now) {
+      while (!completions.isEmpty() && completions.peekFirst() <= now) {
+        completions.pollFirst();
+      }
+    }
+
+    double submit(double now) {
+      double start = completions.isEmpty() ?
+          now : Math.max(now, completions.peekLast());
+      double end = start + BLOCK_SIZE / bandwidth;
+      completions.addLast(end);
+      used += BLOCK_SIZE;
+      return end;
+    }
+
+    double getPacketLatency() {
+      return PACKET_SIZE / bandwidth * Math.max(1, completions.size());
+    }
+  }
+
+  private void printUsage() {
+    System.err.println("Usage: VolumeChoosingPolicySimulator [-volumes N] "
+        + "[-slowVolumes N] [-slowdown X] [-utilization X] [-writes N] "
+        + "[-seed N]");
+  }
+
+  private boolean parseArgs(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 == args.length) {
+        return false;
+      }
+      String value = args[++i];
+      switch (args[i - 1]) {
+      case "-volumes":
+        numVolumes = Integer.parseInt(value);
+        break;
+      case "-slowVolumes":
+        numSlowVolumes = Integer.parseInt(value);
+        break;
+      case "-slowdown":
+        slowdown = Double.parseDouble(value);
+        break;
+      case "-utilization":
+        utilization = Double.parseDouble(value);
+        break;
+      case "-writes":
+        numWrites = Integer.parseInt(value);
+        break;
+      case "-seed":
+        seed = Long.parseLong(value);
+        break;
+      default:
+        return false;
+      }
+    }
+    return numVolumes > 0 && numSlowVolumes >= 0
+        && numSlowVolumes <= numVolumes && slowdown >= 1
+        && utilization > 0 && utilization < 1 && numWrites > 0;
+  }
+
+  private List<SimVolume> createVolumes(Random random) throws Exception {
+    List<SimVolume> volumes = new ArrayList<>();
+    for (int i = 0; i < numVolumes; i++) {
+      double bandwidth = i < numSlowVolumes ? BANDWIDTH / slowdown : BANDWIDTH;
+      // Start with somewhat uneven volumes, as on a long running DataNode.
+      final SimVolume sim = new SimVolume(bandwidth,
+          (long) (CAPACITY * 0.2 * random.nextDouble()));
+      FsVolumeSpi volume = Mockito.mock(FsVolumeSpi.class);
+      DataNodeVolumeMetrics metrics = Mockito.mock(DataNodeVolumeMetrics.class);
+      Mockito.when(volume.getStorageType()).thenReturn(StorageType.DISK);
+      Mockito.when(volume.getAvailable())
+          .thenAnswer(invocation -> CAPACITY - sim.used);
+      Mockito.when(volume.getMetrics()).thenReturn(metrics);
+      Mockito.when(metrics.getActiveWriters())
+          .thenAnswer(invocation -> sim.completions.size());
+      Mockito.when(metrics.getRecentDataFileIoLatency(Mockito.anyLong()))
+          .thenAnswer(invocation -> sim.getPacketLatency());
+      sim.volume = volume;
+      volumes.add(sim);
+    }
+    return volumes;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void simulate(Class<? extends VolumeChoosingPolicy> policyClass)
+      throws Exception {
+    Configuration conf = new Configuration(getConf());
+    VolumeChoosingPolicy<FsVolumeSpi> policy =
+        ReflectionUtils.newInstance(policyClass, conf);
+    Random random = new Random(seed);
+    List<SimVolume> sims = createVolumes(random);
+    List<FsVolumeSpi> volumes = new ArrayList<>();
+    double totalBandwidth = 0;
+    for (SimVolume sim : sims) {
+      volumes.add(sim.volume);
+      totalBandwidth += sim.bandwidth;
+    }
+    double meanInterArrival = BLOCK_SIZE / (totalBandwidth * utilization);
+
+    double[] latencies = new double[numWrites];
+    double now = 0;
+    for (int i = 0; i < numWrites; i++) {
+      now += -Math.log(1 - random.nextDouble()) * meanInterArrival;
+      for (SimVolume sim : sims) {
+        sim.retire(now);
+      }
+      FsVolumeSpi chosen = policy.chooseVolume(volumes, BLOCK_SIZE, null);
+      SimVolume sim = sims.get(volumes.indexOf(chosen));
+      latencies[i] = sim.submit(now) - now;
+    }
+
+    Arrays.sort(latencies);
+    double minUsed = 1;
+    double maxUsed = 0;
+    for (SimVolume sim : sims) {
+      double usedFraction = (double) sim.used / CAPACITY;
+      minUsed = Math.min(minUsed, usedFraction);
+      maxUsed = Math.max(maxUsed, usedFraction);
+    }
+    System.out.println(String.format("%-36s p50: %8.0f ms, p99: %8.0f ms, "
+        + "max: %8.0f ms, used: %5.1f%% - %5.1f%%",
+        policyClass.getSimpleName(), percentile(latencies, 0.5),
+        percentile(latencies, 0.99), latencies[latencies.length - 1],
+        minUsed * 100, maxUsed * 100));
+  }
+
+  private static double percentile(double[] sorted, double p) {
+    return sorted[(int) Math.min(sorted.length - 1, p * sorted.length)];
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    if (!parseArgs(args)) {
+      printUsage();
+      return -1;
+    }
+    System.out.println("Simulating " + numWrites + " block writes to "
+        + numVolumes + " volumes, " + numSlowVolumes + " of them " + slowdown
+        + "x slower, at " + (utilization * 100) + "% utilization.");
+    simulate(RoundRobinVolumeChoosingPolicy.class);
+    simulate(AvailableSpaceVolumeChoosingPolicy.class);
+    simulate(LatencyAwareVolumeChoosingPolicy.class);
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new HdfsConfiguration(),
+        new VolumeChoosingPolicySimulator(), args);
+    System.exit(res);
+  }
+}
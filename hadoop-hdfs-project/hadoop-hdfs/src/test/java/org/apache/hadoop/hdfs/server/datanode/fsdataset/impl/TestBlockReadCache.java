@@ -0,0 +1,272 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.io.nativeio.NativeIO;
+import org.apache.hadoop.io.nativeio.NativeIO.POSIX.CacheManipulator;
+import org.apache.hadoop.io.nativeio.NativeIO.POSIX.NoMlockCacheManipulator;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link BlockReadCache}.
+ */
+public class TestBlockReadCache {
+  private static final short REPLICATION = 1;
+  private static final int MIN_FREQUENCY = 2;
+
+  private CacheManipulator prevCacheManipulator;
+  private long blockSize;
+  private MiniDFSCluster cluster;
+  private FileSystem fs;
+  private DataNode dn;
+  private BlockReadCache readCache;
+  private String bpid;
+
+  @Before
+  public void setUp() {
+    prevCacheManipulator = NativeIO.POSIX.getCacheManipulator();
+    NativeIO.POSIX.setCacheManipulator(new NoMlockCacheManipulator());
+    blockSize = NativeIO.POSIX.getCacheManipulator()
+        .getOperatingSystemPageSize();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+    NativeIO.POSIX.setCacheManipulator(prevCacheManipulator);
+  }
+
+  private void startCluster(long memoryBlocks, File ssdDir)
+      throws IOException {
+    startCluster(memoryBlocks, memoryBlocks, ssdDir);
+  }
+
+  private void startCluster(long memoryBlocks, long lockedBlocks,
+      File ssdDir) throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    conf.setLong(DFSConfigKeys.DFS_DATANODE_MAX_LOCKED_MEMORY_KEY,
+        lockedBlocks * blockSize);
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_READ_CACHE_ENABLED_KEY, true);
+    conf.setLong(DFSConfigKeys.DFS_DATANODE_READ_CACHE_MEMORY_CAPACITY_KEY,
+        memoryBlocks * blockSize);
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_READ_CACHE_ADMISSION_MIN_FREQUENCY_KEY,
+        MIN_FREQUENCY);
+    if (ssdDir != null) {
+      conf.set(DFSConfigKeys.DFS_DATANODE_READ_CACHE_SSD_DIR_KEY,
+          ssdDir.getAbsolutePath());
+      conf.setLong(DFSConfigKeys.DFS_DATANODE_READ_CACHE_SSD_CAPACITY_KEY,
+          16 * blockSize);
+    }
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    dn = cluster.getDataNodes().get(0);
+    readCache = ((FsDatasetImpl) dn.getFSDataset()).getReadCache();
+    bpid = cluster.getNamesystem().getBlockPoolId();
+  }
+
+  private long createFile(Path path, long seed) throws IOException {
+    DFSTestUtil.createFile(fs, path, blockSize, REPLICATION, seed);
+    return DFSTestUtil.getFirstBlock(fs, path).getBlockId();
+  }
+
+  private byte[] readTimes(Path path, int times) throws IOException {
+    byte[] contents = null;
+    for (int i = 0; i < times; i++) {
+      contents = DFSTestUtil.readFileBuffer(fs, path);
+    }
+    return contents;
+  }
+
+  private void waitForMemory(final long blockId, final boolean cached)
+      throws Exception {
+    GenericTestUtils.waitFor(
+        () -> readCache.isCachedInMemory(bpid, blockId) == cached, 100, 30000);
+  }
+
+  @Test
+  public void testFrequencySketch() {
+    BlockReadCache.FrequencySketch sketch =
+        new BlockReadCache.FrequencySketch(64, 64);
+    for (int i = 0; i < 5; i++) {
+      sketch.increment(1L);
+    }
+    sketch.increment(2L);
+    assertEquals(5, sketch.frequency(1L));
+    assertEquals(1, sketch.frequency(2L));
+    assertEquals(0, sketch.frequency(3L));
+
+    // Counters saturate rather than overflow.
+    for (int i = 0; i < 20; i++) {
+      sketch.increment(4L);
+    }
+    assertEquals(15, sketch.frequency(4L));
+
+    // Filling the window halves all the counters.
+    for (int i = 0; i < 64; i++) {
+      sketch.increment(1000L + i);
+    }
+    assertTrue(sketch.frequency(4L) < 15);
+  }
+
+  @Test(timeout = 120000)
+  public void testHotReplicaIsServedFromMemory() throws Exception {
+    startCluster(4, null);
+    final Path path = new Path("/hot");
+    final long blockId = createFile(path, 0xBEEF);
+
+    final byte[] expected = readTimes(path, 1);
+    assertFalse(readCache.isCachedInMemory(bpid, blockId));
+    readTimes(path, MIN_FREQUENCY - 1);
+    waitForMemory(blockId, true);
+
+    assertArrayEquals(expected, DFSTestUtil.readFileBuffer(fs, path));
+    MetricsRecordBuilder rb = getMetrics(dn.getMetrics().name());
+    assertTrue(getLongCounter("ReadCacheHits", rb) >= 1);
+    assertTrue(getLongCounter("ReadCacheBytesServed", rb) >= blockSize);
+    assertEquals(1, getLongCounter("ReadCacheAdmissions", rb));
+    // The mapping counts against dfs.datanode.max.locked.memory.
+    final FsDatasetImpl dataset = (FsDatasetImpl) dn.getFSDataset();
+    assertEquals(blockSize, dataset.getCacheUsed());
+
+    // Deleting the file drops it from the cache.
+    fs.delete(path, false);
+    waitForMemory(blockId, false);
+    GenericTestUtils.waitFor(() -> dataset.getCacheUsed() == 0, 100, 30000);
+  }
+
+  @Test(timeout = 120000)
+  public void testLockedMemoryLimit() throws Exception {
+    startCluster(4, 0, null);
+    final Path path = new Path("/hot");
+    final long blockId = createFile(path, 0xBEEF);
+
+    readTimes(path, MIN_FREQUENCY + 2);
+    assertFalse(readCache.isCachedInMemory(bpid, blockId));
+    assertEquals(0, readCache.getMemoryUsed());
+    MetricsRecordBuilder rb = getMetrics(dn.getMetrics().name());
+    assertEquals(0, getLongCounter("ReadCacheAdmissions", rb));
+    assertTrue(getLongCounter("ReadCacheAdmissionsRejected", rb) >= 1);
+  }
+
+  @Test(timeout = 120000)
+  public void testColdReplicaDoesNotDisplaceHotOne() throws Exception {
+    startCluster(1, null);
+    final Path hot = new Path("/hot");
+    final Path cold = new Path("/cold");
+    final long hotId = createFile(hot, 1);
+    final long coldId = createFile(cold, 2);
+
+    readTimes(hot, 6);
+    waitForMemory(hotId, true);
+    readTimes(cold, MIN_FREQUENCY + 1);
+
+    assertTrue(readCache.isCachedInMemory(bpid, hotId));
+    assertFalse(readCache.isCachedInMemory(bpid, coldId));
+    MetricsRecordBuilder rb = getMetrics(dn.getMetrics().name());
+    assertTrue(getLongCounter("ReadCacheAdmissionsRejected", rb) >= 1);
+  }
+
+  @Test(timeout = 120000)
+  public void testLeastRecentlyUsedReplicaIsEvicted() throws Exception {
+    startCluster(2, null);
+    final Path first = new Path("/first");
+    final Path second = new Path("/second");
+    final Path third = new Path("/third");
+    final long firstId = createFile(first, 1);
+    final long secondId = createFile(second, 2);
+    final long thirdId = createFile(third, 3);
+
+    readTimes(first, MIN_FREQUENCY);
+    waitForMemory(firstId, true);
+    readTimes(second, MIN_FREQUENCY);
+    waitForMemory(secondId, true);
+    // A hit makes the first replica the most recently used again.
+    readTimes(first, 1);
+    readTimes(third, MIN_FREQUENCY + 4);
+    waitForMemory(thirdId, true);
+
+    assertTrue(readCache.isCachedInMemory(bpid, firstId));
+    assertFalse(readCache.isCachedInMemory(bpid, secondId));
+  }
+
+  @Test(timeout = 120000)
+  public void testEvictedReplicaIsDemotedToSsd() throws Exception {
+    final File ssdDir = new File(GenericTestUtils.getTestDir(),
+        "testEvictedReplicaIsDemotedToSsd");
+    // Files in the configured directory which the cache does not own are
+    // left alone.
+    final File unrelated = new File(ssdDir, "unrelated");
+    assertTrue(ssdDir.isDirectory() || ssdDir.mkdirs());
+    assertTrue(unrelated.isFile() || unrelated.createNewFile());
+    startCluster(1, ssdDir);
+    assertTrue(unrelated.isFile());
+    final Path first = new Path("/first");
+    final Path second = new Path("/second");
+    final long firstId = createFile(first, 1);
+    final long secondId = createFile(second, 2);
+
+    final byte[] expected = readTimes(first, MIN_FREQUENCY);
+    waitForMemory(firstId, true);
+    // Read the second file more often, so that it replaces the first.
+    readTimes(second, MIN_FREQUENCY + 4);
+    waitForMemory(secondId, true);
+    GenericTestUtils.waitFor(
+        () -> readCache.isCachedOnSsd(bpid, firstId), 100, 30000);
+    assertFalse(readCache.isCachedInMemory(bpid, firstId));
+
+    assertArrayEquals(expected, DFSTestUtil.readFileBuffer(fs, first));
+    MetricsRecordBuilder rb = getMetrics(dn.getMetrics().name());
+    assertTrue(getLongCounter("ReadCacheSsdHits", rb) >= 1);
+    assertEquals(1, getLongCounter("ReadCacheMemoryEvictions", rb));
+
+    cluster.shutdown();
+    cluster = null;
+    assertTrue(unrelated.isFile());
+    final String[] cached =
+        new File(ssdDir, BlockReadCache.SSD_SUBDIR).list();
+    assertEquals(0, cached == null ? 0 : cached.length);
+  }
+}
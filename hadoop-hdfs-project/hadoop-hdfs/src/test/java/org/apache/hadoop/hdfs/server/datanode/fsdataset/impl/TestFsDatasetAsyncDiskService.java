@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.FsDatasetAsyncDiskService.calculateDeleteOpsPerSec;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi.FsVolumeReferences;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.Time;
+import org.junit.Test;
+
+/**
+ * Tests the scheduling of replica deletions in
+ * {@link FsDatasetAsyncDiskService}.
+ */
+public class TestFsDatasetAsyncDiskService {
+  private static final int NUM_FILES = 8;
+  private static final long OPS_PER_SEC = 2;
+
+  @Test
+  public void testCalculateDeleteOpsPerSec() {
+    // No backoff below the latency threshold, or when it is disabled.
+    assertEquals(100, calculateDeleteOpsPerSec(100, 20, 10.0));
+    assertEquals(100, calculateDeleteOpsPerSec(100, 0, 1000.0));
+    // The rate is reduced in proportion to the latency...
+    assertEquals(50, calculateDeleteOpsPerSec(100, 20, 40.0));
+    // ...but never by more than the maximum backoff factor, nor to 0.
+    assertEquals(6, calculateDeleteOpsPerSec(100, 20, 10000.0));
+    assertEquals(1, calculateDeleteOpsPerSec(2, 20, 10000.0));
+  }
+
+  @Test(timeout = 120000)
+  public void testDeletionsAreThrottled() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_DATANODE_DELETE_VOLUME_OPS_PER_SECOND_KEY,
+        OPS_PER_SEC);
+    conf.setLong(DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REDUNDANCY_INTERVAL_SECONDS_KEY, 1);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(1).storagesPerDatanode(1).build();
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      final String bpid = cluster.getNamesystem().getBlockPoolId();
+      final DataNode dn = cluster.getDataNodes().get(0);
+      final FsDatasetImpl dataset = (FsDatasetImpl) dn.getFSDataset();
+      final FsVolumeImpl volume;
+      try (FsVolumeReferences volumes = dataset.getFsVolumeReferences()) {
+        volume = (FsVolumeImpl) volumes.get(0);
+      }
+      for (int i = 0; i < NUM_FILES; i++) {
+        DFSTestUtil.createFile(fs, new Path("/file" + i), 1024, (short) 1, i);
+      }
+      for (int i = 0; i < NUM_FILES; i++) {
+        fs.delete(new Path("/file" + i), false);
+      }
+
+      // Wait for the first invalidations to reach the DataNode.
+      final AtomicLong maxPending = new AtomicLong();
+      GenericTestUtils.waitFor(() -> {
+        long pending = dataset.asyncDiskService.countPendingDeletions();
+        maxPending.set(Math.max(maxPending.get(), pending));
+        return pending > 0;
+      }, 10, 30000);
+      final long start = Time.monotonicNow();
+      GenericTestUtils.waitFor(() -> {
+        long pending = dataset.asyncDiskService.countPendingDeletions();
+        maxPending.set(Math.max(maxPending.get(), pending));
+        return dataset.volumeMap.size(bpid) == 0 && pending == 0;
+      }, 100, 60000);
+      long elapsedMs = Time.monotonicNow() - start;
+
+      // Past the first second, at most OPS_PER_SEC replicas are deleted per
+      // second.
+      assertTrue("Deletions were not throttled: " + elapsedMs + " ms",
+          elapsedMs >= (NUM_FILES / OPS_PER_SEC - 2) * 1000);
+      assertTrue(maxPending.get() > 1);
+      assertEquals(0, volume.getMetrics().getPendingDeletions());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testUnthrottledDeletionsUseVolumeExecutor() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REDUNDANCY_INTERVAL_SECONDS_KEY, 1);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      final String bpid = cluster.getNamesystem().getBlockPoolId();
+      final FsDatasetImpl dataset =
+          (FsDatasetImpl) cluster.getDataNodes().get(0).getFSDataset();
+      for (int i = 0; i < 4; i++) {
+        DFSTestUtil.createFile(fs, new Path("/file" + i), 1024, (short) 1, i);
+      }
+      for (int i = 0; i < 4; i++) {
+        fs.delete(new Path("/file" + i), false);
+      }
+      GenericTestUtils.waitFor(() -> dataset.volumeMap.size(bpid) == 0
+          && dataset.asyncDiskService.countPendingDeletions() == 0,
+          100, 60000);
+
+      for (Thread t : Thread.getAllStackTraces().keySet()) {
+        assertFalse(t.getName(),
+            t.getName().startsWith("Async disk deleter"));
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
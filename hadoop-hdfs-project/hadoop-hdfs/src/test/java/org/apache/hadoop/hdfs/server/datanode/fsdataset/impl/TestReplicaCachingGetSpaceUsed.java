@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ReplicaCachingGetSpaceUsed}.
+ */
+public class TestReplicaCachingGetSpaceUsed {
+  private static final long[] FILE_LENGTHS = {1, 1000, 4096, 10000 + 7};
+
+  private MiniDFSCluster cluster;
+  private FileSystem fs;
+  private String bpid;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setClass(DFSConfigKeys.DFS_DATANODE_SPACE_USED_CLASSNAME_KEY,
+        ReplicaCachingGetSpaceUsed.class, ReplicaCachingGetSpaceUsed.class);
+    conf.setLong(CommonConfigurationKeys.FS_DU_INTERVAL_KEY, 1000);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 4096);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1)
+        .storagesPerDatanode(1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    bpid = cluster.getNamesystem().getBlockPoolId();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  private FsVolumeImpl getVolume() throws IOException {
+    DataNode dn = cluster.getDataNodes().get(0);
+    try (FsDatasetSpi.FsVolumeReferences volumes =
+             dn.getFSDataset().getFsVolumeReferences()) {
+      FsVolumeSpi volume = volumes.get(0);
+      return (FsVolumeImpl) volume;
+    }
+  }
+
+  /**
+   * @return the expected space used by a file of the given length, with the
+   * default block size, checksum and bytes per checksum.
+   */
+  private static long expectedUsed(long fileLength) {
+    long used = 0;
+    for (long remaining = fileLength; remaining > 0; remaining -= 4096) {
+      long blockLength = Math.min(remaining, 4096);
+      used += blockLength + 7 + (blockLength + 511) / 512 * 4;
+    }
+    return used;
+  }
+
+  private void waitForUsed(final long expected) throws Exception {
+    GenericTestUtils.waitFor(() -> {
+      try {
+        return getVolume().getBlockPoolUsed(bpid) == expected;
+      } catch (IOException e) {
+        return false;
+      }
+    }, 100, 30000);
+  }
+
+  @Test(timeout = 120000)
+  public void testSpaceUsedFollowsReplicas() throws Exception {
+    long expected = 0;
+    for (int i = 0; i < FILE_LENGTHS.length; i++) {
+      DFSTestUtil.createFile(fs, new Path("/file" + i), FILE_LENGTHS[i],
+          (short) 1, i);
+      expected += expectedUsed(FILE_LENGTHS[i]);
+    }
+    waitForUsed(expected);
+
+    fs.delete(new Path("/file3"), false);
+    expected -= expectedUsed(FILE_LENGTHS[3]);
+    waitForUsed(expected);
+  }
+
+  @Test(timeout = 120000)
+  public void testSpaceUsedAfterRestart() throws Exception {
+    long expected = 0;
+    for (int i = 0; i < FILE_LENGTHS.length; i++) {
+      DFSTestUtil.createFile(fs, new Path("/file" + i), FILE_LENGTHS[i],
+          (short) 1, i);
+      expected += expectedUsed(FILE_LENGTHS[i]);
+    }
+    waitForUsed(expected);
+
+    // The cached value is ignored, the replicas read on startup are counted.
+    cluster.restartDataNode(0, true);
+    cluster.waitActive();
+    assertTrue(getVolume().getBlockPoolSlice(bpid).getDfsUsed() > 0);
+    assertEquals(expected, getVolume().getBlockPoolUsed(bpid));
+  }
+
+  @Test
+  public void testMetaFileLength() throws IOException {
+    FSCachingGetSpaceUsed.Builder builder = new FSCachingGetSpaceUsed.Builder();
+    builder.setPath(GenericTestUtils.getTestDir())
+        .setConf(new HdfsConfiguration());
+    ReplicaCachingGetSpaceUsed spaceUsed =
+        new ReplicaCachingGetSpaceUsed(builder);
+    assertEquals(7, spaceUsed.getMetaFileLength(0));
+    assertEquals(7 + 4, spaceUsed.getMetaFileLength(1));
+    assertEquals(7 + 4, spaceUsed.getMetaFileLength(512));
+    assertEquals(7 + 2 * 4, spaceUsed.getMetaFileLength(513));
+  }
+}
@@ -50,6 +50,7 @@
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -1612,6 +1613,144 @@ public void testResetThreadLocalCachedOps() throws IOException {
     }
   }
 
+  /**
+   * Edits logged by many threads while only a few may wait for a sync must
+   * all be synced, in order, and the limit must stay within its maximum.
+   */
+  @Test(timeout = 180000)
+  public void testAsyncMaxUnsyncedEdits() throws Exception {
+    if (!useAsyncEditLog) {
+      return;
+    }
+    final int maxUnsyncedEdits = 16;
+    final int numThreads = 20;
+    final int numDirs = 50;
+    Configuration conf = getConf();
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_MAX_UNSYNCED_EDITS,
+        maxUnsyncedEdits);
+    MiniDFSCluster cluster = null;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      List<Future<Void>> results = new ArrayList<>();
+      for (int i = 0; i < numThreads; i++) {
+        final int thread = i;
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            for (int j = 0; j < numDirs; j++) {
+              fs.mkdirs(new Path("/dir" + thread + "/" + j));
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> result : results) {
+        result.get();
+      }
+      FSEditLog editLog = cluster.getNamesystem().getEditLog();
+      assertTrue(editLog instanceof FSEditLogAsync);
+      assertTrue(((FSEditLogAsync) editLog).getUnsyncedEditsLimit()
+          <= maxUnsyncedEdits);
+      assertEquals(editLog.getLastWrittenTxId(), editLog.getSyncTxId());
+
+      cluster.restartNameNode();
+      for (int i = 0; i < numThreads; i++) {
+        assertEquals(numDirs, cluster.getFileSystem()
+            .listStatus(new Path("/dir" + i)).length);
+      }
+    } finally {
+      executor.shutdown();
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Once the load drops, the unsynced edits limit shrinks below the size of
+   * the groups synced during a burst; the edits must still all be synced.
+   */
+  @Test(timeout = 180000)
+  public void testAsyncUnsyncedEditsLimitShrinks() throws Exception {
+    if (!useAsyncEditLog) {
+      return;
+    }
+    final int raisedLimit = 8192;
+    final int numThreads = 20;
+    final int numDirs = 50;
+    Configuration conf = getConf();
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_MAX_UNSYNCED_EDITS,
+        64 * 1024);
+    MiniDFSCluster cluster = null;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      FSEditLogAsync editLog =
+          (FSEditLogAsync) cluster.getNamesystem().getEditLog();
+      editLog.setUnsyncedEditsLimit(raisedLimit);
+      // a burst lets large groups of edits be synced together.
+      List<Future<Void>> results = new ArrayList<>();
+      for (int i = 0; i < numThreads; i++) {
+        final int thread = i;
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            for (int j = 0; j < numDirs; j++) {
+              fs.mkdirs(new Path("/burst" + thread + "/" + j));
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> result : results) {
+        result.get();
+      }
+      // a single caller only has one edit waiting for each sync.
+      for (int i = 0; i < numDirs; i++) {
+        fs.mkdirs(new Path("/light/" + i));
+      }
+      assertTrue(editLog.getUnsyncedEditsLimit() < raisedLimit);
+      // and another burst after the limit shrank.
+      results.clear();
+      for (int i = 0; i < numThreads; i++) {
+        final int thread = i;
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            for (int j = 0; j < numDirs; j++) {
+              fs.mkdirs(new Path("/burst" + thread + "/" + (numDirs + j)));
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> result : results) {
+        result.get();
+      }
+      assertEquals(editLog.getLastWrittenTxId(), editLog.getSyncTxId());
+
+      cluster.restartNameNode();
+      assertEquals(numDirs, cluster.getFileSystem()
+          .listStatus(new Path("/light")).length);
+      for (int i = 0; i < numThreads; i++) {
+        assertEquals(2 * numDirs, cluster.getFileSystem()
+            .listStatus(new Path("/burst" + i)).length);
+      }
+    } finally {
+      executor.shutdown();
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   class TestAppender extends AppenderSkeleton {
     private final List<LoggingEvent> log = new ArrayList<>();
 
@@ -876,7 +876,8 @@ public void testRequestFileDescriptorsWhenULimit() throws Exception {
             return peerCache;
           });
 
-      Mockito.when(clientContext.getShortCircuitCache()).thenAnswer(
+      Mockito.when(clientContext.getShortCircuitCache(
+          Mockito.anyLong())).thenAnswer(
           (Answer<ShortCircuitCache>) shortCircuitCacheCall -> {
             ShortCircuitCache cache = Mockito.mock(ShortCircuitCache.class);
             Mockito.when(cache.allocShmSlot(
@@ -97,8 +97,10 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.SystemErasureCodingPolicies;
 import org.apache.hadoop.hdfs.server.namenode.FSImageTestUtil;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.INode;
 import org.apache.hadoop.hdfs.server.namenode.INodeFile;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeLayoutVersion;
+import org.apache.hadoop.hdfs.tools.offlineImageViewer.PBImageColumnarWriter.Column;
 import org.apache.hadoop.hdfs.web.WebHdfsFileSystem;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.net.NetUtils;
@@ -610,6 +612,126 @@ public void testPBDelimitedWriter() throws IOException, InterruptedException {
         new FileSystemTestHelper().getTestRootDir() + "/delimited.db");
   }
 
+  @Test
+  public void testPBDelimitedWriterMultiThread() throws Exception {
+    // All the threads write to the same output
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (PrintStream o = new PrintStream(output)) {
+      PBImageDelimitedTextWriter v = new PBImageDelimitedTextWriter(
+          new PrintStream[] {o}, "\t", "", 4);
+      v.visit(new RandomAccessFile(originalFsimage, "r"));
+    }
+    assertEquals(writtenFiles.keySet(),
+        getDelimitedFileNames(output.toByteArray()));
+
+    // Each thread writes to its own output
+    File outputFile = new File(tempDir, "delimited.tsv");
+    assertEquals(0, OfflineImageViewerPB.run(new String[] {"-i",
+        originalFsimage.getAbsolutePath(), "-o", outputFile.getAbsolutePath(),
+        "-p", "Delimited", "-m", "3"}));
+    Set<String> fileNames = new HashSet<>();
+    for (int i = 0; i < 3; i++) {
+      File shard = i == 0 ? outputFile :
+          new File(outputFile.getAbsolutePath() + "." + i);
+      fileNames.addAll(getDelimitedFileNames(FileUtils.readFileToByteArray(
+          shard)));
+    }
+    assertEquals(writtenFiles.keySet(), fileNames);
+
+    assertTrue(OfflineImageViewerPB.run(new String[] {"-i",
+        originalFsimage.getAbsolutePath(), "-o", "-", "-p", "Delimited",
+        "-m", "2", "-t", tempDir.getAbsolutePath()}) != 0);
+  }
+
+  @Test
+  public void testPBColumnarWriter() throws Exception {
+    File outputFile = new File(tempDir, "columnar");
+    try (PrintStream o = new PrintStream(outputFile)) {
+      PBImageColumnarWriter v = new PBImageColumnarWriter(o, "", 1, 7);
+      v.visit(new RandomAccessFile(originalFsimage, "r"));
+    }
+
+    Set<String> fileNames = new HashSet<>();
+    try (ColumnarImageReader reader = new ColumnarImageReader(outputFile)) {
+      assertTrue(reader.getNumRowGroups() > 1);
+      for (int i = 0; i < reader.getNumRowGroups(); i++) {
+        ColumnarImageReader.RowGroup rows = reader.readRowGroup(i);
+        assertTrue(rows.getNumRows() <= 7);
+        for (int row = 0; row < rows.getNumRows(); row++) {
+          // The statistics bound the values of the row group
+          long id = rows.getLong(Column.ID, row);
+          assertTrue(id >= reader.getMin(i, Column.ID));
+          assertTrue(id <= reader.getMax(i, Column.ID));
+          String parent = rows.getString(Column.PARENT, row);
+          assertTrue(parent.compareTo(
+              reader.getMinString(i, Column.PARENT)) >= 0);
+          assertTrue(parent.compareTo(
+              reader.getMaxString(i, Column.PARENT)) <= 0);
+
+          String path = rows.getPath(row);
+          fileNames.add(path);
+          if (path.equals("/dir0/file0")) {
+            FileStatus expected = writtenFiles.get(path);
+            assertEquals(INode.Type.FILE.getNumber(),
+                rows.getLong(Column.TYPE, row));
+            assertEquals(expected.getLen(),
+                rows.getLong(Column.FILE_SIZE, row));
+            assertEquals(expected.getReplication(),
+                rows.getLong(Column.REPLICATION, row));
+            assertEquals(expected.getBlockSize(),
+                rows.getLong(Column.PREFERRED_BLOCK_SIZE, row));
+            assertEquals(expected.getModificationTime(),
+                rows.getLong(Column.MODIFICATION_TIME, row));
+            assertEquals(expected.getAccessTime(),
+                rows.getLong(Column.ACCESS_TIME, row));
+            assertEquals(expected.getPermission().toShort(),
+                rows.getLong(Column.PERMISSION, row));
+            assertEquals(expected.getOwner(),
+                rows.getString(Column.USER_NAME, row));
+            assertEquals(expected.getGroup(),
+                rows.getString(Column.GROUP_NAME, row));
+          }
+        }
+      }
+    }
+    // writtenFiles does not contain root directory and "invalid XML char" dir.
+    for (Iterator<String> it = fileNames.iterator(); it.hasNext(); ) {
+      String filename = it.next();
+      if (filename.startsWith("/dirContainingInvalidXMLChar")
+          || filename.equals("/")) {
+        it.remove();
+      }
+    }
+    assertEquals(writtenFiles.keySet(), fileNames);
+
+    // The same inodes are written with multiple threads
+    File threadsOutputFile = new File(tempDir, "columnar.threads");
+    assertEquals(0, OfflineImageViewerPB.run(new String[] {"-i",
+        originalFsimage.getAbsolutePath(), "-o",
+        threadsOutputFile.getAbsolutePath(), "-p", "Columnar", "-m", "3"}));
+    try (ColumnarImageReader reader = new ColumnarImageReader(outputFile);
+        ColumnarImageReader threadsReader =
+            new ColumnarImageReader(threadsOutputFile)) {
+      // Every thread writes its own row groups
+      assertTrue(threadsReader.getNumRowGroups() >= 1);
+      assertTrue(threadsReader.getNumRowGroups() <= 3);
+      assertEquals(reader.getNumRows(), threadsReader.getNumRows());
+      assertEquals(readPaths(reader), readPaths(threadsReader));
+    }
+  }
+
+  private static Set<String> readPaths(ColumnarImageReader reader)
+      throws IOException {
+    Set<String> paths = new HashSet<>();
+    for (int i = 0; i < reader.getNumRowGroups(); i++) {
+      ColumnarImageReader.RowGroup rows = reader.readRowGroup(i);
+      for (int row = 0; row < rows.getNumRows(); row++) {
+        paths.add(rows.getPath(row));
+      }
+    }
+    return paths;
+  }
+
   @Test
   public void testInvalidProcessorOption() throws Exception {
     int status =
@@ -646,19 +768,28 @@ public void testOfflineImageViewerHelpMessage() throws Throwable {
 
   private void testPBDelimitedWriter(String db)
       throws IOException, InterruptedException {
-    final String DELIMITER = "\t";
     ByteArrayOutputStream output = new ByteArrayOutputStream();
 
     try (PrintStream o = new PrintStream(output)) {
       PBImageDelimitedTextWriter v =
-          new PBImageDelimitedTextWriter(o, DELIMITER, db);
+          new PBImageDelimitedTextWriter(o, "\t", db);
       v.visit(new RandomAccessFile(originalFsimage, "r"));
     }
 
+    assertEquals(writtenFiles.keySet(),
+        getDelimitedFileNames(output.toByteArray()));
+  }
+
+  /**
+   * Get the files in a tab delimited output, excluding the root directory and
+   * the "invalid XML char" dir.
+   */
+  private static Set<String> getDelimitedFileNames(byte[] output)
+      throws IOException {
+    final String DELIMITER = "\t";
     Set<String> fileNames = new HashSet<>();
     try (
-        ByteArrayInputStream input =
-            new ByteArrayInputStream(output.toByteArray());
+        ByteArrayInputStream input = new ByteArrayInputStream(output);
         BufferedReader reader =
             new BufferedReader(new InputStreamReader(input))) {
       String line;
@@ -683,7 +814,7 @@ private void testPBDelimitedWriter(String db)
         it.remove();
       }
     }
-    assertEquals(writtenFiles.keySet(), fileNames);
+    return fileNames;
   }
 
   private static void compareFile(FileStatus expected, FileStatus status) {
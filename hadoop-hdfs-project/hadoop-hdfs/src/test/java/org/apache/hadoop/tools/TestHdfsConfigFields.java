@@ -42,7 +42,13 @@ public void initializeMemberVariables() {
     xmlFilename = new String("hdfs-default.xml");
     configurationClasses = new Class[] { HdfsClientConfigKeys.class,
         HdfsClientConfigKeys.Failover.class,
-        HdfsClientConfigKeys.StripedRead.class, DFSConfigKeys.class,
+        HdfsClientConfigKeys.HedgedRead.class,
+        HdfsClientConfigKeys.MetadataCache.class,
+        HdfsClientConfigKeys.MultiplexedConnections.class,
+        HdfsClientConfigKeys.Read.ShortCircuit.class,
+        HdfsClientConfigKeys.StripedRead.class,
+        HdfsClientConfigKeys.VectoredRead.class,
+        HdfsClientConfigKeys.Write.class, DFSConfigKeys.class,
         HdfsClientConfigKeys.BlockWrite.ReplaceDatanodeOnFailure.class };
 
     // Set error modes